@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.common.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-operation cost of {@link FastByIDMap} and {@link FastIDSet}, which back every data model and
+ * recommender. Each invocation performs {@link #NUM_OPERATIONS} operations on random IDs, half of which are
+ * present, so hits and misses are both measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastIDCollectionsBenchmark {
+
+  private static final int NUM_OPERATIONS = 1024;
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  private FastByIDMap<Long> map;
+  private FastIDSet set;
+  private long[] probeIDs;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(42L);
+    map = new FastByIDMap<Long>(size);
+    set = new FastIDSet(size);
+    long[] presentIDs = new long[size];
+    for (int i = 0; i < size; i++) {
+      long id = random.nextLong();
+      presentIDs[i] = id;
+      map.put(id, id);
+      set.add(id);
+    }
+    probeIDs = new long[NUM_OPERATIONS];
+    for (int i = 0; i < NUM_OPERATIONS; i++) {
+      probeIDs[i] = (i & 1) == 0 ? presentIDs[random.nextInt(size)] : random.nextLong();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OPERATIONS)
+  public int mapGet() {
+    int found = 0;
+    for (long id : probeIDs) {
+      if (map.get(id) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /** Puts then removes the probe IDs, leaving the map as it was */
+  @Benchmark
+  @OperationsPerInvocation(2 * NUM_OPERATIONS)
+  public int mapPutRemove() {
+    int added = 0;
+    for (long id : probeIDs) {
+      if (map.put(id, id) == null) {
+        added++;
+      }
+    }
+    for (int i = 1; i < probeIDs.length; i += 2) {
+      map.remove(probeIDs[i]);
+    }
+    return added;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_OPERATIONS)
+  public int setContains() {
+    int found = 0;
+    for (long id : probeIDs) {
+      if (set.contains(id)) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /** Adds then removes the probe IDs, leaving the set as it was */
+  @Benchmark
+  @OperationsPerInvocation(2 * NUM_OPERATIONS)
+  public int setAddRemove() {
+    int added = 0;
+    for (long id : probeIDs) {
+      if (set.add(id)) {
+        added++;
+      }
+    }
+    for (int i = 1; i < probeIDs.length; i += 2) {
+      set.remove(probeIDs[i]);
+    }
+    return added;
+  }
+
+  @Benchmark
+  public long setIterate() {
+    long sum = 0;
+    LongPrimitiveIterator it = set.iterator();
+    while (it.hasNext()) {
+      sum += it.nextLong();
+    }
+    return sum;
+  }
+
+}
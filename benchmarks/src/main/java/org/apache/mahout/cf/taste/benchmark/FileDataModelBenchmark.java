@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to load a {@link FileDataModel} from a file of synthetic preferences, with one and several parsing
+ * threads.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileDataModelBenchmark {
+
+  @Param("100000")
+  public int numUsers;
+
+  @Param("10000")
+  public int numItems;
+
+  @Param("20")
+  public int prefsPerUser;
+
+  @Param({"1", "4"})
+  public int numParsingThreads;
+
+  private File dataFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    dataFile = File.createTempFile("mahout-benchmark", ".csv");
+    SyntheticData.writeFile(SyntheticData.preferences(numUsers, numItems, prefsPerUser, 42L), dataFile);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (!dataFile.delete()) {
+      dataFile.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public FileDataModel load() throws IOException {
+    return new FileDataModel(dataFile, false, 0L, numParsingThreads);
+  }
+
+}
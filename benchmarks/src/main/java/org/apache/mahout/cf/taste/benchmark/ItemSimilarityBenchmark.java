@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.CityBlockSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one {@link ItemSimilarity#itemSimilarity(long, long)} and of one item against many with
+ * {@link ItemSimilarity#itemSimilarities(long, long[])}, for each {@link ItemSimilarity} implementation.
+ * Pairs are drawn from the most popular items, whose long preference lists dominate the cost of item-based
+ * recommendation. {@link #itemSimilaritiesPairwise()} computes the same as {@link #itemSimilarities()} one
+ * pair at a time, as a baseline for the one-vs-many implementations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemSimilarityBenchmark {
+
+  private static final int NUM_OTHER_ITEMS = 100;
+
+  @Param({"pearson", "uncenteredCosine", "euclidean", "logLikelihood", "tanimoto", "cityBlock",
+          "generic", "caching"})
+  public String similarity;
+
+  @Param("5000")
+  public int numUsers;
+
+  @Param("1000")
+  public int numItems;
+
+  @Param("20")
+  public int prefsPerUser;
+
+  /** Whether to read preferences from a {@link GenericBooleanPrefDataModel}, which stores sets of IDs */
+  @Param({"false", "true"})
+  public boolean booleanPrefs;
+
+  private ItemSimilarity itemSimilarity;
+  private long[] otherItemIDs;
+  private int next;
+
+  @Setup
+  public void setUp() throws TasteException {
+    FastByIDMap<PreferenceArray> data = SyntheticData.preferences(numUsers, numItems, prefsPerUser, 42L);
+    DataModel dataModel = booleanPrefs
+        ? new GenericBooleanPrefDataModel(GenericBooleanPrefDataModel.toDataMap(data))
+        : new GenericDataModel(data);
+    itemSimilarity = newSimilarity(similarity, dataModel);
+    otherItemIDs = new long[Math.min(NUM_OTHER_ITEMS, numItems - 1)];
+    for (int i = 0; i < otherItemIDs.length; i++) {
+      otherItemIDs[i] = i + 2;
+    }
+  }
+
+  private static ItemSimilarity newSimilarity(String name, DataModel dataModel) throws TasteException {
+    if ("pearson".equals(name)) {
+      return new PearsonCorrelationSimilarity(dataModel);
+    }
+    if ("uncenteredCosine".equals(name)) {
+      return new UncenteredCosineSimilarity(dataModel);
+    }
+    if ("euclidean".equals(name)) {
+      return new EuclideanDistanceSimilarity(dataModel);
+    }
+    if ("logLikelihood".equals(name)) {
+      return new LogLikelihoodSimilarity(dataModel);
+    }
+    if ("tanimoto".equals(name)) {
+      return new TanimotoCoefficientSimilarity(dataModel);
+    }
+    if ("cityBlock".equals(name)) {
+      return new CityBlockSimilarity(dataModel);
+    }
+    if ("generic".equals(name)) {
+      return new GenericItemSimilarity(new LogLikelihoodSimilarity(dataModel), dataModel);
+    }
+    if ("caching".equals(name)) {
+      return new CachingItemSimilarity(new LogLikelihoodSimilarity(dataModel), dataModel);
+    }
+    throw new IllegalArgumentException("Unknown similarity " + name);
+  }
+
+  @Benchmark
+  public double itemSimilarity() throws TasteException {
+    int i = next;
+    next = i + 1 == otherItemIDs.length ? 0 : i + 1;
+    return itemSimilarity.itemSimilarity(1, otherItemIDs[i]);
+  }
+
+  @Benchmark
+  public double[] itemSimilarities() throws TasteException {
+    return itemSimilarity.itemSimilarities(1, otherItemIDs);
+  }
+
+  @Benchmark
+  public double[] itemSimilaritiesPairwise() throws TasteException {
+    double[] result = new double[otherItemIDs.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = itemSimilarity.itemSimilarity(1, otherItemIDs[i]);
+    }
+    return result;
+  }
+
+}
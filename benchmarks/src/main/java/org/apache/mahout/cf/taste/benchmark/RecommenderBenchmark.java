@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.CompactMemoryDiffStorage;
+import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.svd.ALSWRFactorizer;
+import org.apache.mahout.cf.taste.impl.recommender.svd.SVDRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Latency of {@link org.apache.mahout.cf.taste.recommender.Recommender#recommend(long, int)}, and of the batch
+ * {@link AbstractRecommender#recommend(long[], int, org.apache.mahout.cf.taste.recommender.IDRescorer, int)}
+ * per block of users, for each kind of recommender over {@link SyntheticData}. Each thread cycles through the
+ * users, so results cover users with few and many candidate items alike.
+ * </p>
+ *
+ * <p>
+ * Recommenders are configured as they commonly are in production: the item-based recommender uses
+ * precomputed log-likelihood similarities, the user-based one Pearson correlation over the 50 nearest users,
+ * and the SVD recommender an ALS-WR factorization with 10 features.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecommenderBenchmark {
+
+  private static final int BLOCK_SIZE = 64;
+
+  @Param({"itemBased", "userBased", "svd", "slopeOne", "slopeOneCompact"})
+  public String recommender;
+
+  @Param("2000")
+  public int numUsers;
+
+  @Param("1000")
+  public int numItems;
+
+  @Param("20")
+  public int prefsPerUser;
+
+  @Param("10")
+  public int howMany;
+
+  private AbstractRecommender theRecommender;
+  private long[] userIDs;
+
+  @Setup
+  public void setUp() throws TasteException {
+    DataModel dataModel = new GenericDataModel(SyntheticData.preferences(numUsers, numItems, prefsPerUser, 42L));
+    if ("itemBased".equals(recommender)) {
+      GenericItemSimilarity similarity =
+          new GenericItemSimilarity(new LogLikelihoodSimilarity(dataModel), dataModel, 100 * numItems);
+      theRecommender = new GenericItemBasedRecommender(dataModel, similarity);
+    } else if ("userBased".equals(recommender)) {
+      UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+      theRecommender = new GenericUserBasedRecommender(dataModel,
+          new NearestNUserNeighborhood(50, similarity, dataModel), similarity);
+    } else if ("svd".equals(recommender)) {
+      theRecommender = new SVDRecommender(dataModel, new ALSWRFactorizer(dataModel, 10, 0.065, 5));
+    } else if ("slopeOne".equals(recommender)) {
+      theRecommender = new SlopeOneRecommender(dataModel);
+    } else if ("slopeOneCompact".equals(recommender)) {
+      theRecommender = new SlopeOneRecommender(dataModel, Weighting.WEIGHTED, Weighting.WEIGHTED,
+          new CompactMemoryDiffStorage(dataModel, Weighting.WEIGHTED, Long.MAX_VALUE));
+    } else {
+      throw new IllegalArgumentException("Unknown recommender " + recommender);
+    }
+    userIDs = new long[numUsers];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = i + 1;
+    }
+  }
+
+  @Benchmark
+  public List<RecommendedItem> recommend(UserCursor cursor) throws TasteException {
+    return theRecommender.recommend(userIDs[cursor.next(userIDs.length)], howMany);
+  }
+
+  @Benchmark
+  public FastByIDMap<List<RecommendedItem>> recommendBlock(UserCursor cursor) throws TasteException {
+    long[] block = new long[BLOCK_SIZE];
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      block[i] = userIDs[cursor.next(userIDs.length)];
+    }
+    return theRecommender.recommend(block, howMany, null, 1);
+  }
+
+  /** Position of one thread in the list of users */
+  @State(Scope.Thread)
+  public static class UserCursor {
+
+    private int position;
+
+    int next(int numUsers) {
+      int current = position;
+      position = current + 1 == numUsers ? 0 : current + 1;
+      return current;
+    }
+  }
+
+}
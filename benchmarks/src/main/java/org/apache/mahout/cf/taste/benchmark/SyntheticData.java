@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+
+/**
+ * Generates reproducible preference data for the benchmarks. Users have IDs 1 to numUsers and items 1 to
+ * numItems. Item popularity is skewed, as in real data: an item's chance of being chosen falls with its ID.
+ * Ratings are 1 to 5, and depend partly on a per-user and per-item bias so that similarities are not all
+ * noise.
+ */
+public final class SyntheticData {
+
+  private SyntheticData() {
+  }
+
+  /**
+   * @return preferences of each user, by user ID
+   */
+  public static FastByIDMap<PreferenceArray> preferences(int numUsers, int numItems, int prefsPerUser, long seed) {
+    Preconditions.checkArgument(numUsers >= 1, "numUsers must be at least 1");
+    Preconditions.checkArgument(numItems >= 1, "numItems must be at least 1");
+    Preconditions.checkArgument(prefsPerUser >= 1 && prefsPerUser <= numItems,
+        "prefsPerUser must be between 1 and numItems");
+    Random random = RandomUtils.getRandom(seed);
+    double[] itemBiases = new double[numItems + 1];
+    for (int itemID = 1; itemID <= numItems; itemID++) {
+      itemBiases[itemID] = random.nextGaussian();
+    }
+    FastByIDMap<PreferenceArray> data = new FastByIDMap<PreferenceArray>(numUsers);
+    for (long userID = 1; userID <= numUsers; userID++) {
+      double userBias = random.nextGaussian();
+      FastIDSet itemIDs = new FastIDSet(prefsPerUser);
+      while (itemIDs.size() < prefsPerUser) {
+        // Squaring a uniform variate favours low IDs
+        double u = random.nextDouble();
+        itemIDs.add(1 + (long) (u * u * numItems));
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray(prefsPerUser);
+      prefs.setUserID(0, userID);
+      int i = 0;
+      for (long itemID : itemIDs) {
+        double rating = 3.0 + userBias + itemBiases[(int) itemID] + random.nextGaussian();
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, (float) Math.max(1.0, Math.min(5.0, Math.rint(rating))));
+        i++;
+      }
+      data.put(userID, prefs);
+    }
+    return data;
+  }
+
+  /**
+   * Writes preferences in the format read by {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}.
+   */
+  public static void writeFile(FastByIDMap<PreferenceArray> data, File file) throws IOException {
+    Writer writer = Files.newWriter(file, Charsets.UTF_8);
+    boolean threw = true;
+    try {
+      for (Map.Entry<Long,PreferenceArray> entry : data.entrySet()) {
+        PreferenceArray prefs = entry.getValue();
+        for (int i = 0; i < prefs.length(); i++) {
+          writer.write(prefs.getUserID(i) + "," + prefs.getItemID(i) + ',' + prefs.getValue(i) + '\n');
+        }
+      }
+      threw = false;
+    } finally {
+      Closeables.close(writer, threw);
+    }
+  }
+
+}
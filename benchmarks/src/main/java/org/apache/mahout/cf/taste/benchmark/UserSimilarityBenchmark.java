@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.similarity.CachingUserSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.CityBlockSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.SpearmanCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one {@link UserSimilarity#userSimilarity(long, long)}, and of one user against many with
+ * {@link BulkUserSimilarity#userSimilarities(long, long[])} or pair by pair, for each {@link UserSimilarity}
+ * implementation; those which are not a {@link BulkUserSimilarity} are always computed pair by pair. Single
+ * calls pair user 1 with the next of the other users in turn, as a user neighborhood does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserSimilarityBenchmark {
+
+  private static final int NUM_OTHER_USERS = 100;
+
+  @Param({"pearson", "uncenteredCosine", "euclidean", "spearman", "logLikelihood", "tanimoto", "cityBlock",
+          "caching"})
+  public String similarity;
+
+  @Param("5000")
+  public int numUsers;
+
+  @Param("1000")
+  public int numItems;
+
+  @Param("20")
+  public int prefsPerUser;
+
+  private UserSimilarity userSimilarity;
+  private long nextUserID;
+  private long[] otherUserIDs;
+
+  @Setup
+  public void setUp() throws TasteException {
+    DataModel dataModel = new GenericDataModel(SyntheticData.preferences(numUsers, numItems, prefsPerUser, 42L));
+    if ("pearson".equals(similarity)) {
+      userSimilarity = new PearsonCorrelationSimilarity(dataModel);
+    } else if ("uncenteredCosine".equals(similarity)) {
+      userSimilarity = new UncenteredCosineSimilarity(dataModel);
+    } else if ("euclidean".equals(similarity)) {
+      userSimilarity = new EuclideanDistanceSimilarity(dataModel);
+    } else if ("spearman".equals(similarity)) {
+      userSimilarity = new SpearmanCorrelationSimilarity(dataModel);
+    } else if ("logLikelihood".equals(similarity)) {
+      userSimilarity = new LogLikelihoodSimilarity(dataModel);
+    } else if ("tanimoto".equals(similarity)) {
+      userSimilarity = new TanimotoCoefficientSimilarity(dataModel);
+    } else if ("cityBlock".equals(similarity)) {
+      userSimilarity = new CityBlockSimilarity(dataModel);
+    } else if ("caching".equals(similarity)) {
+      userSimilarity = new CachingUserSimilarity(new PearsonCorrelationSimilarity(dataModel), dataModel);
+    } else {
+      throw new IllegalArgumentException("Unknown similarity " + similarity);
+    }
+    nextUserID = 2;
+    otherUserIDs = new long[Math.min(NUM_OTHER_USERS, numUsers - 1)];
+    for (int i = 0; i < otherUserIDs.length; i++) {
+      otherUserIDs[i] = i + 2;
+    }
+  }
+
+  @Benchmark
+  public double userSimilarity() throws TasteException {
+    long userID = nextUserID;
+    nextUserID = userID == numUsers ? 2 : userID + 1;
+    return userSimilarity.userSimilarity(1, userID);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public double[] userSimilarities() throws TasteException {
+    if (userSimilarity instanceof BulkUserSimilarity) {
+      return ((BulkUserSimilarity) userSimilarity).userSimilarities(1, otherUserIDs);
+    }
+    return userSimilaritiesPairwise();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public double[] userSimilaritiesPairwise() throws TasteException {
+    double[] result = new double[otherUserIDs.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = userSimilarity.userSimilarity(1, otherUserIDs[i]);
+    }
+    return result;
+  }
+
+}
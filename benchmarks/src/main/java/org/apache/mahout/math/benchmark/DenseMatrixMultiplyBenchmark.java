@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Products of square {@link DenseMatrix}es, computed by the blocked, multi-threaded {@link DenseMatrix} methods
+ * and by the generic triple loop over {@link Matrix#getQuick(int, int)} which {@link DenseMatrix} used to
+ * inherit from {@link org.apache.mahout.math.AbstractMatrix}. The generic loop takes minutes at the largest
+ * size; exclude it there with {@code -e naive} when only the new methods are of interest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DenseMatrixMultiplyBenchmark {
+
+  @Param({"50", "200", "1000", "5000"})
+  public int size;
+
+  private DenseMatrix a;
+  private DenseMatrix b;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(42L);
+    a = randomMatrix(random, size);
+    b = randomMatrix(random, size);
+  }
+
+  private static DenseMatrix randomMatrix(Random random, int size) {
+    DenseMatrix m = new DenseMatrix(size, size);
+    for (int row = 0; row < size; row++) {
+      for (int column = 0; column < size; column++) {
+        m.setQuick(row, column, random.nextGaussian());
+      }
+    }
+    return m;
+  }
+
+  @Benchmark
+  public Matrix times() {
+    return a.times(b);
+  }
+
+  @Benchmark
+  public Matrix transposeTimesSelf() {
+    return a.transposeTimes(a);
+  }
+
+  @Benchmark
+  public Matrix timesTranspose() {
+    return a.timesTranspose(b);
+  }
+
+  @Benchmark
+  public Matrix naiveTimes() {
+    return naiveTimes(a, b);
+  }
+
+  @Benchmark
+  public Matrix naiveTransposeTimesSelf() {
+    return naiveTimes(a.transpose(), a);
+  }
+
+  /** The generic product of {@code AbstractMatrix.times(Matrix)}. */
+  private static Matrix naiveTimes(Matrix left, Matrix right) {
+    int columns = left.columnSize();
+    int rows = left.rowSize();
+    int otherColumns = right.columnSize();
+    Matrix result = left.like(rows, otherColumns);
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < otherColumns; col++) {
+        double sum = 0.0;
+        for (int k = 0; k < columns; k++) {
+          sum += left.getQuick(row, k) * right.getQuick(k, col);
+        }
+        result.setQuick(row, col, sum);
+      }
+    }
+    return result;
+  }
+
+}
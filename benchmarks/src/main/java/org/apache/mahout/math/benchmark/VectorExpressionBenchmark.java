@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Typical distance and update expressions from clustering and SGD code, computed eagerly by chained
+ * {@link Vector} calls, which create a vector per step, and lazily by {@link VectorExpression}, in one pass.
+ * Points and gradients are dense, or sparse with 1% non-zeros; centroids and weights are always dense.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorExpressionBenchmark {
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"dense", "random", "sequential"})
+  public String kind;
+
+  private Vector point;
+  private Vector centroid;
+  private Vector weights;
+  private Vector bias;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(42L);
+    if ("dense".equals(kind)) {
+      point = new DenseVector(size);
+    } else if ("random".equals(kind)) {
+      point = new RandomAccessSparseVector(size);
+    } else {
+      point = new SequentialAccessSparseVector(size);
+    }
+    int numNonZeroes = "dense".equals(kind) ? size : size / 100;
+    for (int i = 0; i < numNonZeroes; i++) {
+      point.setQuick("dense".equals(kind) ? i : random.nextInt(size), random.nextGaussian());
+    }
+    centroid = randomDense(random, size);
+    weights = randomDense(random, size);
+    bias = randomDense(random, size);
+  }
+
+  private static Vector randomDense(Random random, int size) {
+    Vector v = new DenseVector(size);
+    for (int i = 0; i < size; i++) {
+      v.setQuick(i, random.nextGaussian());
+    }
+    return v;
+  }
+
+  @Benchmark
+  public double squaredDistanceEager() {
+    return point.minus(centroid).getLengthSquared();
+  }
+
+  @Benchmark
+  public double squaredDistanceLazy() {
+    return VectorExpression.of(point).minus(centroid).getLengthSquared();
+  }
+
+  @Benchmark
+  public Vector affineEager() {
+    return point.minus(centroid).times(weights).plus(bias);
+  }
+
+  @Benchmark
+  public Vector affineLazy() {
+    return VectorExpression.of(point).minus(centroid).times(weights).plus(bias).materialize();
+  }
+
+  @Benchmark
+  public Vector updateEager() {
+    return weights.assign(weights.plus(point.times(-1.0e-6)));
+  }
+
+  @Benchmark
+  public Vector updateLazy() {
+    return VectorExpression.of(weights).plusTimes(point, -1.0e-6).assignTo(weights);
+  }
+
+}
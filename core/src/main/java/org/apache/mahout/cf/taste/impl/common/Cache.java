@@ -21,12 +21,19 @@ import com.google.common.base.Preconditions;
 import org.apache.mahout.cf.taste.common.TasteException;
 
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
- * An efficient Map-like class which caches values for keys. Values are not "put" into a ;
+ * An efficient Map-like class which caches values for keys. Values are not usually "put" into a cache;
  * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
- * value for a given key.
+ * value for a given key. A caller which loaded values more efficiently itself can still
+ * {@link #put(Object, Object)} them.
  * </p>
  *
  * <p>
@@ -34,6 +41,14 @@ import java.util.Iterator;
  * </p>
  *
  * <p>
+ * The cache is safe for use by many threads at once. Entries are spread over a number of independently locked
+ * segments, each a size-limited {@link FastMap} which evicts entries that have not been recently accessed, so
+ * that threads working on different keys rarely contend. Concurrent misses on the same key are coalesced:
+ * the value is retrieved once, and the other callers wait for and share that result. The number of hits,
+ * misses and evictions is counted, for monitoring.
+ * </p>
+ *
+ * <p>
  * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
  * Google Summer of Code 2007 project.
  * </p>
@@ -41,9 +56,15 @@ import java.util.Iterator;
 public final class Cache<K,V> implements Retriever<K,V> {
 
   private static final Object NULL = new Object();
+  private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
   
-  private final FastMap<K,V> cache;
+  private final FastMap<K,V>[] segments;
+  private final int segmentMask;
+  private final ConcurrentMap<K,FutureTask<V>> loadingValues;
   private final Retriever<? super K,? extends V> retriever;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+  private final AtomicLong evictionCount;
   
   /**
    * <p>
@@ -68,10 +89,44 @@ public final class Cache<K,V> implements Retriever<K,V> {
    *          maximum number of entries the cache will store before evicting some
    */
   public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
+    this(retriever, maxEntries, DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}, with given maximum size, tuned for the given
+   * number of concurrently accessing threads.
+   * </p>
+   *
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some. The limit is enforced
+   *          per segment, so the cache may evict slightly before it is reached if keys are unevenly spread.
+   * @param concurrencyLevel
+   *          expected number of threads using the cache at once; the cache is split into about this many
+   *          independently locked segments, but never more than {@code maxEntries}
+   */
+  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries, int concurrencyLevel) {
     Preconditions.checkArgument(retriever != null, "retriever is null");
     Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
-    cache = new FastMap<K, V>(11, maxEntries);
+    Preconditions.checkArgument(concurrencyLevel >= 1, "concurrencyLevel must be at least 1");
+    int numSegments = 1;
+    while (numSegments < concurrencyLevel && numSegments << 1 <= maxEntries) {
+      numSegments <<= 1;
+    }
+    int maxEntriesPerSegment =
+        maxEntries == FastMap.NO_MAX_SIZE ? FastMap.NO_MAX_SIZE : (maxEntries + numSegments - 1) / numSegments;
+    segments = (FastMap<K,V>[]) new FastMap[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new FastMap<K,V>(11, maxEntriesPerSegment);
+    }
+    segmentMask = numSegments - 1;
+    loadingValues = new ConcurrentHashMap<K,FutureTask<V>>(numSegments, 0.75f, numSegments);
     this.retriever = retriever;
+    hitCount = new AtomicLong();
+    missCount = new AtomicLong();
+    evictionCount = new AtomicLong();
   }
   
   /**
@@ -87,16 +142,36 @@ public final class Cache<K,V> implements Retriever<K,V> {
    */
   @Override
   public V get(K key) throws TasteException {
+    FastMap<K,V> segment = segmentFor(key);
     V value;
-    synchronized (cache) {
-      value = cache.get(key);
+    synchronized (segment) {
+      value = segment.get(key);
     }
     if (value == null) {
-      return getAndCacheValue(key);
+      missCount.incrementAndGet();
+      value = getAndCacheValue(key, segment);
+    } else {
+      hitCount.incrementAndGet();
     }
     return value == NULL ? null : value;
   }
   
+  /**
+   * <p>
+   * Tells whether a value is cached for a given key, without loading it, or counting a hit or miss.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   * @return true if a value is cached for that key
+   */
+  public boolean containsKey(K key) {
+    FastMap<K,V> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.containsKey(key);
+    }
+  }
+
   /**
    * <p>
    * Uncaches any existing value for a given key.
@@ -106,8 +181,32 @@ public final class Cache<K,V> implements Retriever<K,V> {
    *          cache key
    */
   public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
+    FastMap<K,V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.remove(key);
+    }
+  }
+
+  /**
+   * <p>
+   * Caches a value which the caller retrieved itself, for example along with the values for many other keys
+   * at once, replacing any existing value for the key.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   * @param value
+   *          value for that key, as the {@link Retriever} would have returned it
+   */
+  public void put(K key, V value) {
+    FastMap<K,V> segment = segmentFor(key);
+    synchronized (segment) {
+      boolean replacing = segment.containsKey(key);
+      int sizeBefore = segment.size();
+      segment.put(key, value == null ? (V) NULL : value);
+      if (!replacing && segment.size() == sizeBefore) {
+        evictionCount.incrementAndGet();
+      }
     }
   }
 
@@ -115,12 +214,14 @@ public final class Cache<K,V> implements Retriever<K,V> {
    * Clears all cache entries whose key matches the given predicate.
    */
   public void removeKeysMatching(MatchPredicate<K> predicate) {
-    synchronized (cache) {
-      Iterator<K> it = cache.keySet().iterator();
-      while (it.hasNext()) {
-        K key = it.next();
-        if (predicate.matches(key)) {
-          it.remove();
+    for (FastMap<K,V> segment : segments) {
+      synchronized (segment) {
+        Iterator<K> it = segment.keySet().iterator();
+        while (it.hasNext()) {
+          K key = it.next();
+          if (predicate.matches(key)) {
+            it.remove();
+          }
         }
       }
     }
@@ -130,12 +231,14 @@ public final class Cache<K,V> implements Retriever<K,V> {
    * Clears all cache entries whose value matches the given predicate.
    */
   public void removeValueMatching(MatchPredicate<V> predicate) {
-    synchronized (cache) {
-      Iterator<V> it = cache.values().iterator();
-      while (it.hasNext()) {
-        V value = it.next();
-        if (predicate.matches(value)) {
-          it.remove();
+    for (FastMap<K,V> segment : segments) {
+      synchronized (segment) {
+        Iterator<V> it = segment.values().iterator();
+        while (it.hasNext()) {
+          V value = it.next();
+          if (predicate.matches(value)) {
+            it.remove();
+          }
         }
       }
     }
@@ -147,25 +250,151 @@ public final class Cache<K,V> implements Retriever<K,V> {
    * </p>
    */
   public void clear() {
-    synchronized (cache) {
-      cache.clear();
+    for (FastMap<K,V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
     }
   }
+
+  /**
+   * @return number of entries currently cached
+   */
+  public int size() {
+    int size = 0;
+    for (FastMap<K,V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return number of calls to {@link #get(Object)} answered from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of calls to {@link #get(Object)} which did not find a cached value. Callers which waited
+   *  on another thread's retrieval of the same key are counted here too.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return number of entries evicted to respect the maximum size; does not count explicit removals
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * @return fraction of calls to {@link #get(Object)} answered from the cache, or {@link Double#NaN} if it has
+   *  not been used yet
+   */
+  public double getHitRate() {
+    long hits = hitCount.get();
+    long total = hits + missCount.get();
+    return total == 0 ? Double.NaN : (double) hits / total;
+  }
+
+  /**
+   * Resets hit, miss and eviction counts to zero.
+   */
+  public void resetStatistics() {
+    hitCount.set(0L);
+    missCount.set(0L);
+    evictionCount.set(0L);
+  }
+
+  private FastMap<K,V> segmentFor(Object key) {
+    // Spread bits so that keys with poor low-order hash bits still use all segments
+    int h = key.hashCode();
+    h += (h << 15) ^ 0xffffcd7d;
+    h ^= h >>> 10;
+    h += h << 3;
+    h ^= h >>> 6;
+    h += (h << 2) + (h << 14);
+    h ^= h >>> 16;
+    return segments[h & segmentMask];
+  }
   
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    if (value == null) {
-      value = (V) NULL;
+  private V getAndCacheValue(final K key, FastMap<K,V> segment) throws TasteException {
+    FutureTask<V> loading = new FutureTask<V>(new Callable<V>() {
+      @Override
+      public V call() throws TasteException {
+        return retriever.get(key);
+      }
+    });
+    FutureTask<V> existingLoading = loadingValues.putIfAbsent(key, loading);
+    if (existingLoading != null) {
+      return waitFor(existingLoading);
+    }
+    try {
+      // Another thread may have finished loading this key between our miss and claiming the load
+      V value;
+      synchronized (segment) {
+        value = segment.get(key);
+      }
+      if (value != null) {
+        return value;
+      }
+      loading.run();
+      value = waitFor(loading);
+      if (value == null) {
+        value = (V) NULL;
+      }
+      synchronized (segment) {
+        int sizeBefore = segment.size();
+        segment.put(key, value);
+        if (segment.size() == sizeBefore) {
+          evictionCount.incrementAndGet();
+        }
+      }
+      return value;
+    } finally {
+      loadingValues.remove(key, loading);
     }
-    synchronized (cache) {
-      cache.put(key, value);
+  }
+
+  private static <V> V waitFor(FutureTask<V> loading) throws TasteException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return loading.get();
+        } catch (InterruptedException ie) {
+          // The retrieval is running in another thread, and must complete; keep waiting for it
+          interrupted = true;
+        } catch (ExecutionException ee) {
+          Throwable cause = ee.getCause();
+          if (cause instanceof TasteException) {
+            throw (TasteException) cause;
+          }
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new TasteException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
-    return value;
   }
   
   @Override
   public String toString() {
-    return "Cache[retriever:" + retriever + ']';
+    return "Cache[retriever:" + retriever + ", hits:" + hitCount + ", misses:" + missCount
+        + ", evictions:" + evictionCount + ']';
   }
 
   /**
@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A bounded min-heap of (long ID, double value) pairs, backed by parallel primitive arrays, which retains the
+ * {@code capacity} entries with the highest values offered to it. It is the primitive counterpart of the
+ * "keep the top N in a {@link java.util.PriorityQueue}" idiom, and creates no garbage while entries are
+ * offered; storage grows lazily up to the capacity so that a large capacity costs nothing if few entries
+ * arrive.
+ * </p>
+ *
+ * <p>
+ * Entries with equal values are ordered by ascending ID, so that results are deterministic. Once full, an
+ * entry is only accepted if its value is strictly greater than the current lowest value. {@link #sort()}
+ * turns the heap in place into a list ordered from highest to lowest value, readable through
+ * {@link #getID(int)} and {@link #getValue(int)}.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class LongDoubleMinHeap {
+
+  private static final int DEFAULT_INITIAL_SIZE = 16;
+
+  private final int capacity;
+  private long[] ids;
+  private double[] values;
+  private int size;
+  private boolean sorted;
+
+  public LongDoubleMinHeap(int capacity) {
+    Preconditions.checkArgument(capacity >= 1, "capacity must be at least 1");
+    this.capacity = capacity;
+    int initialSize = Math.min(capacity, DEFAULT_INITIAL_SIZE);
+    this.ids = new long[initialSize];
+    this.values = new double[initialSize];
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isFull() {
+    return size == capacity;
+  }
+
+  /**
+   * @return the lowest value currently retained, or {@link Double#NEGATIVE_INFINITY} if the heap is not yet
+   *  full, meaning that any value would be accepted
+   */
+  public double threshold() {
+    return size < capacity ? Double.NEGATIVE_INFINITY : values[0];
+  }
+
+  /**
+   * @return ID of the entry with the lowest value
+   */
+  public long peekID() {
+    Preconditions.checkState(size > 0, "heap is empty");
+    return ids[0];
+  }
+
+  /**
+   * @return lowest value in the heap
+   */
+  public double peekValue() {
+    Preconditions.checkState(size > 0, "heap is empty");
+    return values[0];
+  }
+
+  /**
+   * Offers an entry to the heap. NaN values are never accepted.
+   *
+   * @return true iff the entry is now retained by the heap
+   */
+  public boolean offer(long id, double value) {
+    Preconditions.checkState(!sorted, "heap has been sorted");
+    if (Double.isNaN(value)) {
+      return false;
+    }
+    if (size < capacity) {
+      if (size == ids.length) {
+        int newSize = (int) Math.min((long) capacity, 2L * size);
+        ids = Arrays.copyOf(ids, newSize);
+        values = Arrays.copyOf(values, newSize);
+      }
+      siftUp(size++, id, value);
+      return true;
+    }
+    if (value > values[0]) {
+      siftDown(0, size, id, value);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes and returns the ID of the entry with the lowest value.
+   */
+  public long pollID() {
+    Preconditions.checkState(!sorted, "heap has been sorted");
+    Preconditions.checkState(size > 0, "heap is empty");
+    long lowestID = ids[0];
+    size--;
+    if (size > 0) {
+      siftDown(0, size, ids[size], values[size]);
+    }
+    return lowestID;
+  }
+
+  /**
+   * Sorts the retained entries in place from highest to lowest value. After this call, entries are
+   * available through {@link #getID(int)} and {@link #getValue(int)}, and no further entries may be offered
+   * until {@link #clear()} is called.
+   */
+  public void sort() {
+    if (sorted) {
+      return;
+    }
+    // Heapsort: repeatedly move the lowest entry to the end of the shrinking heap
+    for (int end = size - 1; end > 0; end--) {
+      long lowestID = ids[0];
+      double lowestValue = values[0];
+      siftDown(0, end, ids[end], values[end]);
+      ids[end] = lowestID;
+      values[end] = lowestValue;
+    }
+    sorted = true;
+  }
+
+  public long getID(int index) {
+    Preconditions.checkState(sorted, "heap has not been sorted");
+    Preconditions.checkElementIndex(index, size);
+    return ids[index];
+  }
+
+  public double getValue(int index) {
+    Preconditions.checkState(sorted, "heap has not been sorted");
+    Preconditions.checkElementIndex(index, size);
+    return values[index];
+  }
+
+  /**
+   * @return IDs of all retained entries, from highest to lowest value; sorts the heap first if needed
+   */
+  public long[] toIDArray() {
+    sort();
+    return Arrays.copyOf(ids, size);
+  }
+
+  /**
+   * Empties the heap so that it may be reused, keeping its storage.
+   */
+  public void clear() {
+    size = 0;
+    sorted = false;
+  }
+
+  /**
+   * @return true iff the entry (id1, value1) ranks below (id2, value2): lower value, or equal value and
+   *  higher ID
+   */
+  private static boolean lessThan(long id1, double value1, long id2, double value2) {
+    return value1 < value2 || (value1 == value2 && id1 > id2);
+  }
+
+  private void siftUp(int index, long id, double value) {
+    long[] ids = this.ids;
+    double[] values = this.values;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      long parentID = ids[parent];
+      double parentValue = values[parent];
+      if (!lessThan(id, value, parentID, parentValue)) {
+        break;
+      }
+      ids[index] = parentID;
+      values[index] = parentValue;
+      index = parent;
+    }
+    ids[index] = id;
+    values[index] = value;
+  }
+
+  private void siftDown(int index, int heapSize, long id, double value) {
+    long[] ids = this.ids;
+    double[] values = this.values;
+    int half = heapSize >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      int right = child + 1;
+      if (right < heapSize && lessThan(ids[right], values[right], ids[child], values[child])) {
+        child = right;
+      }
+      if (!lessThan(ids[child], values[child], id, value)) {
+        break;
+      }
+      ids[index] = ids[child];
+      values[index] = values[child];
+      index = child;
+    }
+    ids[index] = id;
+    values[index] = value;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append('[');
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(ids[i]).append('=').append(values[i]);
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+}
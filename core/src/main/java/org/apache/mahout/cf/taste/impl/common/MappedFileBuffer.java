@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * A read-only, memory-mapped view of an entire file, addressed by {@code long} byte positions. A single
+ * {@link MappedByteBuffer} cannot exceed 2GB, so the file is mapped as a series of overlapping segments; a
+ * value that starts in one segment is always wholly readable from it, and no alignment of values is required.
+ * </p>
+ *
+ * <p>
+ * The mapped data lives outside the Java heap, in the operating system's page cache, and so is shared by all
+ * processes mapping the same file. Values are read big-endian, as written by {@link java.io.DataOutputStream}.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe: it only uses absolute reads on the underlying buffers.
+ * </p>
+ */
+public final class MappedFileBuffer {
+
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+  /** Extra bytes mapped at the end of each segment, so that no long value straddles two segments. */
+  private static final int SEGMENT_OVERLAP = 8;
+
+  private final File file;
+  private final long length;
+  private final MappedByteBuffer[] segments;
+
+  /**
+   * @param file file to map
+   * @throws IOException if the file can't be read or mapped
+   */
+  public MappedFileBuffer(File file) throws IOException {
+    this.file = Preconditions.checkNotNull(file);
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      length = channel.size();
+      int numSegments = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+      segments = new MappedByteBuffer[numSegments];
+      for (int i = 0; i < numSegments; i++) {
+        long start = (long) i << SEGMENT_SHIFT;
+        long size = Math.min(length - start, SEGMENT_SIZE + SEGMENT_OVERLAP);
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      }
+    } finally {
+      // The mapping remains valid after the channel is closed
+      Closeables.close(raf, true);
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return length of the mapped file in bytes
+   */
+  public long length() {
+    return length;
+  }
+
+  public int getInt(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) position & SEGMENT_MASK);
+  }
+
+  public long getLong(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) position & SEGMENT_MASK);
+  }
+
+  public float getFloat(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].getFloat((int) position & SEGMENT_MASK);
+  }
+
+  public double getDouble(long position) {
+    return segments[(int) (position >>> SEGMENT_SHIFT)].getDouble((int) position & SEGMENT_MASK);
+  }
+
+  /**
+   * @return the {@code index}-th long in an array of longs starting at byte {@code start}
+   */
+  public long getLong(long start, long index) {
+    return getLong(start + (index << 3));
+  }
+
+  /**
+   * @return the {@code index}-th float in an array of floats starting at byte {@code start}
+   */
+  public float getFloat(long start, long index) {
+    return getFloat(start + (index << 2));
+  }
+
+  /**
+   * Binary search over a sorted run of longs in the file.
+   *
+   * @param start byte position of the first long of the sorted array
+   * @param from index of the first element to search, inclusive
+   * @param to index of the last element to search, exclusive
+   * @param key value to look for
+   * @return index of the key, if found; otherwise {@code (-(insertion point) - 1)}, like
+   *  {@link java.util.Arrays#binarySearch(long[], long)}
+   */
+  public long binarySearchLong(long start, long from, long to, long key) {
+    long low = from;
+    long high = to - 1;
+    while (low <= high) {
+      long mid = (low + high) >>> 1;
+      long midValue = getLong(start, mid);
+      if (midValue < key) {
+        low = mid + 1;
+      } else if (midValue > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @return a {@link LongPrimitiveIterator} over {@code count} longs starting at byte {@code start}
+   */
+  public LongPrimitiveIterator longIterator(long start, long count) {
+    return new MappedLongIterator(start, count);
+  }
+
+  /**
+   * Hints to the operating system that the whole file will be needed soon.
+   */
+  public void load() {
+    for (MappedByteBuffer segment : segments) {
+      segment.load();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedFileBuffer[file:" + file + ", length:" + length + ']';
+  }
+
+  private final class MappedLongIterator extends AbstractLongPrimitiveIterator {
+
+    private final long start;
+    private final long count;
+    private long index;
+
+    private MappedLongIterator(long start, long count) {
+      this.start = start;
+      this.count = count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < count;
+    }
+
+    @Override
+    public long nextLong() {
+      if (index >= count) {
+        throw new NoSuchElementException();
+      }
+      return getLong(start, index++);
+    }
+
+    @Override
+    public long peek() {
+      if (index >= count) {
+        throw new NoSuchElementException();
+      }
+      return getLong(start, index);
+    }
+
+    @Override
+    public void skip(int n) {
+      if (n > 0) {
+        index += n;
+      }
+    }
+
+    /**
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
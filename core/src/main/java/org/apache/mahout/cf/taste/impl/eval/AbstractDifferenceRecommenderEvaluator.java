@@ -62,6 +62,7 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
   private final Random random;
   private float maxPreference;
   private float minPreference;
+  private boolean streaming;
   
   protected AbstractDifferenceRecommenderEvaluator() {
     random = RandomUtils.getRandom();
@@ -89,6 +90,29 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     this.minPreference = minPreference;
   }
   
+  public final boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * <p>
+   * Turns streaming evaluation on or off. By default, an evaluation copies the preferences of the sampled
+   * users into a new training {@link DataModel}, and evaluates each user in a task of its own. A streaming
+   * evaluation instead trains on a view of {@code dataModel} from which the test preferences are merely
+   * hidden, and evaluates users on all processors while reading them off {@link DataModel#getUserIDs()}, each
+   * thread folding its estimates into its own {@link EstimateAccumulator}. Memory use then no longer grows with
+   * the number of users, which makes it possible to evaluate very large data sets.
+   * </p>
+   *
+   * <p>
+   * Users not sampled for evaluation keep all of their preferences for training, rather than being left out,
+   * and the {@link DataModelBuilder} is not used since nothing is copied.
+   * </p>
+   */
+  public final void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
   @Override
   public double evaluate(RecommenderBuilder recommenderBuilder,
                          DataModelBuilder dataModelBuilder,
@@ -103,6 +127,10 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
       "Invalid evaluationPercentage: " + evaluationPercentage);
 
     log.info("Beginning evaluation using {} of {}", trainingPercentage, dataModel);
+
+    if (streaming) {
+      return evaluateStreaming(recommenderBuilder, dataModel, trainingPercentage, evaluationPercentage);
+    }
     
     int numUsers = dataModel.getNumUsers();
     FastByIDMap<PreferenceArray> trainingPrefs = new FastByIDMap<PreferenceArray>(
@@ -128,6 +156,27 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     return result;
   }
   
+  private double evaluateStreaming(RecommenderBuilder recommenderBuilder,
+                                   DataModel dataModel,
+                                   double trainingPercentage,
+                                   double evaluationPercentage) throws TasteException {
+    RandomHoldOutDataModel trainingModel =
+        new RandomHoldOutDataModel(dataModel, trainingPercentage, evaluationPercentage, random.nextLong());
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    reset();
+    int numProcessors = Runtime.getRuntime().availableProcessors();
+    List<StreamingEstimator> estimators = Lists.newArrayListWithCapacity(numProcessors);
+    for (int i = 0; i < numProcessors; i++) {
+      estimators.add(new StreamingEstimator(recommender, trainingModel, newEstimateAccumulator()));
+    }
+    log.info("Beginning streaming evaluation in {} threads", numProcessors);
+    StreamingEstimator estimator = ParallelUserEvaluation.evaluate(dataModel.getUserIDs(), estimators);
+    log.info("Unable to recommend in {} cases", estimator.noEstimateCount);
+    double result = estimator.accumulator.computeFinalEvaluation();
+    log.info("Evaluation result: {}", result);
+    return result;
+  }
+
   private void splitOneUsersPrefs(double trainingPercentage,
                                   FastByIDMap<PreferenceArray> trainingPrefs,
                                   FastByIDMap<PreferenceArray> testPrefs,
@@ -224,6 +273,59 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
   
   protected abstract double computeFinalEvaluation();
 
+  /**
+   * @return a new accumulator for one thread of a streaming evaluation. This default one hands each estimate
+   *  to {@link #processOneEstimate(float, Preference)} in turn, so the threads wait on each other; subclasses
+   *  should return an accumulator which keeps its own state.
+   */
+  protected EstimateAccumulator newEstimateAccumulator() {
+    return new EstimateAccumulator() {
+      @Override
+      protected void processOneEstimate(float estimatedPreference, Preference realPref) {
+        synchronized (AbstractDifferenceRecommenderEvaluator.this) {
+          AbstractDifferenceRecommenderEvaluator.this.processOneEstimate(estimatedPreference, realPref);
+        }
+      }
+
+      @Override
+      protected void merge(EstimateAccumulator other) {
+        // All estimates already went to the same place
+      }
+
+      @Override
+      protected double computeFinalEvaluation() {
+        return AbstractDifferenceRecommenderEvaluator.this.computeFinalEvaluation();
+      }
+    };
+  }
+
+  /**
+   * Collects the estimates made by one thread of a streaming evaluation; see {@link #setStreaming(boolean)}.
+   */
+  protected abstract static class EstimateAccumulator {
+
+    protected abstract void processOneEstimate(float estimatedPreference, Preference realPref);
+
+    /** Adds in the estimates collected by {@code other}, which came from the same evaluator. */
+    protected abstract void merge(EstimateAccumulator other);
+
+    protected abstract double computeFinalEvaluation();
+
+  }
+
+  private float estimatePreference(Recommender recommender, long userID, long itemID) throws TasteException {
+    try {
+      return recommender.estimatePreference(userID, itemID);
+    } catch (NoSuchUserException nsue) {
+      // It's possible that an item exists in the test data but not training data in which case
+      // NSEE will be thrown. Just ignore it and move on.
+      log.info("User exists in test data but not training data: {}", userID);
+    } catch (NoSuchItemException nsie) {
+      log.info("Item exists in test data but not training data: {}", itemID);
+    }
+    return Float.NaN;
+  }
+
   public final class PreferenceEstimateCallable implements Callable<Void> {
 
     private final Recommender recommender;
@@ -244,16 +346,7 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
     @Override
     public Void call() throws TasteException {
       for (Preference realPref : prefs) {
-        float estimatedPreference = Float.NaN;
-        try {
-          estimatedPreference = recommender.estimatePreference(testUserID, realPref.getItemID());
-        } catch (NoSuchUserException nsue) {
-          // It's possible that an item exists in the test data but not training data in which case
-          // NSEE will be thrown. Just ignore it and move on.
-          log.info("User exists in test data but not training data: {}", testUserID);
-        } catch (NoSuchItemException nsie) {
-          log.info("Item exists in test data but not training data: {}", realPref.getItemID());
-        }
+        float estimatedPreference = estimatePreference(recommender, testUserID, realPref.getItemID());
         if (Float.isNaN(estimatedPreference)) {
           noEstimateCounter.incrementAndGet();
         } else {
@@ -266,4 +359,81 @@ public abstract class AbstractDifferenceRecommenderEvaluator implements Recommen
 
   }
 
+  private final class StreamingEstimator implements ParallelUserEvaluation.UserAccumulator<StreamingEstimator> {
+
+    private final Recommender recommender;
+    private final RandomHoldOutDataModel trainingModel;
+    private final EstimateAccumulator accumulator;
+    private int noEstimateCount;
+
+    StreamingEstimator(Recommender recommender,
+                       RandomHoldOutDataModel trainingModel,
+                       EstimateAccumulator accumulator) {
+      this.recommender = recommender;
+      this.trainingModel = trainingModel;
+      this.accumulator = accumulator;
+    }
+
+    @Override
+    public void processUser(long userID) throws TasteException {
+      if (!trainingModel.holdsOutFrom(userID)) {
+        return;
+      }
+      PreferenceArray testPrefs = trainingModel.getHeldOutPreferencesFromUser(userID);
+      int size = testPrefs.length();
+      // As when copying, users with nothing left to train on are skipped
+      if (size == 0 || trainingModel.getPreferencesFromUser(userID).length() == 0) {
+        return;
+      }
+      for (Preference realPref : testPrefs) {
+        float estimatedPreference = estimatePreference(recommender, userID, realPref.getItemID());
+        if (Float.isNaN(estimatedPreference)) {
+          noEstimateCount++;
+        } else {
+          accumulator.processOneEstimate(capEstimatedPreference(estimatedPreference), realPref);
+        }
+      }
+    }
+
+    @Override
+    public void merge(StreamingEstimator other) {
+      accumulator.merge(other.accumulator);
+      noEstimateCount += other.noEstimateCount;
+    }
+
+  }
+
+  /**
+   * Holds out preferences at random, like the copying evaluation, but decides by hashing user and item IDs with a
+   * seed, so that nothing needs to be remembered and every thread sees the same split.
+   */
+  private static final class RandomHoldOutDataModel extends HoldOutDataModel {
+
+    private final double trainingPercentage;
+    private final double evaluationPercentage;
+    private final long userSeed;
+    private final long itemSeed;
+
+    RandomHoldOutDataModel(DataModel delegate, double trainingPercentage, double evaluationPercentage, long seed)
+      throws TasteException {
+      super(delegate);
+      this.trainingPercentage = trainingPercentage;
+      this.evaluationPercentage = evaluationPercentage;
+      this.userSeed = mix(seed);
+      this.itemSeed = mix(~seed);
+      splitItems(delegate.getUserIDs());
+    }
+
+    @Override
+    boolean holdsOutFrom(long userID) {
+      return toUnitInterval(mix(userSeed ^ userID)) < evaluationPercentage;
+    }
+
+    @Override
+    boolean isHeldOut(long userID, long itemID) {
+      return toUnitInterval(mix(mix(itemSeed ^ userID) ^ itemID)) >= trainingPercentage;
+    }
+
+  }
+
 }
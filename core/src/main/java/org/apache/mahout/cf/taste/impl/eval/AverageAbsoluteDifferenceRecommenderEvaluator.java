@@ -51,9 +51,39 @@ public final class AverageAbsoluteDifferenceRecommenderEvaluator extends
     return average.getAverage();
   }
   
+  @Override
+  protected EstimateAccumulator newEstimateAccumulator() {
+    return new AbsoluteDifferenceAccumulator();
+  }
+  
   @Override
   public String toString() {
     return "AverageAbsoluteDifferenceRecommenderEvaluator";
   }
+
+  private static final class AbsoluteDifferenceAccumulator extends EstimateAccumulator {
+
+    private double sum;
+    private long count;
+
+    @Override
+    protected void processOneEstimate(float estimatedPreference, Preference realPref) {
+      sum += Math.abs(realPref.getValue() - estimatedPreference);
+      count++;
+    }
+
+    @Override
+    protected void merge(EstimateAccumulator other) {
+      AbsoluteDifferenceAccumulator otherAccumulator = (AbsoluteDifferenceAccumulator) other;
+      sum += otherAccumulator.sum;
+      count += otherAccumulator.count;
+    }
+
+    @Override
+    protected double computeFinalEvaluation() {
+      return sum / count;
+    }
+
+  }
   
 }
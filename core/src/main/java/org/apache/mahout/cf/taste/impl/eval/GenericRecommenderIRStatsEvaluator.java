@@ -29,10 +29,9 @@ import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
 import org.apache.mahout.cf.taste.eval.RelevantItemsDataSplitter;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -45,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -70,6 +70,7 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
 
   private final Random random;
   private final RelevantItemsDataSplitter dataSplitter;
+  private boolean streaming;
 
   public GenericRecommenderIRStatsEvaluator() {
     this(new GenericRelevantItemsDataSplitter());
@@ -81,6 +82,30 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     this.dataSplitter = dataSplitter;
   }
 
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * <p>
+   * Turns streaming evaluation on or off. By default, users are evaluated one after the other, each against a
+   * training {@link DataModel} copied from {@code dataModel} without the relevant items. A streaming
+   * evaluation instead evaluates users on all processors while reading them off
+   * {@link DataModel#getUserIDs()}, and trains for each on a view of {@code dataModel} from which the relevant
+   * items are merely hidden. Each thread sums up its users' statistics separately, and the sums are combined at
+   * the end.
+   * </p>
+   *
+   * <p>
+   * The {@link RelevantItemsDataSplitter} still picks the relevant items, but is not asked to split the other
+   * users' data: the view always holds out exactly the relevant items. Nor is the {@link DataModelBuilder} used,
+   * since nothing is copied. The {@link RecommenderBuilder} may be called from several threads at once.
+   * </p>
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
   @Override
   public IRStatistics evaluate(RecommenderBuilder recommenderBuilder,
                                DataModelBuilder dataModelBuilder,
@@ -96,13 +121,13 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
       "Invalid evaluationPercentage: %s", evaluationPercentage);
 
+    if (streaming) {
+      return evaluateStreaming(recommenderBuilder, dataModel, rescorer, at, relevanceThreshold,
+          evaluationPercentage);
+    }
+
     int numItems = dataModel.getNumItems();
-    RunningAverage precision = new FullRunningAverage();
-    RunningAverage recall = new FullRunningAverage();
-    RunningAverage fallOut = new FullRunningAverage();
-    RunningAverage nDCG = new FullRunningAverage();
-    int numUsersRecommendedFor = 0;
-    int numUsersWithRecommendations = 0;
+    IRStatsAccumulator stats = new IRStatsAccumulator();
 
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
@@ -116,11 +141,7 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
 
       long start = System.currentTimeMillis();
 
-      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
-
-      // List some most-preferred items that would count as (most) "relevant" results
-      double theRelevanceThreshold = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
-      FastIDSet relevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+      FastIDSet relevantItemIDs = getRelevantItemIDs(userID, at, relevanceThreshold, dataModel);
 
       int numRelevantItems = relevantItemIDs.size();
       if (numRelevantItems <= 0) {
@@ -135,86 +156,165 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
 
       DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
           : dataModelBuilder.buildDataModel(trainingUsers);
+      int numTrainingItems;
       try {
-        trainingModel.getPreferencesFromUser(userID);
+        numTrainingItems = trainingModel.getItemIDsFromUser(userID).size();
       } catch (NoSuchUserException nsee) {
         continue; // Oops we excluded all prefs for the user -- just move on
       }
 
-      int size = numRelevantItems + trainingModel.getItemIDsFromUser(userID).size();
-      if (size < 2 * at) {
-        // Really not enough prefs to meaningfully evaluate this user
+      if (!evaluateUser(recommenderBuilder, trainingModel, rescorer, at, userID, relevantItemIDs,
+                        numTrainingItems, numItems, stats)) {
         continue;
       }
 
-      Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+      long end = System.currentTimeMillis();
+
+      log.info("Evaluated with user {} in {}ms", userID, end - start);
+      log.info("Precision/recall/fall-out/nDCG/reach: {} / {} / {} / {} / {}",
+               stats.getPrecision(), stats.getRecall(), stats.getFallOut(),
+               stats.getNormalizedDiscountedCumulativeGain(), stats.getReach());
+    }
 
-      int intersectionSize = 0;
-      List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
-      for (RecommendedItem recommendedItem : recommendedItems) {
-        if (relevantItemIDs.contains(recommendedItem.getItemID())) {
-          intersectionSize++;
+    return stats.toIRStatistics();
+  }
+
+  private IRStatistics evaluateStreaming(final RecommenderBuilder recommenderBuilder,
+                                         final DataModel dataModel,
+                                         final IDRescorer rescorer,
+                                         final int at,
+                                         final double relevanceThreshold,
+                                         final double evaluationPercentage) throws TasteException {
+    final int numItems = dataModel.getNumItems();
+    final long userSeed = HoldOutDataModel.mix(random.nextLong());
+    int numProcessors = Runtime.getRuntime().availableProcessors();
+    List<StreamingUserEvaluator> evaluators = Lists.newArrayListWithCapacity(numProcessors);
+    for (int i = 0; i < numProcessors; i++) {
+      evaluators.add(new StreamingUserEvaluator() {
+        @Override
+        public void processUser(long userID) throws TasteException {
+          if (HoldOutDataModel.toUnitInterval(HoldOutDataModel.mix(userSeed ^ userID)) >= evaluationPercentage) {
+            return;
+          }
+          final FastIDSet relevantItemIDs = getRelevantItemIDs(userID, at, relevanceThreshold, dataModel);
+          if (relevantItemIDs.isEmpty()) {
+            return;
+          }
+          final long evaluatedUserID = userID;
+          HoldOutDataModel trainingModel = new HoldOutDataModel(dataModel) {
+            @Override
+            boolean holdsOutFrom(long otherUserID) {
+              return otherUserID == evaluatedUserID;
+            }
+
+            @Override
+            boolean isHeldOut(long otherUserID, long itemID) {
+              return relevantItemIDs.contains(itemID);
+            }
+          };
+          trainingModel.splitItems(new LongPrimitiveArrayIterator(new long[] {userID}));
+          int numTrainingItems = trainingModel.getPreferencesFromUser(userID).length();
+          if (numTrainingItems > 0) {
+            evaluateUser(recommenderBuilder, trainingModel, rescorer, at, userID, relevantItemIDs,
+                         numTrainingItems, numItems, stats);
+          }
         }
-      }
+      });
+    }
+    log.info("Beginning streaming evaluation in {} threads", numProcessors);
+    IRStatsAccumulator stats = ParallelUserEvaluation.evaluate(dataModel.getUserIDs(), evaluators).stats;
+    IRStatistics result = stats.toIRStatistics();
+    log.info("Precision/recall/fall-out/nDCG/reach: {} / {} / {} / {} / {}",
+             result.getPrecision(), result.getRecall(), result.getFallOut(),
+             result.getNormalizedDiscountedCumulativeGain(), result.getReach());
+    return result;
+  }
 
-      int numRecommendedItems = recommendedItems.size();
+  private FastIDSet getRelevantItemIDs(long userID, int at, double relevanceThreshold, DataModel dataModel)
+    throws TasteException {
+    // List some most-preferred items that would count as (most) "relevant" results
+    double theRelevanceThreshold = Double.isNaN(relevanceThreshold)
+        ? computeThreshold(dataModel.getPreferencesFromUser(userID)) : relevanceThreshold;
+    return dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+  }
 
-      // Precision
-      if (numRecommendedItems > 0) {
-        precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
-      }
+  /**
+   * Recommends to one user from a model without the relevant items, and adds up how well the recommendations
+   * match them.
+   *
+   * @return false if the user had too few preferences to evaluate
+   */
+  private static boolean evaluateUser(RecommenderBuilder recommenderBuilder,
+                                      DataModel trainingModel,
+                                      IDRescorer rescorer,
+                                      int at,
+                                      long userID,
+                                      FastIDSet relevantItemIDs,
+                                      int numTrainingItems,
+                                      int numItems,
+                                      IRStatsAccumulator stats) throws TasteException {
+
+    int numRelevantItems = relevantItemIDs.size();
+    int size = numRelevantItems + numTrainingItems;
+    if (size < 2 * at) {
+      // Really not enough prefs to meaningfully evaluate this user
+      return false;
+    }
 
-      // Recall
-      recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
 
-      // Fall-out
-      if (numRelevantItems < size) {
-        fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
-                         / (double) (numItems - numRelevantItems));
+    int intersectionSize = 0;
+    List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
+    for (RecommendedItem recommendedItem : recommendedItems) {
+      if (relevantItemIDs.contains(recommendedItem.getItemID())) {
+        intersectionSize++;
       }
+    }
 
-      // nDCG
-      // In computing, assume relevant IDs have relevance 1 and others 0
-      double cumulativeGain = 0.0;
-      double idealizedGain = 0.0;
-      for (int i = 0; i < numRecommendedItems; i++) {
-        RecommendedItem item = recommendedItems.get(i);
-        double discount = 1.0 / log2(i + 2.0); // Classical formulation says log(i+1), but i is 0-based here
-        if (relevantItemIDs.contains(item.getItemID())) {
-          cumulativeGain += discount;
-        }
-        // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
+    int numRecommendedItems = recommendedItems.size();
 
-        // Ideally results would be ordered with all relevant ones first, so this theoretical
-        // ideal list starts with number of relevant items equal to the total number of relevant items
-        if (i < numRelevantItems) {
-          idealizedGain += discount;
-        }
-      }
-      if (idealizedGain > 0.0) {
-        nDCG.addDatum(cumulativeGain / idealizedGain);
-      }
+    // Precision
+    if (numRecommendedItems > 0) {
+      stats.precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+    }
 
-      // Reach
-      numUsersRecommendedFor++;
-      if (numRecommendedItems > 0) {
-        numUsersWithRecommendations++;
-      }
+    // Recall
+    stats.recall.addDatum((double) intersectionSize / (double) numRelevantItems);
 
-      long end = System.currentTimeMillis();
+    // Fall-out
+    if (numRelevantItems < size) {
+      stats.fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
+                             / (double) (numItems - numRelevantItems));
+    }
 
-      log.info("Evaluated with user {} in {}ms", userID, end - start);
-      log.info("Precision/recall/fall-out/nDCG/reach: {} / {} / {} / {} / {}",
-               precision.getAverage(), recall.getAverage(), fallOut.getAverage(), nDCG.getAverage(),
-               (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
+    // nDCG
+    // In computing, assume relevant IDs have relevance 1 and others 0
+    double cumulativeGain = 0.0;
+    double idealizedGain = 0.0;
+    for (int i = 0; i < numRecommendedItems; i++) {
+      RecommendedItem item = recommendedItems.get(i);
+      double discount = 1.0 / log2(i + 2.0); // Classical formulation says log(i+1), but i is 0-based here
+      if (relevantItemIDs.contains(item.getItemID())) {
+        cumulativeGain += discount;
+      }
+      // otherwise we're multiplying discount by relevance 0 so it doesn't do anything
+
+      // Ideally results would be ordered with all relevant ones first, so this theoretical
+      // ideal list starts with number of relevant items equal to the total number of relevant items
+      if (i < numRelevantItems) {
+        idealizedGain += discount;
+      }
+    }
+    if (idealizedGain > 0.0) {
+      stats.nDCG.addDatum(cumulativeGain / idealizedGain);
     }
 
-    return new IRStatisticsImpl(
-        precision.getAverage(),
-        recall.getAverage(),
-        fallOut.getAverage(),
-        nDCG.getAverage(),
-        (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
+    // Reach
+    stats.numUsersRecommendedFor++;
+    if (numRecommendedItems > 0) {
+      stats.numUsersWithRecommendations++;
+    }
+    return true;
   }
 
   private static double computeThreshold(PreferenceArray prefs) {
@@ -234,4 +334,83 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
     return Math.log(value) / LOG2;
   }
 
+  /** Sums of per-user statistics, which can be combined with those of other users. */
+  private static final class IRStatsAccumulator {
+
+    private final Sum precision = new Sum();
+    private final Sum recall = new Sum();
+    private final Sum fallOut = new Sum();
+    private final Sum nDCG = new Sum();
+    private int numUsersRecommendedFor;
+    private int numUsersWithRecommendations;
+
+    void merge(IRStatsAccumulator other) {
+      precision.merge(other.precision);
+      recall.merge(other.recall);
+      fallOut.merge(other.fallOut);
+      nDCG.merge(other.nDCG);
+      numUsersRecommendedFor += other.numUsersRecommendedFor;
+      numUsersWithRecommendations += other.numUsersWithRecommendations;
+    }
+
+    double getPrecision() {
+      return precision.getAverage();
+    }
+
+    double getRecall() {
+      return recall.getAverage();
+    }
+
+    double getFallOut() {
+      return fallOut.getAverage();
+    }
+
+    double getNormalizedDiscountedCumulativeGain() {
+      return nDCG.getAverage();
+    }
+
+    double getReach() {
+      return (double) numUsersWithRecommendations / (double) numUsersRecommendedFor;
+    }
+
+    IRStatistics toIRStatistics() {
+      return new IRStatisticsImpl(getPrecision(), getRecall(), getFallOut(), getNormalizedDiscountedCumulativeGain(),
+          getReach());
+    }
+
+  }
+
+  private static final class Sum {
+
+    private double sum;
+    private int count;
+
+    void addDatum(double datum) {
+      sum += datum;
+      count++;
+    }
+
+    void merge(Sum other) {
+      sum += other.sum;
+      count += other.count;
+    }
+
+    double getAverage() {
+      return count == 0 ? Double.NaN : sum / count;
+    }
+
+  }
+
+  private abstract static class StreamingUserEvaluator
+      implements ParallelUserEvaluation.UserAccumulator<StreamingUserEvaluator> {
+
+    final IRStatsAccumulator stats = new IRStatsAccumulator();
+
+    @Override
+    public void merge(StreamingUserEvaluator other) {
+      stats.merge(other.stats);
+    }
+
+  }
+
 }
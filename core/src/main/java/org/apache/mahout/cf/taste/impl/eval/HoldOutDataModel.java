@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A read-only view of a {@link DataModel} without some of its preferences, which are held out to test a
+ * recommender trained on the rest. Users' preferences are filtered as they are read, and only arrays that
+ * actually lose a preference are rebuilt, so users untouched by the hold-out are served straight from the
+ * underlying model.
+ * </p>
+ *
+ * <p>
+ * An item's preferences are spread over many users, so filtering them on every read would be costly. Instead
+ * {@link #splitItems(LongPrimitiveIterator)} builds, once, the preferences kept for each item which loses any;
+ * all other items are served straight from the underlying model.
+ * </p>
+ *
+ * <p>
+ * Users and items stay in the view even when all of their preferences are held out; they then simply have
+ * no preferences.
+ * </p>
+ */
+abstract class HoldOutDataModel implements DataModel {
+
+  private final DataModel delegate;
+  /** For each item which loses preferences to the hold-out, the preferences for it which are kept */
+  private final FastByIDMap<PreferenceArray> keptItemPrefs;
+  /** For each item which loses preferences to the hold-out, the users whose preferences for it are kept */
+  private final FastByIDMap<FastIDSet> keptUserIDsByItem;
+  private boolean itemsSplit;
+
+  HoldOutDataModel(DataModel delegate) {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    this.delegate = delegate;
+    keptItemPrefs = new FastByIDMap<PreferenceArray>();
+    keptUserIDsByItem = new FastByIDMap<FastIDSet>();
+  }
+
+  /** @return false if none of the user's preferences is held out, which saves filtering them */
+  abstract boolean holdsOutFrom(long userID);
+
+  /** Only called for users for which {@link #holdsOutFrom(long)} is true. */
+  abstract boolean isHeldOut(long userID, long itemID);
+
+  /** Scrambles all bits of {@code x}, for holding out preferences by hashing their IDs. */
+  static long mix(long x) {
+    x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+    x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+    return x ^ (x >>> 31);
+  }
+
+  /** @return a value in [0,1) from the bits of a {@link #mix(long)}ed value */
+  static double toUnitInterval(long x) {
+    return (x >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Builds the items' side of the hold-out. Must be called once, before the view is read or shared with other
+   * threads, and after {@link #holdsOutFrom(long)} and {@link #isHeldOut(long, long)} are ready to be called.
+   *
+   * @param userIDs
+   *          IDs of users, which must include all those {@link #holdsOutFrom(long)} is true for
+   */
+  final void splitItems(LongPrimitiveIterator userIDs) throws TasteException {
+    Preconditions.checkState(!itemsSplit, "items already split");
+    FastByIDMap<FastIDSet> heldOutUserIDsByItem = new FastByIDMap<FastIDSet>();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      if (!holdsOutFrom(userID)) {
+        continue;
+      }
+      PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        long itemID = prefs.getItemID(i);
+        if (isHeldOut(userID, itemID)) {
+          FastIDSet heldOutUserIDs = heldOutUserIDsByItem.get(itemID);
+          if (heldOutUserIDs == null) {
+            heldOutUserIDs = new FastIDSet();
+            heldOutUserIDsByItem.put(itemID, heldOutUserIDs);
+          }
+          heldOutUserIDs.add(userID);
+        }
+      }
+    }
+    for (Map.Entry<Long,FastIDSet> entry : heldOutUserIDsByItem.entrySet()) {
+      long itemID = entry.getKey();
+      FastIDSet keptUserIDs = new FastIDSet();
+      keptItemPrefs.put(itemID,
+          filterItemPrefs(itemID, delegate.getPreferencesForItem(itemID), entry.getValue(), keptUserIDs));
+      keptUserIDsByItem.put(itemID, keptUserIDs);
+    }
+    itemsSplit = true;
+  }
+
+  private PreferenceArray filterItemPrefs(long itemID,
+                                          PreferenceArray prefs,
+                                          FastIDSet heldOutUserIDs,
+                                          FastIDSet keptUserIDs) {
+    int length = prefs.length();
+    int kept = length - heldOutUserIDs.size();
+    PreferenceArray result = hasPreferenceValues()
+        ? new GenericItemPreferenceArray(kept) : new BooleanItemPreferenceArray(kept);
+    if (kept > 0) {
+      result.setItemID(0, itemID);
+    }
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      long userID = prefs.getUserID(i);
+      if (!heldOutUserIDs.contains(userID)) {
+        keptUserIDs.add(userID);
+        result.setUserID(j, userID);
+        if (hasPreferenceValues()) {
+          result.setValue(j, prefs.getValue(i));
+        }
+        j++;
+      }
+    }
+    return result;
+  }
+
+  private boolean isHeldOutPreference(long userID, long itemID) {
+    return holdsOutFrom(userID) && isHeldOut(userID, itemID);
+  }
+
+  /**
+   * @return the user's preferences which are held out of this view, in the same order as in the underlying
+   *  model
+   */
+  PreferenceArray getHeldOutPreferencesFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+    return filterUserPrefs(userID, prefs, true);
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = delegate.getPreferencesFromUser(userID);
+    return holdsOutFrom(userID) ? filterUserPrefs(userID, prefs, false) : prefs;
+  }
+
+  private PreferenceArray filterUserPrefs(long userID, PreferenceArray prefs, boolean heldOut) {
+    int length = prefs.length();
+    int kept = 0;
+    boolean holdsOut = holdsOutFrom(userID);
+    for (int i = 0; i < length; i++) {
+      if ((holdsOut && isHeldOut(userID, prefs.getItemID(i))) == heldOut) {
+        kept++;
+      }
+    }
+    if (kept == length) {
+      return prefs;
+    }
+    PreferenceArray result = hasPreferenceValues()
+        ? new GenericUserPreferenceArray(kept) : new BooleanUserPreferenceArray(kept);
+    if (kept > 0) {
+      result.setUserID(0, userID);
+    }
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      long itemID = prefs.getItemID(i);
+      if ((holdsOut && isHeldOut(userID, itemID)) == heldOut) {
+        result.setItemID(j, itemID);
+        if (hasPreferenceValues()) {
+          result.setValue(j, prefs.getValue(i));
+        }
+        j++;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    if (!holdsOutFrom(userID)) {
+      return delegate.getItemIDsFromUser(userID);
+    }
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int length = prefs.length();
+    FastIDSet result = new FastIDSet(length);
+    for (int i = 0; i < length; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    Preconditions.checkState(itemsSplit, "items not split");
+    PreferenceArray prefs = keptItemPrefs.get(itemID);
+    return prefs == null ? delegate.getPreferencesForItem(itemID) : prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Float value = delegate.getPreferenceValue(userID, itemID);
+    return value == null || isHeldOutPreference(userID, itemID) ? null : value;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    Long time = delegate.getPreferenceTime(userID, itemID);
+    return time == null || isHeldOutPreference(userID, itemID) ? null : time;
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    Preconditions.checkState(itemsSplit, "items not split");
+    PreferenceArray prefs = keptItemPrefs.get(itemID);
+    return prefs == null ? delegate.getNumUsersWithPreferenceFor(itemID) : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    Preconditions.checkState(itemsSplit, "items not split");
+    FastIDSet keptUserIDs1 = keptUserIDsByItem.get(itemID1);
+    FastIDSet keptUserIDs2 = keptUserIDsByItem.get(itemID2);
+    if (keptUserIDs1 == null && keptUserIDs2 == null) {
+      return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+    if (keptUserIDs1 != null && keptUserIDs2 != null) {
+      // intersectionSize() iterates over its argument, so pass the smaller set
+      return keptUserIDs1.size() <= keptUserIDs2.size()
+          ? keptUserIDs2.intersectionSize(keptUserIDs1)
+          : keptUserIDs1.intersectionSize(keptUserIDs2);
+    }
+    // Only one item loses preferences: look its kept users up while scanning the other's
+    FastIDSet keptUserIDs = keptUserIDs1 == null ? keptUserIDs2 : keptUserIDs1;
+    PreferenceArray otherPrefs = delegate.getPreferencesForItem(keptUserIDs1 == null ? itemID1 : itemID2);
+    int length = otherPrefs.length();
+    int count = 0;
+    for (int i = 0; i < length; i++) {
+      if (keptUserIDs.contains(otherPrefs.getUserID(i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing; the underlying model belongs to the caller
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return delegate.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A histogram of latencies, in nanoseconds, from which percentiles can be read with a relative error of at
+ * most 1/64, whatever the range of the values. Buckets are log-linear: values below 128 each have their own,
+ * and each further power of two is split into 64 equal buckets. That takes under 4,000 counters to cover all
+ * non-negative {@code long}s, so recording a value is a few arithmetic operations and never allocates.
+ * </p>
+ *
+ * <p>
+ * Not thread-safe. Record into one histogram per thread and {@link #add(LatencyHistogram)} them together.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_BUCKETS = SUB_BUCKETS << 1;
+  private static final int NUM_BUCKETS = LINEAR_BUCKETS + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final long[] counts;
+  private long totalCount;
+  private double sum;
+  private double sumSquares;
+  private long min;
+  private long max;
+
+  public LatencyHistogram() {
+    counts = new long[NUM_BUCKETS];
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+  }
+
+  public void recordValue(long value) {
+    Preconditions.checkArgument(value >= 0L, "Negative value: %s", value);
+    counts[bucketOf(value)]++;
+    totalCount++;
+    sum += value;
+    sumSquares += (double) value * value;
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  /** Adds in all values recorded by {@code other}. */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    sumSquares += other.sumSquares;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /** @return exact mean of the recorded values, or {@link Double#NaN} if there are none */
+  public double getMean() {
+    return totalCount == 0 ? Double.NaN : sum / totalCount;
+  }
+
+  /** @return exact standard deviation of the recorded values, or {@link Double#NaN} if there are fewer than 2 */
+  public double getStandardDeviation() {
+    if (totalCount < 2) {
+      return Double.NaN;
+    }
+    double variance = (sumSquares - sum * sum / totalCount) / (totalCount - 1);
+    return Math.sqrt(Math.max(0.0, variance));
+  }
+
+  public long getMin() {
+    return totalCount == 0 ? 0L : min;
+  }
+
+  public long getMax() {
+    return totalCount == 0 ? 0L : max;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the highest value in the bucket holding the value at this percentile, capped to the largest value
+   *  recorded, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "Bad percentile: %s", percentile);
+    if (totalCount == 0) {
+      return 0L;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+    long seen = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, highestValueIn(i));
+      }
+    }
+    return max;
+  }
+
+  static int bucketOf(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    // Keep the top SUB_BUCKET_BITS + 1 bits; the highest one is always set
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  static long highestValueIn(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+    long top = SUB_BUCKETS + (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    long lowest = top << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram[count:" + totalCount + ", mean:" + getMean() + ", p50:" + getValueAtPercentile(50.0)
+        + ", p99:" + getValueAtPercentile(99.0) + ", p99.9:" + getValueAtPercentile(99.9) + ", max:" + getMax() + ']';
+  }
+
+}
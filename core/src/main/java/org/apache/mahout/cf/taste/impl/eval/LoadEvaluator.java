@@ -17,21 +17,12 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
-import java.util.Collection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
-import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
-import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
-import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 
 /**
- * Simple helper class for running load on a Recommender.
+ * Simple helper class for running load on a Recommender. See {@link LoadGenerator} for more control over the
+ * load.
  */
 public final class LoadEvaluator {
   
@@ -42,20 +33,9 @@ public final class LoadEvaluator {
   }
   
   public static LoadStatistics runLoad(Recommender recommender, int howMany) throws TasteException {
-    DataModel dataModel = recommender.getDataModel();
-    int numUsers = dataModel.getNumUsers();
-    double sampleRate = 1000.0 / numUsers;
-    LongPrimitiveIterator userSampler =
-        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), sampleRate);
-    recommender.recommend(userSampler.next(), howMany); // Warm up
-    Collection<Callable<Void>> callables = Lists.newArrayList();
-    while (userSampler.hasNext()) {
-      callables.add(new LoadCallable(recommender, userSampler.next()));
-    }
-    AtomicInteger noEstimateCounter = new AtomicInteger();
-    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
-    AbstractDifferenceRecommenderEvaluator.execute(callables, noEstimateCounter, timing);
-    return new LoadStatistics(timing);
+    LoadGenerator generator = new LoadGenerator(recommender);
+    generator.setHowMany(howMany);
+    return generator.run();
   }
 
 }
@@ -0,0 +1,368 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.RecommendPhaseTimer;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Puts a {@link Recommender} under concurrent load and measures how it copes: latency percentiles, throughput,
+ * errors and, optionally, where the time goes within each request.
+ * </p>
+ *
+ * <p>
+ * By default the load is closed-loop: each thread asks for recommendations as soon as its previous request
+ * returns, which measures the most the recommender can serve. With a {@link #setTargetQPS(double) target rate},
+ * the load is open-loop instead: requests are scheduled at fixed intervals whether or not earlier ones have
+ * returned, and each latency is measured from when its request was due, not from when a thread got around to
+ * sending it. Delays caused by a backlog are then reported rather than hidden, as they would be for real
+ * clients. Enough threads should be allowed to keep up with the target rate.
+ * </p>
+ *
+ * <p>
+ * Users are drawn at random, with replacement, either uniformly or following a Zipf distribution over a
+ * random ranking of all users, which models a few users coming back far more often than the rest.
+ * </p>
+ */
+public final class LoadGenerator {
+
+  private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+  private final Recommender recommender;
+  private int numThreads;
+  private double targetQPS;
+  private double zipfExponent;
+  private int howMany;
+  private int numRequests;
+  private int numWarmUpRequests;
+  private boolean timePhases;
+
+  public LoadGenerator(Recommender recommender) {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    this.recommender = recommender;
+    this.numThreads = Runtime.getRuntime().availableProcessors();
+    this.howMany = 10;
+    this.numRequests = 1000;
+    this.numWarmUpRequests = 100;
+  }
+
+  public void setNumThreads(int numThreads) {
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be at least 1: %s", numThreads);
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * @param targetQPS requests per second to send, for an open-loop load, or 0 (the default) for a closed-loop
+   *  load
+   */
+  public void setTargetQPS(double targetQPS) {
+    Preconditions.checkArgument(targetQPS >= 0.0, "Bad targetQPS: %s", targetQPS);
+    this.targetQPS = targetQPS;
+  }
+
+  /**
+   * @param zipfExponent exponent of the Zipf distribution users are drawn from, or 0 (the default) to draw
+   *  them uniformly. Around 1 is typical of real traffic.
+   */
+  public void setZipfExponent(double zipfExponent) {
+    Preconditions.checkArgument(zipfExponent >= 0.0, "Bad zipfExponent: %s", zipfExponent);
+    this.zipfExponent = zipfExponent;
+  }
+
+  public void setHowMany(int howMany) {
+    Preconditions.checkArgument(howMany > 0, "howMany must be at least 1: %s", howMany);
+    this.howMany = howMany;
+  }
+
+  /** @param numRequests requests to measure, after the warm-up ones */
+  public void setNumRequests(int numRequests) {
+    Preconditions.checkArgument(numRequests > 0, "numRequests must be at least 1: %s", numRequests);
+    this.numRequests = numRequests;
+  }
+
+  /** @param numWarmUpRequests requests to send, but not measure, before the measured ones */
+  public void setNumWarmUpRequests(int numWarmUpRequests) {
+    Preconditions.checkArgument(numWarmUpRequests >= 0, "Bad numWarmUpRequests: %s", numWarmUpRequests);
+    this.numWarmUpRequests = numWarmUpRequests;
+  }
+
+  /**
+   * @param timePhases if true, measures how much of each request goes to finding candidates, estimating them
+   *  and keeping the top ones, using a {@link RecommendPhaseTimer}. This adds some overhead per candidate.
+   */
+  public void setTimePhases(boolean timePhases) {
+    this.timePhases = timePhases;
+  }
+
+  public LoadStatistics run() throws TasteException {
+    long[] userIDs = shuffledUserIDs(recommender.getDataModel());
+    Random random = RandomUtils.getRandom();
+    ZipfSampler sampler = zipfExponent > 0.0 ? new ZipfSampler(userIDs.length, zipfExponent) : null;
+    long intervalNanos = targetQPS > 0.0 ? (long) (1.0e9 / targetQPS) : 0L;
+    AtomicLong nextRequest = new AtomicLong();
+    long startNanos = System.nanoTime();
+
+    List<Worker> workers = Lists.newArrayListWithCapacity(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      workers.add(new Worker(userIDs, sampler, RandomUtils.getRandom(random.nextLong()), nextRequest,
+          startNanos, intervalNanos));
+    }
+    log.info("Sending {} requests on {} threads", numWarmUpRequests + numRequests, numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = Lists.newArrayListWithCapacity(numThreads);
+      for (Worker worker : workers) {
+        futures.add(executor.submit(worker));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    long numErrors = 0L;
+    long firstStartNanos = Long.MAX_VALUE;
+    long lastEndNanos = Long.MIN_VALUE;
+    long serviceNanos = 0L;
+    long rankingNanos = 0L;
+    long estimationNanos = 0L;
+    for (Worker worker : workers) {
+      latencies.add(worker.latencies);
+      numErrors += worker.numErrors;
+      firstStartNanos = Math.min(firstStartNanos, worker.firstStartNanos);
+      lastEndNanos = Math.max(lastEndNanos, worker.lastEndNanos);
+      serviceNanos += worker.serviceNanos;
+      rankingNanos += worker.rankingNanos;
+      estimationNanos += worker.estimationNanos;
+    }
+    LoadStatistics stats = new LoadStatistics(latencies, numErrors, lastEndNanos - firstStartNanos, timePhases,
+        serviceNanos, rankingNanos, estimationNanos);
+    log.info("{}", stats);
+    return stats;
+  }
+
+  private static long[] shuffledUserIDs(DataModel dataModel) throws TasteException {
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    Preconditions.checkState(userIDs.length > 0, "No users in data model");
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    int i = 0;
+    while (it.hasNext() && i < userIDs.length) {
+      userIDs[i++] = it.nextLong();
+    }
+    if (i < userIDs.length) {
+      long[] copy = new long[i];
+      System.arraycopy(userIDs, 0, copy, 0, i);
+      userIDs = copy;
+    }
+    Random random = RandomUtils.getRandom();
+    for (int j = i - 1; j > 0; j--) {
+      int k = random.nextInt(j + 1);
+      long temp = userIDs[j];
+      userIDs[j] = userIDs[k];
+      userIDs[k] = temp;
+    }
+    return userIDs;
+  }
+
+  private final class Worker implements Callable<Void> {
+
+    private final long[] userIDs;
+    private final ZipfSampler sampler;
+    private final Random random;
+    private final AtomicLong nextRequest;
+    private final long startNanos;
+    private final long intervalNanos;
+    private final LatencyHistogram latencies;
+    private long numErrors;
+    private long firstStartNanos;
+    private long lastEndNanos;
+    private long serviceNanos;
+    private long rankingNanos;
+    private long estimationNanos;
+
+    private Worker(long[] userIDs, ZipfSampler sampler, Random random, AtomicLong nextRequest, long startNanos,
+                   long intervalNanos) {
+      this.userIDs = userIDs;
+      this.sampler = sampler;
+      this.random = random;
+      this.nextRequest = nextRequest;
+      this.startNanos = startNanos;
+      this.intervalNanos = intervalNanos;
+      this.latencies = new LatencyHistogram();
+      this.firstStartNanos = Long.MAX_VALUE;
+      this.lastEndNanos = Long.MIN_VALUE;
+    }
+
+    @Override
+    public Void call() throws TasteException {
+      RecommendPhaseTimer timer = null;
+      if (timePhases) {
+        timer = new RecommendPhaseTimer();
+        timer.attach();
+      }
+      try {
+        long totalRequests = (long) numWarmUpRequests + numRequests;
+        long request;
+        while ((request = nextRequest.getAndIncrement()) < totalRequests) {
+          long userID = userIDs[sampler == null ? random.nextInt(userIDs.length) : sampler.sample(random) - 1];
+          long dueNanos = startNanos + request * intervalNanos;
+          if (intervalNanos > 0L) {
+            long wait;
+            while ((wait = dueNanos - System.nanoTime()) > 0L) {
+              LockSupport.parkNanos(wait);
+            }
+          }
+          if (timer != null) {
+            timer.reset();
+          }
+          long sentNanos = System.nanoTime();
+          boolean failed = false;
+          try {
+            recommender.recommend(userID, howMany);
+          } catch (TasteException te) {
+            failed = true;
+          }
+          long endNanos = System.nanoTime();
+          if (request >= numWarmUpRequests) {
+            long fromNanos = intervalNanos > 0L ? dueNanos : sentNanos;
+            latencies.recordValue(Math.max(0L, endNanos - fromNanos));
+            if (failed) {
+              numErrors++;
+            }
+            firstStartNanos = Math.min(firstStartNanos, fromNanos);
+            lastEndNanos = endNanos;
+            serviceNanos += endNanos - sentNanos;
+            if (timer != null) {
+              rankingNanos += timer.getRankingNanos();
+              estimationNanos += timer.getEstimationNanos();
+            }
+          }
+        }
+      } finally {
+        if (timer != null) {
+          RecommendPhaseTimer.detach();
+        }
+      }
+      return null;
+    }
+
+  }
+
+  /**
+   * Samples ranks from 1 to n with probability proportional to 1/rank<sup>exponent</sup>, in constant
+   * expected time and without a table, by rejection-inversion (Hoermann and Derflinger, 1996).
+   */
+  static final class ZipfSampler {
+
+    private final int n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    ZipfSampler(int n, double exponent) {
+      Preconditions.checkArgument(n > 0, "n must be at least 1: %s", n);
+      Preconditions.checkArgument(exponent > 0.0, "exponent must be positive: %s", exponent);
+      this.n = n;
+      this.exponent = exponent;
+      hIntegralX1 = hIntegral(1.5) - 1.0;
+      hIntegralN = hIntegral(n + 0.5);
+      s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    int sample(Random random) {
+      while (true) {
+        double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+        double x = hIntegralInverse(u);
+        int k = (int) (x + 0.5);
+        if (k < 1) {
+          k = 1;
+        } else if (k > n) {
+          k = n;
+        }
+        if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+          return k;
+        }
+      }
+    }
+
+    private double hIntegral(double x) {
+      double logX = Math.log(x);
+      return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+      return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+      double t = x * (1.0 - exponent);
+      if (t < -1.0) {
+        t = -1.0;
+      }
+      return Math.exp(helper1(t) * x);
+    }
+
+    /** @return log(1 + x) / x, also for x near 0 */
+    private static double helper1(double x) {
+      if (Math.abs(x) > 1.0e-8) {
+        return Math.log1p(x) / x;
+      }
+      return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+
+    /** @return (exp(x) - 1) / x, also for x near 0 */
+    private static double helper2(double x) {
+      if (Math.abs(x) > 1.0e-8) {
+        return Math.expm1(x) / x;
+      }
+      return 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+    }
+
+  }
+
+}
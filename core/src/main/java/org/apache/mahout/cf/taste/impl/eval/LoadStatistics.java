@@ -17,18 +17,114 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 
+/**
+ * Results of a {@link LoadGenerator} run. Latencies are in nanoseconds, apart from {@link #getTiming()}.
+ */
 public final class LoadStatistics {
-  
+
   private final RunningAverage timing;
+  private final LatencyHistogram latencies;
+  private final long numErrors;
+  private final long elapsedNanos;
+  private final boolean phasesTimed;
+  private final long serviceNanos;
+  private final long rankingNanos;
+  private final long estimationNanos;
 
-  LoadStatistics(RunningAverage timing) {
-    this.timing = timing;
+  LoadStatistics(LatencyHistogram latencies,
+                 long numErrors,
+                 long elapsedNanos,
+                 boolean phasesTimed,
+                 long serviceNanos,
+                 long rankingNanos,
+                 long estimationNanos) {
+    this.timing = new FixedRunningAverageAndStdDev(latencies.getMean() / 1.0e6,
+        latencies.getStandardDeviation() / 1.0e6, (int) Math.min(Integer.MAX_VALUE, latencies.getTotalCount()));
+    this.latencies = latencies;
+    this.numErrors = numErrors;
+    this.elapsedNanos = elapsedNanos;
+    this.phasesTimed = phasesTimed;
+    this.serviceNanos = serviceNanos;
+    this.rankingNanos = rankingNanos;
+    this.estimationNanos = estimationNanos;
   }
 
+  /** @return average and standard deviation of latency, in milliseconds */
   public RunningAverage getTiming() {
     return timing;
   }
-  
+
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  /** @return number of measured requests, including failed ones */
+  public long getNumRequests() {
+    return latencies.getTotalCount();
+  }
+
+  /** @return number of measured requests which failed with an exception */
+  public long getNumErrors() {
+    return numErrors;
+  }
+
+  /** @return measured requests completed per second */
+  public double getThroughput() {
+    return elapsedNanos <= 0L ? Double.NaN : getNumRequests() * 1.0e9 / elapsedNanos;
+  }
+
+  /**
+   * @return average time per request spent outside of ranking, chiefly finding candidate items, or
+   *  {@link Double#NaN} if phases were not timed
+   */
+  public double getCandidateGenerationNanos() {
+    return perRequest(serviceNanos - rankingNanos);
+  }
+
+  /**
+   * @return average time per request spent estimating preferences or similarities of candidates, or
+   *  {@link Double#NaN} if phases were not timed
+   */
+  public double getEstimationNanos() {
+    return perRequest(estimationNanos);
+  }
+
+  /**
+   * @return average time per request spent keeping the top candidates, or {@link Double#NaN} if phases were not
+   *  timed
+   */
+  public double getSelectionNanos() {
+    return perRequest(rankingNanos - estimationNanos);
+  }
+
+  private double perRequest(long nanos) {
+    return phasesTimed && getNumRequests() > 0 ? (double) nanos / getNumRequests() : Double.NaN;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(200);
+    result.append("LoadStatistics[requests:").append(getNumRequests());
+    result.append(", errors:").append(numErrors);
+    result.append(", throughput:").append(getThroughput()).append("/s");
+    result.append(", mean:").append(toMillis(latencies.getMean())).append("ms");
+    result.append(", p50:").append(toMillis(latencies.getValueAtPercentile(50.0))).append("ms");
+    result.append(", p99:").append(toMillis(latencies.getValueAtPercentile(99.0))).append("ms");
+    result.append(", p99.9:").append(toMillis(latencies.getValueAtPercentile(99.9))).append("ms");
+    result.append(", max:").append(toMillis(latencies.getMax())).append("ms");
+    if (phasesTimed) {
+      result.append(", candidates:").append(toMillis(getCandidateGenerationNanos())).append("ms");
+      result.append(", estimation:").append(toMillis(getEstimationNanos())).append("ms");
+      result.append(", selection:").append(toMillis(getSelectionNanos())).append("ms");
+    }
+    return result.append(']').toString();
+  }
+
+  private static double toMillis(double nanos) {
+    return nanos / 1.0e6;
+  }
+
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates users on a pool of threads, one per accumulator. Threads take user IDs from a shared iterator in
+ * small batches, so no list of users or of tasks is ever built, and a thread that drew cheap users just comes
+ * back for more sooner. Each thread feeds its own accumulator; when all users are done, the accumulators are
+ * merged into the first one.
+ */
+final class ParallelUserEvaluation {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelUserEvaluation.class);
+
+  private static final int BATCH_SIZE = 64;
+  private static final long LOG_EVERY = 10000L;
+
+  interface UserAccumulator<T extends UserAccumulator<T>> {
+
+    void processUser(long userID) throws TasteException;
+
+    void merge(T other);
+
+  }
+
+  private ParallelUserEvaluation() {
+  }
+
+  static <T extends UserAccumulator<T>> T evaluate(final LongPrimitiveIterator userIDs, List<T> accumulators)
+    throws TasteException {
+    final AtomicLong numUsers = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(accumulators.size());
+    try {
+      List<Future<Void>> futures = Lists.newArrayListWithCapacity(accumulators.size());
+      for (final T accumulator : accumulators) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws TasteException {
+            long[] batch = new long[BATCH_SIZE];
+            int size;
+            while ((size = nextBatch(userIDs, batch)) > 0) {
+              for (int i = 0; i < size; i++) {
+                accumulator.processUser(batch[i]);
+              }
+              long before = numUsers.getAndAdd(size);
+              if ((before + size) / LOG_EVERY > before / LOG_EVERY) {
+                log.info("Evaluated {} users", before + size);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+    T result = accumulators.get(0);
+    for (int i = 1; i < accumulators.size(); i++) {
+      result.merge(accumulators.get(i));
+    }
+    return result;
+  }
+
+  private static int nextBatch(LongPrimitiveIterator userIDs, long[] batch) {
+    synchronized (userIDs) {
+      int size = 0;
+      while (size < batch.length && userIDs.hasNext()) {
+        batch[size++] = userIDs.nextLong();
+      }
+      return size;
+    }
+  }
+
+}
@@ -48,9 +48,40 @@ public final class RMSRecommenderEvaluator extends AbstractDifferenceRecommender
     return Math.sqrt(average.getAverage());
   }
   
+  @Override
+  protected EstimateAccumulator newEstimateAccumulator() {
+    return new SquaredDifferenceAccumulator();
+  }
+  
   @Override
   public String toString() {
     return "RMSRecommenderEvaluator";
   }
+
+  private static final class SquaredDifferenceAccumulator extends EstimateAccumulator {
+
+    private double sum;
+    private long count;
+
+    @Override
+    protected void processOneEstimate(float estimatedPreference, Preference realPref) {
+      double diff = realPref.getValue() - estimatedPreference;
+      sum += diff * diff;
+      count++;
+    }
+
+    @Override
+    protected void merge(EstimateAccumulator other) {
+      SquaredDifferenceAccumulator otherAccumulator = (SquaredDifferenceAccumulator) other;
+      sum += otherAccumulator.sum;
+      count += otherAccumulator.count;
+    }
+
+    @Override
+    protected double computeFinalEvaluation() {
+      return Math.sqrt(sum / count);
+    }
+
+  }
   
 }
@@ -0,0 +1,428 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * An in-memory {@link DataModel}, like {@link GenericDataModel}, which also supports
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} concurrently with reads,
+ * so that preferences can be updated online without reloading the model.
+ * </p>
+ *
+ * <p>
+ * Readers never lock. Each user's and each item's preferences are held as an immutable {@link PreferenceArray}
+ * snapshot, sorted by item ID and user ID respectively, in a {@link ConcurrentHashMap}. A write copies the
+ * user's and the item's arrays with the change applied and publishes the copies by replacing the map entries,
+ * so a reader sees each array either entirely before or entirely after the write. Writes to the same user are
+ * serialized on one of a fixed set of locks; writes of different users to the same item retry until their
+ * copy replaces the array it was made from. An array returned by this model must not be modified.
+ * </p>
+ *
+ * <p>
+ * The user-side and item-side change of a write are published one after the other: while a write is in
+ * progress, a reader may see it in the user's preferences but not yet in the item's. Once the write returns,
+ * both reflect it. A user or item without preferences is removed from the model. Timestamps are not stored.
+ * </p>
+ */
+public final class ConcurrentGenericDataModel extends AbstractDataModel {
+
+  /** Number of locks across which writes are spread by user ID */
+  private static final int NUM_WRITE_LOCKS = 64;
+
+  private final ConcurrentMap<Long,PreferenceArray> preferenceFromUsers;
+  private final ConcurrentMap<Long,PreferenceArray> preferenceForItems;
+  private final Object[] writeLocks;
+  /** Incremented whenever a user is added or removed */
+  private final AtomicInteger userIDsVersion = new AtomicInteger();
+  /** Incremented whenever an item is added or removed */
+  private final AtomicInteger itemIDsVersion = new AtomicInteger();
+  private volatile SortedIDs userIDs;
+  private volatile SortedIDs itemIDs;
+
+  /**
+   * Creates an empty model.
+   */
+  public ConcurrentGenericDataModel() {
+    this(new FastByIDMap<PreferenceArray>());
+  }
+
+  /**
+   * @param userData users to include initially; see also {@link GenericDataModel#toDataMap(DataModel)}. The
+   *  arrays are sorted in place, and must not be modified afterwards.
+   */
+  public ConcurrentGenericDataModel(FastByIDMap<PreferenceArray> userData) {
+    Preconditions.checkArgument(userData != null, "userData is null");
+    GenericDataModel initial = new GenericDataModel(userData);
+    preferenceFromUsers = toConcurrentMap(initial.getRawUserData());
+    preferenceForItems = toConcurrentMap(initial.getRawItemData());
+    setMaxPreference(initial.getMaxPreference());
+    setMinPreference(initial.getMinPreference());
+    writeLocks = new Object[NUM_WRITE_LOCKS];
+    for (int i = 0; i < writeLocks.length; i++) {
+      writeLocks[i] = new Object();
+    }
+  }
+
+  private static ConcurrentMap<Long,PreferenceArray> toConcurrentMap(FastByIDMap<PreferenceArray> data) {
+    ConcurrentMap<Long,PreferenceArray> result = new ConcurrentHashMap<Long,PreferenceArray>(data.size());
+    for (Map.Entry<Long,PreferenceArray> entry : data.entrySet()) {
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    SortedIDs ids = userIDs;
+    int version = userIDsVersion.get();
+    if (ids == null || ids.version != version) {
+      ids = new SortedIDs(version, preferenceFromUsers);
+      userIDs = ids;
+    }
+    return new LongPrimitiveArrayIterator(ids.ids);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    PreferenceArray prefs = preferenceFromUsers.get(userID);
+    if (prefs == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    SortedIDs ids = itemIDs;
+    int version = itemIDsVersion.get();
+    if (ids == null || ids.version != version) {
+      ids = new SortedIDs(version, preferenceForItems);
+      itemIDs = ids;
+    }
+    return new LongPrimitiveArrayIterator(ids.ids);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    PreferenceArray prefs = preferenceForItems.get(itemID);
+    if (prefs == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int index = indexOf(prefs, true, itemID);
+    return index < 0 ? null : prefs.getValue(index);
+  }
+
+  /**
+   * @return null, since timestamps are not stored
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    getPreferencesFromUser(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return preferenceForItems.size();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return preferenceFromUsers.size();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    PreferenceArray prefs = preferenceForItems.get(itemID);
+    return prefs == null ? 0 : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    PreferenceArray prefs1 = preferenceForItems.get(itemID1);
+    if (prefs1 == null) {
+      return 0;
+    }
+    PreferenceArray prefs2 = preferenceForItems.get(itemID2);
+    if (prefs2 == null) {
+      return 0;
+    }
+    int size1 = prefs1.length();
+    int size2 = prefs2.length();
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size1 && j < size2) {
+      long userID1 = prefs1.getUserID(i);
+      long userID2 = prefs2.getUserID(j);
+      if (userID1 < userID2) {
+        i++;
+      } else if (userID1 > userID2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    Preconditions.checkArgument(!Float.isNaN(value), "NaN value");
+    synchronized (writeLockFor(userID)) {
+      PreferenceArray oldUserPrefs = preferenceFromUsers.get(userID);
+      preferenceFromUsers.put(userID, withPreference(oldUserPrefs, true, userID, itemID, value));
+      if (oldUserPrefs == null) {
+        userIDsVersion.incrementAndGet();
+      }
+      while (true) {
+        PreferenceArray oldItemPrefs = preferenceForItems.get(itemID);
+        PreferenceArray newItemPrefs = withPreference(oldItemPrefs, false, userID, itemID, value);
+        if (oldItemPrefs == null) {
+          if (preferenceForItems.putIfAbsent(itemID, newItemPrefs) == null) {
+            itemIDsVersion.incrementAndGet();
+            break;
+          }
+        } else if (preferenceForItems.replace(itemID, oldItemPrefs, newItemPrefs)) {
+          break;
+        }
+      }
+    }
+    widenPreferenceRange(value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    synchronized (writeLockFor(userID)) {
+      PreferenceArray oldUserPrefs = preferenceFromUsers.get(userID);
+      if (oldUserPrefs == null || indexOf(oldUserPrefs, true, itemID) < 0) {
+        return;
+      }
+      PreferenceArray newUserPrefs = withoutPreference(oldUserPrefs, true, itemID);
+      if (newUserPrefs == null) {
+        preferenceFromUsers.remove(userID);
+        userIDsVersion.incrementAndGet();
+      } else {
+        preferenceFromUsers.put(userID, newUserPrefs);
+      }
+      while (true) {
+        PreferenceArray oldItemPrefs = preferenceForItems.get(itemID);
+        if (oldItemPrefs == null) {
+          break;
+        }
+        PreferenceArray newItemPrefs = withoutPreference(oldItemPrefs, false, userID);
+        if (newItemPrefs == null) {
+          if (preferenceForItems.remove(itemID, oldItemPrefs)) {
+            itemIDsVersion.incrementAndGet();
+            break;
+          }
+        } else if (preferenceForItems.replace(itemID, oldItemPrefs, newItemPrefs)) {
+          break;
+        }
+      }
+    }
+  }
+
+  private Object writeLockFor(long userID) {
+    return writeLocks[(int) ((userID ^ (userID >>> 32)) & 0x7FFFFFFF) % writeLocks.length];
+  }
+
+  private synchronized void widenPreferenceRange(float value) {
+    if (Float.isNaN(getMaxPreference()) || value > getMaxPreference()) {
+      setMaxPreference(value);
+    }
+    if (Float.isNaN(getMinPreference()) || value < getMinPreference()) {
+      setMinPreference(value);
+    }
+  }
+
+  /**
+   * @param byItem true for one user's preferences, sorted by item ID; false for one item's, sorted by user ID
+   * @return index of the preference with the given item or user ID, or a negative value
+   */
+  private static int indexOf(PreferenceArray prefs, boolean byItem, long id) {
+    int low = 0;
+    int high = prefs.length() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midID = byItem ? prefs.getItemID(mid) : prefs.getUserID(mid);
+      if (midID < id) {
+        low = mid + 1;
+      } else if (midID > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @param prefs preferences of one user (byItem) or item (!byItem), or null if there are none
+   * @return a sorted copy of prefs in which the preference of userID for itemID has the given value
+   */
+  private static PreferenceArray withPreference(PreferenceArray prefs, boolean byItem, long userID, long itemID,
+                                                float value) {
+    if (prefs == null) {
+      PreferenceArray newPrefs = byItem ? new GenericUserPreferenceArray(1) : new GenericItemPreferenceArray(1);
+      set(newPrefs, 0, userID, itemID, value);
+      return newPrefs;
+    }
+    int length = prefs.length();
+    int index = indexOf(prefs, byItem, byItem ? itemID : userID);
+    if (index >= 0) {
+      PreferenceArray newPrefs = prefs.clone();
+      newPrefs.setValue(index, value);
+      return newPrefs;
+    }
+    int insertAt = -index - 1;
+    PreferenceArray newPrefs =
+        byItem ? new GenericUserPreferenceArray(length + 1) : new GenericItemPreferenceArray(length + 1);
+    for (int i = 0; i < insertAt; i++) {
+      set(newPrefs, i, prefs.getUserID(i), prefs.getItemID(i), prefs.getValue(i));
+    }
+    set(newPrefs, insertAt, userID, itemID, value);
+    for (int i = insertAt; i < length; i++) {
+      set(newPrefs, i + 1, prefs.getUserID(i), prefs.getItemID(i), prefs.getValue(i));
+    }
+    return newPrefs;
+  }
+
+  /**
+   * @return a copy of prefs without the preference for the given item (byItem) or of the given user (!byItem),
+   *  or null if none would remain
+   */
+  private static PreferenceArray withoutPreference(PreferenceArray prefs, boolean byItem, long id) {
+    int index = indexOf(prefs, byItem, id);
+    if (index < 0) {
+      return prefs;
+    }
+    int length = prefs.length();
+    if (length == 1) {
+      return null;
+    }
+    PreferenceArray newPrefs =
+        byItem ? new GenericUserPreferenceArray(length - 1) : new GenericItemPreferenceArray(length - 1);
+    int j = 0;
+    for (int i = 0; i < length; i++) {
+      if (i != index) {
+        set(newPrefs, j++, prefs.getUserID(i), prefs.getItemID(i), prefs.getValue(i));
+      }
+    }
+    return newPrefs;
+  }
+
+  private static void set(PreferenceArray prefs, int i, long userID, long itemID, float value) {
+    prefs.setUserID(i, userID);
+    prefs.setItemID(i, itemID);
+    prefs.setValue(i, value);
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(200);
+    result.append("ConcurrentGenericDataModel[users:");
+    int count = 0;
+    for (Long userID : preferenceFromUsers.keySet()) {
+      if (count++ == 3) {
+        result.append("...");
+        break;
+      }
+      if (count > 1) {
+        result.append(',');
+      }
+      result.append(userID);
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+  /** Sorted snapshot of the keys of a map, valid while the version it was taken at is current */
+  private static final class SortedIDs {
+
+    private final int version;
+    private final long[] ids;
+
+    private SortedIDs(int version, Map<Long,?> map) {
+      this.version = version;
+      long[] keys = new long[map.size()];
+      int i = 0;
+      for (Long key : map.keySet()) {
+        if (i == keys.length) {
+          keys = Arrays.copyOf(keys, Math.max(8, i << 1));
+        }
+        keys[i++] = key;
+      }
+      ids = Arrays.copyOf(keys, i);
+      Arrays.sort(ids);
+    }
+  }
+
+}
@@ -107,6 +107,18 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
     this.timestamps = timestamps;
   }
   
+  private GenericBooleanPrefDataModel(long[] userIDs,
+                                      FastByIDMap<FastIDSet> preferenceFromUsers,
+                                      long[] itemIDs,
+                                      FastByIDMap<FastIDSet> preferenceForItems,
+                                      FastByIDMap<FastByIDMap<Long>> timestamps) {
+    this.userIDs = userIDs;
+    this.preferenceFromUsers = preferenceFromUsers;
+    this.itemIDs = itemIDs;
+    this.preferenceForItems = preferenceForItems;
+    this.timestamps = timestamps;
+  }
+
   /**
    * <p>
    * Creates a new {@link GenericDataModel} containing an immutable copy of the data from another given
@@ -154,6 +166,102 @@ public final class GenericBooleanPrefDataModel extends AbstractDataModel {
     return (FastByIDMap<FastIDSet>) (FastByIDMap<?>) data;
   }
   
+  /**
+   * <p>
+   * Creates a new {@link GenericBooleanPrefDataModel} reflecting changes to the items of some users, without
+   * rebuilding it from scratch: this model is left untouched, and the new one shares all data structures of
+   * users and items which are not affected. The cost is proportional to the number of changed preferences,
+   * plus copying the (shallow) maps of users and items.
+   * </p>
+   *
+   * @param newUserData all user data for the new model; typically a {@link FastByIDMap#clone()} of
+   *  {@link #getRawUserData()} in which changed users' {@link FastIDSet}s have been replaced with new
+   *  instances (never modified in place) or removed
+   * @param changedUserIDs IDs of all users whose items differ between this model and newUserData
+   * @param timestamps timestamps for the new model, as in
+   *  {@link #GenericBooleanPrefDataModel(FastByIDMap, FastByIDMap)}
+   */
+  public GenericBooleanPrefDataModel withChangedUsers(FastByIDMap<FastIDSet> newUserData,
+                                                      FastIDSet changedUserIDs,
+                                                      FastByIDMap<FastByIDMap<Long>> timestamps) {
+    Preconditions.checkArgument(newUserData != null, "newUserData is null");
+    Preconditions.checkArgument(changedUserIDs != null, "changedUserIDs is null");
+
+    FastByIDMap<FastIDSet> newItemData = preferenceForItems.clone();
+    // Item -> user sets already copied for the new model, which may be modified in place
+    FastIDSet copiedItemIDs = new FastIDSet();
+    boolean userIDsChanged = false;
+    boolean itemIDsChanged = false;
+    LongPrimitiveIterator changedUsersIt = changedUserIDs.iterator();
+    while (changedUsersIt.hasNext()) {
+      long userID = changedUsersIt.nextLong();
+      FastIDSet oldItemIDs = preferenceFromUsers.get(userID);
+      FastIDSet newItemIDs = newUserData.get(userID);
+      if ((oldItemIDs == null) != (newItemIDs == null)) {
+        userIDsChanged = true;
+      }
+      if (oldItemIDs != null) {
+        LongPrimitiveIterator it = oldItemIDs.iterator();
+        while (it.hasNext()) {
+          long itemID = it.nextLong();
+          if (newItemIDs == null || !newItemIDs.contains(itemID)) {
+            FastIDSet itemUserIDs = copyForWrite(newItemData, copiedItemIDs, itemID);
+            itemUserIDs.remove(userID);
+            if (itemUserIDs.isEmpty()) {
+              newItemData.remove(itemID);
+              itemIDsChanged = true;
+            }
+          }
+        }
+      }
+      if (newItemIDs != null) {
+        LongPrimitiveIterator it = newItemIDs.iterator();
+        while (it.hasNext()) {
+          long itemID = it.nextLong();
+          if (oldItemIDs == null || !oldItemIDs.contains(itemID)) {
+            FastIDSet itemUserIDs = copyForWrite(newItemData, copiedItemIDs, itemID);
+            if (itemUserIDs.isEmpty()) {
+              itemIDsChanged = true;
+            }
+            itemUserIDs.add(userID);
+          }
+        }
+      }
+    }
+
+    long[] newUserIDs = userIDsChanged ? sortedKeys(newUserData) : userIDs;
+    long[] newItemIDs = itemIDsChanged ? sortedKeys(newItemData) : itemIDs;
+    return new GenericBooleanPrefDataModel(newUserIDs, newUserData, newItemIDs, newItemData, timestamps);
+  }
+
+  /**
+   * @return the set of users for the item in newItemData, first copying it (or creating an empty one) if not
+   *  already done, so that it is not shared with this model
+   */
+  private static FastIDSet copyForWrite(FastByIDMap<FastIDSet> newItemData, FastIDSet copiedItemIDs, long itemID) {
+    FastIDSet itemUserIDs = newItemData.get(itemID);
+    if (copiedItemIDs.add(itemID)) {
+      itemUserIDs = itemUserIDs == null ? new FastIDSet(2) : itemUserIDs.clone();
+      newItemData.put(itemID, itemUserIDs);
+    } else if (itemUserIDs == null) {
+      // Copied earlier, then removed once it became empty
+      itemUserIDs = new FastIDSet(2);
+      newItemData.put(itemID, itemUserIDs);
+    }
+    return itemUserIDs;
+  }
+
+  private static long[] sortedKeys(FastByIDMap<?> map) {
+    long[] keys = new long[map.size()];
+    int i = 0;
+    LongPrimitiveIterator it = map.keySetIterator();
+    while (it.hasNext()) {
+      keys[i++] = it.nextLong();
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
   /**
    * This is used mostly internally to the framework, and shouldn't be relied upon otherwise.
    */
@@ -136,6 +136,22 @@ public final class GenericDataModel extends AbstractDataModel {
     this.timestamps = timestamps;
   }
 
+  private GenericDataModel(long[] userIDs,
+                           FastByIDMap<PreferenceArray> preferenceFromUsers,
+                           long[] itemIDs,
+                           FastByIDMap<PreferenceArray> preferenceForItems,
+                           FastByIDMap<FastByIDMap<Long>> timestamps,
+                           float minPrefValue,
+                           float maxPrefValue) {
+    this.userIDs = userIDs;
+    this.preferenceFromUsers = preferenceFromUsers;
+    this.itemIDs = itemIDs;
+    this.preferenceForItems = preferenceForItems;
+    this.timestamps = timestamps;
+    setMinPreference(minPrefValue);
+    setMaxPreference(maxPrefValue);
+  }
+
   /**
    * <p>
    * Creates a new containing an immutable copy of the data from another given
@@ -183,6 +199,174 @@ public final class GenericDataModel extends AbstractDataModel {
     return data;
   }
   
+  /**
+   * <p>
+   * Creates a new {@link GenericDataModel} reflecting changes to the preferences of some users, without
+   * rebuilding it from scratch: this model is left untouched, and the new one shares all data structures of
+   * users and items which are not affected. The cost is proportional to the number of changed preferences,
+   * plus copying the (shallow) maps of users and items.
+   * </p>
+   *
+   * <p>
+   * Minimum and maximum preference values are only ever widened by changes, so may be looser than the true
+   * bounds of the new data.
+   * </p>
+   *
+   * @param newUserData all user data for the new model; typically a {@link FastByIDMap#clone()} of
+   *  {@link #getRawUserData()} in which changed users' {@link PreferenceArray}s have been replaced with new
+   *  instances (never modified in place) or removed. Users mapped to an empty array are removed.
+   * @param changedUserIDs IDs of all users whose preferences differ between this model and newUserData
+   * @param timestamps timestamps for the new model, as in {@link #GenericDataModel(FastByIDMap, FastByIDMap)}
+   */
+  public GenericDataModel withChangedUsers(FastByIDMap<PreferenceArray> newUserData,
+                                           FastIDSet changedUserIDs,
+                                           FastByIDMap<FastByIDMap<Long>> timestamps) {
+    Preconditions.checkArgument(newUserData != null, "newUserData is null");
+    Preconditions.checkArgument(changedUserIDs != null, "changedUserIDs is null");
+
+    float maxPrefValue = getMaxPreference();
+    float minPrefValue = getMinPreference();
+    boolean userIDsChanged = false;
+    // For each affected item, the users whose preference for it may have been added, changed or removed
+    FastByIDMap<FastIDSet> changedItemUsers = new FastByIDMap<FastIDSet>();
+    LongPrimitiveIterator changedUsersIt = changedUserIDs.iterator();
+    while (changedUsersIt.hasNext()) {
+      long userID = changedUsersIt.nextLong();
+      PreferenceArray oldPrefs = preferenceFromUsers.get(userID);
+      PreferenceArray newPrefs = newUserData.get(userID);
+      if (newPrefs != null && newPrefs.length() == 0) {
+        newUserData.remove(userID);
+        newPrefs = null;
+      }
+      if ((oldPrefs == null) != (newPrefs == null)) {
+        userIDsChanged = true;
+      }
+      if (oldPrefs != null) {
+        for (int i = 0; i < oldPrefs.length(); i++) {
+          addChangedItemUser(changedItemUsers, oldPrefs.getItemID(i), userID);
+        }
+      }
+      if (newPrefs != null) {
+        newPrefs.sortByItem();
+        for (int i = 0; i < newPrefs.length(); i++) {
+          addChangedItemUser(changedItemUsers, newPrefs.getItemID(i), userID);
+          float value = newPrefs.getValue(i);
+          if (value > maxPrefValue) {
+            maxPrefValue = value;
+          }
+          if (value < minPrefValue) {
+            minPrefValue = value;
+          }
+        }
+      }
+    }
+
+    FastByIDMap<PreferenceArray> newItemData = preferenceForItems.clone();
+    boolean itemIDsChanged = false;
+    for (Map.Entry<Long,FastIDSet> entry : changedItemUsers.entrySet()) {
+      long itemID = entry.getKey();
+      FastIDSet changedUsers = entry.getValue();
+      PreferenceArray oldPrefs = preferenceForItems.get(itemID);
+      int oldLength = oldPrefs == null ? 0 : oldPrefs.length();
+      int[] newPrefIndices = new int[changedUsers.size()];
+      long[] newPrefUserIDs = new long[changedUsers.size()];
+      int numNewPrefs = 0;
+      LongPrimitiveIterator changedIt = changedUsers.iterator();
+      while (changedIt.hasNext()) {
+        long userID = changedIt.nextLong();
+        PreferenceArray userPrefs = newUserData.get(userID);
+        int index = userPrefs == null ? -1 : indexOfItem(userPrefs, itemID);
+        if (index >= 0) {
+          newPrefIndices[numNewPrefs] = index;
+          newPrefUserIDs[numNewPrefs] = userID;
+          numNewPrefs++;
+        }
+      }
+      int numKeptPrefs = 0;
+      for (int i = 0; i < oldLength; i++) {
+        if (!changedUsers.contains(oldPrefs.getUserID(i))) {
+          numKeptPrefs++;
+        }
+      }
+      int newLength = numKeptPrefs + numNewPrefs;
+      if (newLength == 0) {
+        if (oldPrefs != null) {
+          newItemData.remove(itemID);
+          itemIDsChanged = true;
+        }
+        continue;
+      }
+      if (oldPrefs == null) {
+        itemIDsChanged = true;
+      }
+      PreferenceArray newPrefs = new GenericItemPreferenceArray(newLength);
+      newPrefs.setItemID(0, itemID);
+      int j = 0;
+      for (int i = 0; i < oldLength; i++) {
+        long userID = oldPrefs.getUserID(i);
+        if (!changedUsers.contains(userID)) {
+          newPrefs.setUserID(j, userID);
+          newPrefs.setValue(j, oldPrefs.getValue(i));
+          j++;
+        }
+      }
+      for (int i = 0; i < numNewPrefs; i++) {
+        long userID = newPrefUserIDs[i];
+        newPrefs.setUserID(j, userID);
+        newPrefs.setValue(j, newUserData.get(userID).getValue(newPrefIndices[i]));
+        j++;
+      }
+      newPrefs.sortByUser();
+      newItemData.put(itemID, newPrefs);
+    }
+
+    long[] newUserIDs = userIDsChanged ? sortedKeys(newUserData) : userIDs;
+    long[] newItemIDs = itemIDsChanged ? sortedKeys(newItemData) : itemIDs;
+    log.info("Applied changes to {} users and {} items", changedUserIDs.size(), changedItemUsers.size());
+    return new GenericDataModel(newUserIDs, newUserData, newItemIDs, newItemData, timestamps,
+                                minPrefValue, maxPrefValue);
+  }
+
+  private static void addChangedItemUser(FastByIDMap<FastIDSet> changedItemUsers, long itemID, long userID) {
+    FastIDSet users = changedItemUsers.get(itemID);
+    if (users == null) {
+      users = new FastIDSet(2);
+      changedItemUsers.put(itemID, users);
+    }
+    users.add(userID);
+  }
+
+  /**
+   * @return index of the preference for the given item in an array sorted by item ID, or a negative value
+   */
+  private static int indexOfItem(PreferenceArray prefs, long itemID) {
+    int low = 0;
+    int high = prefs.length() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midItemID = prefs.getItemID(mid);
+      if (midItemID < itemID) {
+        low = mid + 1;
+      } else if (midItemID > itemID) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static long[] sortedKeys(FastByIDMap<?> map) {
+    long[] keys = new long[map.size()];
+    int i = 0;
+    LongPrimitiveIterator it = map.keySetIterator();
+    while (it.hasNext()) {
+      keys[i++] = it.nextLong();
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+  
   /**
    * This is used mostly internally to the framework, and shouldn't be relied upon otherwise.
    */
@@ -18,14 +18,17 @@
 package org.apache.mahout.cf.taste.impl.model;
 
 import com.google.common.base.Preconditions;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -86,12 +89,17 @@ import org.slf4j.LoggerFactory;
  */
 public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUserDataModel {
 
-  /** Preferences for all anonymous users */
+  /** Preferences for all anonymous users which have any */
   private final Map<Long,PreferenceArray> tempPrefs;
-  /** Item IDs set for all anonymous users */
+  /** Item IDs set for all anonymous users which have any preferences */
   private final Map<Long,FastIDSet> prefItemIDs;
+  /** Anonymous users taken from the pool, or given preferences, and not released since */
+  private final Set<Long> takenUsers;
   /** Pool of the users (FIFO) */
   private Queue<Long> usersPool;
+  private final int usersPoolSize;
+  /** Serializes changes to the preferences of anonymous users; reads don't lock */
+  private final Object anonymousWriteLock = new Object();
 
   private static final Logger log = LoggerFactory.getLogger(PlusAnonymousUserDataModel.class);
 
@@ -104,7 +112,9 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
 
     tempPrefs = new ConcurrentHashMap<Long, PreferenceArray>();
     prefItemIDs = new ConcurrentHashMap<Long, FastIDSet>();
+    takenUsers = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
 
+    usersPoolSize = maxConcurrentUsers;
     initializeUsersPools(maxConcurrentUsers);
   }
 
@@ -128,8 +138,7 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   public Long takeAvailableUser() {
     Long takenUserID = usersPool.poll();
     if (takenUserID != null) {
-      // Initialize the preferences array to indicate that the user is taken.
-      tempPrefs.put(takenUserID, new GenericUserPreferenceArray(0));
+      takenUsers.add(takenUserID);
       return takenUserID;
     }
     return null;
@@ -142,7 +151,7 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
    * @return true if the user was previously taken, false otherwise
    */
   public boolean releaseUser(Long userID) {
-    if (tempPrefs.containsKey(userID)) {
+    if (takenUsers.remove(userID)) {
       this.clearTempPrefs(userID);
       // Return previously taken user to the pool
       usersPool.offer(userID);
@@ -155,7 +164,14 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
    * Checks whether a given user is a valid previously acquired anonymous user.
    */
   private boolean isAnonymousUser(long userID) {
-    return tempPrefs.containsKey(userID);
+    return takenUsers.contains(userID);
+  }
+
+  /**
+   * Checks whether a given user ID belongs to the pool, whether or not the user is taken.
+   */
+  private boolean isPoolUserID(long userID) {
+    return userID >= TEMP_USER_ID && userID < TEMP_USER_ID + usersPoolSize;
   }
 
   /**
@@ -164,22 +180,27 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   public void setTempPrefs(PreferenceArray prefs, long anonymousUserID) {
     Preconditions.checkArgument(prefs != null && prefs.length() > 0, "prefs is null or empty");
 
-    this.tempPrefs.put(anonymousUserID, prefs);
     FastIDSet userPrefItemIDs = new FastIDSet();
 
     for (int i = 0; i < prefs.length(); i++) {
       userPrefItemIDs.add(prefs.getItemID(i));
     }
 
-    this.prefItemIDs.put(anonymousUserID, userPrefItemIDs);
+    synchronized (anonymousWriteLock) {
+      takenUsers.add(anonymousUserID);
+      this.tempPrefs.put(anonymousUserID, prefs);
+      this.prefItemIDs.put(anonymousUserID, userPrefItemIDs);
+    }
   }
 
   /**
-   * Clears temporary preferences for a given anonymous user.
+   * Clears temporary preferences for a given anonymous user, who stays taken.
    */
   public void clearTempPrefs(long anonymousUserID) {
-    this.tempPrefs.remove(anonymousUserID);
-    this.prefItemIDs.remove(anonymousUserID);
+    synchronized (anonymousWriteLock) {
+      this.tempPrefs.remove(anonymousUserID);
+      this.prefItemIDs.remove(anonymousUserID);
+    }
   }
 
   @Override
@@ -192,7 +213,8 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   @Override
   public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
     if (isAnonymousUser(userID)) {
-      return tempPrefs.get(userID);
+      PreferenceArray prefs = tempPrefs.get(userID);
+      return prefs == null ? new GenericUserPreferenceArray(0) : prefs;
     }
     return getDelegate().getPreferencesFromUser(userID);
   }
@@ -200,7 +222,8 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   @Override
   public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
     if (isAnonymousUser(userID)) {
-      return prefItemIDs.get(userID);
+      FastIDSet itemIDs = prefItemIDs.get(userID);
+      return itemIDs == null ? new FastIDSet() : itemIDs;
     }
     return getDelegate().getItemIDsFromUser(userID);
   }
@@ -260,6 +283,9 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
   public Float getPreferenceValue(long userID, long itemID) throws TasteException {
     if (isAnonymousUser(userID)) {
       PreferenceArray singleUserTempPrefs = tempPrefs.get(userID);
+      if (singleUserTempPrefs == null) {
+        return null;
+      }
       for (int i = 0; i < singleUserTempPrefs.length(); i++) {
         if (singleUserTempPrefs.getItemID(i) == itemID) {
           return singleUserTempPrefs.getValue(i);
@@ -334,19 +360,98 @@ public final class PlusAnonymousConcurrentUserDataModel extends PlusAnonymousUse
     return getDelegate().getNumUsersWithPreferenceFor(itemID1, itemID2) + countAnonymousUsersWithPreferenceFor;
   }
 
+  /**
+   * Sets a preference of a real user in the delegate, or of a taken anonymous user. An anonymous user's
+   * preferences are replaced by a copy with the change applied, so that concurrent readers see either the old
+   * or the new preferences; use a delegate such as {@link ConcurrentGenericDataModel} to do the same for real
+   * users.
+   *
+   * @throws NoSuchUserException if the user ID belongs to the pool, but isn't taken
+   */
   @Override
   public void setPreference(long userID, long itemID, float value) throws TasteException {
-    if (isAnonymousUser(userID)) {
-      throw new UnsupportedOperationException();
+    if (isAnonymousUser(userID) || isPoolUserID(userID)) {
+      synchronized (anonymousWriteLock) {
+        checkTaken(userID);
+        PreferenceArray prefs = tempPrefs.get(userID);
+        if (prefs == null) {
+          prefs = new GenericUserPreferenceArray(0);
+        }
+        PreferenceArray newPrefs = null;
+        for (int i = 0; i < prefs.length(); i++) {
+          if (prefs.getItemID(i) == itemID) {
+            newPrefs = prefs.clone();
+            newPrefs.setValue(i, value);
+            break;
+          }
+        }
+        if (newPrefs == null) {
+          newPrefs = new GenericUserPreferenceArray(prefs.length() + 1);
+          for (int i = 0; i < prefs.length(); i++) {
+            newPrefs.set(i, prefs.get(i));
+          }
+          newPrefs.set(prefs.length(), new GenericPreference(userID, itemID, value));
+        }
+        publishTempPrefs(userID, newPrefs);
+      }
+      return;
     }
     getDelegate().setPreference(userID, itemID, value);
   }
 
+  /**
+   * Removes a preference of a real user from the delegate, or of a taken anonymous user, as in
+   * {@link #setPreference(long, long, float)}. An anonymous user stays taken when its last preference is removed.
+   *
+   * @throws NoSuchUserException if the user ID belongs to the pool, but isn't taken
+   */
   @Override
   public void removePreference(long userID, long itemID) throws TasteException {
-    if (isAnonymousUser(userID)) {
-      throw new UnsupportedOperationException();
+    if (isAnonymousUser(userID) || isPoolUserID(userID)) {
+      synchronized (anonymousWriteLock) {
+        checkTaken(userID);
+        PreferenceArray prefs = tempPrefs.get(userID);
+        if (prefs == null || !prefs.hasPrefWithItemID(itemID)) {
+          return;
+        }
+        PreferenceArray newPrefs = new GenericUserPreferenceArray(prefs.length() - 1);
+        int j = 0;
+        for (int i = 0; i < prefs.length(); i++) {
+          if (prefs.getItemID(i) != itemID) {
+            newPrefs.set(j++, prefs.get(i));
+          }
+        }
+        publishTempPrefs(userID, newPrefs);
+      }
+      return;
     }
     getDelegate().removePreference(userID, itemID);
   }
+
+  /**
+   * Must be called holding the anonymous write lock, under which a released user's preferences are cleared.
+   */
+  private void checkTaken(long userID) throws NoSuchUserException {
+    if (!takenUsers.contains(userID)) {
+      throw new NoSuchUserException(userID);
+    }
+  }
+
+  /**
+   * Replaces a taken anonymous user's preferences, or clears them if there are none left. Must be called holding
+   * the anonymous write lock.
+   */
+  private void publishTempPrefs(long anonymousUserID, PreferenceArray prefs) {
+    if (prefs.length() == 0) {
+      tempPrefs.remove(anonymousUserID);
+      prefItemIDs.remove(anonymousUserID);
+      return;
+    }
+    FastIDSet userPrefItemIDs = new FastIDSet(prefs.length());
+    for (int i = 0; i < prefs.length(); i++) {
+      userPrefItemIDs.add(prefs.getItemID(i));
+    }
+    tempPrefs.put(anonymousUserID, prefs);
+    prefItemIDs.put(anonymousUserID, userPrefItemIDs);
+  }
 }
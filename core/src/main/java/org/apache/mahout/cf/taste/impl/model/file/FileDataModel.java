@@ -19,18 +19,28 @@ package org.apache.mahout.cf.taste.impl.model.file;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
@@ -102,6 +112,17 @@ import com.google.common.base.Preconditions;
  * </p>
  *
  * <p>
+ * When update files appear after the data file was read, {@link #refresh(Collection)} applies just those files
+ * to a copy-on-write version of the existing data, so its cost is proportional to the size of the updates
+ * rather than of the whole data set, and the previous model remains consistent for concurrent readers.
+ * </p>
+ *
+ * <p>
+ * The main data file may be parsed by several threads at once; see
+ * {@link #FileDataModel(File, boolean, long, int)}.
+ * </p>
+ *
+ * <p>
  * Note that it's all-or-nothing -- all of the items in the file must express no preference, or the all must.
  * These cannot be mixed. Put another way there will always be the same number of delimiters on every line of
  * the file!
@@ -124,6 +145,7 @@ public class FileDataModel extends AbstractDataModel {
   public static final long DEFAULT_MIN_RELOAD_INTERVAL_MS = 60 * 1000L; // 1 minute?
   private static final char COMMENT_CHAR = '#';
   private static final char[] DELIMIETERS = {',', '\t'};
+  private static final long MIN_PARSING_CHUNK_SIZE = 1L << 16;
 
   private final File dataFile;
   private long lastModified;
@@ -135,6 +157,9 @@ public class FileDataModel extends AbstractDataModel {
   private final ReentrantLock reloadLock;
   private final boolean transpose;
   private final long minReloadIntervalMS;
+  private final int numParsingThreads;
+  /** While applying update files to prior data: users whose prior data has been copied, and so changed */
+  private FastIDSet copiedUserIDs;
 
   /**
    * @param dataFile
@@ -158,12 +183,28 @@ public class FileDataModel extends AbstractDataModel {
    * @see #FileDataModel(File)
    */
   public FileDataModel(File dataFile, boolean transpose, long minReloadIntervalMS) throws IOException {
+    this(dataFile, transpose, minReloadIntervalMS, 1);
+  }
+
+  /**
+   * @param numParsingThreads
+   *  number of threads which parse the main data file, each reading one contiguous chunk of lines, when it
+   *  is not compressed. Chunks are merged in file order, so later lines still supersede earlier ones; but a
+   *  line expressing a delete only affects preferences earlier in its own chunk, so keep deletes in update
+   *  files when using more than one thread. {@link #processLine(String, FastByIDMap, FastByIDMap, boolean)}
+   *  and {@link #processLineWithoutID(String, FastByIDMap, FastByIDMap)} must be thread-safe, as they are by
+   *  default.
+   * @see #FileDataModel(File, boolean, long)
+   */
+  public FileDataModel(File dataFile, boolean transpose, long minReloadIntervalMS, int numParsingThreads)
+    throws IOException {
     this.dataFile = Preconditions.checkNotNull(dataFile.getAbsoluteFile());
     if (!dataFile.exists() || dataFile.isDirectory()) {
       throw new FileNotFoundException(dataFile.toString());
     }
     Preconditions.checkArgument(dataFile.length() > 0L, "dataFile is empty");
     Preconditions.checkArgument(minReloadIntervalMS >= 0L, "minReloadIntervalMs must be non-negative");
+    Preconditions.checkArgument(numParsingThreads >= 1, "numParsingThreads must be at least 1");
 
     log.info("Creating FileDataModel for file {}", dataFile);
 
@@ -190,6 +231,7 @@ public class FileDataModel extends AbstractDataModel {
     this.reloadLock = new ReentrantLock();
     this.transpose = transpose;
     this.minReloadIntervalMS = minReloadIntervalMS;
+    this.numParsingThreads = numParsingThreads;
 
     reload();
   }
@@ -232,8 +274,7 @@ public class FileDataModel extends AbstractDataModel {
       if (loadFreshData) {
 
         FastByIDMap<Collection<Preference>> data = new FastByIDMap<Collection<Preference>>();
-        FileLineIterator iterator = new FileLineIterator(dataFile, false);
-        processFile(iterator, data, timestamps, false);
+        processDataFile(data, timestamps);
 
         for (File updateFile : findUpdateFilesAfter(newLastModified)) {
           processFile(new FileLineIterator(updateFile, false), data, timestamps, false);
@@ -243,14 +284,19 @@ public class FileDataModel extends AbstractDataModel {
 
       } else {
 
-        FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
+        GenericDataModel previous = (GenericDataModel) delegate;
+        FastByIDMap<PreferenceArray> rawData = previous.getRawUserData().clone();
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFile(new FileLineIterator(updateFile, false), rawData, timestamps, true);
+        copiedUserIDs = new FastIDSet();
+        try {
+          for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
+            processFile(new FileLineIterator(updateFile, false), rawData, timestamps, true);
+          }
+          return previous.withChangedUsers(rawData, copiedUserIDs, timestamps);
+        } finally {
+          copiedUserIDs = null;
         }
 
-        return new GenericDataModel(rawData, timestamps);
-
       }
 
     } else {
@@ -258,8 +304,7 @@ public class FileDataModel extends AbstractDataModel {
       if (loadFreshData) {
 
         FastByIDMap<FastIDSet> data = new FastByIDMap<FastIDSet>();
-        FileLineIterator iterator = new FileLineIterator(dataFile, false);
-        processFileWithoutID(iterator, data, timestamps);
+        processDataFile(data, timestamps);
 
         for (File updateFile : findUpdateFilesAfter(newLastModified)) {
           processFileWithoutID(new FileLineIterator(updateFile, false), data, timestamps);
@@ -269,16 +314,160 @@ public class FileDataModel extends AbstractDataModel {
 
       } else {
 
-        FastByIDMap<FastIDSet> rawData = ((GenericBooleanPrefDataModel) delegate).getRawUserData();
+        GenericBooleanPrefDataModel previous = (GenericBooleanPrefDataModel) delegate;
+        FastByIDMap<FastIDSet> rawData = previous.getRawUserData().clone();
+
+        copiedUserIDs = new FastIDSet();
+        try {
+          for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
+            processFileWithoutID(new FileLineIterator(updateFile, false), rawData, timestamps);
+          }
+          return previous.withChangedUsers(rawData, copiedUserIDs, timestamps);
+        } finally {
+          copiedUserIDs = null;
+        }
+
+      }
+
+    }
+  }
+
+  /**
+   * Reads the main data file into fresh data, as a map of user IDs to either {@link Collection}s of
+   * {@link Preference}s or, when there are no preference values, {@link FastIDSet}s of item IDs.
+   */
+  private void processDataFile(FastByIDMap<?> data, FastByIDMap<FastByIDMap<Long>> timestamps)
+    throws IOException {
+    List<Long> chunkStarts = findChunkStarts();
+    if (chunkStarts.size() <= 1) {
+      FileLineIterator iterator = new FileLineIterator(dataFile, false);
+      if (hasPrefValues) {
+        processFile(iterator, data, timestamps, false);
+      } else {
+        processFileWithoutID(iterator, (FastByIDMap<FastIDSet>) data, timestamps);
+      }
+      return;
+    }
+
+    int numChunks = chunkStarts.size();
+    log.info("Reading {} in {} chunks with {} threads", new Object[] {dataFile, numChunks, numParsingThreads});
+    ExecutorService executor = Executors.newFixedThreadPool(numParsingThreads);
+    try {
+      List<Future<ParsedChunk>> futures = Lists.newArrayListWithCapacity(numChunks);
+      for (int i = 0; i < numChunks; i++) {
+        long start = chunkStarts.get(i);
+        long end = i + 1 < numChunks ? chunkStarts.get(i + 1) : dataFile.length();
+        futures.add(executor.submit(new ChunkParser(start, end - start)));
+      }
+      for (Future<ParsedChunk> future : futures) {
+        ParsedChunk chunk = future.get();
+        if (hasPrefValues) {
+          mergePreferences((FastByIDMap<Collection<Preference>>) data,
+                           (FastByIDMap<Collection<Preference>>) chunk.data);
+        } else {
+          mergeItemIDs((FastByIDMap<FastIDSet>) data, (FastByIDMap<FastIDSet>) chunk.data);
+        }
+        mergeTimestamps(timestamps, chunk.timestamps);
+      }
+    } catch (InterruptedException ie) {
+      throw new IOException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      executor.shutdown();
+    }
+  }
 
-        for (File updateFile : findUpdateFilesAfter(Math.max(oldLastUpdateFileModifieid, newLastModified))) {
-          processFileWithoutID(new FileLineIterator(updateFile, false), rawData, timestamps);
+  /**
+   * @return byte offsets at which the main data file is split into chunks of whole lines for parsing in
+   *  parallel; just 0 if it will be parsed by one thread
+   */
+  private List<Long> findChunkStarts() throws IOException {
+    List<Long> chunkStarts = Lists.newArrayList();
+    chunkStarts.add(0L);
+    String extension = Files.getFileExtension(dataFile.getName()).toLowerCase();
+    if (numParsingThreads <= 1 || "gz".equals(extension) || "zip".equals(extension)) {
+      return chunkStarts;
+    }
+    long length = dataFile.length();
+    int numChunks = (int) Math.min(numParsingThreads, Math.max(1L, length / MIN_PARSING_CHUNK_SIZE));
+    RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+    try {
+      for (int i = 1; i < numChunks; i++) {
+        long position = Math.max(length * i / numChunks, chunkStarts.get(chunkStarts.size() - 1));
+        raf.seek(position);
+        // Chunks start just after a line break
+        int b;
+        do {
+          b = raf.read();
+          position++;
+        } while (b >= 0 && b != '\n');
+        if (b >= 0 && position < length) {
+          chunkStarts.add(position);
         }
+      }
+    } finally {
+      Closeables.close(raf, true);
+    }
+    return chunkStarts;
+  }
 
-        return new GenericBooleanPrefDataModel(rawData, timestamps);
+  private static void mergePreferences(FastByIDMap<Collection<Preference>> data,
+                                       FastByIDMap<Collection<Preference>> chunkData) {
+    for (Map.Entry<Long,Collection<Preference>> entry : chunkData.entrySet()) {
+      long userID = entry.getKey();
+      Collection<Preference> prefs = data.get(userID);
+      if (prefs == null) {
+        data.put(userID, entry.getValue());
+        continue;
+      }
+      for (Preference chunkPref : entry.getValue()) {
+        boolean exists = false;
+        for (Preference pref : prefs) {
+          if (pref.getItemID() == chunkPref.getItemID()) {
+            exists = true;
+            pref.setValue(chunkPref.getValue());
+            break;
+          }
+        }
+        if (!exists) {
+          prefs.add(chunkPref);
+        }
+      }
+    }
+  }
 
+  private static void mergeItemIDs(FastByIDMap<FastIDSet> data, FastByIDMap<FastIDSet> chunkData) {
+    for (Map.Entry<Long,FastIDSet> entry : chunkData.entrySet()) {
+      long userID = entry.getKey();
+      FastIDSet itemIDs = data.get(userID);
+      if (itemIDs == null) {
+        data.put(userID, entry.getValue());
+      } else {
+        itemIDs.addAll(entry.getValue());
       }
+    }
+  }
 
+  private static void mergeTimestamps(FastByIDMap<FastByIDMap<Long>> timestamps,
+                                      FastByIDMap<FastByIDMap<Long>> chunkTimestamps) {
+    for (Map.Entry<Long,FastByIDMap<Long>> entry : chunkTimestamps.entrySet()) {
+      long userID = entry.getKey();
+      FastByIDMap<Long> itemTimestamps = timestamps.get(userID);
+      if (itemTimestamps == null) {
+        timestamps.put(userID, entry.getValue());
+      } else {
+        for (Map.Entry<Long,Long> itemEntry : entry.getValue().entrySet()) {
+          itemTimestamps.put(itemEntry.getKey(), itemEntry.getValue());
+        }
+      }
     }
   }
 
@@ -413,6 +602,7 @@ public class FileDataModel extends AbstractDataModel {
             }
           }
           if (exists) {
+            markCopied(userID);
             if (length == 1) {
               data.remove(userID);
             } else {
@@ -440,6 +630,11 @@ public class FileDataModel extends AbstractDataModel {
           for (int i = 0; i < prefs.length(); i++) {
             if (prefs.getItemID(i) == itemID) {
               exists = true;
+              if (copiedUserIDs != null && copiedUserIDs.add(userID)) {
+                // Don't modify an array that may still be in use by the previous model
+                prefs = prefs.clone();
+                ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);
+              }
               prefs.setValue(i, preferenceValue);
               break;
             }
@@ -459,7 +654,8 @@ public class FileDataModel extends AbstractDataModel {
           prefs.setUserID(0, userID);
           prefs.setItemID(0, itemID);
           prefs.setValue(0, preferenceValue);
-          ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);          
+          ((FastByIDMap<PreferenceArray>) data).put(userID, prefs);
+          markCopied(userID);
         }
       }
 
@@ -562,7 +758,8 @@ public class FileDataModel extends AbstractDataModel {
       // Then line is of form "userID,itemID,", meaning remove
 
       FastIDSet itemIDs = data.get(userID);
-      if (itemIDs != null) {
+      if (itemIDs != null && itemIDs.contains(itemID)) {
+        itemIDs = copyForWrite(userID, itemIDs, data);
         itemIDs.remove(itemID);
       }
 
@@ -574,6 +771,9 @@ public class FileDataModel extends AbstractDataModel {
       if (itemIDs == null) {
         itemIDs = new FastIDSet(2);
         data.put(userID, itemIDs);
+        markCopied(userID);
+      } else if (!itemIDs.contains(itemID)) {
+        itemIDs = copyForWrite(userID, itemIDs, data);
       }
       itemIDs.add(itemID);
 
@@ -582,6 +782,28 @@ public class FileDataModel extends AbstractDataModel {
     }
   }
 
+  /**
+   * Records that a user's prior data has been replaced in the data being updated, if applying updates.
+   */
+  private void markCopied(long userID) {
+    if (copiedUserIDs != null) {
+      copiedUserIDs.add(userID);
+    }
+  }
+
+  /**
+   * @return the user's item IDs, copied first if applying updates and not already copied, so that the
+   *  previous model's data is not modified
+   */
+  private FastIDSet copyForWrite(long userID, FastIDSet itemIDs, FastByIDMap<FastIDSet> data) {
+    if (copiedUserIDs != null && copiedUserIDs.add(userID)) {
+      FastIDSet copy = itemIDs.clone();
+      data.put(userID, copy);
+      return copy;
+    }
+    return itemIDs;
+  }
+
   private void addTimestamp(long userID,
                             long itemID,
                             String timestampString,
@@ -733,4 +955,48 @@ public class FileDataModel extends AbstractDataModel {
     return "FileDataModel[dataFile:" + dataFile + ']';
   }
 
+  private static final class ParsedChunk {
+    private final FastByIDMap<?> data;
+    private final FastByIDMap<FastByIDMap<Long>> timestamps;
+
+    private ParsedChunk(FastByIDMap<?> data, FastByIDMap<FastByIDMap<Long>> timestamps) {
+      this.data = data;
+      this.timestamps = timestamps;
+    }
+  }
+
+  /** Parses the lines in one byte range of the main data file. */
+  private final class ChunkParser implements Callable<ParsedChunk> {
+
+    private final long start;
+    private final long length;
+
+    private ChunkParser(long start, long length) {
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public ParsedChunk call() throws IOException {
+      InputStream in = new FileInputStream(dataFile);
+      FileLineIterator iterator = null;
+      try {
+        ByteStreams.skipFully(in, start);
+        iterator = new FileLineIterator(ByteStreams.limit(in, length));
+        FastByIDMap<FastByIDMap<Long>> timestamps = new FastByIDMap<FastByIDMap<Long>>();
+        if (hasPrefValues) {
+          FastByIDMap<Collection<Preference>> data = new FastByIDMap<Collection<Preference>>();
+          processFile(iterator, data, timestamps, false);
+          return new ParsedChunk(data, timestamps);
+        } else {
+          FastByIDMap<FastIDSet> data = new FastByIDMap<FastIDSet>();
+          processFileWithoutID(iterator, data, timestamps);
+          return new ParsedChunk(data, timestamps);
+        }
+      } finally {
+        Closeables.close(iterator == null ? in : iterator, true);
+      }
+    }
+  }
+
 }
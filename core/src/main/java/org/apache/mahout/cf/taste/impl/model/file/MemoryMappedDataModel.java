@@ -0,0 +1,505 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.MappedFileBuffer;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataModel} backed by a compact binary file which is memory-mapped rather than read into the heap.
+ * Opening it is near-instant regardless of its size; the preference data stays off-heap in the operating
+ * system's page cache, where it is shared by all JVMs on the host which map the same file.
+ * </p>
+ *
+ * <p>
+ * The file is written by {@link #writeDataModel(DataModel, File)}, typically from a {@link FileDataModel};
+ * {@link #main(String[])} converts a text data file in this way. It holds the sorted user IDs and, for each
+ * user, its preferences sorted by item ID, in compressed-sparse-row form; and the same again by item. So, all
+ * lookups are binary searches over the mapped data. Big-endian layout, after a header:
+ * </p>
+ *
+ * <pre>
+ * int magic, int version, int flags, int numUsers, int numItems, int unused,
+ * long numPrefs, float minPreference, float maxPreference
+ * long[numUsers] userIDs, long[numUsers + 1] userOffsets, long[numPrefs] itemIDs[, float[numPrefs] values]
+ * long[numItems] itemIDs, long[numItems + 1] itemOffsets, long[numPrefs] userIDs[, float[numPrefs] values]
+ * </pre>
+ *
+ * <p>
+ * Preference values are omitted when the data has none, and are then all reported as 1.0, as in
+ * {@link org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel}. Timestamps are not stored.
+ * </p>
+ *
+ * <p>
+ * This model is read-only: {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)}
+ * are not supported. {@link #refresh(Collection)} maps the file again if it has been replaced by a newer
+ * version; readers never see a partially updated model.
+ * </p>
+ */
+public final class MemoryMappedDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedDataModel.class);
+
+  static final int MAGIC = 0x4D545046; // "MTPF"
+  static final int VERSION = 1;
+  private static final int FLAG_HAS_PREF_VALUES = 0x01;
+  private static final int HEADER_SIZE = 40;
+
+  private final File dataFile;
+  private transient volatile MappedData data;
+
+  /**
+   * @param dataFile binary file written by {@link #writeDataModel(DataModel, File)}
+   * @throws FileNotFoundException if dataFile does not exist
+   * @throws IOException if the file can't be mapped, or is not in the expected format
+   */
+  public MemoryMappedDataModel(File dataFile) throws IOException {
+    this.dataFile = Preconditions.checkNotNull(dataFile.getAbsoluteFile());
+    if (!dataFile.exists() || dataFile.isDirectory()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    log.info("Creating MemoryMappedDataModel for file {}", dataFile);
+    this.data = new MappedData(this.dataFile);
+  }
+
+  public File getDataFile() {
+    return dataFile;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    MappedData data = this.data;
+    return data.buffer.longIterator(data.userIDsStart, data.numUsers);
+  }
+
+  /**
+   * @throws NoSuchUserException if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    MappedData data = this.data;
+    int index = data.userIndex(userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long from = buffer.getLong(data.userOffsetsStart, index);
+    int length = (int) (buffer.getLong(data.userOffsetsStart, index + 1) - from);
+    PreferenceArray prefs;
+    if (data.hasPrefValues) {
+      prefs = new GenericUserPreferenceArray(length);
+      for (int i = 0; i < length; i++) {
+        prefs.setValue(i, buffer.getFloat(data.userPrefValuesStart, from + i));
+      }
+    } else {
+      prefs = new BooleanUserPreferenceArray(length);
+    }
+    if (length > 0) {
+      prefs.setUserID(0, userID);
+    }
+    for (int i = 0; i < length; i++) {
+      prefs.setItemID(i, buffer.getLong(data.userPrefItemIDsStart, from + i));
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    MappedData data = this.data;
+    int index = data.userIndex(userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long from = buffer.getLong(data.userOffsetsStart, index);
+    long to = buffer.getLong(data.userOffsetsStart, index + 1);
+    FastIDSet result = new FastIDSet((int) (to - from));
+    for (long i = from; i < to; i++) {
+      result.add(buffer.getLong(data.userPrefItemIDsStart, i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    MappedData data = this.data;
+    return data.buffer.longIterator(data.itemIDsStart, data.numItems);
+  }
+
+  /**
+   * @throws NoSuchItemException if there is no such item
+   */
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    MappedData data = this.data;
+    int index = data.itemIndex(itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long from = buffer.getLong(data.itemOffsetsStart, index);
+    int length = (int) (buffer.getLong(data.itemOffsetsStart, index + 1) - from);
+    PreferenceArray prefs;
+    if (data.hasPrefValues) {
+      prefs = new GenericItemPreferenceArray(length);
+      for (int i = 0; i < length; i++) {
+        prefs.setValue(i, buffer.getFloat(data.itemPrefValuesStart, from + i));
+      }
+    } else {
+      prefs = new BooleanItemPreferenceArray(length);
+    }
+    if (length > 0) {
+      prefs.setItemID(0, itemID);
+    }
+    for (int i = 0; i < length; i++) {
+      prefs.setUserID(i, buffer.getLong(data.itemPrefUserIDsStart, from + i));
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    MappedData data = this.data;
+    int index = data.userIndex(userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long from = buffer.getLong(data.userOffsetsStart, index);
+    long to = buffer.getLong(data.userOffsetsStart, index + 1);
+    long position = buffer.binarySearchLong(data.userPrefItemIDsStart, from, to, itemID);
+    if (position < 0) {
+      return null;
+    }
+    return data.hasPrefValues ? buffer.getFloat(data.userPrefValuesStart, position) : 1.0f;
+  }
+
+  /**
+   * @return null; timestamps are not stored in this format
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) {
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return data.numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return data.numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    MappedData data = this.data;
+    int index = data.itemIndex(itemID);
+    if (index < 0) {
+      return 0;
+    }
+    MappedFileBuffer buffer = data.buffer;
+    return (int) (buffer.getLong(data.itemOffsetsStart, index + 1) - buffer.getLong(data.itemOffsetsStart, index));
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    MappedData data = this.data;
+    int index1 = data.itemIndex(itemID1);
+    if (index1 < 0) {
+      return 0;
+    }
+    int index2 = data.itemIndex(itemID2);
+    if (index2 < 0) {
+      return 0;
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long start = data.itemPrefUserIDsStart;
+    long i = buffer.getLong(data.itemOffsetsStart, index1);
+    long end1 = buffer.getLong(data.itemOffsetsStart, index1 + 1);
+    long j = buffer.getLong(data.itemOffsetsStart, index2);
+    long end2 = buffer.getLong(data.itemOffsetsStart, index2 + 1);
+    int count = 0;
+    while (i < end1 && j < end2) {
+      long userID1 = buffer.getLong(start, i);
+      long userID2 = buffer.getLong(start, j);
+      if (userID1 < userID2) {
+        i++;
+      } else if (userID1 > userID2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (dataFile.lastModified() > data.lastModified) {
+      log.info("File {} has changed; mapping it again", dataFile);
+      try {
+        data = new MappedData(dataFile);
+      } catch (IOException ioe) {
+        log.warn("Exception while re-mapping; continuing with previous data", ioe);
+      }
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return data.hasPrefValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return data.maxPreference;
+  }
+
+  @Override
+  public float getMinPreference() {
+    return data.minPreference;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryMappedDataModel[dataFile:" + dataFile + ']';
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    data = new MappedData(dataFile);
+  }
+
+  /**
+   * Writes the preferences in a {@link DataModel} to a file in the format read by this class.
+   *
+   * @param dataModel model to write, for example a {@link FileDataModel}
+   * @param binaryFile file to (over)write
+   */
+  public static void writeDataModel(DataModel dataModel, File binaryFile) throws TasteException, IOException {
+    long[] userIDs = toSortedArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    long[] itemIDs = toSortedArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    boolean hasPrefValues = dataModel.hasPreferenceValues();
+
+    long numPrefs = 0;
+    for (long userID : userIDs) {
+      numPrefs += dataModel.getPreferencesFromUser(userID).length();
+    }
+    log.info("Writing {} users, {} items and {} preferences to {}",
+        new Object[] {userIDs.length, itemIDs.length, numPrefs, binaryFile});
+
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 20));
+    boolean threw = true;
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(hasPrefValues ? FLAG_HAS_PREF_VALUES : 0);
+      out.writeInt(userIDs.length);
+      out.writeInt(itemIDs.length);
+      out.writeInt(0);
+      out.writeLong(numPrefs);
+      out.writeFloat(dataModel.getMinPreference());
+      out.writeFloat(dataModel.getMaxPreference());
+      writeSection(dataModel, userIDs, true, hasPrefValues, out);
+      writeSection(dataModel, itemIDs, false, hasPrefValues, out);
+      threw = false;
+    } finally {
+      Closeables.close(out, threw);
+    }
+  }
+
+  private static void writeSection(DataModel dataModel,
+                                   long[] ids,
+                                   boolean byUser,
+                                   boolean hasPrefValues,
+                                   DataOutputStream out) throws TasteException, IOException {
+    for (long id : ids) {
+      out.writeLong(id);
+    }
+    long offset = 0;
+    out.writeLong(offset);
+    for (long id : ids) {
+      offset += prefsFor(dataModel, id, byUser).length();
+      out.writeLong(offset);
+    }
+    for (long id : ids) {
+      PreferenceArray prefs = prefsFor(dataModel, id, byUser);
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        out.writeLong(byUser ? prefs.getItemID(i) : prefs.getUserID(i));
+      }
+    }
+    if (hasPrefValues) {
+      for (long id : ids) {
+        PreferenceArray prefs = prefsFor(dataModel, id, byUser);
+        int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+          out.writeFloat(prefs.getValue(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return preferences of a user sorted by item, or of an item sorted by user; copied only if the model
+   *  does not already return them in that order
+   */
+  private static PreferenceArray prefsFor(DataModel dataModel, long id, boolean byUser) throws TasteException {
+    PreferenceArray prefs = byUser ? dataModel.getPreferencesFromUser(id) : dataModel.getPreferencesForItem(id);
+    int length = prefs.length();
+    for (int i = 1; i < length; i++) {
+      boolean inOrder = byUser
+          ? prefs.getItemID(i - 1) < prefs.getItemID(i)
+          : prefs.getUserID(i - 1) < prefs.getUserID(i);
+      if (!inOrder) {
+        prefs = prefs.clone();
+        if (byUser) {
+          prefs.sortByItem();
+        } else {
+          prefs.sortByUser();
+        }
+        break;
+      }
+    }
+    return prefs;
+  }
+
+  private static long[] toSortedArray(LongPrimitiveIterator it, int size) {
+    long[] result = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      result[i++] = it.nextLong();
+    }
+    Preconditions.checkState(i == size, "Expected %s IDs but found %s", size, i);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Converts a text data file, as read by {@link FileDataModel}, to the binary format read by this class.
+   * Usage: {@code MemoryMappedDataModel textFile binaryFile}
+   */
+  public static void main(String[] args) throws Exception {
+    Preconditions.checkArgument(args.length == 2, "Usage: MemoryMappedDataModel textFile binaryFile");
+    writeDataModel(new FileDataModel(new File(args[0])), new File(args[1]));
+  }
+
+  /** An immutable snapshot of one mapping of the data file. */
+  private static final class MappedData {
+
+    private final MappedFileBuffer buffer;
+    private final long lastModified;
+    private final boolean hasPrefValues;
+    private final int numUsers;
+    private final int numItems;
+    private final float minPreference;
+    private final float maxPreference;
+    private final long userIDsStart;
+    private final long userOffsetsStart;
+    private final long userPrefItemIDsStart;
+    private final long userPrefValuesStart;
+    private final long itemIDsStart;
+    private final long itemOffsetsStart;
+    private final long itemPrefUserIDsStart;
+    private final long itemPrefValuesStart;
+
+    private MappedData(File dataFile) throws IOException {
+      lastModified = dataFile.lastModified();
+      buffer = new MappedFileBuffer(dataFile);
+      if (buffer.length() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a MemoryMappedDataModel file: " + dataFile);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " of file " + dataFile);
+      }
+      hasPrefValues = (buffer.getInt(8) & FLAG_HAS_PREF_VALUES) != 0;
+      numUsers = buffer.getInt(12);
+      numItems = buffer.getInt(16);
+      long numPrefs = buffer.getLong(24);
+      minPreference = buffer.getFloat(32);
+      maxPreference = buffer.getFloat(36);
+
+      long valuesLength = hasPrefValues ? numPrefs << 2 : 0L;
+      userIDsStart = HEADER_SIZE;
+      userOffsetsStart = userIDsStart + ((long) numUsers << 3);
+      userPrefItemIDsStart = userOffsetsStart + ((numUsers + 1L) << 3);
+      userPrefValuesStart = userPrefItemIDsStart + (numPrefs << 3);
+      itemIDsStart = userPrefValuesStart + valuesLength;
+      itemOffsetsStart = itemIDsStart + ((long) numItems << 3);
+      itemPrefUserIDsStart = itemOffsetsStart + ((numItems + 1L) << 3);
+      itemPrefValuesStart = itemPrefUserIDsStart + (numPrefs << 3);
+      long expectedLength = itemPrefValuesStart + valuesLength;
+      if (buffer.length() != expectedLength) {
+        throw new IOException("Expected " + expectedLength + " bytes but found " + buffer.length()
+            + " in " + dataFile);
+      }
+    }
+
+    int userIndex(long userID) {
+      return (int) buffer.binarySearchLong(userIDsStart, 0, numUsers, userID);
+    }
+
+    int itemIndex(long itemID) {
+      return (int) buffer.binarySearchLong(itemIDsStart, 0, numItems, itemID);
+    }
+  }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * A {@link DataModel} which keeps the preferences of frequently used users and items on the heap, and reads
+ * all others on demand from a "cold" model, typically a {@link MemoryMappedDataModel} whose compact file
+ * stays off-heap. A node can then serve data several times larger than its heap, at heap speed for the
+ * users and items most asked for. Nothing is read before it is first needed, so the model opens at once.
+ * </p>
+ *
+ * <p>
+ * Each tier, of users and of items, holds at most a given number of {@link PreferenceArray}s. Accesses to
+ * the rest are counted in a small fixed-size frequency sketch whose counts are halved periodically, so that
+ * they reflect recent use; a user or item read from the cold model is promoted to the hot tier once it has
+ * been asked for a given number of times. That keeps one-off requests, such as a scan over all users, from
+ * pushing out those in steady demand. When a tier is full, arrays not recently accessed are demoted to make
+ * room. Counts of hot hits, cold reads and promotions are kept for monitoring.
+ * </p>
+ *
+ * <p>
+ * Arrays returned from the hot tier are shared, and must not be modified. Preference changes are passed to
+ * the cold model, and the affected user and item are demoted. {@link #refresh(Collection)} refreshes the cold
+ * model and then empties the hot tiers.
+ * </p>
+ */
+public final class TieredDataModel extends AbstractDataModel {
+
+  public static final int DEFAULT_PROMOTION_THRESHOLD = 2;
+
+  private final DataModel coldModel;
+  private final Tier userTier;
+  private final Tier itemTier;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param dataFile file written by {@link MemoryMappedDataModel#writeDataModel(DataModel, File)}
+   * @param maxHotUsers most users whose preferences are kept on the heap
+   * @param maxHotItems most items whose preferences are kept on the heap
+   */
+  public TieredDataModel(File dataFile, int maxHotUsers, int maxHotItems) throws IOException {
+    this(new MemoryMappedDataModel(dataFile), maxHotUsers, maxHotItems, DEFAULT_PROMOTION_THRESHOLD);
+  }
+
+  /**
+   * @param coldModel model to read preferences from when they are not on the heap
+   * @param maxHotUsers most users whose preferences are kept on the heap, or 0 to keep none
+   * @param maxHotItems most items whose preferences are kept on the heap, or 0 to keep none
+   * @param promotionThreshold number of recent accesses after which a user or item is kept on the heap; 1
+   *  promotes on first access
+   */
+  public TieredDataModel(DataModel coldModel, int maxHotUsers, int maxHotItems, int promotionThreshold) {
+    Preconditions.checkArgument(coldModel != null, "coldModel is null");
+    Preconditions.checkArgument(maxHotUsers >= 0, "maxHotUsers is negative: %s", maxHotUsers);
+    Preconditions.checkArgument(maxHotItems >= 0, "maxHotItems is negative: %s", maxHotItems);
+    Preconditions.checkArgument(promotionThreshold >= 1 && promotionThreshold <= FrequencySketch.MAX_COUNT,
+        "promotionThreshold must be in [1,%s]: %s", FrequencySketch.MAX_COUNT, promotionThreshold);
+    this.coldModel = coldModel;
+    this.userTier = new Tier(maxHotUsers, promotionThreshold) {
+      @Override
+      PreferenceArray read(long userID) throws TasteException {
+        return TieredDataModel.this.coldModel.getPreferencesFromUser(userID);
+      }
+    };
+    this.itemTier = new Tier(maxHotItems, promotionThreshold) {
+      @Override
+      PreferenceArray read(long itemID) throws TasteException {
+        return TieredDataModel.this.coldModel.getPreferencesForItem(itemID);
+      }
+    };
+    refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() {
+        userTier.clear();
+        itemTier.clear();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(coldModel);
+  }
+
+  public DataModel getColdModel() {
+    return coldModel;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return coldModel.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return userTier.get(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = userTier.getIfHot(userID);
+    if (prefs == null) {
+      return coldModel.getItemIDsFromUser(userID);
+    }
+    int length = prefs.length();
+    FastIDSet result = new FastIDSet(length);
+    for (int i = 0; i < length; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return coldModel.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return itemTier.get(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    PreferenceArray prefs = userTier.getIfHot(userID);
+    if (prefs == null) {
+      return coldModel.getPreferenceValue(userID, itemID);
+    }
+    int length = prefs.length();
+    for (int i = 0; i < length; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return coldModel.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return coldModel.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return coldModel.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    PreferenceArray prefs = itemTier.getIfHot(itemID);
+    return prefs == null ? coldModel.getNumUsersWithPreferenceFor(itemID) : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    return coldModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    coldModel.setPreference(userID, itemID, value);
+    userTier.demote(userID);
+    itemTier.demote(itemID);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    coldModel.removePreference(userID, itemID);
+    userTier.demote(userID);
+    itemTier.demote(itemID);
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return coldModel.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return coldModel.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return coldModel.getMinPreference();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  /**
+   * @return number of requests for a user's or item's preferences answered from the heap
+   */
+  public long getHitCount() {
+    return userTier.hits.get() + itemTier.hits.get();
+  }
+
+  /**
+   * @return number of requests for a user's or item's preferences read from the cold model
+   */
+  public long getMissCount() {
+    return userTier.misses.get() + itemTier.misses.get();
+  }
+
+  /**
+   * @return number of times a user's or item's preferences were promoted to the heap
+   */
+  public long getPromotionCount() {
+    return userTier.promotions.get() + itemTier.promotions.get();
+  }
+
+  /**
+   * @return number of users whose preferences are on the heap
+   */
+  public int getNumHotUsers() {
+    return userTier.size();
+  }
+
+  /**
+   * @return number of items whose preferences are on the heap
+   */
+  public int getNumHotItems() {
+    return itemTier.size();
+  }
+
+  @Override
+  public String toString() {
+    return "TieredDataModel[coldModel:" + coldModel + ", hits:" + getHitCount() + ", misses:" + getMissCount()
+        + ", promotions:" + getPromotionCount() + ']';
+  }
+
+  /**
+   * Preference arrays of users, or of items, on the heap, and the statistics deciding which. IDs are spread
+   * over independently locked segments, so that threads reading different users or items rarely contend.
+   */
+  private abstract static class Tier {
+
+    private static final int CONCURRENCY_LEVEL = 16;
+    /** Fewest arrays a segment holds: splitting a small tier further would make each thrash */
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int promotionThreshold;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong promotions;
+
+    Tier(int maxHot, int promotionThreshold) {
+      if (maxHot == 0) {
+        segments = null;
+        segmentMask = 0;
+      } else {
+        int numSegments = 1;
+        while (numSegments < CONCURRENCY_LEVEL && numSegments << 1 <= maxHot / MIN_SEGMENT_SIZE) {
+          numSegments <<= 1;
+        }
+        // Share out maxHot exactly, so that no more are ever hot; an uneven spread of IDs may demote a little
+        // before it is reached
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+          segments[i] = new Segment(maxHot / numSegments + (i < maxHot % numSegments ? 1 : 0));
+        }
+        segmentMask = numSegments - 1;
+      }
+      this.promotionThreshold = promotionThreshold;
+      hits = new AtomicLong();
+      misses = new AtomicLong();
+      promotions = new AtomicLong();
+    }
+
+    abstract PreferenceArray read(long id) throws TasteException;
+
+    final PreferenceArray get(long id) throws TasteException {
+      if (segments == null) {
+        misses.incrementAndGet();
+        return read(id);
+      }
+      Segment segment = segmentFor(id);
+      PreferenceArray prefs;
+      int frequency = 0;
+      long readGeneration;
+      synchronized (segment) {
+        prefs = segment.hot.get(id);
+        if (prefs == null) {
+          frequency = segment.frequencies.increment(id);
+        }
+        readGeneration = segment.generation;
+      }
+      if (prefs != null) {
+        hits.incrementAndGet();
+        return prefs;
+      }
+      misses.incrementAndGet();
+      prefs = read(id);
+      if (frequency >= promotionThreshold) {
+        synchronized (segment) {
+          // The cold read may predate a change which demoted or cleared since; it can still be returned, but
+          // not kept
+          if (segment.generation != readGeneration) {
+            return prefs;
+          }
+          segment.hot.put(id, prefs);
+        }
+        promotions.incrementAndGet();
+      }
+      return prefs;
+    }
+
+    final PreferenceArray getIfHot(long id) {
+      if (segments == null) {
+        return null;
+      }
+      Segment segment = segmentFor(id);
+      synchronized (segment) {
+        return segment.hot.get(id);
+      }
+    }
+
+    final void demote(long id) {
+      if (segments != null) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+          segment.hot.remove(id);
+          segment.generation++;
+        }
+      }
+    }
+
+    /** Empties one segment at a time: a read racing with this sees its own segment's generation change. */
+    final void clear() {
+      if (segments != null) {
+        for (Segment segment : segments) {
+          synchronized (segment) {
+            segment.hot.clear();
+            segment.frequencies.clear();
+            segment.generation++;
+          }
+        }
+      }
+    }
+
+    final int size() {
+      if (segments == null) {
+        return 0;
+      }
+      int size = 0;
+      for (Segment segment : segments) {
+        synchronized (segment) {
+          size += segment.hot.size();
+        }
+      }
+      return size;
+    }
+
+    private Segment segmentFor(long id) {
+      // High bits of a multiplicative hash, which the frequency sketch's own hash of the ID doesn't depend on
+      return segments[(int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & segmentMask];
+    }
+
+  }
+
+  /** One independently locked part of a {@link Tier}. */
+  private static final class Segment {
+
+    private final FastByIDMap<PreferenceArray> hot;
+    private final FrequencySketch frequencies;
+    /** Counts demotions and clears, so that a read racing with one of them is not made hot */
+    private long generation;
+
+    Segment(int maxHot) {
+      hot = new FastByIDMap<PreferenceArray>(Math.min(maxHot, 1024), maxHot);
+      frequencies = new FrequencySketch(maxHot);
+    }
+
+  }
+
+  /**
+   * Approximate counts of recent accesses to many IDs in a fixed number of small counters: each ID is counted
+   * in two of them, and the lower is its estimate. After a number of increments proportional to the number of
+   * counters, all counts are halved, so that old accesses fade.
+   */
+  static final class FrequencySketch {
+
+    static final int MAX_COUNT = 15;
+
+    private final byte[] counts;
+    private final int mask;
+    private final int resetPeriod;
+    private int numIncrements;
+
+    FrequencySketch(int expectedSize) {
+      int numCounts = 1024;
+      while (numCounts < expectedSize << 4 && numCounts < 1 << 30) {
+        numCounts <<= 1;
+      }
+      counts = new byte[numCounts];
+      mask = numCounts - 1;
+      resetPeriod = numCounts;
+    }
+
+    /**
+     * @return estimated number of recent accesses to the ID, including this one
+     */
+    int increment(long id) {
+      int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      int index1 = (hash ^ (hash >>> 16)) & mask;
+      int index2 = ((hash >>> 7) ^ (hash * 0x85EBCA6B)) & mask;
+      int count = Math.min(counts[index1], counts[index2]);
+      // Conservative update: only raise the counters holding the minimum
+      if (count < MAX_COUNT) {
+        count++;
+        if (counts[index1] < count) {
+          counts[index1] = (byte) count;
+        }
+        if (counts[index2] < count) {
+          counts[index2] = (byte) count;
+        }
+      }
+      if (++numIncrements >= resetPeriod) {
+        halve();
+      }
+      return count;
+    }
+
+    private void halve() {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = (byte) (counts[i] >> 1);
+      }
+      numIncrements = 0;
+    }
+
+    void clear() {
+      Arrays.fill(counts, (byte) 0);
+      numIncrements = 0;
+    }
+
+  }
+
+}
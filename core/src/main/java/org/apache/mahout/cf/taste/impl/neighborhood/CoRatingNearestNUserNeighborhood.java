@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongDoubleMinHeap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * Computes a neighborhood consisting of the nearest n users to a given user, like
+ * {@link NearestNUserNeighborhood}, but only considers users who share at least some number of items with
+ * the user. These are found through the item-to-users index of the {@link DataModel}
+ * ({@link DataModel#getPreferencesForItem(long)}), so the work done depends on how many users rated the
+ * user's items rather than on the total number of users.
+ * </p>
+ *
+ * <p>
+ * With the defaults, the result is the same as {@link NearestNUserNeighborhood}'s for similarities which are
+ * undefined for users with no items in common, such as Pearson correlation without a preference inferrer.
+ * These controls then trade quality for speed:
+ * </p>
+ *
+ * <ul>
+ * <li><em>minCommonItems</em>: users sharing fewer items are not considered. Similarities computed over very
+ * few items are also the least reliable.</li>
+ * <li><em>maxUsersPerItem</em>: of the users who rated a very popular item, only this many, evenly spaced
+ * in the item's preferences, are counted as sharing it.</li>
+ * <li><em>maxCandidates</em>: similarity is computed for at most this many users, those sharing the most
+ * items.</li>
+ * </ul>
+ *
+ * <p>
+ * Candidates are considered in decreasing order of the number of items they share. The search stops once
+ * no remaining candidate could enter the neighborhood: for {@link TanimotoCoefficientSimilarity}, a user
+ * sharing c of the user's m items is at most c/m similar, provided no item's users were capped; for other
+ * similarities, the search stops only when the neighborhood is full of users with similarity 1.
+ * </p>
+ */
+public final class CoRatingNearestNUserNeighborhood extends AbstractUserNeighborhood {
+
+  private static final long[] NO_USERS = new long[0];
+
+  private final int n;
+  private final double minSimilarity;
+  private final int minCommonItems;
+  private final int maxUsersPerItem;
+  private final int maxCandidates;
+  private final boolean tanimoto;
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @throws IllegalArgumentException
+   *           if {@code n < 1}, or userSimilarity or dataModel are {@code null}
+   */
+  public CoRatingNearestNUserNeighborhood(int n, UserSimilarity userSimilarity, DataModel dataModel)
+    throws TasteException {
+    this(n, Double.NEGATIVE_INFINITY, userSimilarity, dataModel, 1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param n neighborhood size; capped at the number of users in the data model
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param minCommonItems minimal number of items a user must share to be considered
+   * @param maxUsersPerItem most users counted as sharing any one item
+   * @param maxCandidates most users for which to compute similarity
+   * @throws IllegalArgumentException
+   *           if {@code n}, minCommonItems, maxUsersPerItem or maxCandidates is less than 1, or userSimilarity or
+   *           dataModel are {@code null}
+   */
+  public CoRatingNearestNUserNeighborhood(int n,
+                                          double minSimilarity,
+                                          UserSimilarity userSimilarity,
+                                          DataModel dataModel,
+                                          int minCommonItems,
+                                          int maxUsersPerItem,
+                                          int maxCandidates) throws TasteException {
+    super(userSimilarity, dataModel, 1.0);
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(minCommonItems >= 1, "minCommonItems must be at least 1");
+    Preconditions.checkArgument(maxUsersPerItem >= 1, "maxUsersPerItem must be at least 1");
+    Preconditions.checkArgument(maxCandidates >= 1, "maxCandidates must be at least 1");
+    int numUsers = dataModel.getNumUsers();
+    this.n = n > numUsers ? numUsers : n;
+    this.minSimilarity = minSimilarity;
+    this.minCommonItems = minCommonItems;
+    this.maxUsersPerItem = maxUsersPerItem;
+    this.maxCandidates = maxCandidates;
+    this.tanimoto = userSimilarity instanceof TanimotoCoefficientSimilarity;
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+
+    DataModel dataModel = getDataModel();
+    FastIDSet itemIDs = dataModel.getItemIDsFromUser(userID);
+    int numItems = itemIDs.size();
+    if (numItems < minCommonItems || n == 0) {
+      return NO_USERS;
+    }
+
+    // Gather the users sharing each item, once per item shared; sorting then brings each user's together
+    long[] sharingUserIDs = new long[16];
+    int numSharing = 0;
+    boolean capped = false;
+    LongPrimitiveIterator it = itemIDs.iterator();
+    while (it.hasNext()) {
+      PreferenceArray prefs = dataModel.getPreferencesForItem(it.nextLong());
+      int length = prefs.length();
+      int numTaken = Math.min(length, maxUsersPerItem);
+      capped |= numTaken < length;
+      if (numSharing + numTaken > sharingUserIDs.length) {
+        sharingUserIDs = Arrays.copyOf(sharingUserIDs, Math.max(numSharing + numTaken, sharingUserIDs.length << 1));
+      }
+      for (int i = 0; i < numTaken; i++) {
+        int index = numTaken == length ? i : (int) ((long) i * length / numTaken);
+        long otherUserID = prefs.getUserID(index);
+        if (otherUserID != userID) {
+          sharingUserIDs[numSharing++] = otherUserID;
+        }
+      }
+    }
+    Arrays.sort(sharingUserIDs, 0, numSharing);
+
+    // Count the items each user shares, compacting the candidates into the front of the array
+    int[] commonCounts = new int[numSharing];
+    int numCandidates = 0;
+    int[] numWithCount = new int[numItems + 1];
+    for (int i = 0; i < numSharing;) {
+      long otherUserID = sharingUserIDs[i];
+      int j = i + 1;
+      while (j < numSharing && sharingUserIDs[j] == otherUserID) {
+        j++;
+      }
+      int count = j - i;
+      if (count >= minCommonItems) {
+        sharingUserIDs[numCandidates] = otherUserID;
+        commonCounts[numCandidates++] = count;
+        numWithCount[count]++;
+      }
+      i = j;
+    }
+
+    // Order candidates by decreasing count, stably so ties stay in ID order
+    int[] nextIndexForCount = new int[numItems + 1];
+    int index = 0;
+    for (int count = numItems; count >= minCommonItems; count--) {
+      nextIndexForCount[count] = index;
+      index += numWithCount[count];
+    }
+    long[] candidateIDs = new long[numCandidates];
+    int[] candidateCounts = new int[numCandidates];
+    for (int i = 0; i < numCandidates; i++) {
+      int count = commonCounts[i];
+      int to = nextIndexForCount[count]++;
+      candidateIDs[to] = sharingUserIDs[i];
+      candidateCounts[to] = count;
+    }
+
+    UserSimilarity userSimilarity = getUserSimilarity();
+    LongDoubleMinHeap topUsers = new LongDoubleMinHeap(n);
+    int numConsidered = Math.min(numCandidates, maxCandidates);
+    for (int i = 0; i < numConsidered; i++) {
+      double bound = tanimoto && !capped ? (double) candidateCounts[i] / numItems : 1.0;
+      if (bound < minSimilarity || bound <= topUsers.threshold()) {
+        // No candidate from here on, sharing as many items or fewer, can do better
+        break;
+      }
+      double similarity;
+      try {
+        similarity = userSimilarity.userSimilarity(userID, candidateIDs[i]);
+      } catch (NoSuchUserException nsue) {
+        continue;
+      }
+      if (similarity >= minSimilarity) {
+        topUsers.offer(candidateIDs[i], similarity);
+      }
+    }
+    return topUsers.isEmpty() ? NO_USERS : topUsers.toIDArray();
+  }
+
+  @Override
+  public String toString() {
+    return "CoRatingNearestNUserNeighborhood";
+  }
+
+}
@@ -86,7 +86,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
     DataModel dataModel = getDataModel();
     UserSimilarity userSimilarityImpl = getUserSimilarity();
     
-    TopItems.Estimator<Long> estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
+    TopItems.LongEstimator estimator = new Estimator(userSimilarityImpl, userID, minSimilarity);
     
     LongPrimitiveIterator userIDs = SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(),
       getSamplingRate());
@@ -99,7 +99,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
     return "NearestNUserNeighborhood";
   }
   
-  private static final class Estimator implements TopItems.Estimator<Long> {
+  private static final class Estimator implements TopItems.LongEstimator {
     private final UserSimilarity userSimilarityImpl;
     private final long theUserID;
     private final double minSim;
@@ -111,7 +111,7 @@ public final class NearestNUserNeighborhood extends AbstractUserNeighborhood {
     }
     
     @Override
-    public double estimate(Long userID) throws TasteException {
+    public double estimate(long userID) throws TasteException {
       if (userID == theUserID) {
         return Double.NaN;
       }
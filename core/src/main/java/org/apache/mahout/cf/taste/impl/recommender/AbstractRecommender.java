@@ -19,21 +19,35 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 public abstract class AbstractRecommender implements Recommender {
   
   private static final Logger log = LoggerFactory.getLogger(AbstractRecommender.class);
+
+  /** Number of users recommended to together by {@link #recommendBlock(long[], int, IDRescorer)} */
+  private static final int BATCH_BLOCK_SIZE = 64;
   
   private final DataModel dataModel;
   private final CandidateItemsStrategy candidateItemsStrategy;
@@ -62,6 +76,165 @@ public abstract class AbstractRecommender implements Recommender {
   public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
     return recommend(userID, howMany, null);
   }
+
+  /**
+   * <p>
+   * Recommends items to each of several users, as {@link #recommend(long, int, IDRescorer)} would. The users are
+   * ordered by {@link #groupUsers(long[])}, split into blocks of consecutive users, and the blocks are
+   * recommended to by {@link #recommendBlock(long[], int, IDRescorer)} on a pool of threads. Implementations
+   * of that method share work between the users of a block, so this is faster than recommending to each user
+   * in turn even with one thread.
+   * </p>
+   *
+   * @param userIDs users to recommend to
+   * @param numThreads number of threads to recommend with
+   * @return recommendations for each of the users, by user ID
+   * @throws TasteException if an error occurs while recommending to any of the users, for instance if one of
+   *  them does not exist
+   */
+  public FastByIDMap<List<RecommendedItem>> recommend(long[] userIDs, final int howMany, final IDRescorer rescorer,
+                                                      int numThreads) throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    log.debug("Recommending items for {} users with {} threads", userIDs.length, numThreads);
+
+    long[] groupedUserIDs = groupUsers(userIDs);
+    List<long[]> blocks = Lists.newArrayList();
+    for (int start = 0; start < groupedUserIDs.length; start += BATCH_BLOCK_SIZE) {
+      blocks.add(Arrays.copyOfRange(groupedUserIDs, start, Math.min(groupedUserIDs.length,
+                                                                    start + BATCH_BLOCK_SIZE)));
+    }
+
+    FastByIDMap<List<RecommendedItem>> recommendations =
+        new FastByIDMap<List<RecommendedItem>>(groupedUserIDs.length);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<List<List<RecommendedItem>>>> futures = Lists.newArrayListWithCapacity(blocks.size());
+      for (final long[] block : blocks) {
+        futures.add(executor.submit(new Callable<List<List<RecommendedItem>>>() {
+          @Override
+          public List<List<RecommendedItem>> call() throws TasteException {
+            return recommendBlock(block, howMany, rescorer);
+          }
+        }));
+      }
+      for (int i = 0; i < blocks.size(); i++) {
+        long[] block = blocks.get(i);
+        List<List<RecommendedItem>> blockRecommendations = futures.get(i).get();
+        for (int u = 0; u < block.length; u++) {
+          recommendations.put(block[u], blockRecommendations.get(u));
+        }
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+    return recommendations;
+  }
+
+  /**
+   * Orders users for {@link #recommend(long[], int, IDRescorer, int)} so that users whose recommendations
+   * involve the same items are likely to fall in the same block. This implementation orders users by the most
+   * popular item they have a preference for, and returns users without preferences first.
+   *
+   * @return the same user IDs, possibly reordered; duplicates are removed
+   */
+  protected long[] groupUsers(long[] userIDs) throws TasteException {
+    FastIDSet distinctUserIDs = new FastIDSet(userIDs.length);
+    for (long userID : userIDs) {
+      distinctUserIDs.add(userID);
+    }
+    final long[] groupedUserIDs = new long[distinctUserIDs.size()];
+    final long[] mostPopularItemIDs = new long[groupedUserIDs.length];
+    FastByIDMap<Integer> popularity = new FastByIDMap<Integer>();
+    LongPrimitiveIterator it = distinctUserIDs.iterator();
+    for (int i = 0; i < groupedUserIDs.length; i++) {
+      long userID = it.nextLong();
+      groupedUserIDs[i] = userID;
+      mostPopularItemIDs[i] = mostPopularItem(dataModel.getItemIDsFromUser(userID), popularity);
+    }
+
+    Integer[] order = new Integer[groupedUserIDs.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long itemA = mostPopularItemIDs[a];
+        long itemB = mostPopularItemIDs[b];
+        if (itemA != itemB) {
+          return itemA < itemB ? -1 : 1;
+        }
+        long userA = groupedUserIDs[a];
+        long userB = groupedUserIDs[b];
+        return userA < userB ? -1 : userA > userB ? 1 : 0;
+      }
+    });
+    long[] result = new long[order.length];
+    for (int i = 0; i < order.length; i++) {
+      result[i] = groupedUserIDs[order[i]];
+    }
+    return result;
+  }
+
+  /**
+   * @return ID of the item among itemIDs with the most preferences, the lowest such ID in case of ties, or
+   *  {@link Long#MIN_VALUE} if there are no items
+   */
+  private long mostPopularItem(FastIDSet itemIDs, FastByIDMap<Integer> popularity) throws TasteException {
+    long mostPopularItemID = Long.MIN_VALUE;
+    int mostPreferences = -1;
+    LongPrimitiveIterator it = itemIDs.iterator();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      Integer numPreferences = popularity.get(itemID);
+      if (numPreferences == null) {
+        numPreferences = dataModel.getNumUsersWithPreferenceFor(itemID);
+        popularity.put(itemID, numPreferences);
+      }
+      if (numPreferences > mostPreferences || (numPreferences == mostPreferences && itemID < mostPopularItemID)) {
+        mostPopularItemID = itemID;
+        mostPreferences = numPreferences;
+      }
+    }
+    return mostPopularItemID;
+  }
+
+  /**
+   * Recommends items to each of a block of users, for {@link #recommend(long[], int, IDRescorer, int)}. This
+   * implementation just calls {@link #recommendEach(long[], int, IDRescorer)}; subclasses override it to share
+   * work between the users. It may be called by several threads at once.
+   *
+   * @return recommendations for the user at userIDs[u] at index u
+   */
+  protected List<List<RecommendedItem>> recommendBlock(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    return recommendEach(userIDs, howMany, rescorer);
+  }
+
+  /**
+   * @return recommendations for the user at userIDs[u] at index u, from
+   *  {@link #recommend(long, int, IDRescorer)} for each user in turn
+   */
+  protected final List<List<RecommendedItem>> recommendEach(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(userIDs.length);
+    for (long userID : userIDs) {
+      recommendations.add(recommend(userID, howMany, rescorer));
+    }
+    return recommendations;
+  }
   
   /**
    * <p>
@@ -96,6 +269,10 @@ public abstract class AbstractRecommender implements Recommender {
   public DataModel getDataModel() {
     return dataModel;
   }
+
+  protected CandidateItemsStrategy getCandidateItemsStrategy() {
+    return candidateItemsStrategy;
+  }
   
   /**
    * @param userID
@@ -49,8 +49,6 @@ public class BiasedItemBasedRecommender extends GenericItemBasedRecommender {
   private static final double DEFAULT_USER_BIAS_REGULARIZATION = 10;
   private static final double DEFAULT_ITEM_BIAS_REGULARIZATION = 5;
 
-  private final ItemSimilarity similarity;
-
   public BiasedItemBasedRecommender(DataModel dataModel, ItemSimilarity similarity) throws TasteException {
     this(dataModel, similarity, DEFAULT_NUM_SIMILAR_ITEMS, DEFAULT_NUM_OPTIMIZATION_PASSES,
         DEFAULT_ITEM_BIAS_REGULARIZATION, DEFAULT_USER_BIAS_REGULARIZATION);
@@ -60,7 +58,6 @@ public class BiasedItemBasedRecommender extends GenericItemBasedRecommender {
       int numOptimizationPasses, double itemBiasRegularization, double userBiasRegularization) throws TasteException {
     super(dataModel, similarity);
     this.numSimilarItems = numSimilarItems;
-    this.similarity = similarity;
 
     averageRating = averageRating();
 
@@ -137,13 +134,10 @@ public class BiasedItemBasedRecommender extends GenericItemBasedRecommender {
   }
 
   @Override
-  protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
-    throws TasteException {
-    long[] userIDs = preferencesFromUser.getIDs();
-    float[] ratings = new float[userIDs.length];
-    long[] itemIDs = new long[userIDs.length];
-            
-    double[] similarities = similarity.itemSimilarities(itemID, userIDs);
+  protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID,
+                                       double[] similarities) {
+    float[] ratings = new float[similarities.length];
+    long[] itemIDs = new long[similarities.length];
 
     for (int n = 0; n < preferencesFromUser.length(); n++) {
       ratings[n] = preferencesFromUser.get(n).getValue();
@@ -21,6 +21,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -48,7 +49,7 @@ public final class CachingRecommender implements Recommender {
   private static final Logger log = LoggerFactory.getLogger(CachingRecommender.class);
   
   private final Recommender recommender;
-  private final int[] maxHowMany;
+  private final AtomicInteger maxHowMany;
   private final Retriever<Long,Recommendations> recommendationsRetriever;
   private final Cache<Long,Recommendations> recommendationCache;
   private final Cache<LongPair,Float> estimatedPrefCache;
@@ -58,7 +59,7 @@ public final class CachingRecommender implements Recommender {
   public CachingRecommender(Recommender recommender) throws TasteException {
     Preconditions.checkArgument(recommender != null, "recommender is null");
     this.recommender = recommender;
-    maxHowMany = new int[]{1};
+    maxHowMany = new AtomicInteger(1);
     // Use "num users" as an upper limit on cache size. Rough guess.
     int numUsers = recommender.getDataModel().getNumUsers();
     recommendationsRetriever = new RecommendationRetriever();
@@ -96,10 +97,9 @@ public final class CachingRecommender implements Recommender {
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
-    synchronized (maxHowMany) {
-      if (howMany > maxHowMany[0]) {
-        maxHowMany[0] = howMany;
-      }
+    int currentMaxHowMany = maxHowMany.get();
+    while (howMany > currentMaxHowMany && !maxHowMany.compareAndSet(currentMaxHowMany, howMany)) {
+      currentMaxHowMany = maxHowMany.get();
     }
 
     // Special case, avoid caching an anonymous user
@@ -188,7 +188,7 @@ public final class CachingRecommender implements Recommender {
     @Override
     public Recommendations get(Long key) throws TasteException {
       log.debug("Retrieving new recommendations for user ID '{}'", key);
-      int howMany = maxHowMany[0];
+      int howMany = maxHowMany.get();
       IDRescorer rescorer = currentRescorer;
       List<RecommendedItem> recommendations =
           rescorer == null ? recommender.recommend(key, howMany) : recommender.recommend(key, howMany, rescorer);
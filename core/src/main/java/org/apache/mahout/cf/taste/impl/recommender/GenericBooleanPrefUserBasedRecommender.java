@@ -42,7 +42,8 @@ public final class GenericBooleanPrefUserBasedRecommender extends GenericUserBas
    * sum of similarities to any other user in the neighborhood who has also rated the item.
    */
   @Override
-  protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID) throws TasteException {
+  protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID,
+                                       double[] neighborSimilarities) throws TasteException {
     if (theNeighborhood.length == 0) {
       return Float.NaN;
     }
@@ -50,11 +51,14 @@ public final class GenericBooleanPrefUserBasedRecommender extends GenericUserBas
     UserSimilarity similarity = getSimilarity();
     float totalSimilarity = 0.0f;
     boolean foundAPref = false;
-    for (long userID : theNeighborhood) {
+    for (int i = 0; i < theNeighborhood.length; i++) {
+      long userID = theNeighborhood[i];
       // See GenericItemBasedRecommender.doEstimatePreference() too
       if (userID != theUserID && dataModel.getPreferenceValue(userID, itemID) != null) {
         foundAPref = true;
-        totalSimilarity += (float) similarity.userSimilarity(theUserID, userID);
+        totalSimilarity += (float) (neighborSimilarities == null
+            ? similarity.userSimilarity(theUserID, userID)
+            : neighborSimilarities[i]);
       }
     }
     return foundAPref ? totalSimilarity : Float.NaN;
@@ -18,6 +18,7 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -25,12 +26,14 @@ import java.util.concurrent.Callable;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.model.PrefetchingDataModel;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
@@ -38,10 +41,12 @@ import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.common.LongPair;
+import org.apache.mahout.math.map.OpenLongDoubleHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -76,6 +81,8 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   private EstimatedPreferenceCapper capper;
 
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
+  /** Most similarities kept by {@link SimilarityRows} while recommending to a block of users */
+  private static final int MAX_SHARED_SIMILARITIES = 1 << 20;
 
   public GenericItemBasedRecommender(DataModel dataModel,
                                      ItemSimilarity similarity,
@@ -127,8 +134,9 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
 
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+    prefetchItems(preferencesFromUser, possibleItemIDs);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
+    TopItems.LongEstimator estimator = new Estimator(userID, preferencesFromUser);
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -136,7 +144,46 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     log.debug("Recommendations are: {}", topItems);
     return topItems;
   }
+
+  /**
+   * Recommends to a block of users while remembering the similarities between each candidate item and the
+   * items the users prefer, so that a similarity needed for several users is computed only once. Users with
+   * preferences for the same items, as grouped by {@link #groupUsers(long[])}, share most of them.
+   */
+  @Override
+  protected List<List<RecommendedItem>> recommendBlock(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    SimilarityRows similarityRows = new SimilarityRows(similarity);
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(userIDs.length);
+    for (long userID : userIDs) {
+      PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+      if (preferencesFromUser.length() == 0) {
+        recommendations.add(Collections.<RecommendedItem>emptyList());
+        continue;
+      }
+      FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
+      prefetchItems(preferencesFromUser, possibleItemIDs);
+      TopItems.LongEstimator estimator = new Estimator(userID, preferencesFromUser, similarityRows);
+      recommendations.add(TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer, estimator));
+    }
+    return recommendations;
+  }
   
+  /**
+   * Estimating the candidate items' preferences reads the preferences for each of them, and for each of the
+   * user's items, one item at a time through the similarity. A {@link PrefetchingDataModel} is first asked to
+   * load them in bulk: the user's items first, since every estimate needs them.
+   */
+  private void prefetchItems(PreferenceArray preferencesFromUser, FastIDSet possibleItemIDs)
+    throws TasteException {
+    DataModel dataModel = getDataModel();
+    if (dataModel instanceof PrefetchingDataModel) {
+      PrefetchingDataModel prefetchingDataModel = (PrefetchingDataModel) dataModel;
+      prefetchingDataModel.prefetchPreferencesForItems(new FastIDSet(preferencesFromUser.getIDs()));
+      prefetchingDataModel.prefetchPreferencesForItems(possibleItemIDs);
+    }
+  }
+
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
@@ -165,13 +212,13 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
+    TopItems.LongEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
     return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
   }
   
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -179,7 +226,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -188,7 +235,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs,
                                                 int howMany,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, null,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -197,7 +244,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer,
                                                 boolean excludeItemIfNotSimilarToAll) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
+    TopItems.LongEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer,
         excludeItemIfNotSimilarToAll);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
@@ -207,7 +254,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
 
     DataModel model = getDataModel();
-    TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID);
+    TopItems.LongEstimator estimator = new RecommendedBecauseEstimator(userID, itemID);
 
     PreferenceArray prefs = model.getPreferencesFromUser(userID);
     int size = prefs.length();
@@ -222,17 +269,32 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   
   private List<RecommendedItem> doMostSimilarItems(long[] itemIDs,
                                                    int howMany,
-                                                   TopItems.Estimator<Long> estimator) throws TasteException {
+                                                   TopItems.LongEstimator estimator) throws TasteException {
     FastIDSet possibleItemIDs = mostSimilarItemsCandidateItemsStrategy.getCandidateItems(itemIDs, getDataModel());
     return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, estimator);
   }
   
   protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID)
     throws TasteException {
+    return doEstimatePreference(userID, preferencesFromUser, itemID,
+                                similarity.itemSimilarities(itemID, preferencesFromUser.getIDs()));
+  }
+
+  /**
+   * Estimates a preference from the similarities of the item to the items the user prefers. Subclasses which
+   * estimate differently should override this method, which {@link #recommendBlock(long[], int, IDRescorer)}
+   * calls directly with shared similarities; a subclass which overrides
+   * {@link #doEstimatePreference(long, PreferenceArray, long)} instead must also override
+   * {@link #recommendBlock(long[], int, IDRescorer)}.
+   *
+   * @param similarities similarity of itemID to the item of each of preferencesFromUser, in the same order;
+   *  may be modified
+   */
+  protected float doEstimatePreference(long userID, PreferenceArray preferencesFromUser, long itemID,
+                                       double[] similarities) throws TasteException {
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
-    double[] similarities = similarity.itemSimilarities(itemID, preferencesFromUser.getIDs());
     for (int i = 0; i < similarities.length; i++) {
       double theSimilarity = similarities[i];
       if (!Double.isNaN(theSimilarity)) {
@@ -276,7 +338,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  public static class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  public static class MostSimilarEstimator implements TopItems.LongEstimator {
     
     private final long toItemID;
     private final ItemSimilarity similarity;
@@ -289,7 +351,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       LongPair pair = new LongPair(toItemID, itemID);
       if (rescorer != null && rescorer.isFiltered(pair)) {
         return Double.NaN;
@@ -299,23 +361,96 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     private final long userID;
     private final PreferenceArray preferencesFromUser;
+    /** similarities shared with other users, or null to compute them for each estimate */
+    private final SimilarityRows similarityRows;
     
     private Estimator(long userID, PreferenceArray preferencesFromUser) {
+      this(userID, preferencesFromUser, null);
+    }
+
+    private Estimator(long userID, PreferenceArray preferencesFromUser, SimilarityRows similarityRows) {
       this.userID = userID;
       this.preferencesFromUser = preferencesFromUser;
+      this.similarityRows = similarityRows;
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return doEstimatePreference(userID, preferencesFromUser, itemID);
+    public double estimate(long itemID) throws TasteException {
+      if (similarityRows == null) {
+        return doEstimatePreference(userID, preferencesFromUser, itemID);
+      }
+      return doEstimatePreference(userID, preferencesFromUser, itemID,
+                                  similarityRows.itemSimilarities(itemID, preferencesFromUser.getIDs()));
+    }
+  }
+
+  /**
+   * Similarities of candidate items to preferred items, remembered while recommending to one block of users.
+   * Not thread-safe. Once {@link #MAX_SHARED_SIMILARITIES} are held, all are forgotten.
+   */
+  private static final class SimilarityRows {
+
+    private final ItemSimilarity similarity;
+    private final FastByIDMap<OpenLongDoubleHashMap> rows = new FastByIDMap<OpenLongDoubleHashMap>();
+    private int numSimilarities;
+
+    private SimilarityRows(ItemSimilarity similarity) {
+      this.similarity = similarity;
+    }
+
+    /**
+     * @return a new array of the similarities of itemID to each of itemIDs, as from
+     *  {@link ItemSimilarity#itemSimilarities(long, long[])}; those not yet known are computed in one call
+     */
+    double[] itemSimilarities(long itemID, long[] itemIDs) throws TasteException {
+      OpenLongDoubleHashMap row = rows.get(itemID);
+      if (row == null) {
+        row = new OpenLongDoubleHashMap();
+        rows.put(itemID, row);
+      }
+      int numMissing = 0;
+      long[] missingItemIDs = new long[itemIDs.length];
+      for (long otherItemID : itemIDs) {
+        if (!row.containsKey(otherItemID)) {
+          missingItemIDs[numMissing++] = otherItemID;
+        }
+      }
+      if (numMissing == itemIDs.length) {
+        double[] similarities = similarity.itemSimilarities(itemID, itemIDs);
+        remember(itemID, row, itemIDs, similarities, itemIDs.length);
+        return similarities;
+      }
+      if (numMissing > 0) {
+        missingItemIDs = Arrays.copyOf(missingItemIDs, numMissing);
+        remember(itemID, row, missingItemIDs, similarity.itemSimilarities(itemID, missingItemIDs), numMissing);
+      }
+      double[] similarities = new double[itemIDs.length];
+      for (int i = 0; i < itemIDs.length; i++) {
+        similarities[i] = row.get(itemIDs[i]);
+      }
+      return similarities;
+    }
+
+    private void remember(long itemID, OpenLongDoubleHashMap row, long[] itemIDs, double[] similarities,
+                          int length) {
+      if (numSimilarities + length > MAX_SHARED_SIMILARITIES) {
+        // Forget all other rows, but keep this one, which the caller is still reading
+        rows.clear();
+        rows.put(itemID, row);
+        numSimilarities = row.size();
+      }
+      for (int i = 0; i < length; i++) {
+        row.put(itemIDs[i], similarities[i]);
+      }
+      numSimilarities += length;
     }
   }
   
-  private static final class MultiMostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MultiMostSimilarEstimator implements TopItems.LongEstimator {
     
     private final long[] toItemIDs;
     private final ItemSimilarity similarity;
@@ -331,7 +466,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       RunningAverage average = new FullRunningAverage();
       double[] similarities = similarity.itemSimilarities(itemID, toItemIDs);
       for (int i = 0; i < toItemIDs.length; i++) {
@@ -353,7 +488,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class RecommendedBecauseEstimator implements TopItems.Estimator<Long> {
+  private final class RecommendedBecauseEstimator implements TopItems.LongEstimator {
     
     private final long userID;
     private final long recommendedItemID;
@@ -364,7 +499,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       Float pref = getDataModel().getPreferenceValue(userID, itemID);
       if (pref == null) {
         return Float.NaN;
@@ -32,12 +32,14 @@ import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
 import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.common.LongPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * <p>
@@ -92,7 +94,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
 
     FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
+    TopItems.LongEstimator estimator = new Estimator(userID, theNeighborhood);
 
     List<RecommendedItem> topItems = TopItems
         .getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator);
@@ -101,6 +103,44 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     return topItems;
   }
   
+  /**
+   * Recommends to a block of users, computing the similarity of each user to each neighbor once, instead of
+   * once for every candidate item that the neighbor has a preference for.
+   */
+  @Override
+  protected List<List<RecommendedItem>> recommendBlock(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(userIDs.length);
+    for (long userID : userIDs) {
+      long[] theNeighborhood = neighborhood.getUserNeighborhood(userID);
+      if (theNeighborhood.length == 0) {
+        recommendations.add(Collections.<RecommendedItem>emptyList());
+        continue;
+      }
+      double[] neighborSimilarities = userSimilarities(userID, theNeighborhood);
+      for (int i = 0; i < theNeighborhood.length; i++) {
+        if (theNeighborhood[i] == userID) {
+          neighborSimilarities[i] = Double.NaN;
+        }
+      }
+      FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
+      TopItems.LongEstimator estimator = new Estimator(userID, theNeighborhood, neighborSimilarities);
+      recommendations.add(TopItems.getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator));
+    }
+    return recommendations;
+  }
+
+  private double[] userSimilarities(long userID, long[] theNeighborhood) throws TasteException {
+    if (similarity instanceof BulkUserSimilarity) {
+      return ((BulkUserSimilarity) similarity).userSimilarities(userID, theNeighborhood);
+    }
+    double[] similarities = new double[theNeighborhood.length];
+    for (int i = 0; i < theNeighborhood.length; i++) {
+      similarities[i] = similarity.userSimilarity(userID, theNeighborhood[i]);
+    }
+    return similarities;
+  }
+  
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
     DataModel model = getDataModel();
@@ -119,16 +159,28 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   
   @Override
   public long[] mostSimilarUserIDs(long userID, int howMany, Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(userID, similarity, rescorer);
+    TopItems.LongEstimator estimator = new MostSimilarEstimator(userID, similarity, rescorer);
     return doMostSimilarUsers(howMany, estimator);
   }
   
-  private long[] doMostSimilarUsers(int howMany, TopItems.Estimator<Long> estimator) throws TasteException {
+  private long[] doMostSimilarUsers(int howMany, TopItems.LongEstimator estimator) throws TasteException {
     DataModel model = getDataModel();
     return TopItems.getTopUsers(howMany, model.getUserIDs(), null, estimator);
   }
   
   protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID) throws TasteException {
+    return doEstimatePreference(theUserID, theNeighborhood, itemID, null);
+  }
+
+  /**
+   * Estimates a preference from the preferences of the neighbors for the item. Subclasses which estimate
+   * differently should override this method rather than {@link #doEstimatePreference(long, long[], long)}.
+   *
+   * @param neighborSimilarities similarity of theUserID to each user in theNeighborhood, in the same order, or
+   *  null to compute similarities as needed
+   */
+  protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID,
+                                       double[] neighborSimilarities) throws TasteException {
     if (theNeighborhood.length == 0) {
       return Float.NaN;
     }
@@ -136,12 +188,15 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
-    for (long userID : theNeighborhood) {
+    for (int i = 0; i < theNeighborhood.length; i++) {
+      long userID = theNeighborhood[i];
       if (userID != theUserID) {
         // See GenericItemBasedRecommender.doEstimatePreference() too
         Float pref = dataModel.getPreferenceValue(userID, itemID);
         if (pref != null) {
-          double theSimilarity = similarity.userSimilarity(theUserID, userID);
+          double theSimilarity = neighborSimilarities == null
+              ? similarity.userSimilarity(theUserID, userID)
+              : neighborSimilarities[i];
           if (!Double.isNaN(theSimilarity)) {
             preference += theSimilarity * pref;
             totalSimilarity += theSimilarity;
@@ -194,7 +249,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private static final class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MostSimilarEstimator implements TopItems.LongEstimator {
     
     private final long toUserID;
     private final UserSimilarity similarity;
@@ -207,7 +262,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long userID) throws TasteException {
+    public double estimate(long userID) throws TasteException {
       // Don't consider the user itself as a possible most similar user
       if (userID == toUserID) {
         return Double.NaN;
@@ -225,19 +280,26 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     private final long theUserID;
     private final long[] theNeighborhood;
+    /** similarities of the user to each neighbor, or null to compute them for each estimate */
+    private final double[] neighborSimilarities;
     
     Estimator(long theUserID, long[] theNeighborhood) {
+      this(theUserID, theNeighborhood, null);
+    }
+
+    Estimator(long theUserID, long[] theNeighborhood, double[] neighborSimilarities) {
       this.theUserID = theUserID;
       this.theNeighborhood = theNeighborhood;
+      this.neighborSimilarities = neighborSimilarities;
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return doEstimatePreference(theUserID, theNeighborhood, itemID);
+    public double estimate(long itemID) throws TasteException {
+      return doEstimatePreference(theUserID, theNeighborhood, itemID, neighborSimilarities);
     }
   }
 }
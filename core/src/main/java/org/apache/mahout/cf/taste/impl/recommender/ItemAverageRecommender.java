@@ -79,7 +79,7 @@ public final class ItemAverageRecommender extends AbstractRecommender {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    TopItems.Estimator<Long> estimator = new Estimator();
+    TopItems.LongEstimator estimator = new Estimator();
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -187,10 +187,10 @@ public final class ItemAverageRecommender extends AbstractRecommender {
     return "ItemAverageRecommender";
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     @Override
-    public double estimate(Long itemID) {
+    public double estimate(long itemID) {
       return doEstimatePreference(itemID);
     }
   }
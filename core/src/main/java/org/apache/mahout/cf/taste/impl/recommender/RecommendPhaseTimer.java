@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>
+ * Measures, for the recommendations made on one thread, how much time goes to ranking items or users in
+ * {@link TopItems}, and how much of that to estimating each one's preference or similarity, as opposed to
+ * keeping the top ones. Whatever a recommender does outside {@link TopItems}, chiefly finding candidate items,
+ * makes up the rest of the time.
+ * </p>
+ *
+ * <p>
+ * Timing is off unless a timer is {@link #attach()}ed to the current thread; then it only costs a thread-local
+ * lookup per ranking. When on, two {@link System#nanoTime()} calls are added per candidate, which slows down
+ * recommenders whose estimates are very cheap. A ranking done within an estimate counts as estimation, while a
+ * user-based recommender's search for a neighborhood counts as ranking, with similarities as estimates.
+ * </p>
+ */
+public final class RecommendPhaseTimer {
+
+  private static final ThreadLocal<RecommendPhaseTimer> CURRENT = new ThreadLocal<RecommendPhaseTimer>();
+
+  private long rankingNanos;
+  private long estimationNanos;
+  private boolean ranking;
+
+  /** Starts timing recommendations made on the current thread, with this timer. */
+  public void attach() {
+    CURRENT.set(this);
+  }
+
+  /** Stops timing recommendations made on the current thread. */
+  public static void detach() {
+    CURRENT.remove();
+  }
+
+  public void reset() {
+    rankingNanos = 0L;
+    estimationNanos = 0L;
+  }
+
+  /** @return time spent ranking candidates in {@link TopItems}, including estimating them */
+  public long getRankingNanos() {
+    return rankingNanos;
+  }
+
+  /** @return time spent estimating candidates while ranking them */
+  public long getEstimationNanos() {
+    return estimationNanos;
+  }
+
+  /** @return timer attached to the current thread if it is not already timing a ranking, or null */
+  static RecommendPhaseTimer startRanking() {
+    RecommendPhaseTimer timer = CURRENT.get();
+    if (timer == null || timer.ranking) {
+      return null;
+    }
+    timer.ranking = true;
+    timer.rankingNanos -= System.nanoTime();
+    return timer;
+  }
+
+  void stopRanking() {
+    rankingNanos += System.nanoTime();
+    ranking = false;
+  }
+
+  double estimate(TopItems.LongEstimator estimator, long id) throws TasteException {
+    long start = System.nanoTime();
+    try {
+      return estimator.estimate(id);
+    } finally {
+      estimationNanos += System.nanoTime() - start;
+    }
+  }
+
+}
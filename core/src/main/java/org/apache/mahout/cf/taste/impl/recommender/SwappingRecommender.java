@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.PlusAnonymousUserDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} which refreshes by building a complete new recommender -- data model, similarity,
+ * caches, factorization and all -- in the background, and then switching to it at once. Until then, requests
+ * are served by the previous recommender, which is never refreshed in place, so that they neither wait for
+ * the refresh nor see half-rebuilt state.
+ * </p>
+ *
+ * <p>
+ * The new recommender is built by a {@link Callable} which must create a new, independent graph of objects,
+ * typically reading the data anew, for example by creating a new {@link DataModel}. Sharing objects with the
+ * previous recommender would defeat the purpose. While the two coexist, memory use about doubles.
+ * </p>
+ *
+ * <p>
+ * Optionally, the users and numbers of items most recently asked for are remembered, and recommendations are
+ * computed for them with the new recommender before switching to it. This fills caches such as those of
+ * {@link CachingRecommender}, so that the switch is not followed by a burst of slow requests.
+ * </p>
+ *
+ * <p>
+ * Preferences set or removed through this class change the current recommender only; they are lost at the
+ * next switch unless the builder reads them back from where they were stored.
+ * </p>
+ */
+public final class SwappingRecommender implements Recommender {
+
+  private static final Logger log = LoggerFactory.getLogger(SwappingRecommender.class);
+
+  private final Callable<? extends Recommender> builder;
+  private volatile Recommender current;
+  private final AtomicLong version;
+  private final Object buildLock;
+  private final AtomicBoolean rebuildRequested;
+  private final AtomicBoolean rebuilding;
+  private final AtomicLongArray recentUserIDs;
+  private final AtomicIntegerArray recentHowManys;
+  private final AtomicInteger nextRecent;
+
+  /**
+   * @param builder
+   *          builds a new recommender, independent of any built before, each time it is called
+   * @throws TasteException
+   *           if the first recommender cannot be built
+   */
+  public SwappingRecommender(Callable<? extends Recommender> builder) throws TasteException {
+    this(builder, 0);
+  }
+
+  /**
+   * @param builder
+   *          builds a new recommender, independent of any built before, each time it is called
+   * @param numWarmUpRequests
+   *          how many of the most recent requests to replay on a new recommender before switching to it, or 0
+   * @throws TasteException
+   *           if the first recommender cannot be built
+   */
+  public SwappingRecommender(Callable<? extends Recommender> builder, int numWarmUpRequests)
+    throws TasteException {
+    Preconditions.checkArgument(builder != null, "builder is null");
+    Preconditions.checkArgument(numWarmUpRequests >= 0, "numWarmUpRequests is negative: %s", numWarmUpRequests);
+    this.builder = builder;
+    this.version = new AtomicLong();
+    this.buildLock = new Object();
+    this.rebuildRequested = new AtomicBoolean();
+    this.rebuilding = new AtomicBoolean();
+    if (numWarmUpRequests > 0) {
+      recentUserIDs = new AtomicLongArray(numWarmUpRequests);
+      recentHowManys = new AtomicIntegerArray(numWarmUpRequests);
+    } else {
+      recentUserIDs = null;
+      recentHowManys = null;
+    }
+    this.nextRecent = new AtomicInteger();
+    rebuild();
+  }
+
+  /** @return recommender currently serving requests */
+  public Recommender getCurrent() {
+    return current;
+  }
+
+  /** @return number of recommenders built and switched to so far, including the first */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Builds a new recommender, warms it up if so configured, and switches to it, all in the calling thread.
+   * Requests are served by the previous recommender meanwhile.
+   *
+   * @throws TasteException
+   *           if the new recommender cannot be built; the current one is then kept
+   */
+  public void rebuild() throws TasteException {
+    synchronized (buildLock) {
+      log.info("Building new recommender...");
+      Recommender newRecommender;
+      try {
+        newRecommender = builder.call();
+      } catch (TasteException te) {
+        throw te;
+      } catch (Exception e) {
+        throw new TasteException(e);
+      }
+      if (newRecommender == null) {
+        throw new TasteException("Builder returned no recommender");
+      }
+      warmUp(newRecommender);
+      current = newRecommender;
+      log.info("Switched to recommender version {}: {}", version.incrementAndGet(), newRecommender);
+    }
+  }
+
+  /**
+   * Starts building a new recommender in the background, to switch to when it is ready, and returns at once.
+   * Unlike other implementations, this does not refresh the current recommender or its dependencies. If a
+   * build is already underway, another follows it, since the data may have changed after it began.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    rebuildRequested.set(true);
+    if (rebuilding.compareAndSet(false, true)) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          do {
+            try {
+              while (rebuildRequested.getAndSet(false)) {
+                try {
+                  rebuild();
+                } catch (TasteException te) {
+                  log.warn("Failed to build new recommender; keeping the current one", te);
+                } catch (RuntimeException re) {
+                  log.warn("Failed to build new recommender; keeping the current one", re);
+                }
+              }
+            } finally {
+              rebuilding.set(false);
+            }
+            // A request may have come just before the flag was cleared
+          } while (rebuildRequested.get() && rebuilding.compareAndSet(false, true));
+        }
+      }, "SwappingRecommender-rebuild");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void warmUp(Recommender newRecommender) {
+    if (recentUserIDs == null) {
+      return;
+    }
+    int next = nextRecent.get();
+    int numRecent = next >= 0 && next < recentUserIDs.length() ? next : recentUserIDs.length();
+    FastIDSet warmedUp = new FastIDSet(numRecent);
+    int numWarmedUp = 0;
+    for (int i = 0; i < numRecent; i++) {
+      long userID = recentUserIDs.get(i);
+      int howMany = recentHowManys.get(i);
+      if (howMany > 0 && warmedUp.add(userID)) {
+        try {
+          newRecommender.recommend(userID, howMany);
+          numWarmedUp++;
+        } catch (NoSuchUserException nsue) {
+          // Gone from the new data; fine
+        } catch (TasteException te) {
+          log.debug("Failed to warm up user {}", userID, te);
+        }
+      }
+    }
+    log.info("Warmed up new recommender for {} users", numWarmedUp);
+  }
+
+  private void recordRequest(long userID, int howMany) {
+    if (recentUserIDs != null && userID != PlusAnonymousUserDataModel.TEMP_USER_ID) {
+      int index = (nextRecent.getAndIncrement() & Integer.MAX_VALUE) % recentUserIDs.length();
+      // The two may come from different requests under contention, which only makes for a slightly worse guess
+      recentUserIDs.set(index, userID);
+      recentHowManys.set(index, howMany);
+    }
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    recordRequest(userID, howMany);
+    return current.recommend(userID, howMany);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    recordRequest(userID, howMany);
+    return current.recommend(userID, howMany, rescorer);
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return current.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    current.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    current.removePreference(userID, itemID);
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return current.getDataModel();
+  }
+
+  @Override
+  public String toString() {
+    return "SwappingRecommender[version:" + version + ", current:" + current + ']';
+  }
+
+}
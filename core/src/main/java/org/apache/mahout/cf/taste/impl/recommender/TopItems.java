@@ -27,6 +27,7 @@ import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongDoubleMinHeap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
@@ -50,88 +51,106 @@ public final class TopItems {
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
                                                   Estimator<Long> estimator) throws TasteException {
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopItems(howMany, possibleItemIDs, rescorer, new BoxedEstimator(estimator));
+  }
+
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but over a
+   * {@link LongEstimator}, and so never boxes an item ID or allocates anything per candidate. Objects are only
+   * created for the items finally returned.
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  LongPrimitiveIterator possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  LongEstimator estimator) throws TasteException {
     Preconditions.checkArgument(possibleItemIDs != null, "argument is null");
     Preconditions.checkArgument(estimator != null, "argument is null");
+    Preconditions.checkArgument(howMany >= 0, "howMany is negative: %s", howMany);
+    if (howMany == 0) {
+      return Collections.emptyList();
+    }
 
-    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
-      Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
-    while (possibleItemIDs.hasNext()) {
-      long itemID = possibleItemIDs.next();
-      if (rescorer == null || !rescorer.isFiltered(itemID)) {
-        double preference;
-        try {
-          preference = estimator.estimate(itemID);
-        } catch (NoSuchItemException nsie) {
-          continue;
-        }
-        double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
-        if (!Double.isNaN(rescoredPref) && (!full || rescoredPref > lowestTopValue)) {
-          topItems.add(new GenericRecommendedItem(itemID, (float) rescoredPref));
-          if (full) {
-            topItems.poll();
-          } else if (topItems.size() > howMany) {
-            full = true;
-            topItems.poll();
+    RecommendPhaseTimer timer = RecommendPhaseTimer.startRanking();
+    try {
+      LongDoubleMinHeap topItems = new LongDoubleMinHeap(howMany);
+      while (possibleItemIDs.hasNext()) {
+        long itemID = possibleItemIDs.nextLong();
+        if (rescorer == null || !rescorer.isFiltered(itemID)) {
+          double preference;
+          try {
+            preference = timer == null ? estimator.estimate(itemID) : timer.estimate(estimator, itemID);
+          } catch (NoSuchItemException nsie) {
+            continue;
           }
-          lowestTopValue = topItems.peek().getValue();
+          double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
+          // Rank on the float value that will be reported in the RecommendedItem
+          topItems.offer(itemID, (float) rescoredPref);
         }
       }
+      int size = topItems.size();
+      if (size == 0) {
+        return Collections.emptyList();
+      }
+      topItems.sort();
+      List<RecommendedItem> result = Lists.newArrayListWithCapacity(size);
+      for (int i = 0; i < size; i++) {
+        result.add(new GenericRecommendedItem(topItems.getID(i), (float) topItems.getValue(i)));
+      }
+      return result;
+    } finally {
+      if (timer != null) {
+        timer.stopRanking();
+      }
     }
-    int size = topItems.size();
-    if (size == 0) {
-      return Collections.emptyList();
-    }
-    List<RecommendedItem> result = Lists.newArrayListWithCapacity(size);
-    result.addAll(topItems);
-    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
-    return result;
   }
   
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
                                    Estimator<Long> estimator) throws TasteException {
-    Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(howMany + 1, Collections.reverseOrder());
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
-    while (allUserIDs.hasNext()) {
-      long userID = allUserIDs.next();
-      if (rescorer != null && rescorer.isFiltered(userID)) {
-        continue;
+    Preconditions.checkArgument(estimator != null, "argument is null");
+    return getTopUsers(howMany, allUserIDs, rescorer, new BoxedEstimator(estimator));
+  }
+
+  /**
+   * Like {@link #getTopUsers(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but over a
+   * {@link LongEstimator}; the only object created is the returned array.
+   */
+  public static long[] getTopUsers(int howMany,
+                                   LongPrimitiveIterator allUserIDs,
+                                   IDRescorer rescorer,
+                                   LongEstimator estimator) throws TasteException {
+    Preconditions.checkArgument(howMany >= 0, "howMany is negative: %s", howMany);
+    if (howMany == 0) {
+      return NO_IDS;
+    }
+    RecommendPhaseTimer timer = RecommendPhaseTimer.startRanking();
+    try {
+      LongDoubleMinHeap topUsers = new LongDoubleMinHeap(howMany);
+      while (allUserIDs.hasNext()) {
+        long userID = allUserIDs.nextLong();
+        if (rescorer != null && rescorer.isFiltered(userID)) {
+          continue;
+        }
+        double similarity;
+        try {
+          similarity = timer == null ? estimator.estimate(userID) : timer.estimate(estimator, userID);
+        } catch (NoSuchUserException nsue) {
+          continue;
+        }
+        double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
+        topUsers.offer(userID, rescoredSimilarity);
       }
-      double similarity;
-      try {
-        similarity = estimator.estimate(userID);
-      } catch (NoSuchUserException nsue) {
-        continue;
+      if (topUsers.isEmpty()) {
+        return NO_IDS;
       }
-      double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
-      if (!Double.isNaN(rescoredSimilarity) && (!full || rescoredSimilarity > lowestTopValue)) {
-        topUsers.add(new SimilarUser(userID, rescoredSimilarity));
-        if (full) {
-          topUsers.poll();
-        } else if (topUsers.size() > howMany) {
-          full = true;
-          topUsers.poll();
-        }
-        lowestTopValue = topUsers.peek().getSimilarity();
+      return topUsers.toIDArray();
+    } finally {
+      if (timer != null) {
+        timer.stopRanking();
       }
     }
-    int size = topUsers.size();
-    if (size == 0) {
-      return NO_IDS;
-    }
-    List<SimilarUser> sorted = Lists.newArrayListWithCapacity(size);
-    sorted.addAll(topUsers);
-    Collections.sort(sorted);
-    long[] result = new long[size];
-    int i = 0;
-    for (SimilarUser similarUser : sorted) {
-      result[i++] = similarUser.getUserID();
-    }
-    return result;
   }
   
   /**
@@ -208,5 +227,27 @@ public final class TopItems {
   public interface Estimator<T> {
     double estimate(T thing) throws TasteException;
   }
+
+  /**
+   * An {@link Estimator} specialized to primitive long IDs, which is how all recommenders estimate items and
+   * users; prefer it to {@code Estimator<Long>}, which boxes every ID it is asked about.
+   */
+  public interface LongEstimator {
+    double estimate(long id) throws TasteException;
+  }
+
+  private static final class BoxedEstimator implements LongEstimator {
+
+    private final Estimator<Long> delegate;
+
+    private BoxedEstimator(Estimator<Long> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public double estimate(long id) throws TasteException {
+      return delegate.estimate(id);
+    }
+  }
   
 }
@@ -425,7 +425,7 @@ public final class TreeClusteringRecommender2 extends AbstractRecommender implem
       possibleItemIDs.addAll(dataModel.getItemIDsFromUser(it.nextLong()));
     }
     
-    TopItems.Estimator<Long> estimator = new Estimator(cluster);
+    TopItems.LongEstimator estimator = new Estimator(cluster);
     
     List<RecommendedItem> topItems = TopItems.getTopItems(NUM_CLUSTER_RECS,
       possibleItemIDs.iterator(), null, estimator);
@@ -455,7 +455,7 @@ public final class TreeClusteringRecommender2 extends AbstractRecommender implem
     return "TreeClusteringRecommender2[clusterSimilarity:" + clusterSimilarity + ']';
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     private final FastIDSet cluster;
     
@@ -464,7 +464,7 @@ public final class TreeClusteringRecommender2 extends AbstractRecommender implem
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       DataModel dataModel = getDataModel();
       RunningAverage average = new FullRunningAverage();
       LongPrimitiveIterator it = cluster.iterator();
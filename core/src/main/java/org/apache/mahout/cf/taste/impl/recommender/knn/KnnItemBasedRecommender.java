@@ -29,6 +29,7 @@ import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
@@ -72,7 +73,7 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
                                                  LongPrimitiveIterator possibleItemIDs,
                                                  int howMany,
                                                  Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, getSimilarity(), rescorer);
+    TopItems.LongEstimator estimator = new MostSimilarEstimator(itemID, getSimilarity(), rescorer);
     return TopItems.getTopItems(howMany, possibleItemIDs, null, estimator);
   }
   
@@ -181,6 +182,15 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     return optimizer.optimize(aMatrix, b);
   }
   
+  /**
+   * Estimates don't depend only on item similarities, so these are not shared between users.
+   */
+  @Override
+  protected List<List<RecommendedItem>> recommendBlock(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    return recommendEach(userIDs, howMany, rescorer);
+  }
+
   @Override
   protected float doEstimatePreference(long theUserID, PreferenceArray preferencesFromUser, long itemID)
     throws TasteException {
@@ -0,0 +1,671 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} that, like {@link MemoryDiffStorage}, stores item-item diffs in
+ * memory, but in a compact form that can be updated concurrently.
+ * </p>
+ *
+ * <p>
+ * Items are numbered densely as they are first seen. The diff for each pair of item numbers is kept in one of
+ * several open-addressed hash tables of primitive arrays, as a float sum of differences and an int count, plus
+ * a float sum of squared differences when {@code stdDevWeighted}. A table slot takes 16 bytes (20 when
+ * weighted) instead of a {@link RunningAverage} object and its map entry, which cuts memory use several-fold.
+ * The average preference for each item is kept in the same tables.
+ * </p>
+ *
+ * <p>
+ * Each table has its own lock, so {@link #addItemPref(long, long, float)} and
+ * {@link #removeItemPref(long, long, float)} only lock the tables holding the pairs they change, and readers
+ * only wait for writers to those same tables. {@link #refresh(Collection)} builds a whole new set of tables
+ * from the {@link DataModel} and then swaps it in; changes made while it is being built are lost.
+ * </p>
+ */
+public final class CompactMemoryDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactMemoryDiffStorage.class);
+
+  /** Tables are picked by the top bits of a pair's hash, and slots in a table by the remaining bits. */
+  private static final int TABLE_BITS = 6;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final long maxEntries;
+  private volatile Diffs diffs;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * See {@link MemoryDiffStorage#MemoryDiffStorage(DataModel, Weighting, long)} for the meaning of the
+   * parameters. {@code maxEntries} may be exceeded by a few entries when diffs are added concurrently.
+   *
+   * @throws IllegalArgumentException
+   *           if {@code maxEntries} is not positive or {@code dataModel} is null
+   */
+  public CompactMemoryDiffStorage(DataModel dataModel,
+                                  Weighting stdDevWeighted,
+                                  long maxEntries) throws TasteException {
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(dataModel.getNumItems() >= 1, "dataModel has no items");
+    Preconditions.checkArgument(maxEntries > 0L, "maxEntries must be positive");
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.maxEntries = maxEntries;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildAverageDiffs();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    buildAverageDiffs();
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    Diffs current = diffs;
+    int index1;
+    int index2;
+    try {
+      current.itemLock.readLock().lock();
+      index1 = current.indexOf(itemID1);
+      index2 = current.indexOf(itemID2);
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+    return current.getDiff(index1, index2);
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    Diffs current = diffs;
+    int size = prefs.length();
+    int[] indexes = new int[size];
+    int index;
+    try {
+      current.itemLock.readLock().lock();
+      index = current.indexOf(itemID);
+      for (int i = 0; i < size; i++) {
+        indexes[i] = current.indexOf(prefs.getItemID(i));
+      }
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+    RunningAverage[] result = new RunningAverage[size];
+    if (index >= 0) {
+      for (int i = 0; i < size; i++) {
+        result[i] = current.getDiff(indexes[i], index);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Diffs current = diffs;
+    int index;
+    try {
+      current.itemLock.readLock().lock();
+      index = current.indexOf(itemID);
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+    return index < 0 ? null : current.getAverage(index, index, false);
+  }
+
+  @Override
+  public void addItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs current = diffs;
+    int length = userPreferences.length();
+    int indexA = current.indexOrAdd(itemIDA);
+    int[] indexes = new int[length];
+    for (int i = 0; i < length; i++) {
+      indexes[i] = current.indexOrAdd(userPreferences.getItemID(i));
+    }
+    try {
+      // Only keeps the item numbering from growing while counts of diffs per item are updated
+      current.itemLock.readLock().lock();
+      for (int i = 0; i < length; i++) {
+        if (indexes[i] != indexA) {
+          current.addDatum(indexA, indexes[i], userPreferences.getValue(i) - prefValue, false);
+        }
+      }
+      current.addDatum(indexA, indexA, prefValue, false);
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void updateItemPref(long itemID, float prefDelta) {
+    if (stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    Diffs current = diffs;
+    int index;
+    try {
+      current.itemLock.readLock().lock();
+      index = current.indexOf(itemID);
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+    if (index >= 0) {
+      current.changeDatum(index, prefDelta);
+    }
+  }
+
+  @Override
+  public void removeItemPref(long userID, long itemIDA, float prefValue) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    Diffs current = diffs;
+    try {
+      current.itemLock.readLock().lock();
+      int indexA = current.indexOf(itemIDA);
+      if (indexA < 0) {
+        return;
+      }
+      int length = userPreferences.length();
+      for (int i = 0; i < length; i++) {
+        int indexB = current.indexOf(userPreferences.getItemID(i));
+        if (indexB >= 0 && indexB != indexA) {
+          current.removeDatum(indexA, indexB, userPreferences.getValue(i) - prefValue);
+        }
+      }
+      current.removeDatum(indexA, indexA, prefValue);
+    } finally {
+      current.itemLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    FastIDSet result = diffs.getItemIDsWithDiffs();
+    int length = userPreferences.length();
+    for (int i = 0; i < length; i++) {
+      result.remove(userPreferences.getItemID(i));
+    }
+    return result;
+  }
+
+  private void buildAverageDiffs() throws TasteException {
+    log.info("Building average diffs...");
+    Diffs newDiffs = new Diffs(dataModel.getNumItems());
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      processOneUser(newDiffs, it.nextLong());
+    }
+    newDiffs.pruneInconsequentialDiffs();
+    log.info("Built {} average diffs", newDiffs.numEntries.get());
+    diffs = newDiffs;
+  }
+
+  private void processOneUser(Diffs newDiffs, long userID) throws TasteException {
+    log.debug("Processing prefs for user {}", userID);
+    PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
+    int length = userPreferences.length();
+    int[] indexes = new int[length];
+    for (int i = 0; i < length; i++) {
+      indexes[i] = newDiffs.indexOrAdd(userPreferences.getItemID(i));
+    }
+    // Not yet visible to other threads, so no need to lock the item numbering
+    for (int i = 0; i < length; i++) {
+      float prefAValue = userPreferences.getValue(i);
+      for (int j = i + 1; j < length; j++) {
+        // This is a performance-critical block
+        newDiffs.addDatum(indexes[i], indexes[j], userPreferences.getValue(j) - prefAValue, true);
+      }
+      newDiffs.addDatum(indexes[i], indexes[i], prefAValue, true);
+    }
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CompactMemoryDiffStorage";
+  }
+
+  /**
+   * Numbers items and maps pairs of item numbers to diffs. The diff for a pair is keyed by the lower item number
+   * in the high 32 bits and the higher in the low 32 bits, and is the average of the preference for the item
+   * with the higher number minus that for the item with the lower number. The pair of an item with itself holds
+   * its average preference. Item numbers only ever grow, and {@link #itemLock} guards them: callers hold its read
+   * lock while they look up numbers or change the count of diffs per item.
+   */
+  private final class Diffs {
+
+    private final ReadWriteLock itemLock;
+    private final OpenLongIntHashMap itemIndexes;
+    private long[] itemIDs;
+    private AtomicIntegerArray numDiffsByItem;
+    private int numItems;
+    private final DiffTable[] tables;
+    private final AtomicLong numEntries;
+
+    Diffs(int expectedNumItems) {
+      itemLock = new ReentrantReadWriteLock();
+      itemIndexes = new OpenLongIntHashMap(expectedNumItems);
+      itemIDs = new long[expectedNumItems];
+      numDiffsByItem = new AtomicIntegerArray(expectedNumItems);
+      tables = new DiffTable[1 << TABLE_BITS];
+      for (int i = 0; i < tables.length; i++) {
+        tables[i] = new DiffTable(stdDevWeighted);
+      }
+      numEntries = new AtomicLong();
+    }
+
+    /** @return item number, or -1 if not known; call with {@link #itemLock} held */
+    int indexOf(long itemID) {
+      // Numbers are stored plus one since 0 means "not found"
+      return itemIndexes.get(itemID) - 1;
+    }
+
+    int indexOrAdd(long itemID) {
+      try {
+        itemLock.readLock().lock();
+        int index = indexOf(itemID);
+        if (index >= 0) {
+          return index;
+        }
+      } finally {
+        itemLock.readLock().unlock();
+      }
+      try {
+        itemLock.writeLock().lock();
+        int index = indexOf(itemID);
+        if (index < 0) {
+          index = numItems++;
+          if (index == itemIDs.length) {
+            int newLength = Math.max(16, itemIDs.length * 2);
+            itemIDs = Arrays.copyOf(itemIDs, newLength);
+            AtomicIntegerArray newNumDiffsByItem = new AtomicIntegerArray(newLength);
+            for (int i = 0; i < index; i++) {
+              newNumDiffsByItem.set(i, numDiffsByItem.get(i));
+            }
+            numDiffsByItem = newNumDiffsByItem;
+          }
+          itemIDs[index] = itemID;
+          itemIndexes.put(itemID, index + 1);
+        }
+        return index;
+      } finally {
+        itemLock.writeLock().unlock();
+      }
+    }
+
+    FastIDSet getItemIDsWithDiffs() {
+      try {
+        itemLock.readLock().lock();
+        FastIDSet result = new FastIDSet(numItems);
+        for (int i = 0; i < numItems; i++) {
+          if (numDiffsByItem.get(i) > 0) {
+            result.add(itemIDs[i]);
+          }
+        }
+        return result;
+      } finally {
+        itemLock.readLock().unlock();
+      }
+    }
+
+    RunningAverage getDiff(int index1, int index2) {
+      if (index1 < 0 || index2 < 0 || index1 == index2) {
+        return null;
+      }
+      return index1 < index2 ? getAverage(index1, index2, false) : getAverage(index2, index1, true);
+    }
+
+    RunningAverage getAverage(int lowIndex, int highIndex, boolean inverted) {
+      long key = pairKey(lowIndex, highIndex);
+      DiffTable table = tableFor(key);
+      int count;
+      double sum;
+      double sumSquares;
+      try {
+        table.lock.readLock().lock();
+        int slot = table.find(key);
+        if (slot < 0) {
+          return null;
+        }
+        count = table.counts[slot];
+        sum = table.sums[slot];
+        sumSquares = stdDevWeighted ? table.sumSquares[slot] : 0.0;
+      } finally {
+        table.lock.readLock().unlock();
+      }
+      double average = sum / count;
+      if (inverted) {
+        average = -average;
+      }
+      if (!stdDevWeighted) {
+        return new FixedRunningAverage(average, count);
+      }
+      double stdDev =
+          count > 1 ? Math.sqrt(Math.max(0.0, (sumSquares - sum * sum / count) / (count - 1))) : Double.NaN;
+      return new FixedRunningAverageAndStdDev(average, stdDev, count);
+    }
+
+    /**
+     * Adds {@code datum}, the preference for item {@code indexB} minus that for {@code indexA}, to their diff,
+     * creating it if there are fewer than {@code maxEntries}. While building, nothing is locked and the count
+     * of diffs per item is left for {@link #pruneInconsequentialDiffs()}.
+     */
+    void addDatum(int indexA, int indexB, float datum, boolean building) {
+      if (indexA > indexB) {
+        addDatum(indexB, indexA, -datum, building);
+        return;
+      }
+      long key = pairKey(indexA, indexB);
+      DiffTable table = tableFor(key);
+      boolean created = false;
+      if (!building) {
+        table.lock.writeLock().lock();
+      }
+      try {
+        int slot = table.find(key);
+        if (slot < 0) {
+          if (indexA != indexB) {
+            if (numEntries.incrementAndGet() > maxEntries) {
+              numEntries.decrementAndGet();
+              return;
+            }
+            created = true;
+          }
+          slot = table.insert(key);
+        }
+        table.addDatum(slot, datum);
+      } finally {
+        if (!building) {
+          table.lock.writeLock().unlock();
+        }
+      }
+      if (created && !building) {
+        numDiffsByItem.incrementAndGet(indexA);
+        numDiffsByItem.incrementAndGet(indexB);
+      }
+    }
+
+    void removeDatum(int indexA, int indexB, float datum) {
+      if (indexA > indexB) {
+        removeDatum(indexB, indexA, -datum);
+        return;
+      }
+      long key = pairKey(indexA, indexB);
+      DiffTable table = tableFor(key);
+      boolean removed = false;
+      try {
+        table.lock.writeLock().lock();
+        int slot = table.find(key);
+        if (slot < 0) {
+          return;
+        }
+        if (table.counts[slot] <= 1) {
+          table.delete(slot);
+          removed = indexA != indexB;
+        } else {
+          table.removeDatum(slot, datum);
+        }
+      } finally {
+        table.lock.writeLock().unlock();
+      }
+      if (removed) {
+        numEntries.decrementAndGet();
+        numDiffsByItem.decrementAndGet(indexA);
+        numDiffsByItem.decrementAndGet(indexB);
+      }
+    }
+
+    /** Changes one datum of every diff involving item {@code index} by {@code delta}. */
+    void changeDatum(int index, float delta) {
+      for (DiffTable table : tables) {
+        try {
+          table.lock.writeLock().lock();
+          long[] keys = table.keys;
+          int[] counts = table.counts;
+          float[] sums = table.sums;
+          for (int slot = 0; slot < keys.length; slot++) {
+            if (counts[slot] > 0) {
+              int lowIndex = (int) (keys[slot] >>> 32);
+              int highIndex = (int) keys[slot];
+              // As in RunningAverage.changeDatum(), one datum moves by delta: the running sum moves by delta,
+              // and so the average by delta / count
+              if (highIndex == index) {
+                sums[slot] += delta;
+              } else if (lowIndex == index) {
+                sums[slot] -= delta;
+              }
+            }
+          }
+        } finally {
+          table.lock.writeLock().unlock();
+        }
+      }
+    }
+
+    void pruneInconsequentialDiffs() {
+      // Go back and prune inconsequential diffs. "Inconsequential" means, here, only represented by one
+      // data point, so possibly unreliable
+      for (DiffTable table : tables) {
+        long[] keys = table.keys;
+        int[] counts = table.counts;
+        for (int slot = 0; slot < keys.length; slot++) {
+          if (counts[slot] > 0) {
+            int lowIndex = (int) (keys[slot] >>> 32);
+            int highIndex = (int) keys[slot];
+            if (lowIndex != highIndex) {
+              if (counts[slot] <= 1) {
+                counts[slot] = -1;
+                numEntries.decrementAndGet();
+              } else {
+                numDiffsByItem.incrementAndGet(lowIndex);
+                numDiffsByItem.incrementAndGet(highIndex);
+              }
+            }
+          }
+        }
+        table.compact();
+      }
+    }
+
+    private DiffTable tableFor(long key) {
+      return tables[hash(key) >>> (32 - TABLE_BITS)];
+    }
+
+  }
+
+  /**
+   * An open-addressed, linearly probed hash table from item pair keys to the sum, count and optionally sum of
+   * squares of the diffs for the pair, in parallel arrays. A count of 0 marks an empty slot. Deletion shifts
+   * following entries back rather than leaving markers, so lookups never slow down as diffs are removed.
+   * Callers hold {@link #lock} except while a table is being built.
+   */
+  private static final class DiffTable {
+
+    private static final int MAX_CAPACITY = 1 << (32 - TABLE_BITS);
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double LOAD_FACTOR = 0.75;
+
+    private final ReadWriteLock lock;
+    private final boolean withSumSquares;
+    private long[] keys;
+    private int[] counts;
+    private float[] sums;
+    private float[] sumSquares;
+    private int size;
+
+    DiffTable(boolean withSumSquares) {
+      this.lock = new ReentrantReadWriteLock();
+      this.withSumSquares = withSumSquares;
+      allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+      keys = new long[capacity];
+      counts = new int[capacity];
+      sums = new float[capacity];
+      sumSquares = withSumSquares ? new float[capacity] : null;
+    }
+
+    int find(long key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (counts[slot] != 0) {
+        if (keys[slot] == key) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /** @return slot for {@code key}, which must not be in the table yet; its count must then be set */
+    int insert(long key) {
+      if (size >= keys.length * LOAD_FACTOR) {
+        Preconditions.checkState(keys.length < MAX_CAPACITY, "Too many diffs");
+        rehash(keys.length << 1);
+      }
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (counts[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      size++;
+      return slot;
+    }
+
+    void addDatum(int slot, float datum) {
+      counts[slot]++;
+      sums[slot] += datum;
+      if (withSumSquares) {
+        sumSquares[slot] += datum * datum;
+      }
+    }
+
+    void removeDatum(int slot, float datum) {
+      counts[slot]--;
+      sums[slot] -= datum;
+      if (withSumSquares) {
+        sumSquares[slot] -= datum * datum;
+      }
+    }
+
+    void delete(int slot) {
+      int mask = keys.length - 1;
+      int hole = slot;
+      int next = (hole + 1) & mask;
+      while (counts[next] != 0) {
+        // The entry can fill the hole if the hole lies between its home slot and where it is now
+        int home = hash(keys[next]) & mask;
+        if (((next - home) & mask) >= ((next - hole) & mask)) {
+          keys[hole] = keys[next];
+          counts[hole] = counts[next];
+          sums[hole] = sums[next];
+          if (withSumSquares) {
+            sumSquares[hole] = sumSquares[next];
+          }
+          hole = next;
+        }
+        next = (next + 1) & mask;
+      }
+      counts[hole] = 0;
+      size--;
+    }
+
+    /** Drops entries whose count was set negative, and shrinks the arrays to fit what is left. */
+    void compact() {
+      int remaining = 0;
+      for (int count : counts) {
+        if (count > 0) {
+          remaining++;
+        }
+      }
+      int capacity = INITIAL_CAPACITY;
+      while (remaining >= capacity * LOAD_FACTOR) {
+        capacity <<= 1;
+      }
+      rehash(capacity);
+    }
+
+    private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      float[] oldSums = sums;
+      float[] oldSumSquares = sumSquares;
+      allocate(capacity);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldCounts[i] > 0) {
+          int slot = insert(oldKeys[i]);
+          counts[slot] = oldCounts[i];
+          sums[slot] = oldSums[i];
+          if (withSumSquares) {
+            sumSquares[slot] = oldSumSquares[i];
+          }
+        }
+      }
+    }
+
+  }
+
+  private static long pairKey(int lowIndex, int highIndex) {
+    return ((long) lowIndex << 32) | highIndex;
+  }
+
+  /** Mixes all bits of the key; the top bits pick the table and the bottom bits the slot. */
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 29;
+    h *= 0xBF58476D1CE4E5B9L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+}
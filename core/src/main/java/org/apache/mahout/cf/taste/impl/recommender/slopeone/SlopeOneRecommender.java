@@ -111,7 +111,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
 
     FastIDSet possibleItemIDs = diffStorage.getRecommendableItemIDs(userID);
 
-    TopItems.Estimator<Long> estimator = new Estimator(userID);
+    TopItems.LongEstimator estimator = new Estimator(userID);
 
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -210,7 +210,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
            + ", diffStorage:" + diffStorage + ']';
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.LongEstimator {
     
     private final long userID;
     
@@ -219,7 +219,7 @@ public final class SlopeOneRecommender extends AbstractRecommender {
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return doEstimatePreference(userID, itemID);
     }
   }
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+
+/**
+ * <p>
+ * A read-only, compact copy of a {@link Factorization} for serving recommendations. Features are stored as
+ * {@code float}s in one contiguous row-major array per side, instead of one {@code double[]} per user or item,
+ * and IDs are mapped to rows through primitive hash maps instead of maps of boxed {@link Integer}s. This takes
+ * roughly half the memory, and lets the features of consecutive items be read sequentially.
+ * </p>
+ *
+ * <p>
+ * {@link #scoreAllItems(int[], float[][])} estimates preferences of several users for all items at once,
+ * walking the item features in blocks small enough to stay in cache while each user is scored against them.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class CompactFactorization {
+
+  /** Approximate size in bytes of a block of item features scored against all users before moving on */
+  private static final int ITEM_BLOCK_BYTES = 32 * 1024;
+
+  private final int numFeatures;
+  private final OpenLongIntHashMap userIDMapping;
+  private final OpenLongIntHashMap itemIDMapping;
+  private final long[] userIDs;
+  private final long[] itemIDs;
+  /** user features, row-major: features of the user in row i start at i * numFeatures */
+  private final float[] userFeatures;
+  /** item features, row-major: features of the item in row i start at i * numFeatures */
+  private final float[] itemFeatures;
+
+  public CompactFactorization(Factorization factorization) {
+    Preconditions.checkNotNull(factorization);
+    numFeatures = factorization.numFeatures();
+
+    double[][] allUserFeatures = factorization.allUserFeatures();
+    userIDMapping = new OpenLongIntHashMap(factorization.numUsers());
+    userIDs = new long[allUserFeatures.length];
+    for (Map.Entry<Long,Integer> mapping : factorization.getUserIDMappings()) {
+      userIDMapping.put(mapping.getKey(), mapping.getValue());
+      userIDs[mapping.getValue()] = mapping.getKey();
+    }
+    userFeatures = toRowMajor(allUserFeatures, numFeatures);
+
+    double[][] allItemFeatures = factorization.allItemFeatures();
+    itemIDMapping = new OpenLongIntHashMap(factorization.numItems());
+    itemIDs = new long[allItemFeatures.length];
+    for (Map.Entry<Long,Integer> mapping : factorization.getItemIDMappings()) {
+      itemIDMapping.put(mapping.getKey(), mapping.getValue());
+      itemIDs[mapping.getValue()] = mapping.getKey();
+    }
+    itemFeatures = toRowMajor(allItemFeatures, numFeatures);
+  }
+
+  private static float[] toRowMajor(double[][] features, int numFeatures) {
+    // Row offsets are ints, which can't overflow once every row fits in one array
+    Preconditions.checkArgument((long) features.length * numFeatures <= Integer.MAX_VALUE,
+        "Too many features to store in one array: %s rows of %s", features.length, numFeatures);
+    float[] rowMajor = new float[features.length * numFeatures];
+    for (int row = 0; row < features.length; row++) {
+      double[] rowFeatures = features[row];
+      int offset = row * numFeatures;
+      for (int feature = 0; feature < numFeatures; feature++) {
+        rowMajor[offset + feature] = (float) rowFeatures[feature];
+      }
+    }
+    return rowMajor;
+  }
+
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  public int numUsers() {
+    return userIDMapping.size();
+  }
+
+  public int numItems() {
+    return itemIDMapping.size();
+  }
+
+  /**
+   * @return number of rows of item features, which bounds the item indexes
+   */
+  public int numItemRows() {
+    return itemIDs.length;
+  }
+
+  public int userIndex(long userID) throws NoSuchUserException {
+    int index = userIDMapping.get(userID);
+    if (index == 0 && !userIDMapping.containsKey(userID)) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  public int itemIndex(long itemID) throws NoSuchItemException {
+    int index = itemIDMapping.get(itemID);
+    if (index == 0 && !itemIDMapping.containsKey(itemID)) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  public long userID(int userIndex) {
+    return userIDs[userIndex];
+  }
+
+  public long itemID(int itemIndex) {
+    return itemIDs[itemIndex];
+  }
+
+  /**
+   * @return a copy of the features of the user at the given index
+   */
+  public float[] getUserFeatures(int userIndex) {
+    float[] features = new float[numFeatures];
+    System.arraycopy(userFeatures, userIndex * numFeatures, features, 0, numFeatures);
+    return features;
+  }
+
+  /**
+   * @return a copy of the features of the item at the given index
+   */
+  public float[] getItemFeatures(int itemIndex) {
+    float[] features = new float[numFeatures];
+    System.arraycopy(itemFeatures, itemIndex * numFeatures, features, 0, numFeatures);
+    return features;
+  }
+
+  /**
+   * @return estimated preference of a user for an item: the dot product of their feature vectors
+   */
+  public float estimate(int userIndex, int itemIndex) {
+    return (float) dot(userFeatures, userIndex * numFeatures, itemFeatures, itemIndex * numFeatures, numFeatures);
+  }
+
+  /**
+   * Estimates the preferences of one user for all items.
+   *
+   * @param scores receives the estimate for the item at index i in element i; must have length at least
+   *  {@link #numItemRows()}
+   */
+  public void scoreAllItems(int userIndex, float[] scores) {
+    Preconditions.checkArgument(scores.length >= itemIDs.length, "scores too short");
+    int userOffset = userIndex * numFeatures;
+    int itemOffset = 0;
+    for (int itemIndex = 0; itemIndex < itemIDs.length; itemIndex++) {
+      scores[itemIndex] = (float) dot(userFeatures, userOffset, itemFeatures, itemOffset, numFeatures);
+      itemOffset += numFeatures;
+    }
+  }
+
+  /**
+   * Estimates the preferences of several users for all items. Item features are read once per block of
+   * items, rather than once per user, so this is considerably faster than scoring each user in turn.
+   *
+   * @param scores receives, for the user at userIndexes[u], the estimate for the item at index i in
+   *  scores[u][i]; each must have length at least {@link #numItemRows()}
+   */
+  public void scoreAllItems(int[] userIndexes, float[][] scores) {
+    Preconditions.checkArgument(userIndexes.length == scores.length, "userIndexes and scores differ in length");
+    for (float[] userScores : scores) {
+      Preconditions.checkArgument(userScores.length >= itemIDs.length, "scores too short");
+    }
+    int numItemRows = itemIDs.length;
+    int blockSize = Math.max(1, ITEM_BLOCK_BYTES / (4 * Math.max(1, numFeatures)));
+    for (int blockStart = 0; blockStart < numItemRows; blockStart += blockSize) {
+      int blockEnd = Math.min(numItemRows, blockStart + blockSize);
+      for (int u = 0; u < userIndexes.length; u++) {
+        int userOffset = userIndexes[u] * numFeatures;
+        float[] userScores = scores[u];
+        int itemOffset = blockStart * numFeatures;
+        for (int itemIndex = blockStart; itemIndex < blockEnd; itemIndex++) {
+          userScores[itemIndex] = (float) dot(userFeatures, userOffset, itemFeatures, itemOffset, numFeatures);
+          itemOffset += numFeatures;
+        }
+      }
+    }
+  }
+
+  private static double dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    double sum = 0.0;
+    for (int i = 0; i < length; i++) {
+      sum += a[aOffset + i] * b[bOffset + i];
+    }
+    return sum;
+  }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+/**
+ * Implemented by a {@link org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy} which depends on the
+ * factorization of the {@link SVDRecommender} it is passed to. A strategy which wraps such a strategy should
+ * implement this too, and pass the factorization on.
+ */
+public interface FactorizationAware {
+
+  /**
+   * Called by {@link SVDRecommender} whenever it has a new factorization, before it is used to recommend.
+   */
+  void setFactorization(CompactFactorization factorization);
+
+}
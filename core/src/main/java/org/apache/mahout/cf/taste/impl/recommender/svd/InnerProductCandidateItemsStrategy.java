@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongDoubleMinHeap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.WeightedVector;
+import org.apache.mahout.math.neighborhood.FastProjectionSearch;
+import org.apache.mahout.math.neighborhood.UpdatableSearcher;
+import org.apache.mahout.math.random.WeightedThing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link CandidateItemsStrategy} for {@link SVDRecommender} which returns only the items whose features have
+ * approximately the largest inner products with the user's features, so that the recommender need not score
+ * every item in the catalog.
+ * </p>
+ *
+ * <p>
+ * Maximum inner product search is reduced to nearest neighbour search by cosine distance: with M the largest
+ * norm of any item's features x, each item is indexed as (x, sqrt(M<sup>2</sup> - |x|<sup>2</sup>)), whose norm
+ * is always M, and queried with (u, 0) for the user's features u. The index is a {@link FastProjectionSearch}
+ * by default; override {@link #createSearcher()} to use another
+ * {@link org.apache.mahout.math.neighborhood.Searcher} such as
+ * {@link org.apache.mahout.math.neighborhood.LocalitySensitiveHashSearch}.
+ * </p>
+ *
+ * <p>
+ * Recall and latency are traded off through the number of candidates returned and the searcher's search
+ * size; {@link #measureRecall(int, int)} compares results against an exact search.
+ * </p>
+ *
+ * <p>
+ * An instance must be passed to exactly one {@link SVDRecommender}, which rebuilds the index whenever its
+ * factorization is computed.
+ * </p>
+ */
+public class InnerProductCandidateItemsStrategy implements CandidateItemsStrategy, FactorizationAware {
+
+  private static final Logger log = LoggerFactory.getLogger(InnerProductCandidateItemsStrategy.class);
+
+  private final int numCandidates;
+  private final int numProjections;
+  private final int searchSize;
+  private volatile ItemIndex index;
+
+  /**
+   * @param numCandidates number of items to return as candidates, besides those the user already prefers
+   * @param numProjections number of random projections used by the default {@link FastProjectionSearch}
+   * @param searchSize number of neighbours of the query considered along each projection; larger values give
+   *  better recall and slower searches
+   */
+  public InnerProductCandidateItemsStrategy(int numCandidates, int numProjections, int searchSize) {
+    Preconditions.checkArgument(numCandidates >= 1, "numCandidates must be at least 1");
+    Preconditions.checkArgument(numProjections >= 1, "numProjections must be at least 1");
+    Preconditions.checkArgument(searchSize >= 1, "searchSize must be at least 1");
+    this.numCandidates = numCandidates;
+    this.numProjections = numProjections;
+    this.searchSize = searchSize;
+  }
+
+  /**
+   * @return a new, empty searcher over which the item index is built
+   */
+  protected UpdatableSearcher createSearcher() {
+    return new FastProjectionSearch(new CosineDistanceMeasure(), numProjections, searchSize);
+  }
+
+  /**
+   * Builds the index of item features; called by {@link SVDRecommender} whenever it has a new factorization.
+   */
+  @Override
+  public void setFactorization(CompactFactorization factorization) {
+    index = new ItemIndex(factorization, createSearcher());
+  }
+
+  @Override
+  public FastIDSet getCandidateItems(long userID, PreferenceArray preferencesFromUser, DataModel dataModel)
+    throws TasteException {
+    ItemIndex index = this.index;
+    Preconditions.checkState(index != null, "no factorization has been indexed");
+    long[] approximateTop = index.search(index.factorization.userIndex(userID),
+                                         numCandidates + preferencesFromUser.length());
+    FastIDSet candidateItemIDs = new FastIDSet(approximateTop.length);
+    for (long itemID : approximateTop) {
+      candidateItemIDs.add(itemID);
+    }
+    for (int i = 0; i < preferencesFromUser.length(); i++) {
+      candidateItemIDs.remove(preferencesFromUser.getItemID(i));
+    }
+    return candidateItemIDs;
+  }
+
+  /**
+   * Estimates the recall of the index: for a random sample of users, the fraction of the items with the
+   * {@code howMany} largest inner products which the index also returns among its top {@code howMany}.
+   *
+   * @return mean recall over the sampled users, between 0 and 1
+   */
+  public double measureRecall(int howMany, int numSampledUsers) {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(numSampledUsers >= 1, "numSampledUsers must be at least 1");
+    ItemIndex index = this.index;
+    Preconditions.checkState(index != null, "no factorization has been indexed");
+    CompactFactorization factorization = index.factorization;
+    int numUserRows = factorization.numUsers();
+    Preconditions.checkState(numUserRows > 0, "no users in factorization");
+
+    Random random = RandomUtils.getRandom();
+    float[] scores = new float[factorization.numItemRows()];
+    LongDoubleMinHeap exactTop = new LongDoubleMinHeap(howMany);
+    double totalRecall = 0.0;
+    for (int sample = 0; sample < numSampledUsers; sample++) {
+      int userIndex = random.nextInt(numUserRows);
+      factorization.scoreAllItems(userIndex, scores);
+      exactTop.clear();
+      for (int itemIndex = 0; itemIndex < scores.length; itemIndex++) {
+        exactTop.offer(factorization.itemID(itemIndex), scores[itemIndex]);
+      }
+      FastIDSet approximateTop = new FastIDSet();
+      for (long itemID : index.search(userIndex, howMany)) {
+        approximateTop.add(itemID);
+      }
+      int found = 0;
+      for (long itemID : exactTop.toIDArray()) {
+        if (approximateTop.contains(itemID)) {
+          found++;
+        }
+      }
+      totalRecall += exactTop.isEmpty() ? 1.0 : (double) found / exactTop.size();
+    }
+    double recall = totalRecall / numSampledUsers;
+    log.info("Recall at {} over {} sampled users: {}", new Object[] {howMany, numSampledUsers, recall});
+    return recall;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // The index is rebuilt by SVDRecommender after it refreshes its factorization
+  }
+
+  @Override
+  public String toString() {
+    return "InnerProductCandidateItemsStrategy[numCandidates:" + numCandidates + ", numProjections:"
+        + numProjections + ", searchSize:" + searchSize + ']';
+  }
+
+  /** An immutable searcher over the transformed item features of one factorization. */
+  private static final class ItemIndex {
+
+    private final CompactFactorization factorization;
+    private final UpdatableSearcher searcher;
+
+    private ItemIndex(CompactFactorization factorization, UpdatableSearcher searcher) {
+      this.factorization = factorization;
+      this.searcher = searcher;
+      int numFeatures = factorization.numFeatures();
+      int numItemRows = factorization.numItemRows();
+
+      double maxSquaredNorm = 0.0;
+      for (int itemIndex = 0; itemIndex < numItemRows; itemIndex++) {
+        maxSquaredNorm = Math.max(maxSquaredNorm, squaredNorm(factorization.getItemFeatures(itemIndex)));
+      }
+      Vector firstItem = null;
+      for (int itemIndex = 0; itemIndex < numItemRows; itemIndex++) {
+        float[] features = factorization.getItemFeatures(itemIndex);
+        Vector augmented = new DenseVector(numFeatures + 1);
+        for (int feature = 0; feature < numFeatures; feature++) {
+          augmented.setQuick(feature, features[feature]);
+        }
+        augmented.setQuick(numFeatures, Math.sqrt(Math.max(0.0, maxSquaredNorm - squaredNorm(features))));
+        searcher.add(new WeightedVector(augmented, 1.0, itemIndex));
+        if (firstItem == null) {
+          firstItem = augmented;
+        }
+      }
+      // Searchers may index lazily on the first search; do it now, before the index is shared between threads
+      if (firstItem != null) {
+        searcher.search(firstItem, 1);
+      }
+    }
+
+    /**
+     * @return IDs of approximately the howMany items with the largest inner products with the user's features
+     */
+    long[] search(int userIndex, int howMany) {
+      float[] userFeatures = factorization.getUserFeatures(userIndex);
+      Vector query = new DenseVector(userFeatures.length + 1);
+      for (int feature = 0; feature < userFeatures.length; feature++) {
+        query.setQuick(feature, userFeatures[feature]);
+      }
+      List<WeightedThing<Vector>> neighbours = searcher.search(query, howMany);
+      int numResults = Math.min(howMany, neighbours.size());
+      long[] itemIDs = new long[numResults];
+      for (int i = 0; i < numResults; i++) {
+        itemIDs[i] = factorization.itemID(((WeightedVector) neighbours.get(i).getValue()).getIndex());
+      }
+      return itemIDs;
+    }
+
+    private static double squaredNorm(float[] features) {
+      double sum = 0.0;
+      for (float feature : features) {
+        sum += feature * feature;
+      }
+      return sum;
+    }
+  }
+
+}
@@ -18,11 +18,13 @@
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
@@ -39,11 +41,19 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A {@link org.apache.mahout.cf.taste.recommender.Recommender} that uses matrix factorization (a projection of users
- * and items onto a feature space)
+ * and items onto a feature space). The factorization is held as a {@link CompactFactorization}.
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  /**
+   * When at least this fraction of all items are candidates for a user, all items are scored in one pass over
+   * the item features rather than looked up one by one.
+   */
+  private static final double SCORE_ALL_ITEMS_FRACTION = 0.25;
+  /** Most scores held at once by each thread while scoring all items for a block of users */
+  private static final int MAX_BLOCK_SCORES = 1 << 22;
+
+  private volatile CompactFactorization factorization;
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
   private final RefreshHelper refreshHelper;
@@ -94,14 +104,17 @@ public final class SVDRecommender extends AbstractRecommender {
     super(dataModel, candidateItemsStrategy);
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    Factorization loaded;
     try {
-      factorization = persistenceStrategy.load();
+      loaded = persistenceStrategy.load();
     } catch (IOException e) {
       throw new TasteException("Error loading factorization", e);
     }
     
-    if (factorization == null) {
+    if (loaded == null) {
       train();
+    } else {
+      setFactorization(loaded);
     }
     
     refreshHelper = new RefreshHelper(new Callable<Object>() {
@@ -121,12 +134,22 @@ public final class SVDRecommender extends AbstractRecommender {
   }
 
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    Factorization trained = factorizer.factorize();
     try {
-      persistenceStrategy.maybePersist(factorization);
+      persistenceStrategy.maybePersist(trained);
     } catch (IOException e) {
       throw new TasteException("Error persisting factorization", e);
     }
+    setFactorization(trained);
+  }
+
+  private void setFactorization(Factorization newFactorization) {
+    CompactFactorization compact = new CompactFactorization(newFactorization);
+    CandidateItemsStrategy candidateItemsStrategy = getCandidateItemsStrategy();
+    if (candidateItemsStrategy instanceof FactorizationAware) {
+      ((FactorizationAware) candidateItemsStrategy).setFactorization(compact);
+    }
+    factorization = compact;
   }
   
   @Override
@@ -137,38 +160,112 @@ public final class SVDRecommender extends AbstractRecommender {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
+    CompactFactorization factorization = this.factorization;
+    int userIndex = factorization.userIndex(userID);
+    float[] scores = null;
+    if (possibleItemIDs.size() >= SCORE_ALL_ITEMS_FRACTION * factorization.numItems()) {
+      scores = new float[factorization.numItemRows()];
+      factorization.scoreAllItems(userIndex, scores);
+    }
+
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-        new Estimator(userID));
+        new Estimator(factorization, userIndex, scores));
     log.debug("Recommendations are: {}", topItems);
 
     return topItems;
   }
 
+  /**
+   * Users' scores don't depend on each other, so they are recommended to in the order given, less duplicates.
+   */
+  @Override
+  protected long[] groupUsers(long[] userIDs) {
+    FastIDSet seenUserIDs = new FastIDSet(userIDs.length);
+    long[] distinctUserIDs = new long[userIDs.length];
+    int numDistinct = 0;
+    for (long userID : userIDs) {
+      if (seenUserIDs.add(userID)) {
+        distinctUserIDs[numDistinct++] = userID;
+      }
+    }
+    return numDistinct == userIDs.length ? distinctUserIDs : Arrays.copyOf(distinctUserIDs, numDistinct);
+  }
+
+  /**
+   * Scores all items for those users of the block with many candidates in one blocked multiplication of their
+   * features by the item features, as by {@link CompactFactorization#scoreAllItems(int[], float[][])}; other
+   * users' candidates are scored one by one.
+   */
+  @Override
+  protected List<List<RecommendedItem>> recommendBlock(long[] userIDs, int howMany, IDRescorer rescorer)
+    throws TasteException {
+    CompactFactorization factorization = this.factorization;
+    int numUsers = userIDs.length;
+    int[] userIndexes = new int[numUsers];
+    FastIDSet[] possibleItemIDs = new FastIDSet[numUsers];
+    int[] scoreAllUsers = new int[numUsers];
+    int numScoreAllUsers = 0;
+    List<List<RecommendedItem>> recommendations = Lists.newArrayListWithCapacity(numUsers);
+    for (int u = 0; u < numUsers; u++) {
+      long userID = userIDs[u];
+      PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+      possibleItemIDs[u] = getAllOtherItems(userID, preferencesFromUser);
+      userIndexes[u] = factorization.userIndex(userID);
+      if (possibleItemIDs[u].size() >= SCORE_ALL_ITEMS_FRACTION * factorization.numItems()) {
+        scoreAllUsers[numScoreAllUsers++] = u;
+        recommendations.add(null);
+      } else {
+        recommendations.add(TopItems.getTopItems(howMany, possibleItemIDs[u].iterator(), rescorer,
+            new Estimator(factorization, userIndexes[u], null)));
+      }
+    }
+
+    int numItemRows = factorization.numItemRows();
+    int usersPerPass = Math.min(numScoreAllUsers, Math.max(1, MAX_BLOCK_SCORES / Math.max(1, numItemRows)));
+    float[][] scores = new float[usersPerPass][numItemRows];
+    for (int passStart = 0; passStart < numScoreAllUsers; passStart += usersPerPass) {
+      int passSize = Math.min(usersPerPass, numScoreAllUsers - passStart);
+      int[] passUserIndexes = new int[passSize];
+      for (int p = 0; p < passSize; p++) {
+        passUserIndexes[p] = userIndexes[scoreAllUsers[passStart + p]];
+      }
+      float[][] passScores = passSize == usersPerPass ? scores : Arrays.copyOf(scores, passSize);
+      factorization.scoreAllItems(passUserIndexes, passScores);
+      for (int p = 0; p < passSize; p++) {
+        int u = scoreAllUsers[passStart + p];
+        recommendations.set(u, TopItems.getTopItems(howMany, possibleItemIDs[u].iterator(), rescorer,
+            new Estimator(factorization, passUserIndexes[p], passScores[p])));
+      }
+    }
+    return recommendations;
+  }
+
   /**
    * a preference is estimated by computing the dot-product of the user and item feature vectors
    */
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
-    double estimate = 0;
-    for (int feature = 0; feature < userFeatures.length; feature++) {
-      estimate += userFeatures[feature] * itemFeatures[feature];
-    }
-    return (float) estimate;
+    CompactFactorization factorization = this.factorization;
+    return factorization.estimate(factorization.userIndex(userID), factorization.itemIndex(itemID));
   }
 
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private static final class Estimator implements TopItems.LongEstimator {
 
-    private final long theUserID;
+    private final CompactFactorization factorization;
+    private final int userIndex;
+    /** estimates for all items by item index, or null to compute them on demand */
+    private final float[] scores;
 
-    private Estimator(long theUserID) {
-      this.theUserID = theUserID;
+    private Estimator(CompactFactorization factorization, int userIndex, float[] scores) {
+      this.factorization = factorization;
+      this.userIndex = userIndex;
+      this.scores = scores;
     }
 
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return estimatePreference(theUserID, itemID);
+    public double estimate(long itemID) throws TasteException {
+      int itemIndex = factorization.itemIndex(itemID);
+      return scores == null ? factorization.estimate(userIndex, itemIndex) : scores[itemIndex];
     }
   }
 
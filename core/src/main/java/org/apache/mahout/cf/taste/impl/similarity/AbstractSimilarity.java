@@ -26,15 +26,16 @@ import org.apache.mahout.cf.taste.common.Weighting;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.cf.taste.transforms.PreferenceTransform;
 import org.apache.mahout.cf.taste.transforms.SimilarityTransform;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
 
 import com.google.common.base.Preconditions;
 
 /** Abstract superclass encapsulating functionality that is common to most implementations in this package. */
-abstract class AbstractSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+abstract class AbstractSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   private PreferenceInferrer inferrer;
   private PreferenceTransform prefTransform;
@@ -233,28 +234,72 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
       }
     }
     
-    // "Center" the data. If my math is correct, this'll do it.
-    double result;
-    if (centerData) {
-      double meanX = sumX / count;
-      double meanY = sumY / count;
-      // double centeredSumXY = sumXY - meanY * sumX - meanX * sumY + n * meanX * meanY;
-      double centeredSumXY = sumXY - meanY * sumX;
-      // double centeredSumX2 = sumX2 - 2.0 * meanX * sumX + n * meanX * meanX;
-      double centeredSumX2 = sumX2 - meanX * sumX;
-      // double centeredSumY2 = sumY2 - 2.0 * meanY * sumY + n * meanY * meanY;
-      double centeredSumY2 = sumY2 - meanY * sumY;
-      result = computeResult(count, centeredSumXY, centeredSumX2, centeredSumY2, sumXYdiff2);
-    } else {
-      result = computeResult(count, sumXY, sumX2, sumY2, sumXYdiff2);
+    return finishSimilarity(userID1, userID2, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2, cachedNumItems);
+  }
+
+  /**
+   * Computes the similarity of one user to many at once. The first user's preferences are fetched, transformed
+   * and indexed by item ID once, and each other user's preferences are then looked up in that index, instead
+   * of being merged against them pair by pair. Results are the same as those of
+   * {@link #userSimilarity(long, long)}, which is still used when a {@link PreferenceInferrer} is set, as
+   * inferring preferences needs the union of both users' items.
+   */
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    int length = userID2s.length;
+    double[] result = new double[length];
+    if (inferrer != null) {
+      for (int i = 0; i < length; i++) {
+        result[i] = userSimilarity(userID1, userID2s[i]);
+      }
+      return result;
     }
-    
-    if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(userID1, userID2, result);
+
+    DataModel dataModel = getDataModel();
+    PreferenceArray xPrefs = dataModel.getPreferencesFromUser(userID1);
+    int xLength = xPrefs.length();
+    OpenLongIntHashMap xPositions = new OpenLongIntHashMap(xLength);
+    double[] xValues = new double[xLength];
+    boolean hasPrefTransform = prefTransform != null;
+    for (int i = 0; i < xLength; i++) {
+      // Positions are stored off by one, as 0 means absent
+      xPositions.put(xPrefs.getItemID(i), i + 1);
+      xValues[i] = hasPrefTransform ? prefTransform.getTransformedValue(xPrefs.get(i)) : xPrefs.getValue(i);
     }
-    
-    if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumItems);
+
+    for (int j = 0; j < length; j++) {
+      long userID2 = userID2s[j];
+      PreferenceArray yPrefs = dataModel.getPreferencesFromUser(userID2);
+      int yLength = yPrefs.length();
+      if (xLength == 0 || yLength == 0) {
+        result[j] = Double.NaN;
+        continue;
+      }
+      double sumX = 0.0;
+      double sumX2 = 0.0;
+      double sumY = 0.0;
+      double sumY2 = 0.0;
+      double sumXY = 0.0;
+      double sumXYdiff2 = 0.0;
+      int count = 0;
+      // Preferences are sorted by item, so sums accumulate in the same order as in userSimilarity()
+      for (int i = 0; i < yLength; i++) {
+        int xPosition = xPositions.get(yPrefs.getItemID(i));
+        if (xPosition > 0) {
+          double x = xValues[xPosition - 1];
+          double y = hasPrefTransform ? prefTransform.getTransformedValue(yPrefs.get(i)) : yPrefs.getValue(i);
+          sumXY += x * y;
+          sumX += x;
+          sumX2 += x * x;
+          sumY += y;
+          sumY2 += y * y;
+          double diff = x - y;
+          sumXYdiff2 += diff * diff;
+          count++;
+        }
+      }
+      result[j] =
+          finishSimilarity(userID1, userID2, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2, cachedNumItems);
     }
     return result;
   }
@@ -315,9 +360,72 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
       }
     }
 
+    return finishSimilarity(itemID1, itemID2, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2, cachedNumUsers);
+  }
+
+  /**
+   * Computes the similarity of one item to many at once: the first item's preferences are fetched and indexed
+   * by user ID once, and each other item's preferences are looked up in that index. This costs time linear in
+   * the number of preferences for the other items only, which matters most when the first item is popular.
+   */
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
+    DataModel dataModel = getDataModel();
+    PreferenceArray xPrefs = dataModel.getPreferencesForItem(itemID1);
+    int xLength = xPrefs.length();
+    OpenLongIntHashMap xPositions = new OpenLongIntHashMap(xLength);
+    for (int i = 0; i < xLength; i++) {
+      xPositions.put(xPrefs.getUserID(i), i + 1);
+    }
+
+    int length = itemID2s.length;
+    double[] result = new double[length];
+    for (int j = 0; j < length; j++) {
+      long itemID2 = itemID2s[j];
+      PreferenceArray yPrefs = dataModel.getPreferencesForItem(itemID2);
+      int yLength = yPrefs.length();
+      if (xLength == 0 || yLength == 0) {
+        result[j] = Double.NaN;
+        continue;
+      }
+      double sumX = 0.0;
+      double sumX2 = 0.0;
+      double sumY = 0.0;
+      double sumY2 = 0.0;
+      double sumXY = 0.0;
+      double sumXYdiff2 = 0.0;
+      int count = 0;
+      for (int i = 0; i < yLength; i++) {
+        int xPosition = xPositions.get(yPrefs.getUserID(i));
+        if (xPosition > 0) {
+          double x = xPrefs.getValue(xPosition - 1);
+          double y = yPrefs.getValue(i);
+          sumXY += x * y;
+          sumX += x;
+          sumX2 += x * x;
+          sumY += y;
+          sumY2 += y * y;
+          double diff = x - y;
+          sumXYdiff2 += diff * diff;
+          count++;
+        }
+      }
+      result[j] =
+          finishSimilarity(itemID1, itemID2, count, sumX, sumX2, sumY, sumY2, sumXY, sumXYdiff2, cachedNumUsers);
+    }
+    return result;
+  }
+
+  /**
+   * Turns sums over the preferences two users or items have in common into their similarity.
+   *
+   * @param num total number of items, when comparing users, or of users, when comparing items
+   */
+  private double finishSimilarity(long id1, long id2, int count, double sumX, double sumX2, double sumY,
+                                  double sumY2, double sumXY, double sumXYdiff2, int num) {
+    // "Center" the data. If my math is correct, this'll do it.
     double result;
     if (centerData) {
-      // See comments above on these computations
       double n = (double) count;
       double meanX = sumX / n;
       double meanY = sumY / n;
@@ -331,23 +439,13 @@ abstract class AbstractSimilarity extends AbstractItemSimilarity implements User
     } else {
       result = computeResult(count, sumXY, sumX2, sumY2, sumXYdiff2);
     }
-    
+
     if (similarityTransform != null) {
-      result = similarityTransform.transformSimilarity(itemID1, itemID2, result);
-    }
-    
-    if (!Double.isNaN(result)) {
-      result = normalizeWeightResult(result, count, cachedNumUsers);
+      result = similarityTransform.transformSimilarity(id1, id2, result);
     }
-    return result;
-  }
 
-  @Override
-  public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int length = itemID2s.length;
-    double[] result = new double[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = itemSimilarity(itemID1, itemID2s[i]);
+    if (!Double.isNaN(result)) {
+      result = normalizeWeightResult(result, count, num);
     }
     return result;
   }
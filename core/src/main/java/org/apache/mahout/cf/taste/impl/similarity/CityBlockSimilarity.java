@@ -23,14 +23,14 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 /**
  * Implementation of City Block distance (also known as Manhattan distance) - the absolute value of the difference of
  * each direction is summed.  The resulting unbounded distance is then mapped between 0 and 1.
  */
-public final class CityBlockSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class CityBlockSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   public CityBlockSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -61,13 +61,12 @@ public final class CityBlockSimilarity extends AbstractItemSimilarity implements
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    DataModel dataModel = getDataModel();
-    int preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
+    int[] preferring2s = new int[itemID2s.length];
+    int[] intersections = new int[itemID2s.length];
+    int preferring1 = PreferenceOverlaps.countForItems(getDataModel(), itemID1, itemID2s, preferring2s, intersections);
     double[] distance = new double[itemID2s.length];
     for (int i = 0; i < itemID2s.length; ++i) {
-      int preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2s[i]);
-      int intersection = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2s[i]);
-      distance[i] = doSimilarity(preferring1, preferring2, intersection);
+      distance[i] = doSimilarity(preferring1, preferring2s[i], intersections[i]);
     }
     return distance;
   }
@@ -83,6 +82,18 @@ public final class CityBlockSimilarity extends AbstractItemSimilarity implements
     return doSimilarity(prefs1Size, prefs2Size, intersectionSize);
   }
 
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    int[] prefs2Sizes = new int[userID2s.length];
+    int[] intersections = new int[userID2s.length];
+    int prefs1Size = PreferenceOverlaps.countForUsers(getDataModel(), userID1, userID2s, prefs2Sizes, intersections);
+    double[] distance = new double[userID2s.length];
+    for (int i = 0; i < userID2s.length; ++i) {
+      distance[i] = doSimilarity(prefs1Size, prefs2Sizes[i], intersections[i]);
+    }
+    return distance;
+  }
+
   /**
    * Calculate City Block Distance from total non-zero values and intersections and map to a similarity value.
    *
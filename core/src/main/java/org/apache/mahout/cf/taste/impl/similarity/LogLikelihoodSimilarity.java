@@ -24,8 +24,8 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 import org.apache.mahout.math.stats.LogLikelihood;
 
 /**
@@ -34,7 +34,7 @@ import org.apache.mahout.math.stats.LogLikelihood;
  * <a href="http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html">
  * http://tdunning.blogspot.com/2008/03/surprise-and-coincidence.html</a>.
  */
-public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   public LogLikelihoodSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -59,51 +59,66 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
     long prefs2Size = prefs2.size();
     long intersectionSize =
         prefs1Size < prefs2Size ? prefs2.intersectionSize(prefs1) : prefs1.intersectionSize(prefs2);
-    if (intersectionSize == 0) {
-      return Double.NaN;
-    }
+    return doSimilarity(prefs1Size, prefs2Size, intersectionSize, dataModel.getNumItems());
+  }
+
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    DataModel dataModel = getDataModel();
+    int length = userID2s.length;
+    int[] prefs2Sizes = new int[length];
+    int[] intersectionSizes = new int[length];
+    long prefs1Size = PreferenceOverlaps.countForUsers(dataModel, userID1, userID2s, prefs2Sizes, intersectionSizes);
     long numItems = dataModel.getNumItems();
-    double logLikelihood =
-        LogLikelihood.logLikelihoodRatio(intersectionSize,
-                                         prefs2Size - intersectionSize,
-                                         prefs1Size - intersectionSize,
-                                         numItems - prefs1Size - prefs2Size + intersectionSize);
-    return 1.0 - 1.0 / (1.0 + logLikelihood);
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = doSimilarity(prefs1Size, prefs2Sizes[i], intersectionSizes[i], numItems);
+    }
+    return result;
   }
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
     DataModel dataModel = getDataModel();
+    long preferring1and2 = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
     long preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
-    long numUsers = dataModel.getNumUsers();
-    return doItemSimilarity(itemID1, itemID2, preferring1, numUsers);
+    long preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
+    return doSimilarity(preferring1, preferring2, preferring1and2, dataModel.getNumUsers());
   }
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
     DataModel dataModel = getDataModel();
-    long preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
-    long numUsers = dataModel.getNumUsers();
     int length = itemID2s.length;
+    int[] preferring2s = new int[length];
+    int[] preferring1and2s = new int[length];
+    long preferring1 = PreferenceOverlaps.countForItems(dataModel, itemID1, itemID2s, preferring2s, preferring1and2s);
+    long numUsers = dataModel.getNumUsers();
     double[] result = new double[length];
     for (int i = 0; i < length; i++) {
-      result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1, numUsers);
+      result[i] = doSimilarity(preferring1, preferring2s[i], preferring1and2s[i], numUsers);
     }
     return result;
   }
 
-  private double doItemSimilarity(long itemID1, long itemID2, long preferring1, long numUsers) throws TasteException {
-    DataModel dataModel = getDataModel();
-    long preferring1and2 = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
-    if (preferring1and2 == 0) {
+  /**
+   * @param num1 number of preferences of the first user or item
+   * @param num2 number of preferences of the second user or item
+   * @param num1and2 number of preferences they have in common
+   * @param total total number of items, when comparing users, or of users, when comparing items
+   */
+  private static double doSimilarity(long num1, long num2, long num1and2, long total) {
+    if (num1and2 == 0) {
       return Double.NaN;
     }
-    long preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
     double logLikelihood =
-        LogLikelihood.logLikelihoodRatio(preferring1and2,
-                                         preferring2 - preferring1and2,
-                                         preferring1 - preferring1and2,
-                                         numUsers - preferring1 - preferring2 + preferring1and2);
+        LogLikelihood.logLikelihoodRatio(num1and2,
+                                         num2 - num1and2,
+                                         num1 - num1and2,
+                                         total - num1 - num2 + num1and2);
     return 1.0 - 1.0 / (1.0 + logLikelihood);
   }
 
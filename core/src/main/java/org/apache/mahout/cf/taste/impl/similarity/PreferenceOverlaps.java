@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * Counts the overlap of one user's or item's preferences with those of many others, for the similarities that
+ * depend only on the number of preferences in common. For the in-memory models, whose preferences can be read
+ * without copying them, the first one's IDs are put in a set once, and the other ones' IDs are looked up in it,
+ * which is much cheaper than intersecting each pair when the first one has many preferences. Other models are
+ * asked for the counts pair by pair, as they may compute them more cheaply than they can return preferences,
+ * for instance with one query.
+ */
+final class PreferenceOverlaps {
+
+  private PreferenceOverlaps() {
+  }
+
+  /**
+   * @param preferring2s filled with the number of users who prefer each item in itemID2s
+   * @param preferring1and2s filled with the number of users who prefer both itemID1 and each item in itemID2s
+   * @return number of users who prefer itemID1
+   */
+  static int countForItems(DataModel dataModel, long itemID1, long[] itemID2s, int[] preferring2s,
+                           int[] preferring1and2s) throws TasteException {
+    // Like DataModel.getNumUsersWithPreferenceFor(), count unknown items as preferred by no one
+    if (dataModel instanceof GenericDataModel) {
+      FastByIDMap<PreferenceArray> itemData = ((GenericDataModel) dataModel).getRawItemData();
+      PreferenceArray prefs1 = itemData.get(itemID1);
+      int preferring1 = prefs1 == null ? 0 : prefs1.length();
+      FastIDSet userIDs1 = new FastIDSet(preferring1);
+      for (int i = 0; i < preferring1; i++) {
+        userIDs1.add(prefs1.getUserID(i));
+      }
+      for (int j = 0; j < itemID2s.length; j++) {
+        PreferenceArray prefs2 = itemData.get(itemID2s[j]);
+        int preferring2 = prefs2 == null ? 0 : prefs2.length();
+        int preferring1and2 = 0;
+        if (preferring1 > 0) {
+          for (int i = 0; i < preferring2; i++) {
+            if (userIDs1.contains(prefs2.getUserID(i))) {
+              preferring1and2++;
+            }
+          }
+        }
+        preferring2s[j] = preferring2;
+        preferring1and2s[j] = preferring1and2;
+      }
+      return preferring1;
+    }
+
+    if (dataModel instanceof GenericBooleanPrefDataModel) {
+      FastByIDMap<FastIDSet> itemData = ((GenericBooleanPrefDataModel) dataModel).getRawItemData();
+      FastIDSet userIDs1 = itemData.get(itemID1);
+      int preferring1 = userIDs1 == null ? 0 : userIDs1.size();
+      for (int j = 0; j < itemID2s.length; j++) {
+        FastIDSet userIDs2 = itemData.get(itemID2s[j]);
+        int preferring2 = userIDs2 == null ? 0 : userIDs2.size();
+        preferring2s[j] = preferring2;
+        preferring1and2s[j] = preferring1 == 0 || preferring2 == 0 ? 0
+            : preferring1 < preferring2 ? userIDs2.intersectionSize(userIDs1) : userIDs1.intersectionSize(userIDs2);
+      }
+      return preferring1;
+    }
+
+    int preferring1 = getNumUsersWithPreferenceForIfExists(dataModel, itemID1);
+    for (int j = 0; j < itemID2s.length; j++) {
+      long itemID2 = itemID2s[j];
+      int preferring2 = getNumUsersWithPreferenceForIfExists(dataModel, itemID2);
+      preferring2s[j] = preferring2;
+      preferring1and2s[j] =
+          preferring1 == 0 || preferring2 == 0 ? 0 : dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+    return preferring1;
+  }
+
+  /**
+   * @param prefs2Sizes filled with the number of items preferred by each user in userID2s
+   * @param intersectionSizes filled with the number of items preferred by both userID1 and each user in
+   *  userID2s
+   * @return number of items preferred by userID1
+   */
+  static int countForUsers(DataModel dataModel, long userID1, long[] userID2s, int[] prefs2Sizes,
+                           int[] intersectionSizes) throws TasteException {
+    FastIDSet itemIDs1 = dataModel.getItemIDsFromUser(userID1);
+    int prefs1Size = itemIDs1.size();
+    if (dataModel instanceof GenericDataModel) {
+      FastByIDMap<PreferenceArray> userData = ((GenericDataModel) dataModel).getRawUserData();
+      for (int j = 0; j < userID2s.length; j++) {
+        PreferenceArray prefs2 = userData.get(userID2s[j]);
+        if (prefs2 == null) {
+          throw new NoSuchUserException(userID2s[j]);
+        }
+        int prefs2Size = prefs2.length();
+        int intersectionSize = 0;
+        for (int i = 0; i < prefs2Size; i++) {
+          if (itemIDs1.contains(prefs2.getItemID(i))) {
+            intersectionSize++;
+          }
+        }
+        prefs2Sizes[j] = prefs2Size;
+        intersectionSizes[j] = intersectionSize;
+      }
+    } else {
+      // The boolean model returns its own sets, and others are read as by the pairwise similarities
+      for (int j = 0; j < userID2s.length; j++) {
+        FastIDSet itemIDs2 = dataModel.getItemIDsFromUser(userID2s[j]);
+        int prefs2Size = itemIDs2.size();
+        prefs2Sizes[j] = prefs2Size;
+        intersectionSizes[j] =
+            prefs1Size < prefs2Size ? itemIDs2.intersectionSize(itemIDs1) : itemIDs1.intersectionSize(itemIDs2);
+      }
+    }
+    return prefs1Size;
+  }
+
+  private static int getNumUsersWithPreferenceForIfExists(DataModel dataModel, long itemID)
+    throws TasteException {
+    try {
+      return dataModel.getNumUsersWithPreferenceFor(itemID);
+    } catch (NoSuchItemException nsie) {
+      return 0;
+    }
+  }
+
+}
@@ -24,8 +24,8 @@ import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 import org.apache.mahout.cf.taste.similarity.PreferenceInferrer;
-import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 /**
  * <p>
@@ -44,7 +44,7 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
  * The value returned is in [0,1].
  * </p>
  */
-public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity implements UserSimilarity {
+public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity implements BulkUserSimilarity {
 
   public TanimotoCoefficientSimilarity(DataModel dataModel) {
     super(dataModel);
@@ -76,40 +76,62 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
     
     int intersectionSize =
         xPrefsSize < yPrefsSize ? yPrefs.intersectionSize(xPrefs) : xPrefs.intersectionSize(yPrefs);
-    if (intersectionSize == 0) {
-      return Double.NaN;
+    return doSimilarity(intersectionSize, xPrefsSize + yPrefsSize - intersectionSize);
+  }
+
+  @Override
+  public double[] userSimilarities(long userID1, long[] userID2s) throws TasteException {
+    int length = userID2s.length;
+    int[] prefs2Sizes = new int[length];
+    int[] intersectionSizes = new int[length];
+    int prefs1Size =
+        PreferenceOverlaps.countForUsers(getDataModel(), userID1, userID2s, prefs2Sizes, intersectionSizes);
+    double[] result = new double[length];
+    for (int i = 0; i < length; i++) {
+      int prefs2Size = prefs2Sizes[i];
+      if (prefs1Size == 0 && prefs2Size == 0) {
+        result[i] = Double.NaN;
+      } else if (prefs1Size == 0 || prefs2Size == 0) {
+        result[i] = 0.0;
+      } else {
+        result[i] = doSimilarity(intersectionSizes[i], prefs1Size + prefs2Size - intersectionSizes[i]);
+      }
     }
-    
-    int unionSize = xPrefsSize + yPrefsSize - intersectionSize;
-    
-    return (double) intersectionSize / (double) unionSize;
+    return result;
   }
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
-    int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
-    return doItemSimilarity(itemID1, itemID2, preferring1);
+    DataModel dataModel = getDataModel();
+    int preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
+    int preferring1and2 = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
+    int preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
+    return doSimilarity(preferring1and2, preferring1 + preferring2 - preferring1and2);
   }
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
     int length = itemID2s.length;
+    int[] preferring2s = new int[length];
+    int[] preferring1and2s = new int[length];
+    int preferring1 =
+        PreferenceOverlaps.countForItems(getDataModel(), itemID1, itemID2s, preferring2s, preferring1and2s);
     double[] result = new double[length];
     for (int i = 0; i < length; i++) {
-      result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1);
+      int preferring1and2 = preferring1and2s[i];
+      result[i] = doSimilarity(preferring1and2, preferring1 + preferring2s[i] - preferring1and2);
     }
     return result;
   }
 
-  private double doItemSimilarity(long itemID1, long itemID2, int preferring1) throws TasteException {
-    DataModel dataModel = getDataModel();
-    int preferring1and2 = dataModel.getNumUsersWithPreferenceFor(itemID1, itemID2);
-    if (preferring1and2 == 0) {
+  private static double doSimilarity(int intersectionSize, int unionSize) {
+    if (intersectionSize == 0) {
       return Double.NaN;
     }
-    int preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
-    return (double) preferring1and2 / (double) (preferring1 + preferring2 - preferring1and2);
+    return (double) intersectionSize / (double) unionSize;
   }
   
   @Override
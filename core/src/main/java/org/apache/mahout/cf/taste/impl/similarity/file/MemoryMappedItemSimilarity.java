@@ -0,0 +1,290 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.MappedFileBuffer;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.precompute.BinarySimilarItemsWriter;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An {@link ItemSimilarity} backed by a binary file of precomputed similarities which is memory-mapped rather
+ * than read into the heap, so that even very large sets of similarities are available immediately and stay
+ * off-heap in the operating system's page cache.
+ * </p>
+ *
+ * <p>
+ * The file is written by a {@link BinarySimilarItemsWriter}, for instance from
+ * {@link org.apache.mahout.cf.taste.impl.similarity.precompute.MultithreadedBatchItemSimilarities};
+ * {@link #main(String[])} converts a text file as read by {@link FileItemSimilarity}, or a directory of them
+ * such as the output of {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}. For each
+ * item it holds a list of similar items sorted by ID, and an index of the lists sorted by item ID, so all
+ * lookups are binary searches over the mapped data. Big-endian layout:
+ * </p>
+ *
+ * <pre>
+ * int magic, int version, int numItems, int unused, long indexStart
+ * for each item, anywhere before the index: long[length] similarItemIDs, float[length] similarities
+ * at indexStart: long[numItems] itemIDs, long[numItems] listStarts, int[numItems] listLengths
+ * </pre>
+ *
+ * <p>
+ * An item's similarity to itself is always 1.0, as in {@link GenericItemSimilarity}. Otherwise, the
+ * similarity of two items is looked up in the first item's list, and then in the second's. So, as in
+ * {@link FileItemSimilarity}, a similarity need only be stored in one direction; but
+ * {@link #allSimilarItemIDs(long)} only returns the item's own list. {@link #main(String[])} stores text
+ * similarities in both directions. {@link #refresh(Collection)} maps the file again if it has been replaced.
+ * </p>
+ */
+public final class MemoryMappedItemSimilarity implements ItemSimilarity {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedItemSimilarity.class);
+
+  public static final int MAGIC = 0x4D495346; // "MISF"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 24;
+
+  private static final long[] NO_IDS = new long[0];
+
+  private final File dataFile;
+  private volatile MappedSimilarities data;
+
+  /**
+   * @param dataFile binary file written by a {@link BinarySimilarItemsWriter}
+   * @throws FileNotFoundException if dataFile does not exist
+   * @throws IOException if the file can't be mapped, or is not in the expected format
+   */
+  public MemoryMappedItemSimilarity(File dataFile) throws IOException {
+    this.dataFile = Preconditions.checkNotNull(dataFile.getAbsoluteFile());
+    if (!dataFile.exists() || dataFile.isDirectory()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    log.info("Creating MemoryMappedItemSimilarity for file {}", dataFile);
+    this.data = new MappedSimilarities(this.dataFile);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    return itemSimilarity(data, itemID1, itemID2);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    MappedSimilarities data = this.data;
+    double[] result = new double[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = itemSimilarity(data, itemID1, itemID2s[i]);
+    }
+    return result;
+  }
+
+  private static double itemSimilarity(MappedSimilarities data, long itemID1, long itemID2) {
+    if (itemID1 == itemID2) {
+      return 1.0;
+    }
+    double similarity = data.lookup(itemID1, itemID2);
+    return Double.isNaN(similarity) ? data.lookup(itemID2, itemID1) : similarity;
+  }
+
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    MappedSimilarities data = this.data;
+    int index = data.itemIndex(itemID);
+    if (index < 0) {
+      return NO_IDS;
+    }
+    MappedFileBuffer buffer = data.buffer;
+    long start = data.listStart(index);
+    long[] similarItemIDs = new long[data.listLength(index)];
+    for (int i = 0; i < similarItemIDs.length; i++) {
+      similarItemIDs[i] = buffer.getLong(start, i);
+    }
+    return similarItemIDs;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    if (dataFile.lastModified() > data.lastModified) {
+      log.info("File {} has changed; mapping it again", dataFile);
+      try {
+        data = new MappedSimilarities(dataFile);
+      } catch (IOException ioe) {
+        log.warn("Exception while re-mapping; continuing with previous data", ioe);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryMappedItemSimilarity[dataFile:" + dataFile + ']';
+  }
+
+  /**
+   * Converts text similarities, in the format read by {@link FileItemSimilarity}, to the binary format. Each
+   * similarity is stored in both directions. The similarities are collected in memory before writing.
+   *
+   * @param textFile a text file, or a directory of them whose names don't start with '_' or '.'
+   */
+  public static void convert(File textFile, File binaryFile) throws IOException {
+    File[] textFiles;
+    if (textFile.isDirectory()) {
+      textFiles = textFile.listFiles(new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+          String name = file.getName();
+          return file.isFile() && !name.startsWith("_") && !name.startsWith(".");
+        }
+      });
+      Arrays.sort(textFiles);
+    } else {
+      textFiles = new File[] { textFile };
+    }
+
+    FastByIDMap<SimilarItemList> lists = new FastByIDMap<SimilarItemList>();
+    for (File file : textFiles) {
+      for (GenericItemSimilarity.ItemItemSimilarity similarity : new FileItemItemSimilarityIterable(file)) {
+        if (similarity.getItemID1() != similarity.getItemID2()) {
+          float value = (float) similarity.getValue();
+          addSimilarity(lists, similarity.getItemID1(), similarity.getItemID2(), value);
+          addSimilarity(lists, similarity.getItemID2(), similarity.getItemID1(), value);
+        }
+      }
+    }
+
+    BinarySimilarItemsWriter writer = new BinarySimilarItemsWriter(binaryFile);
+    writer.open();
+    try {
+      for (Map.Entry<Long,SimilarItemList> entry : lists.entrySet()) {
+        SimilarItemList list = entry.getValue();
+        writer.add(entry.getKey(), Arrays.copyOf(list.itemIDs, list.size), Arrays.copyOf(list.values, list.size));
+      }
+    } finally {
+      writer.close();
+    }
+    log.info("Wrote similarities of {} items to {}", lists.size(), binaryFile);
+  }
+
+  private static void addSimilarity(FastByIDMap<SimilarItemList> lists, long itemID, long similarItemID,
+                                    float value) {
+    SimilarItemList list = lists.get(itemID);
+    if (list == null) {
+      list = new SimilarItemList();
+      lists.put(itemID, list);
+    }
+    list.add(similarItemID, value);
+  }
+
+  public static void main(String[] args) throws IOException {
+    Preconditions.checkArgument(args.length == 2, "Usage: MemoryMappedItemSimilarity textFileOrDirectory binaryFile");
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  /** A growable list of similar items, used while converting. */
+  private static final class SimilarItemList {
+
+    private long[] itemIDs = new long[4];
+    private float[] values = new float[4];
+    private int size;
+
+    void add(long itemID, float value) {
+      if (size == itemIDs.length) {
+        itemIDs = Arrays.copyOf(itemIDs, size << 1);
+        values = Arrays.copyOf(values, size << 1);
+      }
+      itemIDs[size] = itemID;
+      values[size] = value;
+      size++;
+    }
+  }
+
+  /** An immutable snapshot of one mapping of the data file. */
+  private static final class MappedSimilarities {
+
+    private final MappedFileBuffer buffer;
+    private final long lastModified;
+    private final int numItems;
+    private final long itemIDsStart;
+    private final long listStartsStart;
+    private final long listLengthsStart;
+
+    private MappedSimilarities(File dataFile) throws IOException {
+      lastModified = dataFile.lastModified();
+      buffer = new MappedFileBuffer(dataFile);
+      if (buffer.length() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a MemoryMappedItemSimilarity file: " + dataFile);
+      }
+      int version = buffer.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version + " of file " + dataFile);
+      }
+      numItems = buffer.getInt(8);
+      itemIDsStart = buffer.getLong(16);
+      listStartsStart = itemIDsStart + ((long) numItems << 3);
+      listLengthsStart = listStartsStart + ((long) numItems << 3);
+      long expectedLength = listLengthsStart + ((long) numItems << 2);
+      if (buffer.length() != expectedLength) {
+        throw new IOException("Expected " + expectedLength + " bytes but found " + buffer.length()
+            + " in " + dataFile);
+      }
+    }
+
+    int itemIndex(long itemID) {
+      return (int) buffer.binarySearchLong(itemIDsStart, 0, numItems, itemID);
+    }
+
+    long listStart(int index) {
+      return buffer.getLong(listStartsStart, index);
+    }
+
+    int listLength(int index) {
+      return buffer.getInt(listLengthsStart + ((long) index << 2));
+    }
+
+    /**
+     * @return similarity stored in itemID1's list for itemID2, or {@link Double#NaN} if there is none
+     */
+    double lookup(long itemID1, long itemID2) {
+      int index = itemIndex(itemID1);
+      if (index < 0) {
+        return Double.NaN;
+      }
+      long start = listStart(index);
+      int length = listLength(index);
+      long position = buffer.binarySearchLong(start, 0, length, itemID2);
+      if (position < 0) {
+        return Double.NaN;
+      }
+      return buffer.getFloat(start + ((long) length << 3), position);
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.file.MemoryMappedItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItem;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItems;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItemsWriter;
+
+/**
+ * Persist the precomputed item similarities to a binary file that can later be memory-mapped by a
+ * {@link MemoryMappedItemSimilarity}. Each item's similar items are written as soon as they are added, sorted
+ * by item ID; only a small index entry per item is kept in memory until {@link #close()}, which appends the
+ * index sorted by item ID. Items may be added in any order, and an item added again replaces its earlier list.
+ */
+public class BinarySimilarItemsWriter implements SimilarItemsWriter {
+
+  private final File file;
+  private DataOutputStream out;
+  private long position;
+  /** item ID -> { start of its list in the file, length of the list } */
+  private FastByIDMap<long[]> index;
+
+  public BinarySimilarItemsWriter(File file) {
+    this.file = Preconditions.checkNotNull(file);
+  }
+
+  @Override
+  public void open() throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    // Header is written on close, when its contents are known
+    out.write(new byte[MemoryMappedItemSimilarity.HEADER_SIZE]);
+    position = MemoryMappedItemSimilarity.HEADER_SIZE;
+    index = new FastByIDMap<long[]>();
+  }
+
+  @Override
+  public void add(SimilarItems similarItems) throws IOException {
+    long[] similarItemIDs = new long[similarItems.numSimilarItems()];
+    float[] similarities = new float[similarItemIDs.length];
+    int i = 0;
+    for (SimilarItem similarItem : similarItems.getSimilarItems()) {
+      similarItemIDs[i] = similarItem.getItemID();
+      similarities[i] = (float) similarItem.getSimilarity();
+      i++;
+    }
+    add(similarItems.getItemID(), similarItemIDs, similarities);
+  }
+
+  /**
+   * Adds the similar items of one item.
+   *
+   * @param similarItemIDs IDs of the similar items, in any order; if an ID occurs more than once, the last
+   *  occurrence is kept
+   * @param similarities similarity to each of similarItemIDs
+   */
+  public void add(long itemID, long[] similarItemIDs, float[] similarities) throws IOException {
+    Preconditions.checkState(out != null, "not open");
+    Preconditions.checkArgument(similarItemIDs.length == similarities.length,
+        "similarItemIDs and similarities differ in length");
+    int length = similarItemIDs.length;
+    Integer[] order = sortedOrder(similarItemIDs);
+
+    long start = position;
+    int numWritten = 0;
+    for (int i = 0; i < length; i++) {
+      int current = order[i];
+      if (i + 1 < length && similarItemIDs[order[i + 1]] == similarItemIDs[current]) {
+        // A later occurrence of the same ID follows in the stable order; it wins
+        continue;
+      }
+      out.writeLong(similarItemIDs[current]);
+      numWritten++;
+    }
+    for (int i = 0; i < length; i++) {
+      int current = order[i];
+      if (i + 1 < length && similarItemIDs[order[i + 1]] == similarItemIDs[current]) {
+        continue;
+      }
+      out.writeFloat(similarities[current]);
+    }
+    position += 12L * numWritten;
+    index.put(itemID, new long[] {start, numWritten});
+  }
+
+  private static Integer[] sortedOrder(final long[] ids) {
+    Integer[] order = new Integer[ids.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // Stable, so that equal IDs stay in the order they were given
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long idA = ids[a];
+        long idB = ids[b];
+        return idA < idB ? -1 : idA > idB ? 1 : 0;
+      }
+    });
+    return order;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out == null) {
+      return;
+    }
+    int numItems = index.size();
+    long indexStart = position;
+    boolean threw = true;
+    try {
+      long[] itemIDs = new long[numItems];
+      LongPrimitiveIterator it = index.keySetIterator();
+      for (int i = 0; i < numItems; i++) {
+        itemIDs[i] = it.nextLong();
+      }
+      Arrays.sort(itemIDs);
+      for (long itemID : itemIDs) {
+        out.writeLong(itemID);
+      }
+      for (long itemID : itemIDs) {
+        out.writeLong(index.get(itemID)[0]);
+      }
+      for (long itemID : itemIDs) {
+        out.writeInt((int) index.get(itemID)[1]);
+      }
+      threw = false;
+    } finally {
+      Closeables.close(out, threw);
+      out = null;
+      index = null;
+    }
+    writeHeader(numItems, indexStart);
+  }
+
+  private void writeHeader(int numItems, long indexStart) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.writeInt(MemoryMappedItemSimilarity.MAGIC);
+      raf.writeInt(MemoryMappedItemSimilarity.VERSION);
+      raf.writeInt(numItems);
+      raf.writeInt(0);
+      raf.writeLong(indexStart);
+    } finally {
+      Closeables.close(raf, false);
+    }
+  }
+
+}
@@ -0,0 +1,399 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongDoubleMinHeap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.precompute.BatchItemSimilarities;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItems;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItemsWriter;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Precomputes item similarities in parallel on a single machine, the way
+ * {@link org.apache.mahout.math.hadoop.similarity.cooccurrence.RowSimilarityJob} does on Hadoop. Rather than
+ * evaluating every pair of items as {@link MultithreadedBatchItemSimilarities} does through
+ * {@link ItemBasedRecommender#mostSimilarItems(long, int)}, it walks the users' preferences: for each item, only
+ * the items co-occurring with it in some user's preferences are visited, and their similarity is accumulated
+ * from those co-occurrences. The cost is thus proportional to the number of co-occurrences rather than to the
+ * square of the number of items.
+ * </p>
+ *
+ * <p>
+ * Similarities are computed with a {@link VectorSimilarityMeasure}, which should match the recommender's
+ * {@link org.apache.mahout.cf.taste.similarity.ItemSimilarity} for the results to agree with
+ * {@link ItemBasedRecommender#mostSimilarItems(long, int)}; only the recommender's {@link DataModel} is used.
+ * Users with more than {@code maxPrefsPerUser} preferences are sampled down, as in
+ * {@link org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob}: the co-occurrences a user adds
+ * grow with the square of the number of preferences, but the information they carry does not.
+ * </p>
+ *
+ * <p>
+ * The preferences are copied into an inverted index in memory; each worker thread then needs one array of
+ * doubles and two arrays of ints as large as the number of items.
+ * </p>
+ */
+public class InvertedIndexBatchItemSimilarities extends BatchItemSimilarities {
+
+  public static final int DEFAULT_MAX_PREFS_PER_USER = 1000;
+
+  private static final int BATCH_SIZE = 100;
+
+  private static final Logger log = LoggerFactory.getLogger(InvertedIndexBatchItemSimilarities.class);
+
+  private final VectorSimilarityMeasure similarityMeasure;
+  private final int maxPrefsPerUser;
+
+  /**
+   * @param recommender recommender whose {@link DataModel} to use
+   * @param similarityMeasure measure of the similarity of two items
+   * @param similarItemsPerItem number of similar items to compute per item
+   */
+  public InvertedIndexBatchItemSimilarities(ItemBasedRecommender recommender,
+                                            VectorSimilarityMeasure similarityMeasure,
+                                            int similarItemsPerItem) {
+    this(recommender, similarityMeasure, similarItemsPerItem, DEFAULT_MAX_PREFS_PER_USER);
+  }
+
+  /**
+   * @param recommender recommender whose {@link DataModel} to use
+   * @param similarityMeasure measure of the similarity of two items
+   * @param similarItemsPerItem number of similar items to compute per item
+   * @param maxPrefsPerUser users with more preferences than this are sampled down to this many
+   */
+  public InvertedIndexBatchItemSimilarities(ItemBasedRecommender recommender,
+                                            VectorSimilarityMeasure similarityMeasure,
+                                            int similarItemsPerItem,
+                                            int maxPrefsPerUser) {
+    super(recommender, similarItemsPerItem);
+    Preconditions.checkArgument(similarityMeasure != null, "similarityMeasure is null");
+    Preconditions.checkArgument(similarItemsPerItem > 0, "similarItemsPerItem must be positive");
+    Preconditions.checkArgument(maxPrefsPerUser > 0, "maxPrefsPerUser must be positive");
+    this.similarityMeasure = similarityMeasure;
+    this.maxPrefsPerUser = maxPrefsPerUser;
+  }
+
+  @Override
+  public int computeItemSimilarities(int degreeOfParallelism, int maxDurationInHours, SimilarItemsWriter writer)
+    throws IOException {
+    Preconditions.checkArgument(degreeOfParallelism > 0, "degreeOfParallelism must be positive");
+    long deadline = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(maxDurationInHours);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(degreeOfParallelism);
+    int numSimilaritiesProcessed = 0;
+    try {
+      writer.open();
+
+      InvertedIndex index = new InvertedIndex(getRecommender().getDataModel(), similarityMeasure, maxPrefsPerUser);
+      int numItems = index.itemIDs.length;
+
+      BlockingQueue<List<SimilarItems>> results =
+          new ArrayBlockingQueue<List<SimilarItems>>(4 * degreeOfParallelism);
+      AtomicInteger nextItem = new AtomicInteger();
+      List<Future<Void>> futures = Lists.newArrayListWithCapacity(degreeOfParallelism);
+      for (int n = 0; n < degreeOfParallelism; n++) {
+        futures.add(executorService.submit(new SimilarItemsWorker(index, nextItem, results)));
+      }
+
+      int numItemsProcessed = 0;
+      while (numItemsProcessed < numItems) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new RuntimeException("Unable to complete the computation in " + maxDurationInHours + " hours!");
+        }
+        List<SimilarItems> similarItemsOfABatch = results.poll(Math.min(remaining, 1000L), TimeUnit.MILLISECONDS);
+        if (similarItemsOfABatch == null) {
+          // Surface the failure of any worker, which would otherwise leave us waiting until the deadline
+          for (Future<Void> future : futures) {
+            if (future.isDone()) {
+              future.get();
+            }
+          }
+          continue;
+        }
+        for (SimilarItems similarItems : similarItemsOfABatch) {
+          writer.add(similarItems);
+          numSimilaritiesProcessed += similarItems.numSimilarItems();
+        }
+        numItemsProcessed += similarItemsOfABatch.size();
+      }
+      log.info("Computed similar items for {} items", numItemsProcessed);
+
+    } catch (TasteException te) {
+      throw new IOException(te);
+    } catch (ExecutionException ee) {
+      throw new IOException(ee.getCause());
+    } catch (InterruptedException ie) {
+      throw new RuntimeException(ie);
+    } finally {
+      executorService.shutdownNow();
+      Closeables.close(writer, false);
+    }
+
+    return numSimilaritiesProcessed;
+  }
+
+  /**
+   * Preferences indexed both by item and by user, with items and users numbered densely from 0. Values are
+   * those of the item vectors after {@link VectorSimilarityMeasure#normalize(Vector)}.
+   */
+  private static final class InvertedIndex {
+
+    private final VectorSimilarityMeasure similarityMeasure;
+    private final int numUsers;
+    private final long[] itemIDs;
+    private final double[] itemNorms;
+    private final int[][] usersOfItems;
+    private final double[][] valuesOfItems;
+    private final int[][] itemsOfUsers;
+    private final double[][] valuesOfUsers;
+
+    InvertedIndex(DataModel dataModel, VectorSimilarityMeasure similarityMeasure, int maxPrefsPerUser)
+      throws TasteException {
+      this.similarityMeasure = similarityMeasure;
+
+      int numItems = dataModel.getNumItems();
+      itemIDs = new long[numItems];
+      LongPrimitiveIterator itemIDsIterator = dataModel.getItemIDs();
+      for (int i = 0; i < numItems; i++) {
+        itemIDs[i] = itemIDsIterator.nextLong();
+      }
+      // Sorted IDs make ties in similarity break the same way whatever the order of the data model
+      Arrays.sort(itemIDs);
+      OpenLongIntHashMap itemIndex = new OpenLongIntHashMap(numItems);
+      for (int i = 0; i < numItems; i++) {
+        itemIndex.put(itemIDs[i], i);
+      }
+
+      // Read and sample users' preferences, and count the preferences for each item
+      numUsers = dataModel.getNumUsers();
+      itemsOfUsers = new int[numUsers][];
+      double[][] rawValuesOfUsers = new double[numUsers][];
+      int[] numPrefsOfItems = new int[numItems];
+      Random random = RandomUtils.getRandom();
+      int numPrefsNeglected = 0;
+      LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+      for (int u = 0; u < numUsers; u++) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs.nextLong());
+        int[] positions = samplePositions(prefs.length(), maxPrefsPerUser, random);
+        numPrefsNeglected += prefs.length() - positions.length;
+        int[] items = new int[positions.length];
+        double[] values = new double[positions.length];
+        for (int p = 0; p < positions.length; p++) {
+          int item = itemIndex.get(prefs.getItemID(positions[p]));
+          items[p] = item;
+          values[p] = prefs.getValue(positions[p]);
+          numPrefsOfItems[item]++;
+        }
+        itemsOfUsers[u] = items;
+        rawValuesOfUsers[u] = values;
+      }
+      if (numPrefsNeglected > 0) {
+        log.info("Sampling down heavy users neglected {} preferences", numPrefsNeglected);
+      }
+
+      // Build and normalize item vectors. Users are visited in order, so each vector is filled sequentially
+      usersOfItems = new int[numItems][];
+      valuesOfItems = new double[numItems][];
+      Vector[] itemVectors = new Vector[numItems];
+      for (int i = 0; i < numItems; i++) {
+        itemVectors[i] = new SequentialAccessSparseVector(numUsers, numPrefsOfItems[i]);
+      }
+      for (int u = 0; u < numUsers; u++) {
+        int[] items = itemsOfUsers[u];
+        double[] values = rawValuesOfUsers[u];
+        for (int p = 0; p < items.length; p++) {
+          itemVectors[items[p]].setQuick(u, values[p]);
+        }
+        rawValuesOfUsers[u] = null;
+      }
+      itemNorms = new double[numItems];
+      int[] numPrefsOfUsers = new int[numUsers];
+      for (int i = 0; i < numItems; i++) {
+        Vector itemVector = similarityMeasure.normalize(itemVectors[i]);
+        itemVectors[i] = null;
+        itemNorms[i] = similarityMeasure.norm(itemVector);
+        int numNonZeroes = itemVector.getNumNonZeroElements();
+        int[] users = new int[numNonZeroes];
+        double[] values = new double[numNonZeroes];
+        int p = 0;
+        for (Vector.Element e : itemVector.nonZeroes()) {
+          users[p] = e.index();
+          values[p] = e.get();
+          numPrefsOfUsers[e.index()]++;
+          p++;
+        }
+        usersOfItems[i] = users;
+        valuesOfItems[i] = values;
+      }
+
+      // Index the normalized values by user again
+      valuesOfUsers = new double[numUsers][];
+      for (int u = 0; u < numUsers; u++) {
+        itemsOfUsers[u] = new int[numPrefsOfUsers[u]];
+        valuesOfUsers[u] = new double[numPrefsOfUsers[u]];
+      }
+      int[] fill = new int[numUsers];
+      for (int i = 0; i < numItems; i++) {
+        int[] users = usersOfItems[i];
+        double[] values = valuesOfItems[i];
+        for (int p = 0; p < users.length; p++) {
+          int u = users[p];
+          itemsOfUsers[u][fill[u]] = i;
+          valuesOfUsers[u][fill[u]] = values[p];
+          fill[u]++;
+        }
+      }
+    }
+
+    /**
+     * @return positions of all preferences if there are at most maxPrefs, otherwise of a random sample of
+     *  maxPrefs of them, in increasing order
+     */
+    private static int[] samplePositions(int numPrefs, int maxPrefs, Random random) {
+      int sampleSize = Math.min(numPrefs, maxPrefs);
+      int[] positions = new int[sampleSize];
+      for (int p = 0; p < sampleSize; p++) {
+        positions[p] = p;
+      }
+      if (numPrefs > maxPrefs) {
+        // Reservoir sampling
+        for (int p = maxPrefs; p < numPrefs; p++) {
+          int r = random.nextInt(p + 1);
+          if (r < maxPrefs) {
+            positions[r] = p;
+          }
+        }
+        Arrays.sort(positions);
+      }
+      return positions;
+    }
+
+    /**
+     * Finds the items most similar to one item.
+     *
+     * @param dots per-thread scratch space, as large as the number of items
+     * @param stamps per-thread scratch space, as large as the number of items; entries equal to item + 1 mark the
+     *  items whose entry in dots is current
+     * @param touched per-thread scratch space, as large as the number of items
+     */
+    SimilarItems similarItems(int item, LongDoubleMinHeap topItems, double[] dots, int[] stamps, int[] touched) {
+      int stamp = item + 1;
+      int numTouched = 0;
+      int[] users = usersOfItems[item];
+      double[] values = valuesOfItems[item];
+      for (int p = 0; p < users.length; p++) {
+        int u = users[p];
+        double value = values[p];
+        int[] otherItems = itemsOfUsers[u];
+        double[] otherValues = valuesOfUsers[u];
+        for (int q = 0; q < otherItems.length; q++) {
+          int otherItem = otherItems[q];
+          if (otherItem == item) {
+            continue;
+          }
+          if (stamps[otherItem] != stamp) {
+            stamps[otherItem] = stamp;
+            dots[otherItem] = 0.0;
+            touched[numTouched++] = otherItem;
+          }
+          dots[otherItem] += similarityMeasure.aggregate(value, otherValues[q]);
+        }
+      }
+
+      topItems.clear();
+      double norm = itemNorms[item];
+      for (int t = 0; t < numTouched; t++) {
+        int otherItem = touched[t];
+        double similarity = similarityMeasure.similarity(dots[otherItem], norm, itemNorms[otherItem], numUsers);
+        if (!Double.isNaN(similarity)) {
+          topItems.offer(otherItem, similarity);
+        }
+      }
+      topItems.sort();
+      List<RecommendedItem> similarItems = Lists.newArrayListWithCapacity(topItems.size());
+      for (int n = 0; n < topItems.size(); n++) {
+        similarItems.add(new GenericRecommendedItem(itemIDs[(int) topItems.getID(n)], (float) topItems.getValue(n)));
+      }
+      return new SimilarItems(itemIDs[item], similarItems);
+    }
+  }
+
+  private final class SimilarItemsWorker implements Callable<Void> {
+
+    private final InvertedIndex index;
+    private final AtomicInteger nextItem;
+    private final BlockingQueue<List<SimilarItems>> results;
+
+    SimilarItemsWorker(InvertedIndex index, AtomicInteger nextItem, BlockingQueue<List<SimilarItems>> results) {
+      this.index = index;
+      this.nextItem = nextItem;
+      this.results = results;
+    }
+
+    @Override
+    public Void call() throws InterruptedException {
+      int numItems = index.itemIDs.length;
+      double[] dots = new double[numItems];
+      int[] stamps = new int[numItems];
+      int[] touched = new int[numItems];
+      LongDoubleMinHeap topItems = new LongDoubleMinHeap(getSimilarItemsPerItem());
+      int from;
+      while ((from = nextItem.getAndAdd(BATCH_SIZE)) < numItems) {
+        int to = Math.min(from + BATCH_SIZE, numItems);
+        List<SimilarItems> similarItemsOfBatch = Lists.newArrayListWithCapacity(to - from);
+        for (int item = from; item < to; item++) {
+          similarItemsOfBatch.add(index.similarItems(item, topItems, dots, stamps, touched));
+        }
+        results.put(similarItemsOfBatch);
+      }
+      return null;
+    }
+  }
+
+}
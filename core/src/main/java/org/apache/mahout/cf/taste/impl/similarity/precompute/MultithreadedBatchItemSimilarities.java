@@ -43,7 +43,8 @@ import org.slf4j.LoggerFactory;
  * Precompute item similarities in parallel on a single machine. The recommender given to this class must use a
  * DataModel that holds the interactions in memory (such as
  * {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel} or
- * {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}) as fast random access to the data is required
+ * {@link org.apache.mahout.cf.taste.impl.model.file.FileDataModel}) as fast random access to the data is required.
+ * For large numbers of items, {@link InvertedIndexBatchItemSimilarities} avoids evaluating every pair of items.
  */
 public class MultithreadedBatchItemSimilarities extends BatchItemSimilarities {
 
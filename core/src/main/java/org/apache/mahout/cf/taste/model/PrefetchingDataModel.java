@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.model;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+
+/**
+ * <p>
+ * A {@link DataModel} whose reads are expensive one at a time, but which can load many users' or items'
+ * preferences at once, so that the reads which follow are answered from memory. Recommenders call these
+ * methods, when their {@link DataModel} implements this, before reading the preferences they know they will
+ * need.
+ * </p>
+ */
+public interface PrefetchingDataModel extends DataModel {
+
+  /**
+   * Loads the preferences of the given users, ahead of reads through
+   * {@link #getPreferencesFromUser(long)}. This is only a hint: an implementation may load fewer, or none.
+   *
+   * @param userIDs
+   *          IDs of users whose preferences will be read
+   * @throws TasteException
+   *           if an error occurs while accessing the data
+   */
+  void prefetchPreferencesFromUsers(FastIDSet userIDs) throws TasteException;
+
+  /**
+   * Loads the preferences for the given items, ahead of reads through
+   * {@link #getPreferencesForItem(long)}. This is only a hint: an implementation may load fewer, or none.
+   *
+   * @param itemIDs
+   *          IDs of items whose preferences will be read
+   * @throws TasteException
+   *           if an error occurs while accessing the data
+   */
+  void prefetchPreferencesForItems(FastIDSet itemIDs) throws TasteException;
+
+}
@@ -69,7 +69,7 @@ public class SimilarItems {
 
     @Override
     public boolean hasNext() {
-      return index < (similarItemIDs.length - 1);
+      return index < similarItemIDs.length;
     }
 
     @Override
@@ -77,8 +77,9 @@ public class SimilarItems {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
+      SimilarItem similarItem = new SimilarItem(similarItemIDs[index], similarities[index]);
       index++;
-      return new SimilarItem(similarItemIDs[index], similarities[index]);
+      return similarItem;
     }
   }
 }
@@ -17,6 +17,7 @@
 package org.apache.mahout.math;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -27,6 +28,7 @@ import org.apache.mahout.common.Pair;
 import org.apache.mahout.common.iterator.sequencefile.SequenceFileIterable;
 import org.apache.mahout.math.map.OpenObjectIntHashMap;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -87,6 +89,76 @@ public final class MatrixUtils {
     return matrix;
   }
 
+  /**
+   * Reads rows, as written by {@link #write(Path, Configuration, VectorIterable)}, into a dense matrix held off
+   * the Java heap, in direct buffers. Unlike {@link #read(Configuration, Path...)}, no row is kept on the heap
+   * once copied into the matrix: a first pass over the files reads just the row indices, to size the matrix,
+   * and a second copies each row into place as it is read.
+   */
+  public static DoubleBufferMatrix readOffHeap(Configuration conf, Path... modelPaths) throws IOException {
+    int[] size = scanSize(conf, modelPaths);
+    DoubleBufferMatrix matrix = DoubleBufferMatrix.allocateDirect(size[0], size[1]);
+    readRows(conf, matrix, modelPaths);
+    return matrix;
+  }
+
+  /**
+   * Like {@link #readOffHeap(Configuration, Path...)}, but into a matrix mapped from a local file, which is
+   * created or overwritten and can be mapped again later with
+   * {@link DoubleBufferMatrix#map(File, int, int, boolean, boolean)}.
+   */
+  public static DoubleBufferMatrix readMapped(File file, Configuration conf, Path... modelPaths)
+    throws IOException {
+    int[] size = scanSize(conf, modelPaths);
+    DoubleBufferMatrix matrix = DoubleBufferMatrix.map(file, size[0], size[1], true, false);
+    // Rows missing from the files must read as zeros, whatever the file held before
+    matrix.assign(0.0);
+    readRows(conf, matrix, modelPaths);
+    matrix.force();
+    return matrix;
+  }
+
+  /** @return number of rows, one more than the greatest row index, and of columns */
+  private static int[] scanSize(Configuration conf, Path... modelPaths) throws IOException {
+    int numRows = -1;
+    int numCols = -1;
+    IntWritable row = new IntWritable();
+    VectorWritable vector = new VectorWritable();
+    for (Path modelPath : modelPaths) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(modelPath.getFileSystem(conf), modelPath, conf);
+      try {
+        // Only the first vector is read, for its size; the others are skipped over
+        while (numCols < 0 ? reader.next(row, vector) : reader.next(row)) {
+          numRows = Math.max(numRows, row.get());
+          if (numCols < 0) {
+            numCols = vector.get().size();
+          }
+        }
+      } finally {
+        Closeables.close(reader, true);
+      }
+    }
+    if (numRows < 0) {
+      throw new IOException(Arrays.toString(modelPaths) + " have no vectors in it");
+    }
+    return new int[] {numRows + 1, numCols};
+  }
+
+  private static void readRows(Configuration conf, Matrix matrix, Path... modelPaths) throws IOException {
+    IntWritable row = new IntWritable();
+    VectorWritable vector = new VectorWritable();
+    for (Path modelPath : modelPaths) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(modelPath.getFileSystem(conf), modelPath, conf);
+      try {
+        while (reader.next(row, vector)) {
+          matrix.assignRow(row.get(), vector.get());
+        }
+      } finally {
+        Closeables.close(reader, true);
+      }
+    }
+  }
+
   public static OpenObjectIntHashMap<String> readDictionary(Configuration conf, Path... dictPath) {
     OpenObjectIntHashMap<String> dictionary = new OpenObjectIntHashMap<String>();
     for (Path dictionaryFile : dictPath) {
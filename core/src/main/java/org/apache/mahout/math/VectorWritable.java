@@ -36,6 +36,7 @@ public final class VectorWritable extends Configured implements Writable {
 
   private Vector vector;
   private boolean writesLaxPrecision;
+  private boolean readsFloatVectors;
 
   public VectorWritable() {}
 
@@ -77,6 +78,19 @@ public final class VectorWritable extends Configured implements Writable {
     this.writesLaxPrecision = writesLaxPrecision;
   }
 
+  /**
+   * @return true if vectors written with lax precision are read into {@link DenseFloatVector},
+   *  {@link SequentialAccessSparseFloatVector} or {@link RandomAccessSparseFloatVector}, which hold
+   *  their values in half the memory, rather than into vectors of doubles
+   */
+  public boolean isReadsFloatVectors() {
+    return readsFloatVectors;
+  }
+
+  public void setReadsFloatVectors(boolean readsFloatVectors) {
+    this.readsFloatVectors = readsFloatVectors;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     writeVector(out, this.vector, this.writesLaxPrecision);
@@ -92,8 +106,15 @@ public final class VectorWritable extends Configured implements Writable {
     boolean laxPrecision = (flags & FLAG_LAX_PRECISION) != 0;
 
     int size = Varint.readUnsignedVarInt(in);
+    boolean floats = laxPrecision && readsFloatVectors;
     Vector v;
-    if (dense) {
+    if (dense && floats) {
+      float[] values = new float[size];
+      for (int i = 0; i < size; i++) {
+        values[i] = in.readFloat();
+      }
+      v = new DenseFloatVector(values, true);
+    } else if (dense) {
       double[] values = new double[size];
       for (int i = 0; i < size; i++) {
         values[i] = laxPrecision ? in.readFloat() : in.readDouble();
@@ -101,9 +122,15 @@ public final class VectorWritable extends Configured implements Writable {
       v = new DenseVector(values);
     } else {
       int numNonDefaultElements = Varint.readUnsignedVarInt(in);
-      v = sequential
-          ? new SequentialAccessSparseVector(size, numNonDefaultElements)
-          : new RandomAccessSparseVector(size, numNonDefaultElements);
+      if (floats) {
+        v = sequential
+            ? new SequentialAccessSparseFloatVector(size, numNonDefaultElements)
+            : new RandomAccessSparseFloatVector(size, numNonDefaultElements);
+      } else {
+        v = sequential
+            ? new SequentialAccessSparseVector(size, numNonDefaultElements)
+            : new RandomAccessSparseVector(size, numNonDefaultElements);
+      }
       if (sequential) {
         int lastIndex = 0;
         for (int i = 0; i < numNonDefaultElements; i++) {
@@ -133,10 +160,15 @@ public final class VectorWritable extends Configured implements Writable {
     writeVector(out, vector, false);
   }
 
+  /**
+   * Writes the vector, with values as floats if laxPrecision is set, or if the vector holds floats already and
+   * so loses nothing by it.
+   */
   public static void writeVector(DataOutput out, Vector vector, boolean laxPrecision) throws IOException {
     boolean dense = vector.isDense();
     boolean sequential = vector.isSequentialAccess();
     boolean named = vector instanceof NamedVector;
+    laxPrecision |= isFloatVector(named ? ((NamedVector) vector).getDelegate() : vector);
 
     out.writeByte((dense ? FLAG_DENSE : 0)
         | (sequential ? FLAG_SEQUENTIAL : 0)
@@ -194,6 +226,12 @@ public final class VectorWritable extends Configured implements Writable {
     }
   }
 
+  private static boolean isFloatVector(Vector vector) {
+    return vector instanceof DenseFloatVector
+        || vector instanceof SequentialAccessSparseFloatVector
+        || vector instanceof RandomAccessSparseFloatVector;
+  }
+
   public static Vector readVector(DataInput in) throws IOException {
     VectorWritable v = new VectorWritable();
     v.readFields(in);
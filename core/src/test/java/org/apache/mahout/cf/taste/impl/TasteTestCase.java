@@ -22,6 +22,7 @@ import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
 import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
@@ -30,6 +31,7 @@ import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 
 import java.util.List;
+import java.util.Random;
 
 public abstract class TasteTestCase extends MahoutTestCase {
 
@@ -86,6 +88,25 @@ public abstract class TasteTestCase extends MahoutTestCase {
                                });
   }
 
+  /**
+   * @return a model of numUsers users, with IDs from 1, each of whom has a rating from 1 to 5 for each of
+   *  numItems items with the given probability
+   */
+  protected static DataModel getRandomDataModel(int numUsers, int numItems, double density) {
+    Random random = RandomUtils.getRandom();
+    long[] userIDs = new long[numUsers];
+    Double[][] prefValues = new Double[numUsers][numItems];
+    for (int i = 0; i < numUsers; i++) {
+      userIDs[i] = i + 1;
+      for (int j = 0; j < numItems; j++) {
+        if (random.nextDouble() < density) {
+          prefValues[i][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    return getDataModel(userIDs, prefValues);
+  }
+
   protected static boolean arrayContains(long[] array, long value) {
     for (long l : array) {
       if (l == value) {
@@ -17,12 +17,20 @@
 
 package org.apache.mahout.cf.taste.impl.common;
 
+import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class CacheTest extends TasteTestCase {
 
@@ -52,6 +60,119 @@ public final class CacheTest extends TasteTestCase {
     }
   }
   
+  @Test
+  public void testStatistics() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 100);
+    for (int i = 0; i < 10; i++) {
+      cache.get(i);
+    }
+    for (int i = 0; i < 10; i++) {
+      cache.get(i);
+    }
+    assertEquals(10, cache.getHitCount());
+    assertEquals(10, cache.getMissCount());
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(0.5, cache.getHitRate(), EPSILON);
+    assertEquals(10, cache.size());
+    cache.resetStatistics();
+    assertTrue(Double.isNaN(cache.getHitRate()));
+  }
+
+  @Test
+  public void testEvictions() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 100, 4);
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, cache.get(i));
+    }
+    assertTrue(cache.size() <= 100);
+    assertEquals(10000 - cache.size(), cache.getEvictionCount());
+  }
+
+  @Test
+  public void testNullValues() throws TasteException {
+    final AtomicInteger retrievals = new AtomicInteger();
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        retrievals.incrementAndGet();
+        return null;
+      }
+    });
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+    assertEquals(1, retrievals.get());
+  }
+
+  @Test
+  public void testPut() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new IdentityRetriever(), 100);
+    cache.put(1, "one");
+    cache.put(2, null);
+    assertTrue(cache.containsKey(2));
+    assertFalse(cache.containsKey(3));
+    assertEquals("one", cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals(3, cache.get(3));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    cache.put(1, "uno");
+    assertEquals("uno", cache.get(1));
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test(expected = TasteException.class)
+  public void testRetrieverException() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) throws TasteException {
+        throw new TasteException("failed");
+      }
+    });
+    cache.get(1);
+  }
+
+  @Test
+  public void testConcurrentMissesRetrieveOnce() throws Exception {
+    final AtomicInteger retrievals = new AtomicInteger();
+    final CountDownLatch retrieving = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) throws TasteException {
+        retrievals.incrementAndGet();
+        retrieving.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        return key;
+      }
+    });
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Object>> results = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i++) {
+        results.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws TasteException {
+            return cache.get("key");
+          }
+        }));
+      }
+      retrieving.await();
+      release.countDown();
+      for (Future<Object> result : results) {
+        assertEquals("key", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, retrievals.get());
+    assertEquals(1, cache.size());
+  }
+  
   private static class IdentityRetriever implements Retriever<Object,Object> {
     @Override
     public Object get(Object key) throws TasteException {
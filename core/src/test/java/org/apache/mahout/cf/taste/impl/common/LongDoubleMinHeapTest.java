@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** <p>Tests {@link LongDoubleMinHeap}.</p> */
+public final class LongDoubleMinHeapTest extends TasteTestCase {
+
+  @Test
+  public void testKeepsHighest() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(3);
+    assertTrue(heap.isEmpty());
+    for (long id = 0; id < 10; id++) {
+      heap.offer(id, id / 10.0);
+    }
+    assertEquals(3, heap.size());
+    assertTrue(heap.isFull());
+    assertEquals(7, heap.peekID());
+    assertEquals(0.7, heap.peekValue(), EPSILON);
+    assertEquals(0.7, heap.threshold(), EPSILON);
+    heap.sort();
+    assertEquals(9, heap.getID(0));
+    assertEquals(8, heap.getID(1));
+    assertEquals(7, heap.getID(2));
+    assertEquals(0.9, heap.getValue(0), EPSILON);
+  }
+
+  @Test
+  public void testRejectsNaNAndLowerValues() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(2);
+    assertFalse(heap.offer(1, Double.NaN));
+    assertEquals(Double.NEGATIVE_INFINITY, heap.threshold(), EPSILON);
+    assertTrue(heap.offer(2, 1.0));
+    assertTrue(heap.offer(3, 2.0));
+    assertFalse(heap.offer(4, 0.5));
+    // ties with the lowest retained value are not accepted once full
+    assertFalse(heap.offer(5, 1.0));
+    assertTrue(heap.offer(6, 1.5));
+    assertArrayEquals(new long[] {3, 6}, heap.toIDArray());
+  }
+
+  @Test
+  public void testTiesOrderedByID() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(10);
+    heap.offer(5, 1.0);
+    heap.offer(3, 1.0);
+    heap.offer(4, 2.0);
+    heap.offer(1, 1.0);
+    assertArrayEquals(new long[] {4, 1, 3, 5}, heap.toIDArray());
+  }
+
+  @Test
+  public void testPollAndClear() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(4);
+    heap.offer(1, 3.0);
+    heap.offer(2, 1.0);
+    heap.offer(3, 2.0);
+    assertEquals(2, heap.pollID());
+    assertEquals(3, heap.pollID());
+    assertEquals(1, heap.size());
+    heap.sort();
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertTrue(heap.offer(7, 0.0));
+    assertEquals(7, heap.peekID());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoOfferAfterSort() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(4);
+    heap.offer(1, 3.0);
+    heap.sort();
+    heap.offer(2, 1.0);
+  }
+
+  @Test
+  public void testLargeCapacityGrows() {
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(Integer.MAX_VALUE);
+    for (long id = 0; id < 100; id++) {
+      heap.offer(id, -id);
+    }
+    assertEquals(100, heap.size());
+    assertFalse(heap.isFull());
+    assertEquals(0, heap.toIDArray()[0]);
+  }
+
+  @Test
+  public void testVersusSort() {
+    Random r = RandomUtils.getRandom();
+    int howMany = 50;
+    double[] all = new double[1000];
+    LongDoubleMinHeap heap = new LongDoubleMinHeap(howMany);
+    for (int i = 0; i < all.length; i++) {
+      all[i] = r.nextDouble();
+      heap.offer(i, all[i]);
+    }
+    heap.sort();
+    Arrays.sort(all);
+    for (int i = 0; i < howMany; i++) {
+      assertEquals(all[all.length - 1 - i], heap.getValue(i), EPSILON);
+    }
+  }
+
+}
@@ -81,6 +81,44 @@ public final class GenericRecommenderIRStatsEvaluatorImplTest extends TasteTestC
     assertEquals(0.666666666, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
   }
 
+  @Test
+  public void testEvaluateStreaming() throws Exception {
+    DataModel model = getDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new SlopeOneRecommender(dataModel);
+      }
+    };
+    GenericRecommenderIRStatsEvaluator evaluator = new GenericRecommenderIRStatsEvaluator();
+    evaluator.setStreaming(true);
+    // Same results as copying the training data, since all users are evaluated
+    IRStatistics stats = evaluator.evaluate(builder, null, model, null, 1, 0.2, 1.0);
+    assertNotNull(stats);
+    assertEquals(0.75, stats.getPrecision(), EPSILON);
+    assertEquals(0.75, stats.getRecall(), EPSILON);
+    assertEquals(0.75, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+  }
+
+  @Test
+  public void testBooleanStreaming() throws Exception {
+    DataModel model = getBooleanDataModel();
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) {
+        return new GenericBooleanPrefItemBasedRecommender(dataModel, new LogLikelihoodSimilarity(dataModel));
+      }
+    };
+    GenericRecommenderIRStatsEvaluator evaluator = new GenericRecommenderIRStatsEvaluator();
+    evaluator.setStreaming(true);
+    IRStatistics stats = evaluator.evaluate(
+        builder, null, model, null, 1, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    assertNotNull(stats);
+    assertEquals(0.666666666, stats.getPrecision(), EPSILON);
+    assertEquals(0.666666666, stats.getRecall(), EPSILON);
+    assertEquals(0.666666666, stats.getNormalizedDiscountedCumulativeGain(), EPSILON);
+  }
+
   @Test
   public void testIRStats() {
     IRStatistics stats = new IRStatisticsImpl(0.3, 0.1, 0.2, 0.05, 0.15);
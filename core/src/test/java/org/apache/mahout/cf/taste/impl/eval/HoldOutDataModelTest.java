@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class HoldOutDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testItemSide() throws Exception {
+    DataModel original = getRandomDataModel(30, 20, 0.5);
+    // Users with even IDs have their preferences for items with odd IDs held out
+    HoldOutDataModel model = new HoldOutDataModel(original) {
+      @Override
+      boolean holdsOutFrom(long userID) {
+        return userID % 2 == 0;
+      }
+
+      @Override
+      boolean isHeldOut(long userID, long itemID) {
+        return itemID % 2 == 1;
+      }
+    };
+    model.splitItems(original.getUserIDs());
+
+    LongPrimitiveIterator itemIDs = original.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      PreferenceArray prefs = model.getPreferencesForItem(itemID);
+      int expectedLength = 0;
+      LongPrimitiveIterator userIDs = original.getUserIDs();
+      while (userIDs.hasNext()) {
+        long userID = userIDs.nextLong();
+        Float value = original.getPreferenceValue(userID, itemID);
+        if (value != null && !isHeldOut(userID, itemID)) {
+          expectedLength++;
+          assertEquals(value, findValue(prefs, userID));
+        }
+      }
+      assertEquals(expectedLength, prefs.length());
+      assertEquals(expectedLength, model.getNumUsersWithPreferenceFor(itemID));
+
+      LongPrimitiveIterator otherItemIDs = original.getItemIDs();
+      while (otherItemIDs.hasNext()) {
+        long otherItemID = otherItemIDs.nextLong();
+        int expectedCount = 0;
+        userIDs = original.getUserIDs();
+        while (userIDs.hasNext()) {
+          long userID = userIDs.nextLong();
+          if (original.getPreferenceValue(userID, itemID) != null && !isHeldOut(userID, itemID)
+              && original.getPreferenceValue(userID, otherItemID) != null && !isHeldOut(userID, otherItemID)) {
+            expectedCount++;
+          }
+        }
+        assertEquals(expectedCount, model.getNumUsersWithPreferenceFor(itemID, otherItemID));
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testItemsNotSplit() throws Exception {
+    DataModel original = getDataModel();
+    HoldOutDataModel model = new HoldOutDataModel(original) {
+      @Override
+      boolean holdsOutFrom(long userID) {
+        return false;
+      }
+
+      @Override
+      boolean isHeldOut(long userID, long itemID) {
+        return false;
+      }
+    };
+    model.getPreferencesForItem(original.getItemIDs().nextLong());
+  }
+
+  private static boolean isHeldOut(long userID, long itemID) {
+    return userID % 2 == 0 && itemID % 2 == 1;
+  }
+
+  private static Float findValue(PreferenceArray prefs, long userID) {
+    for (int i = 0; i < prefs.length(); i++) {
+      if (prefs.getUserID(i) == userID) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+}
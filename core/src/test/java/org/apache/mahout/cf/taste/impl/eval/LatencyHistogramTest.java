@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class LatencyHistogramTest extends TasteTestCase {
+
+  @Test
+  public void testBucketBounds() {
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 100000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      int bucket = LatencyHistogram.bucketOf(value);
+      long highest = LatencyHistogram.highestValueIn(bucket);
+      assertTrue(highest >= value);
+      assertTrue(highest - value <= value / 64);
+      assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 10000; value++) {
+      histogram.recordValue(value * 1000L);
+    }
+    assertEquals(10000L, histogram.getTotalCount());
+    assertEquals(1000L, histogram.getMin());
+    assertEquals(10000000L, histogram.getMax());
+    assertEquals(5000500.0, histogram.getMean(), EPSILON);
+    assertEquals(5000000.0, histogram.getValueAtPercentile(50.0), 5000000.0 / 64);
+    assertEquals(9900000.0, histogram.getValueAtPercentile(99.0), 9900000.0 / 64);
+    assertEquals(9990000.0, histogram.getValueAtPercentile(99.9), 9990000.0 / 64);
+    assertEquals(10000000L, histogram.getValueAtPercentile(100.0));
+    assertEquals(1000.0, histogram.getValueAtPercentile(0.0), 1000.0 / 64);
+  }
+
+  @Test
+  public void testAdd() {
+    LatencyHistogram histogram1 = new LatencyHistogram();
+    LatencyHistogram histogram2 = new LatencyHistogram();
+    histogram1.recordValue(10L);
+    histogram1.recordValue(20L);
+    histogram2.recordValue(30L);
+    histogram1.add(histogram2);
+    assertEquals(3L, histogram1.getTotalCount());
+    assertEquals(10L, histogram1.getMin());
+    assertEquals(30L, histogram1.getMax());
+    assertEquals(20.0, histogram1.getMean(), EPSILON);
+    assertEquals(10.0, histogram1.getStandardDeviation(), EPSILON);
+    assertEquals(20L, histogram1.getValueAtPercentile(50.0));
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getValueAtPercentile(99.0));
+    assertTrue(Double.isNaN(histogram.getMean()));
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class LoadGeneratorTest extends TasteTestCase {
+
+  @Test
+  public void testClosedLoop() throws Exception {
+    DataModel model = getRandomDataModel(50, 20, 0.3);
+    CountingRecommender recommender = new CountingRecommender(model, 0L, false);
+    LoadGenerator generator = new LoadGenerator(recommender);
+    generator.setNumThreads(3);
+    generator.setNumRequests(500);
+    generator.setNumWarmUpRequests(20);
+    LoadStatistics stats = generator.run();
+    assertEquals(520, recommender.numCalls.get());
+    assertEquals(500L, stats.getNumRequests());
+    assertEquals(0L, stats.getNumErrors());
+    assertEquals(500, stats.getTiming().getCount());
+    assertTrue(stats.getThroughput() > 0.0);
+    assertTrue(Double.isNaN(stats.getEstimationNanos()));
+  }
+
+  @Test
+  public void testOpenLoopCountsBacklog() throws Exception {
+    DataModel model = getRandomDataModel(10, 10, 0.5);
+    // One thread taking 5ms per request cannot keep up with 1000 requests per second
+    LoadGenerator generator = new LoadGenerator(new CountingRecommender(model, 5L, false));
+    generator.setNumThreads(1);
+    generator.setTargetQPS(1000.0);
+    generator.setNumRequests(20);
+    generator.setNumWarmUpRequests(0);
+    LoadStatistics stats = generator.run();
+    assertEquals(20L, stats.getNumRequests());
+    // The last request is due after 19ms but is only served after about 100ms
+    assertTrue(stats.getLatencies().getMax() >= 60000000L);
+    assertTrue(stats.getThroughput() < 1000.0);
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    DataModel model = getRandomDataModel(10, 10, 0.5);
+    LoadGenerator generator = new LoadGenerator(new CountingRecommender(model, 0L, true));
+    generator.setNumRequests(50);
+    LoadStatistics stats = generator.run();
+    assertEquals(50L, stats.getNumRequests());
+    assertEquals(50L, stats.getNumErrors());
+  }
+
+  @Test
+  public void testTimePhases() throws Exception {
+    DataModel model = getRandomDataModel(50, 50, 0.3);
+    Recommender recommender = new GenericItemBasedRecommender(model, new PearsonCorrelationSimilarity(model));
+    LoadGenerator generator = new LoadGenerator(recommender);
+    generator.setNumThreads(2);
+    generator.setNumRequests(100);
+    generator.setTimePhases(true);
+    LoadStatistics stats = generator.run();
+    assertTrue(stats.getEstimationNanos() > 0.0);
+    assertTrue(stats.getSelectionNanos() >= 0.0);
+    assertTrue(stats.getCandidateGenerationNanos() >= 0.0);
+    assertTrue(stats.toString().contains("estimation:"));
+  }
+
+  @Test
+  public void testZipfSampler() {
+    LoadGenerator.ZipfSampler sampler = new LoadGenerator.ZipfSampler(100, 1.0);
+    Random random = RandomUtils.getRandom();
+    int[] counts = new int[101];
+    int numSamples = 100000;
+    for (int i = 0; i < numSamples; i++) {
+      int rank = sampler.sample(random);
+      assertTrue(rank >= 1 && rank <= 100);
+      counts[rank]++;
+    }
+    double harmonic = 0.0;
+    for (int rank = 1; rank <= 100; rank++) {
+      harmonic += 1.0 / rank;
+    }
+    for (int rank = 1; rank <= 3; rank++) {
+      double expected = numSamples / (rank * harmonic);
+      assertEquals(expected, counts[rank], expected * 0.05);
+    }
+  }
+
+  /** Counts calls, optionally sleeping or failing in each. */
+  private static final class CountingRecommender extends AbstractRecommender {
+
+    private final AtomicInteger numCalls = new AtomicInteger();
+    private final long sleepMillis;
+    private final boolean fail;
+
+    CountingRecommender(DataModel dataModel, long sleepMillis, boolean fail) {
+      super(dataModel);
+      this.sleepMillis = sleepMillis;
+      this.fail = fail;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      numCalls.incrementAndGet();
+      if (sleepMillis > 0L) {
+        try {
+          Thread.sleep(sleepMillis);
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+      }
+      if (fail) {
+        throw new TasteException("Failed for user " + userID);
+      }
+      return Collections.emptyList();
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) {
+      return Float.NaN;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
+
+  }
+
+}
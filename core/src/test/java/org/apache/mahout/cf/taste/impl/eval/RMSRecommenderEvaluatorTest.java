@@ -17,12 +17,21 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
 import org.apache.mahout.cf.taste.eval.RecommenderEvaluator;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.slopeone.SlopeOneRecommender;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.junit.Test;
 
@@ -42,4 +51,60 @@ public final class RMSRecommenderEvaluatorTest extends TasteTestCase {
     assertEquals(0.3481984752619784, eval, EPSILON);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testEvaluateStreaming() throws Exception {
+    final DataModel model = getRandomDataModel(200, 20, 0.5);
+    final int[] numTrainingPrefs = new int[1];
+    RecommenderBuilder builder = new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+        while (userIDs.hasNext()) {
+          numTrainingPrefs[0] += dataModel.getPreferencesFromUser(userIDs.nextLong()).length();
+        }
+        return new OffByOneRecommender(dataModel, model);
+      }
+    };
+    RMSRecommenderEvaluator evaluator = new RMSRecommenderEvaluator();
+    evaluator.setStreaming(true);
+    // Every estimate is off by exactly one
+    assertEquals(1.0, evaluator.evaluate(builder, null, model, 0.7, 0.5), EPSILON);
+    int numPrefs = 0;
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (userIDs.hasNext()) {
+      numPrefs += model.getPreferencesFromUser(userIDs.nextLong()).length();
+    }
+    // About a sixth of the preferences are held out
+    assertTrue(numTrainingPrefs[0] < numPrefs);
+    assertTrue(numTrainingPrefs[0] > numPrefs / 2);
+  }
+
+  /** Estimates the real preference plus one, checking that it was hidden from the training data. */
+  private static final class OffByOneRecommender extends AbstractRecommender {
+
+    private final DataModel fullModel;
+
+    OffByOneRecommender(DataModel trainingModel, DataModel fullModel) {
+      super(trainingModel);
+      this.fullModel = fullModel;
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) throws TasteException {
+      assertNull(getDataModel().getPreferenceValue(userID, itemID));
+      assertFalse(getDataModel().getItemIDsFromUser(userID).contains(itemID));
+      return fullModel.getPreferenceValue(userID, itemID) + 1.0f;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
+
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class ConcurrentGenericDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testInitialData() throws Exception {
+    DataModel model = new ConcurrentGenericDataModel(GenericDataModel.toDataMap(getDataModel()));
+    assertEquals(4, model.getNumUsers());
+    assertEquals(3, model.getNumItems());
+    assertEquals(0.3f, model.getPreferenceValue(2, 1), EPSILON);
+    assertNull(model.getPreferenceValue(1, 2));
+    assertEquals(4, model.getNumUsersWithPreferenceFor(1));
+    assertEquals(3, model.getNumUsersWithPreferenceFor(0, 2));
+    assertEquals(0.1f, model.getMinPreference(), EPSILON);
+    assertEquals(0.8f, model.getMaxPreference(), EPSILON);
+  }
+
+  @Test
+  public void testSetAndRemovePreference() throws Exception {
+    DataModel model = new ConcurrentGenericDataModel();
+    model.setPreference(2, 20, 2.0f);
+    model.setPreference(1, 20, 1.0f);
+    model.setPreference(1, 10, 3.0f);
+    model.setPreference(1, 20, 4.0f);
+
+    PreferenceArray user1 = model.getPreferencesFromUser(1);
+    assertEquals(2, user1.length());
+    assertEquals(10, user1.getItemID(0));
+    assertEquals(20, user1.getItemID(1));
+    assertEquals(4.0f, user1.getValue(1), EPSILON);
+    PreferenceArray item20 = model.getPreferencesForItem(20);
+    assertEquals(2, item20.length());
+    assertEquals(1, item20.getUserID(0));
+    assertEquals(4.0f, item20.getValue(0), EPSILON);
+    assertEquals(2, item20.getUserID(1));
+    assertArrayEquals(new long[] {1, 2}, toArray(model.getUserIDs()));
+    assertArrayEquals(new long[] {10, 20}, toArray(model.getItemIDs()));
+    assertEquals(1.0f, model.getMinPreference(), EPSILON);
+    assertEquals(4.0f, model.getMaxPreference(), EPSILON);
+
+    // Snapshots already handed out don't change
+    model.removePreference(1, 20);
+    assertEquals(2, user1.length());
+    assertEquals(1, model.getPreferencesFromUser(1).length());
+    assertEquals(1, model.getPreferencesForItem(20).length());
+
+    model.removePreference(2, 20);
+    assertArrayEquals(new long[] {1}, toArray(model.getUserIDs()));
+    assertArrayEquals(new long[] {10}, toArray(model.getItemIDs()));
+    try {
+      model.getPreferencesFromUser(2);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      model.getPreferencesForItem(20);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+    // Removing what isn't there does nothing
+    model.removePreference(2, 20);
+    model.removePreference(1, 30);
+    assertEquals(1, model.getNumUsers());
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    final ConcurrentGenericDataModel model = new ConcurrentGenericDataModel();
+    final int numItems = 20;
+    int numThreads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      for (int t = 0; t < numThreads; t++) {
+        final long firstUserID = t * 100;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Random random = RandomUtils.getRandom(firstUserID);
+            for (int i = 0; i < 2000; i++) {
+              long userID = firstUserID + random.nextInt(10);
+              long itemID = random.nextInt(numItems);
+              if (random.nextInt(3) == 0) {
+                model.removePreference(userID, itemID);
+              } else {
+                model.setPreference(userID, itemID, userID + itemID);
+              }
+              // Readers see sorted, self-consistent snapshots
+              LongPrimitiveIterator itemIDs = model.getItemIDs();
+              while (itemIDs.hasNext()) {
+                long id = itemIDs.nextLong();
+                try {
+                  PreferenceArray prefs = model.getPreferencesForItem(id);
+                  for (int j = 1; j < prefs.length(); j++) {
+                    assertTrue(prefs.getUserID(j - 1) < prefs.getUserID(j));
+                  }
+                } catch (NoSuchItemException nsie) {
+                  // removed meanwhile
+                }
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // Both sides agree once writes are done
+    int numUserPrefs = 0;
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray prefs = model.getPreferencesFromUser(userID);
+      assertTrue(prefs.length() > 0);
+      for (int i = 0; i < prefs.length(); i++) {
+        assertEquals(userID + prefs.getItemID(i), prefs.getValue(i), EPSILON);
+        assertTrue(model.getPreferencesForItem(prefs.getItemID(i)).hasPrefWithUserID(userID));
+      }
+      numUserPrefs += prefs.length();
+    }
+    int numItemPrefs = 0;
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    while (itemIDs.hasNext()) {
+      numItemPrefs += model.getPreferencesForItem(itemIDs.nextLong()).length();
+    }
+    assertEquals(numUserPrefs, numItemPrefs);
+  }
+
+  private static long[] toArray(LongPrimitiveIterator it) {
+    List<Long> ids = Lists.newArrayList();
+    while (it.hasNext()) {
+      ids.add(it.nextLong());
+    }
+    long[] result = new long[ids.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ids.get(i);
+    }
+    return result;
+  }
+
+}
@@ -23,6 +23,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.junit.Test;
 
 /**
@@ -46,6 +51,55 @@ public final class GenericDataModelTest extends TasteTestCase {
     assertEquals(model.getRawUserData(), newModel.getRawUserData());
   }
 
+  @Test
+  public void testWithChangedUsers() throws Exception {
+    GenericDataModel model = (GenericDataModel) getDataModel();
+    FastByIDMap<PreferenceArray> newUserData = model.getRawUserData().clone();
+    PreferenceArray user1 = new GenericUserPreferenceArray(2);
+    user1.setUserID(0, 1L);
+    user1.setItemID(0, 1L);
+    user1.setValue(0, 0.3f);
+    user1.setItemID(1, 5L);
+    user1.setValue(1, 0.9f);
+    newUserData.put(1L, user1);
+    newUserData.put(4L, new GenericUserPreferenceArray(0));
+    PreferenceArray user7 = new GenericUserPreferenceArray(1);
+    user7.setUserID(0, 7L);
+    user7.setItemID(0, 2L);
+    user7.setValue(0, 1.0f);
+    newUserData.put(7L, user7);
+    FastIDSet changedUserIDs = new FastIDSet();
+    changedUserIDs.add(1L);
+    changedUserIDs.add(4L);
+    changedUserIDs.add(7L);
+
+    GenericDataModel changed = model.withChangedUsers(newUserData, changedUserIDs, null);
+
+    newUserData.remove(4L);
+    assertSameData(new GenericDataModel(newUserData), changed);
+    assertSameData(getDataModel(), model);
+  }
+
+  private static void assertSameData(DataModel expected, DataModel actual) throws Exception {
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    LongPrimitiveIterator actualUserIDs = actual.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(userID, actualUserIDs.nextLong());
+      assertEquals(expected.getPreferencesFromUser(userID), actual.getPreferencesFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = expected.getItemIDs();
+    LongPrimitiveIterator actualItemIDs = actual.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertEquals(itemID, actualItemIDs.nextLong());
+      assertEquals(expected.getPreferencesForItem(itemID), actual.getPreferencesForItem(itemID));
+    }
+    assertEquals(expected.getMaxPreference(), actual.getMaxPreference(), EPSILON);
+  }
+
   // Lots of other stuff should be tested but is kind of covered by FileDataModelTest
 
 }
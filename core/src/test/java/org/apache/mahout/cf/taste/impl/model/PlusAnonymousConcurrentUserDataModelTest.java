@@ -310,4 +310,60 @@ public final class PlusAnonymousConcurrentUserDataModelTest extends MahoutTestCa
 		assertEquals(1, instance.getNumUsersWithPreferenceFor(sampleItemID, sampleItemID3));
 	}
 
+	/**
+	 * Test changing single preferences of an anonymous user and of a real user
+	 */
+	@Test
+	public void testSetAndRemovePreference() throws TasteException {
+		PlusAnonymousConcurrentUserDataModel instance =
+				new PlusAnonymousConcurrentUserDataModel(new ConcurrentGenericDataModel(), 10);
+		Long anonymousUserID = instance.takeAvailableUser();
+
+		instance.setPreference(anonymousUserID, 11, 1.0f);
+		instance.setPreference(anonymousUserID, 22, 2.0f);
+		instance.setPreference(anonymousUserID, 11, 3.0f);
+		assertEquals(2, instance.getPreferencesFromUser(anonymousUserID).length());
+		assertEquals(3.0f, instance.getPreferenceValue(anonymousUserID, 11), EPSILON);
+		assertTrue(instance.getItemIDsFromUser(anonymousUserID).contains(22));
+
+		instance.removePreference(anonymousUserID, 11);
+		assertEquals(1, instance.getPreferencesFromUser(anonymousUserID).length());
+		assertNull(instance.getPreferenceValue(anonymousUserID, 11));
+		assertFalse(instance.getItemIDsFromUser(anonymousUserID).contains(11));
+
+		instance.setPreference(4, 11, 5.0f);
+		assertEquals(5.0f, instance.getDelegate().getPreferenceValue(4, 11), EPSILON);
+		assertEquals(2, instance.getNumUsersWithPreferenceFor(22) + instance.getNumUsersWithPreferenceFor(11));
+
+		// Removing the last preference leaves the user taken, without preferences
+		instance.removePreference(anonymousUserID, 22);
+		assertEquals(0, instance.getPreferencesFromUser(anonymousUserID).length());
+		assertTrue(instance.getItemIDsFromUser(anonymousUserID).isEmpty());
+		assertNull(instance.getPreferenceValue(anonymousUserID, 22));
+		instance.setPreference(anonymousUserID, 33, 1.0f);
+		assertEquals(1, instance.getPreferencesFromUser(anonymousUserID).length());
+		assertTrue(instance.releaseUser(anonymousUserID));
+	}
+
+	/**
+	 * Test changing a preference of an anonymous user which was released
+	 */
+	@Test(expected = NoSuchUserException.class)
+	public void testSetPreferenceOfReleasedUser() throws TasteException {
+		PlusAnonymousConcurrentUserDataModel instance =
+				new PlusAnonymousConcurrentUserDataModel(new ConcurrentGenericDataModel(), 10);
+		Long anonymousUserID = instance.takeAvailableUser();
+		instance.releaseUser(anonymousUserID);
+		instance.setPreference(anonymousUserID, 11, 1.0f);
+	}
+
+	/**
+	 * Test removing a preference of an anonymous user which was never taken
+	 */
+	@Test(expected = NoSuchUserException.class)
+	public void testRemovePreferenceOfUntakenUser() throws TasteException {
+		PlusAnonymousConcurrentUserDataModel instance =
+				new PlusAnonymousConcurrentUserDataModel(new ConcurrentGenericDataModel(), 10);
+		instance.removePreference(PlusAnonymousUserDataModel.TEMP_USER_ID + 3, 11);
+	}
 }
@@ -176,6 +176,72 @@ public final class FileDataModelTest extends TasteTestCase {
     assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
   }
 
+  @Test
+  public void testRefreshAppliesUpdateFiles() throws Exception {
+    File file = getTestTempFile("delta.txt");
+    writeLines(file, DATA);
+    FileDataModel dataModel = new FileDataModel(file, false, 0L);
+    assertEquals(0.7f, dataModel.getPreferenceValue(123L, 654L), EPSILON);
+
+    File updateFile = getTestTempFile("delta.1.txt");
+    writeLines(updateFile, "123,654,0.9", "123,456,", "567,111,0.4");
+    updateFile.setLastModified(file.lastModified() + 10000L);
+    dataModel.refresh(null);
+
+    assertEquals(0.9f, dataModel.getPreferenceValue(123L, 654L), EPSILON);
+    assertNull(dataModel.getPreferenceValue(123L, 456L));
+    assertEquals(0.4f, dataModel.getPreferenceValue(567L, 111L), EPSILON);
+    assertEquals(5, dataModel.getNumUsers());
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(111L));
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(456L));
+    PreferenceArray itemPrefs = dataModel.getPreferencesForItem(654L);
+    assertEquals(3, itemPrefs.length());
+    assertEquals(123L, itemPrefs.getUserID(0));
+    assertEquals(0.9f, itemPrefs.getValue(0), EPSILON);
+  }
+
+  @Test
+  public void testRefreshAppliesBooleanUpdateFiles() throws Exception {
+    File file = getTestTempFile("booldelta.txt");
+    writeLines(file, "123,456", "123,789", "234,456");
+    FileDataModel dataModel = new FileDataModel(file, false, 0L);
+
+    File updateFile = getTestTempFile("booldelta.1.txt");
+    writeLines(updateFile, "123,456,", "234,111");
+    updateFile.setLastModified(file.lastModified() + 10000L);
+    dataModel.refresh(null);
+
+    assertEquals(1, dataModel.getPreferencesFromUser(123L).length());
+    assertEquals(2, dataModel.getPreferencesFromUser(234L).length());
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(456L));
+    assertEquals(1, dataModel.getNumUsersWithPreferenceFor(111L));
+  }
+
+  @Test
+  public void testParallelParsing() throws Exception {
+    File file = getTestTempFile("large.txt");
+    String[] lines = new String[100000];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = (i % 1000) + "," + (i % 877) + ',' + (i % 5);
+    }
+    writeLines(file, lines);
+    DataModel sequential = new FileDataModel(file, false, FileDataModel.DEFAULT_MIN_RELOAD_INTERVAL_MS, 1);
+    DataModel parallel = new FileDataModel(file, false, FileDataModel.DEFAULT_MIN_RELOAD_INTERVAL_MS, 4);
+    assertEquals(sequential.getNumUsers(), parallel.getNumUsers());
+    assertEquals(sequential.getNumItems(), parallel.getNumItems());
+    LongPrimitiveIterator userIDs = sequential.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray expected = sequential.getPreferencesFromUser(userID);
+      PreferenceArray actual = parallel.getPreferencesFromUser(userID);
+      assertEquals(expected.length(), actual.length());
+      for (int i = 0; i < expected.length(); i++) {
+        assertEquals(expected.getItemID(i), actual.getItemID(i));
+        assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+      }
+    }
+  }
+
   @Test
   public void testToString() {
     assertFalse(model.toString().isEmpty());
@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/** <p>Tests {@link MemoryMappedDataModel}.</p> */
+public final class MemoryMappedDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "123,456,0.1",
+      "123,789,0.6",
+      "123,654,0.7",
+      "234,123,0.5",
+      "234,234,1.0",
+      "234,999,0.9",
+      "345,789,0.6",
+      "345,654,0.7",
+      "345,123,1.0",
+      "345,234,0.5",
+      "345,999,0.5",
+      "456,456,0.1",
+      "456,789,0.5",
+      "456,654,0.0",
+      "456,999,0.2",};
+
+  private DataModel textModel;
+  private MemoryMappedDataModel model;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    File textFile = getTestTempFile("test.txt");
+    writeLines(textFile, DATA);
+    textModel = new FileDataModel(textFile);
+    File binaryFile = getTestTempFile("test.bin");
+    MemoryMappedDataModel.writeDataModel(textModel, binaryFile);
+    model = new MemoryMappedDataModel(binaryFile);
+  }
+
+  @Test
+  public void testSameAsTextModel() throws Exception {
+    assertEquals(textModel.getNumUsers(), model.getNumUsers());
+    assertEquals(textModel.getNumItems(), model.getNumItems());
+    assertTrue(model.hasPreferenceValues());
+    assertEquals(textModel.getMinPreference(), model.getMinPreference(), EPSILON);
+    assertEquals(textModel.getMaxPreference(), model.getMaxPreference(), EPSILON);
+    assertSameIDs(textModel.getUserIDs(), model.getUserIDs());
+    assertSameIDs(textModel.getItemIDs(), model.getItemIDs());
+    LongPrimitiveIterator userIDs = textModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      PreferenceArray expected = textModel.getPreferencesFromUser(userID);
+      PreferenceArray actual = model.getPreferencesFromUser(userID);
+      assertEquals(expected.length(), actual.length());
+      for (int i = 0; i < expected.length(); i++) {
+        assertEquals(userID, actual.getUserID(i));
+        assertEquals(expected.getItemID(i), actual.getItemID(i));
+        assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+        assertEquals(expected.getValue(i), model.getPreferenceValue(userID, expected.getItemID(i)), EPSILON);
+      }
+      assertEquals(textModel.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = textModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      PreferenceArray expected = textModel.getPreferencesForItem(itemID);
+      PreferenceArray actual = model.getPreferencesForItem(itemID);
+      assertEquals(expected.length(), actual.length());
+      for (int i = 0; i < expected.length(); i++) {
+        assertEquals(itemID, actual.getItemID(i));
+        assertEquals(expected.getUserID(i), actual.getUserID(i));
+        assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testNumUsersPreferring() throws Exception {
+    assertEquals(2, model.getNumUsersWithPreferenceFor(456));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(111));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(111, 456));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(123, 234));
+    assertEquals(3, model.getNumUsersWithPreferenceFor(654, 789));
+  }
+
+  @Test
+  public void testMissing() throws Exception {
+    assertNull(model.getPreferenceValue(123, 999));
+    try {
+      model.getPreferencesFromUser(111);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      model.getPreferencesForItem(111);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+  @Test
+  public void testRecommend() throws Exception {
+    UserSimilarity userSimilarity = new PearsonCorrelationSimilarity(model);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(3, userSimilarity, model);
+    Recommender recommender = new GenericUserBasedRecommender(model, neighborhood, userSimilarity);
+    List<RecommendedItem> recommended = recommender.recommend(123, 3);
+    assertEquals(1, recommended.size());
+    assertEquals(0, recommender.recommend(234, 3).size());
+    assertEquals(1, recommender.recommend(345, 3).size());
+  }
+
+  @Test
+  public void testBooleanPrefs() throws Exception {
+    File textFile = getTestTempFile("boolean.txt");
+    writeLines(textFile, "1,10", "1,20", "2,10");
+    File binaryFile = getTestTempFile("boolean.bin");
+    MemoryMappedDataModel.writeDataModel(new FileDataModel(textFile), binaryFile);
+    MemoryMappedDataModel booleanModel = new MemoryMappedDataModel(binaryFile);
+    assertFalse(booleanModel.hasPreferenceValues());
+    assertEquals(2, booleanModel.getNumUsers());
+    assertEquals(new FastIDSet(new long[] {10, 20}), booleanModel.getItemIDsFromUser(1));
+    assertEquals(1.0f, booleanModel.getPreferenceValue(2, 10), EPSILON);
+    assertNull(booleanModel.getPreferenceValue(2, 20));
+    assertEquals(2, booleanModel.getPreferencesForItem(10).length());
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    File textFile = getTestTempFile("prefs.txt");
+    writeLines(textFile, "123,456,3.0");
+    File binaryFile = getTestTempFile("refresh.bin");
+    MemoryMappedDataModel.writeDataModel(new FileDataModel(textFile), binaryFile);
+    MemoryMappedDataModel dataModel = new MemoryMappedDataModel(binaryFile);
+    assertEquals(3.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+
+    // Replace the file rather than overwrite it, so the old mapping stays valid
+    File newBinaryFile = getTestTempFile("refresh.bin.new");
+    writeLines(textFile, "123,456,5.0", "123,789,1.0");
+    MemoryMappedDataModel.writeDataModel(new FileDataModel(textFile), newBinaryFile);
+    assertTrue(newBinaryFile.setLastModified(binaryFile.lastModified() + 2000L));
+    assertTrue(newBinaryFile.renameTo(binaryFile));
+    dataModel.refresh(null);
+
+    assertEquals(5.0f, dataModel.getPreferenceValue(123L, 456L), EPSILON);
+    assertEquals(2, dataModel.getNumItems());
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBinaryFile() throws Exception {
+    File textFile = getTestTempFile("text.txt");
+    writeLines(textFile, DATA);
+    new MemoryMappedDataModel(textFile);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly() throws Exception {
+    model.setPreference(123, 456, 1.0f);
+  }
+
+  private static void assertSameIDs(LongPrimitiveIterator expected, LongPrimitiveIterator actual) {
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      assertEquals(expected.nextLong(), actual.nextLong());
+    }
+    assertFalse(actual.hasNext());
+  }
+
+}
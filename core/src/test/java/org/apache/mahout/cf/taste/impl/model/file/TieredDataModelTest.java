@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+/** <p>Tests {@link TieredDataModel}.</p> */
+public final class TieredDataModelTest extends TasteTestCase {
+
+  private DataModel original;
+  private File binaryFile;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    original = getRandomDataModel(50, 20, 0.3);
+    binaryFile = getTestTempFile("test.bin");
+    MemoryMappedDataModel.writeDataModel(original, binaryFile);
+  }
+
+  @Test
+  public void testSameAsOriginal() throws Exception {
+    TieredDataModel model = new TieredDataModel(binaryFile, 10, 5);
+    assertEquals(original.getNumUsers(), model.getNumUsers());
+    assertEquals(original.getNumItems(), model.getNumItems());
+    // Promoted on the second pass, some users and items are read from the heap on the third
+    for (int pass = 0; pass < 3; pass++) {
+      LongPrimitiveIterator userIDs = original.getUserIDs();
+      while (userIDs.hasNext()) {
+        long userID = userIDs.nextLong();
+        assertSamePrefs(original.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID), true);
+        assertEquals(original.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+        LongPrimitiveIterator itemIDs = original.getItemIDs();
+        while (itemIDs.hasNext()) {
+          long itemID = itemIDs.nextLong();
+          assertEquals(original.getPreferenceValue(userID, itemID), model.getPreferenceValue(userID, itemID));
+        }
+      }
+      LongPrimitiveIterator itemIDs = original.getItemIDs();
+      while (itemIDs.hasNext()) {
+        long itemID = itemIDs.nextLong();
+        assertSamePrefs(original.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID), false);
+        assertEquals(original.getNumUsersWithPreferenceFor(itemID), model.getNumUsersWithPreferenceFor(itemID));
+      }
+    }
+    assertTrue(model.getHitCount() > 0);
+    assertTrue(model.getNumHotUsers() <= 10);
+    assertTrue(model.getNumHotItems() <= 5);
+  }
+
+  @Test
+  public void testPromotion() throws Exception {
+    TieredDataModel model = new TieredDataModel(new MemoryMappedDataModel(binaryFile), 10, 10, 3);
+    model.getPreferencesFromUser(1);
+    model.getPreferencesFromUser(1);
+    assertEquals(0, model.getNumHotUsers());
+    assertEquals(2, model.getMissCount());
+    // The third access promotes the user, and the fourth is served from the heap
+    PreferenceArray prefs = model.getPreferencesFromUser(1);
+    assertEquals(1, model.getNumHotUsers());
+    assertEquals(1, model.getPromotionCount());
+    assertSame(prefs, model.getPreferencesFromUser(1));
+    assertEquals(1, model.getHitCount());
+    assertEquals(3, model.getMissCount());
+  }
+
+  @Test
+  public void testScanDoesNotPromote() throws Exception {
+    TieredDataModel model = new TieredDataModel(new MemoryMappedDataModel(binaryFile), 10, 10, 2);
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (userIDs.hasNext()) {
+      model.getPreferencesFromUser(userIDs.nextLong());
+    }
+    // Hash collisions in the frequency sketch may promote a few
+    assertTrue(model.getNumHotUsers() < 5);
+  }
+
+  @Test
+  public void testRefreshDemotes() throws Exception {
+    TieredDataModel model = new TieredDataModel(new MemoryMappedDataModel(binaryFile), 10, 10, 1);
+    model.getPreferencesFromUser(1);
+    model.getPreferencesForItem(original.getItemIDs().nextLong());
+    assertEquals(1, model.getNumHotUsers());
+    assertEquals(1, model.getNumHotItems());
+    model.refresh(null);
+    assertEquals(0, model.getNumHotUsers());
+    assertEquals(0, model.getNumHotItems());
+  }
+
+  @Test
+  public void testSegmentedTier() throws Exception {
+    // Large enough to be split into several segments
+    TieredDataModel model = new TieredDataModel(new MemoryMappedDataModel(binaryFile), 1000, 1000, 1);
+    int numUsers = original.getNumUsers();
+    for (int pass = 0; pass < 2; pass++) {
+      LongPrimitiveIterator userIDs = model.getUserIDs();
+      while (userIDs.hasNext()) {
+        model.getPreferencesFromUser(userIDs.nextLong());
+      }
+    }
+    assertEquals(numUsers, model.getNumHotUsers());
+    assertEquals(numUsers, model.getHitCount());
+    model.refresh(null);
+    assertEquals(0, model.getNumHotUsers());
+  }
+
+  @Test
+  public void testWriteDuringReadIsNotUndone() throws Exception {
+    DataModel coldModel = EasyMock.createMock(DataModel.class);
+    final TieredDataModel model = new TieredDataModel(coldModel, 10, 10, 1);
+    final PreferenceArray stale = new GenericUserPreferenceArray(1);
+    PreferenceArray fresh = new GenericUserPreferenceArray(1);
+    // A preference is set while the user's preferences are read from the cold model
+    EasyMock.expect(coldModel.getPreferencesFromUser(1L)).andAnswer(new IAnswer<PreferenceArray>() {
+      @Override
+      public PreferenceArray answer() throws Throwable {
+        model.setPreference(1L, 2L, 3.0f);
+        return stale;
+      }
+    });
+    coldModel.setPreference(1L, 2L, 3.0f);
+    EasyMock.expect(coldModel.getPreferencesFromUser(1L)).andReturn(fresh);
+    EasyMock.replay(coldModel);
+
+    assertSame(stale, model.getPreferencesFromUser(1L));
+    assertEquals(0, model.getNumHotUsers());
+    assertEquals(0, model.getPromotionCount());
+    assertSame(fresh, model.getPreferencesFromUser(1L));
+    assertSame(fresh, model.getPreferencesFromUser(1L));
+    assertEquals(1, model.getPromotionCount());
+
+    EasyMock.verify(coldModel);
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    new TieredDataModel(binaryFile, 10, 10).getPreferencesFromUser(Long.MAX_VALUE - 1);
+  }
+
+  private static void assertSamePrefs(PreferenceArray expected, PreferenceArray actual, boolean byUser) {
+    expected = expected.clone();
+    actual = actual.clone();
+    if (byUser) {
+      expected.sortByItem();
+      actual.sortByItem();
+    } else {
+      expected.sortByUser();
+      actual.sortByUser();
+    }
+    assertEquals(expected.length(), actual.length());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+    }
+  }
+
+}
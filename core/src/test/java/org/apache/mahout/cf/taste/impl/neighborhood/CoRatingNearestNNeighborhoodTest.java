@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.junit.Test;
+
+/** <p>Tests {@link CoRatingNearestNUserNeighborhood}.</p> */
+public final class CoRatingNearestNNeighborhoodTest extends TasteTestCase {
+
+  @Test
+  public void testNeighborhood() throws Exception {
+    DataModel dataModel = getDataModel();
+    long[] neighborhood = new CoRatingNearestNUserNeighborhood(1, new DummySimilarity(dataModel), dataModel)
+        .getUserNeighborhood(1);
+    assertEquals(1, neighborhood.length);
+    assertTrue(arrayContains(neighborhood, 2));
+  }
+
+  @Test
+  public void testSameAsNearestNForPearson() throws Exception {
+    DataModel dataModel = getRandomDataModel(200, 40, 0.1);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    assertSameSimilarities(dataModel, similarity, new NearestNUserNeighborhood(10, similarity, dataModel),
+        new CoRatingNearestNUserNeighborhood(10, similarity, dataModel));
+  }
+
+  @Test
+  public void testSameAsNearestNForTanimoto() throws Exception {
+    DataModel dataModel = getRandomDataModel(200, 40, 0.1);
+    UserSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    // Stops early once no remaining user can be similar enough
+    assertSameSimilarities(dataModel, similarity, new NearestNUserNeighborhood(5, 0.1, similarity, dataModel),
+        new CoRatingNearestNUserNeighborhood(5, 0.1, similarity, dataModel, 1, Integer.MAX_VALUE,
+            Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testMinCommonItems() throws Exception {
+    DataModel dataModel = getRandomDataModel(100, 20, 0.3);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood neighborhood = new CoRatingNearestNUserNeighborhood(10, Double.NEGATIVE_INFINITY,
+        similarity, dataModel, 3, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      FastIDSet itemIDs = dataModel.getItemIDsFromUser(userID);
+      for (long neighborID : neighborhood.getUserNeighborhood(userID)) {
+        assertTrue(itemIDs.intersectionSize(dataModel.getItemIDsFromUser(neighborID)) >= 3);
+      }
+    }
+  }
+
+  @Test
+  public void testCaps() throws Exception {
+    DataModel dataModel = getRandomDataModel(100, 20, 0.3);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood fewCandidates = new CoRatingNearestNUserNeighborhood(10, Double.NEGATIVE_INFINITY,
+        similarity, dataModel, 1, Integer.MAX_VALUE, 3);
+    UserNeighborhood fewUsersPerItem = new CoRatingNearestNUserNeighborhood(10, Double.NEGATIVE_INFINITY,
+        similarity, dataModel, 1, 2, Integer.MAX_VALUE);
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      assertTrue(fewCandidates.getUserNeighborhood(userID).length <= 3);
+      int numItems = dataModel.getItemIDsFromUser(userID).size();
+      long[] neighborhood = fewUsersPerItem.getUserNeighborhood(userID);
+      assertTrue(neighborhood.length <= 2 * numItems);
+      assertFalse(arrayContains(neighborhood, userID));
+    }
+  }
+
+  private static void assertSameSimilarities(DataModel dataModel,
+                                             UserSimilarity similarity,
+                                             UserNeighborhood expected,
+                                             UserNeighborhood actual) throws Exception {
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      // Users may be tied, so compare their similarities rather than who they are
+      double[] expectedSimilarities = similarities(similarity, userID, expected.getUserNeighborhood(userID));
+      double[] actualSimilarities = similarities(similarity, userID, actual.getUserNeighborhood(userID));
+      assertArrayEquals(expectedSimilarities, actualSimilarities, EPSILON);
+    }
+  }
+
+  private static double[] similarities(UserSimilarity similarity, long userID, long[] neighborIDs)
+    throws Exception {
+    double[] similarities = new double[neighborIDs.length];
+    for (int i = 0; i < neighborIDs.length; i++) {
+      similarities[i] = similarity.userSimilarity(userID, neighborIDs[i]);
+    }
+    Arrays.sort(similarities);
+    return similarities;
+  }
+
+}
@@ -19,12 +19,15 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.model.PrefetchingDataModel;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
 import org.apache.mahout.cf.taste.recommender.MostSimilarItemsCandidateItemsStrategy;
@@ -215,6 +218,26 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.2f, third.getValue(), EPSILON);
   }
 
+  @Test
+  public void testRecommendToMultipleUsers() throws Exception {
+    DataModel dataModel = getRandomDataModel(60, 40, 0.3);
+    AbstractRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    AbstractRecommender booleanRecommender =
+        new GenericBooleanPrefItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    long[] userIDs = new long[dataModel.getNumUsers()];
+    for (int i = 0; i < userIDs.length; i++) {
+      userIDs[i] = i + 1;
+    }
+    FastByIDMap<List<RecommendedItem>> recommended = recommender.recommend(userIDs, 5, null, 3);
+    FastByIDMap<List<RecommendedItem>> booleanRecommended = booleanRecommender.recommend(userIDs, 5, null, 3);
+    assertEquals(userIDs.length, recommended.size());
+    for (long userID : userIDs) {
+      assertEquals(recommender.recommend(userID, 5), recommended.get(userID));
+      assertEquals(booleanRecommender.recommend(userID, 5), booleanRecommended.get(userID));
+    }
+  }
+
   private static ItemBasedRecommender buildRecommender() {
     DataModel dataModel = getDataModel();
     Collection<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
@@ -291,4 +314,42 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
 
     EasyMock.verify(dataModel, itemSimilarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
   }
+
+  @Test
+  public void itemsPrefetched() throws Exception {
+
+    PrefetchingDataModel dataModel = EasyMock.createStrictMock(PrefetchingDataModel.class);
+    ItemSimilarity itemSimilarity = EasyMock.createMock(ItemSimilarity.class);
+    CandidateItemsStrategy candidateItemsStrategy = EasyMock.createMock(CandidateItemsStrategy.class);
+    MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy =
+        EasyMock.createMock(MostSimilarItemsCandidateItemsStrategy.class);
+
+    PreferenceArray preferencesFromUser = new GenericUserPreferenceArray(
+        Arrays.asList(new GenericPreference(1L, 1L, 5.0f), new GenericPreference(1L, 2L, 4.0f)));
+    FastIDSet candidateItemIDs = new FastIDSet(new long[] { 3L, 4L });
+
+    EasyMock.expect(dataModel.getMinPreference()).andReturn(Float.NaN);
+    EasyMock.expect(dataModel.getMaxPreference()).andReturn(Float.NaN);
+
+    EasyMock.expect(dataModel.getPreferencesFromUser(1L)).andReturn(preferencesFromUser);
+    EasyMock.expect(candidateItemsStrategy.getCandidateItems(1L, preferencesFromUser, dataModel))
+        .andReturn(candidateItemIDs);
+    // The user's items first, then the candidates
+    dataModel.prefetchPreferencesForItems(new FastIDSet(new long[] { 1L, 2L }));
+    dataModel.prefetchPreferencesForItems(candidateItemIDs);
+
+    EasyMock.expect(itemSimilarity.itemSimilarities(3L, preferencesFromUser.getIDs()))
+        .andReturn(new double[] { 0.5, 0.3 });
+    EasyMock.expect(itemSimilarity.itemSimilarities(4L, preferencesFromUser.getIDs()))
+        .andReturn(new double[] { 0.4, 0.1 });
+
+    EasyMock.replay(dataModel, itemSimilarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
+
+    Recommender recommender = new GenericItemBasedRecommender(dataModel, itemSimilarity,
+        candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
+
+    assertEquals(2, recommender.recommend(1L, 3).size());
+
+    EasyMock.verify(dataModel, itemSimilarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy);
+  }
 }
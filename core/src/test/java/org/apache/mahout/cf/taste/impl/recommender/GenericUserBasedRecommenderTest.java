@@ -19,6 +19,7 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -142,6 +143,29 @@ public final class GenericUserBasedRecommenderTest extends TasteTestCase {
     assertEquals(0, mostSimilar.length);
   }
 
+  @Test
+  public void testRecommendToMultipleUsers() throws Exception {
+    DataModel dataModel = getRandomDataModel(60, 40, 0.3);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(10, similarity, dataModel);
+    AbstractRecommender recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+    AbstractRecommender booleanRecommender =
+        new GenericBooleanPrefUserBasedRecommender(dataModel, neighborhood, similarity);
+    // Duplicates are recommended to once
+    long[] userIDs = new long[dataModel.getNumUsers() + 1];
+    for (int i = 0; i < userIDs.length - 1; i++) {
+      userIDs[i] = i + 1;
+    }
+    userIDs[userIDs.length - 1] = 1;
+    FastByIDMap<List<RecommendedItem>> recommended = recommender.recommend(userIDs, 5, null, 3);
+    FastByIDMap<List<RecommendedItem>> booleanRecommended = booleanRecommender.recommend(userIDs, 5, null, 3);
+    assertEquals(userIDs.length - 1, recommended.size());
+    for (long userID : userIDs) {
+      assertEquals(recommender.recommend(userID, 5), recommended.get(userID));
+      assertEquals(booleanRecommender.recommend(userID, 5), booleanRecommended.get(userID));
+    }
+  }
+
   private static UserBasedRecommender buildRecommender() throws TasteException {
     DataModel dataModel = getDataModel();
     UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
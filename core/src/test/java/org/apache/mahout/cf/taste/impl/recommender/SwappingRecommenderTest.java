@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.mutable.MutableInt;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+/** <p>Tests {@link SwappingRecommender}.</p> */
+public final class SwappingRecommenderTest extends TasteTestCase {
+
+  @Test
+  public void testRebuild() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    SwappingRecommender recommender = new SwappingRecommender(builder);
+    assertEquals(1L, recommender.getVersion());
+    Recommender first = recommender.getCurrent();
+    recommender.recommend(1L, 1);
+    assertEquals(1, builder.recommendCounts.get(0).intValue());
+
+    recommender.rebuild();
+    assertEquals(2L, recommender.getVersion());
+    assertNotSame(first, recommender.getCurrent());
+    recommender.recommend(1L, 1);
+    assertEquals(1, builder.recommendCounts.get(0).intValue());
+    assertEquals(1, builder.recommendCounts.get(1).intValue());
+  }
+
+  @Test
+  public void testServesPreviousDuringRefresh() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    SwappingRecommender recommender = new SwappingRecommender(builder);
+    Recommender first = recommender.getCurrent();
+    builder.gate = new CountDownLatch(1);
+    recommender.refresh(null);
+    // Not blocked by the build underway
+    recommender.recommend(1L, 1);
+    assertSame(first, recommender.getCurrent());
+    assertEquals(1, builder.recommendCounts.get(0).intValue());
+    builder.gate.countDown();
+    awaitVersion(recommender, 2L);
+    assertNotSame(first, recommender.getCurrent());
+  }
+
+  @Test
+  public void testRefreshDuringBuildBuildsAgain() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    SwappingRecommender recommender = new SwappingRecommender(builder);
+    builder.building = new CountDownLatch(1);
+    builder.gate = new CountDownLatch(1);
+    recommender.refresh(null);
+    builder.building.await();
+    recommender.refresh(null);
+    recommender.refresh(null);
+    builder.gate.countDown();
+    // The two requests during the build come to one more build
+    awaitVersion(recommender, 3L);
+    Thread.sleep(100L);
+    assertEquals(3L, recommender.getVersion());
+  }
+
+  @Test
+  public void testFailedBuildKeepsCurrent() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    SwappingRecommender recommender = new SwappingRecommender(builder);
+    Recommender first = recommender.getCurrent();
+    builder.fail = true;
+    try {
+      recommender.rebuild();
+      fail();
+    } catch (TasteException te) {
+      // expected
+    }
+    assertSame(first, recommender.getCurrent());
+    assertEquals(1L, recommender.getVersion());
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    SwappingRecommender recommender = new SwappingRecommender(builder, 4);
+    for (long userID = 1L; userID <= 6L; userID++) {
+      recommender.recommend(userID, 1);
+    }
+    recommender.recommend(6L, 1);
+    assertEquals(7, builder.recommendCounts.get(0).intValue());
+    recommender.rebuild();
+    // Users 4, 5 and 6 were among the last 4 requests
+    assertEquals(3, builder.recommendCounts.get(1).intValue());
+  }
+
+  private static void awaitVersion(SwappingRecommender recommender, long version) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (recommender.getVersion() < version && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertEquals(version, recommender.getVersion());
+  }
+
+  private static final class CountingBuilder implements Callable<Recommender> {
+
+    private final List<MutableInt> recommendCounts = Lists.newArrayList();
+    private volatile CountDownLatch building = new CountDownLatch(1);
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private volatile boolean fail;
+
+    @Override
+    public Recommender call() throws Exception {
+      building.countDown();
+      gate.await(10L, TimeUnit.SECONDS);
+      if (fail) {
+        throw new TasteException("failed");
+      }
+      MutableInt recommendCount = new MutableInt();
+      synchronized (recommendCounts) {
+        recommendCounts.add(recommendCount);
+      }
+      return new MockRecommender(recommendCount);
+    }
+
+  }
+
+}
@@ -56,6 +56,29 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testTopItemsLongEstimator() throws Exception {
+    long[] ids = new long[100];
+    for (int i = 0; i < 100; i++) {
+      ids[i] = i;
+    }
+    LongPrimitiveIterator possibleItemIds = new LongPrimitiveArrayIterator(ids);
+    TopItems.LongEstimator estimator = new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long thing) {
+        // every third item has no estimate
+        return thing % 3 == 0 ? Double.NaN : -thing;
+      }
+    };
+    List<RecommendedItem> topItems = TopItems.getTopItems(5, possibleItemIds, null, estimator);
+    long[] gold = {1, 2, 4, 5, 7};
+    assertEquals(gold.length, topItems.size());
+    for (int i = 0; i < gold.length; i++) {
+      assertEquals(gold[i], topItems.get(i).getItemID());
+      assertEquals(-gold[i], topItems.get(i).getValue(), EPSILON);
+    }
+  }
+
   @Test
   public void testTopItemsRandom() throws Exception {
     long[] ids = new long[100];
@@ -79,6 +102,19 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testNoneWanted() throws Exception {
+    TopItems.LongEstimator estimator = new TopItems.LongEstimator() {
+      @Override
+      public double estimate(long thing) {
+        return thing;
+      }
+    };
+    long[] ids = {1L, 2L, 3L};
+    assertTrue(TopItems.getTopItems(0, new LongPrimitiveArrayIterator(ids), null, estimator).isEmpty());
+    assertEquals(0, TopItems.getTopUsers(0, new LongPrimitiveArrayIterator(ids), null, estimator).length);
+  }
+
   @Test
   public void testTopUsers() throws Exception {
     long[] ids = new long[100];
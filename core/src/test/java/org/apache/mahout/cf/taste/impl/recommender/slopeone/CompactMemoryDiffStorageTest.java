@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.junit.Test;
+
+/** Tests {@link CompactMemoryDiffStorage}. */
+public final class CompactMemoryDiffStorageTest extends TasteTestCase {
+
+  @Test
+  public void testRecommendableIDsVariedWeighted() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    FastIDSet recommendableItemIDs = storage.getRecommendableItemIDs(1);
+    assertEquals(3, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(1));
+    recommendableItemIDs = storage.getRecommendableItemIDs(2);
+    assertEquals(2, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(2));
+    assertTrue(recommendableItemIDs.contains(3));
+    recommendableItemIDs = storage.getRecommendableItemIDs(3);
+    assertEquals(1, recommendableItemIDs.size());
+    assertTrue(recommendableItemIDs.contains(3));
+    recommendableItemIDs = storage.getRecommendableItemIDs(4);
+    assertEquals(0, recommendableItemIDs.size());
+    recommendableItemIDs = storage.getRecommendableItemIDs(5);
+    assertEquals(0, recommendableItemIDs.size());
+  }
+
+  @Test (expected=NoSuchUserException.class)
+  public void testUnRecommendableID() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    storage.getRecommendableItemIDs(0);
+  }
+
+  @Test
+  public void testAdd() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.UNWEIGHTED, Long.MAX_VALUE);
+
+    storage.addItemPref(1, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.25, average1.getAverage(), EPSILON);
+    assertEquals(4, average1.getCount());
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.3, average2.getAverage(), EPSILON);
+    assertEquals(4, average2.getCount());
+    assertEquals(-0.3, storage.getDiff(2, 1).getAverage(), EPSILON);
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.UNWEIGHTED, Long.MAX_VALUE);
+    storage.updateItemPref(1, 0.5f);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.06666666666666668, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    DataModel model = getDataModel();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.UNWEIGHTED, Long.MAX_VALUE);
+
+    storage.removeItemPref(4, 2, 0.8f);
+
+    RunningAverage average1 = storage.getDiff(0, 2);
+    assertEquals(0.1, average1.getAverage(), EPSILON);
+    assertEquals(2, average1.getCount());
+    RunningAverage average2 = storage.getDiff(1, 2);
+    assertEquals(0.1, average2.getAverage(), EPSILON);
+    assertEquals(2, average2.getCount());
+  }
+
+  @Test (expected=UnsupportedOperationException.class)
+  public void testUpdateWeighted() throws Exception {
+    DataModel model = MemoryDiffStorageTest.getDataModelVaried();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    storage.updateItemPref(2, 0.8f);
+  }
+
+  @Test
+  public void testRemovePref() throws Exception {
+    double eps = 0.0001;
+    DataModel model = MemoryDiffStorageTest.getDataModelPocked();
+    DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+
+    RunningAverageAndStdDev average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(-0.033333, average.getAverage(), eps);
+    assertEquals(0.32145, average.getStandardDeviation(), eps);
+    assertEquals(3, average.getCount());
+
+    storage.removeItemPref(2, 1, 0.1f);
+    average = (RunningAverageAndStdDev) storage.getDiff(0, 1);
+    assertEquals(0.00000001, average.getAverage(), eps);
+    assertEquals(0.44721, average.getStandardDeviation(), eps);
+    assertEquals(2, average.getCount());
+  }
+
+  @Test
+  public void testMatchesMemoryDiffStorage() throws Exception {
+    DataModel model = getRandomDataModel(50, 30, 0.3);
+    DiffStorage expected = new MemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    DiffStorage actual = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    LongPrimitiveIterator it1 = model.getItemIDs();
+    while (it1.hasNext()) {
+      long itemID1 = it1.nextLong();
+      assertAveragesEqual(expected.getAverageItemPref(itemID1), actual.getAverageItemPref(itemID1));
+      LongPrimitiveIterator it2 = model.getItemIDs();
+      while (it2.hasNext()) {
+        long itemID2 = it2.nextLong();
+        if (itemID1 != itemID2) {
+          assertAveragesEqual(expected.getDiff(itemID1, itemID2), actual.getDiff(itemID1, itemID2));
+        }
+      }
+    }
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertEquals(expected.getRecommendableItemIDs(userID), actual.getRecommendableItemIDs(userID));
+    }
+  }
+
+  @Test
+  public void testConcurrentAddAndRemove() throws Exception {
+    final DataModel model = getRandomDataModel(20, 10, 0.5);
+    final DiffStorage storage = new CompactMemoryDiffStorage(model, Weighting.WEIGHTED, Long.MAX_VALUE);
+    RunningAverage before = storage.getDiff(0, 1);
+    int numThreads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int t = 0; t < numThreads; t++) {
+        // Each thread adds and removes preferences for its own new item, from every user
+        final long newItemID = 100 + t;
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws Exception {
+            for (int round = 0; round < 20; round++) {
+              LongPrimitiveIterator userIDs = model.getUserIDs();
+              while (userIDs.hasNext()) {
+                storage.addItemPref(userIDs.nextLong(), newItemID, 0.5f);
+              }
+              userIDs = model.getUserIDs();
+              while (userIDs.hasNext()) {
+                storage.removeItemPref(userIDs.nextLong(), newItemID, 0.5f);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertAveragesEqual(before, storage.getDiff(0, 1));
+    for (int t = 0; t < numThreads; t++) {
+      assertNull(storage.getDiff(0, 100 + t));
+      assertFalse(storage.getRecommendableItemIDs(1).contains(100 + t));
+    }
+  }
+
+  private static void assertAveragesEqual(RunningAverage expected, RunningAverage actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertNotNull(actual);
+    assertEquals(expected.getCount(), actual.getCount());
+    assertEquals(expected.getAverage(), actual.getAverage(), EPSILON);
+    double expectedStdDev = ((RunningAverageAndStdDev) expected).getStandardDeviation();
+    double actualStdDev = ((RunningAverageAndStdDev) actual).getStandardDeviation();
+    if (Double.isNaN(expectedStdDev)) {
+      assertTrue(Double.isNaN(actualStdDev));
+    } else {
+      assertEquals(expectedStdDev, actualStdDev, EPSILON);
+    }
+  }
+
+}
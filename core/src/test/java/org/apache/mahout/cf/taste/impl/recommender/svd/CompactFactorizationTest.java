@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public final class CompactFactorizationTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 7;
+  private static final int NUM_ITEMS = 3000;
+  private static final int NUM_FEATURES = 5;
+
+  private Factorization factorization;
+  private CompactFactorization compact;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[NUM_USERS][NUM_FEATURES];
+    for (int i = 0; i < NUM_USERS; i++) {
+      userIDMapping.put(100L + i, i);
+      for (int j = 0; j < NUM_FEATURES; j++) {
+        userFeatures[i][j] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[NUM_ITEMS][NUM_FEATURES];
+    for (int i = 0; i < NUM_ITEMS; i++) {
+      itemIDMapping.put(5000L + 3 * i, i);
+      for (int j = 0; j < NUM_FEATURES; j++) {
+        itemFeatures[i][j] = random.nextGaussian();
+      }
+    }
+    factorization = new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+    compact = new CompactFactorization(factorization);
+  }
+
+  @Test
+  public void testMappings() throws Exception {
+    assertEquals(NUM_USERS, compact.numUsers());
+    assertEquals(NUM_ITEMS, compact.numItems());
+    assertEquals(NUM_FEATURES, compact.numFeatures());
+    assertEquals(factorization.userIndex(103L), compact.userIndex(103L));
+    assertEquals(factorization.itemIndex(5000L), compact.itemIndex(5000L));
+    assertEquals(5006L, compact.itemID(compact.itemIndex(5006L)));
+    assertEquals(101L, compact.userID(compact.userIndex(101L)));
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    compact.userIndex(99L);
+  }
+
+  @Test(expected = NoSuchItemException.class)
+  public void testNoSuchItem() throws Exception {
+    compact.itemIndex(5001L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyFeatures() {
+    // 2^15 items of 2^16 features can't be indexed by int; the rows themselves are never read
+    double[][] userFeatures = { new double[1 << 16] };
+    double[][] itemFeatures = new double[1 << 15][];
+    new CompactFactorization(new Factorization(new FastByIDMap<Integer>(), new FastByIDMap<Integer>(),
+        userFeatures, itemFeatures));
+  }
+
+  @Test
+  public void testEstimate() throws Exception {
+    for (int user = 0; user < NUM_USERS; user++) {
+      long userID = 100L + user;
+      double[] userFeatures = factorization.getUserFeatures(userID);
+      for (int item = 0; item < NUM_ITEMS; item += 37) {
+        long itemID = 5000L + 3 * item;
+        double[] itemFeatures = factorization.getItemFeatures(itemID);
+        double expected = 0.0;
+        for (int feature = 0; feature < NUM_FEATURES; feature++) {
+          expected += userFeatures[feature] * itemFeatures[feature];
+        }
+        assertEquals(expected, compact.estimate(compact.userIndex(userID), compact.itemIndex(itemID)), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testScoreAllItems() {
+    int[] userIndexes = {3, 0, 6};
+    float[][] scores = new float[userIndexes.length][compact.numItemRows()];
+    compact.scoreAllItems(userIndexes, scores);
+    float[] userScores = new float[compact.numItemRows()];
+    for (int u = 0; u < userIndexes.length; u++) {
+      compact.scoreAllItems(userIndexes[u], userScores);
+      for (int item = 0; item < NUM_ITEMS; item++) {
+        float expected = compact.estimate(userIndexes[u], item);
+        assertEquals(expected, userScores[item], EPSILON);
+        assertEquals(expected, scores[u][item], EPSILON);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+public final class InnerProductCandidateItemsStrategyTest extends TasteTestCase {
+
+  private static Factorization randomFactorization(int numUsers, int numItems, int numFeatures) {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[numUsers][numFeatures];
+    for (int i = 0; i < numUsers; i++) {
+      userIDMapping.put(i + 1, i);
+      for (int j = 0; j < numFeatures; j++) {
+        userFeatures[i][j] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[numItems][numFeatures];
+    for (int i = 0; i < numItems; i++) {
+      itemIDMapping.put(i, i);
+      // Vary norms so that inner product and cosine rankings differ
+      double scale = 0.5 + random.nextDouble();
+      for (int j = 0; j < numFeatures; j++) {
+        itemFeatures[i][j] = scale * random.nextGaussian();
+      }
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  @Test
+  public void testExhaustiveSearchHasFullRecall() {
+    InnerProductCandidateItemsStrategy strategy = new InnerProductCandidateItemsStrategy(10, 2, 500);
+    strategy.setFactorization(new CompactFactorization(randomFactorization(20, 300, 6)));
+    assertEquals(1.0, strategy.measureRecall(10, 20), EPSILON);
+  }
+
+  @Test
+  public void testApproximateRecall() {
+    InnerProductCandidateItemsStrategy strategy = new InnerProductCandidateItemsStrategy(100, 6, 100);
+    strategy.setFactorization(new CompactFactorization(randomFactorization(50, 5000, 8)));
+    double recall = strategy.measureRecall(10, 50);
+    assertTrue(recall > 0.5);
+    assertTrue(recall <= 1.0);
+  }
+
+  @Test
+  public void testRecommend() throws Exception {
+    DataModel dataModel = getDataModel();
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    Factorization factorization = randomFactorization(4, 3, 3);
+    EasyMock.expect(factorizer.factorize()).andReturn(factorization).times(2);
+    EasyMock.replay(factorizer);
+
+    InnerProductCandidateItemsStrategy strategy = new InnerProductCandidateItemsStrategy(3, 2, 10);
+    SVDRecommender approximate = new SVDRecommender(dataModel, factorizer, strategy);
+    SVDRecommender exact = new SVDRecommender(dataModel, factorizer);
+
+    // User 1 prefers items 0 and 1, which must not be candidates
+    FastIDSet candidates = strategy.getCandidateItems(1L, dataModel.getPreferencesFromUser(1L), dataModel);
+    assertEquals(1, candidates.size());
+    assertTrue(candidates.contains(2L));
+
+    List<RecommendedItem> expected = exact.recommend(1L, 3);
+    List<RecommendedItem> actual = approximate.recommend(1L, 3);
+    assertEquals(expected, actual);
+    EasyMock.verify(factorizer);
+  }
+
+}
@@ -17,16 +17,23 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 
 public class SVDRecommenderTest extends TasteTestCase {
 
@@ -34,19 +41,16 @@ public class SVDRecommenderTest extends TasteTestCase {
   public void estimatePreference() throws Exception {
     DataModel dataModel = EasyMock.createMock(DataModel.class);
     Factorizer factorizer = EasyMock.createMock(Factorizer.class);
-    Factorization factorization = EasyMock.createMock(Factorization.class);
 
-    EasyMock.expect(factorizer.factorize()).andReturn(factorization);
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
-    EasyMock.replay(dataModel, factorizer, factorization);
+    EasyMock.expect(factorizer.factorize()).andReturn(createFactorization());
+    EasyMock.replay(dataModel, factorizer);
 
     SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer);
 
     float estimate = svdRecommender.estimatePreference(1L, 5L);
     assertEquals(1, estimate, EPSILON);
 
-    EasyMock.verify(dataModel, factorizer, factorization);
+    EasyMock.verify(dataModel, factorizer);
   }
 
   @Test
@@ -55,22 +59,17 @@ public class SVDRecommenderTest extends TasteTestCase {
     PreferenceArray preferencesFromUser = EasyMock.createMock(PreferenceArray.class);
     CandidateItemsStrategy candidateItemsStrategy = EasyMock.createMock(CandidateItemsStrategy.class);
     Factorizer factorizer = EasyMock.createMock(Factorizer.class);
-    Factorization factorization = EasyMock.createMock(Factorization.class);
 
     FastIDSet candidateItems = new FastIDSet();
     candidateItems.add(5L);
     candidateItems.add(3L);
 
-    EasyMock.expect(factorizer.factorize()).andReturn(factorization);
+    EasyMock.expect(factorizer.factorize()).andReturn(createFactorization());
     EasyMock.expect(dataModel.getPreferencesFromUser(1L)).andReturn(preferencesFromUser);
     EasyMock.expect(candidateItemsStrategy.getCandidateItems(1L, preferencesFromUser, dataModel))
         .andReturn(candidateItems);
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(5L)).andReturn(new double[] { 1, 0.3 });
-    EasyMock.expect(factorization.getUserFeatures(1L)).andReturn(new double[] { 0.4, 2 });
-    EasyMock.expect(factorization.getItemFeatures(3L)).andReturn(new double[] { 2, 0.6 });
 
-    EasyMock.replay(dataModel, candidateItemsStrategy, factorizer, factorization);
+    EasyMock.replay(dataModel, candidateItemsStrategy, factorizer);
 
     SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer, candidateItemsStrategy);
 
@@ -81,6 +80,120 @@ public class SVDRecommenderTest extends TasteTestCase {
     assertEquals(5L, recommendedItems.get(1).getItemID());
     assertEquals(1.0f, recommendedItems.get(1).getValue(), EPSILON);
 
-    EasyMock.verify(dataModel, candidateItemsStrategy, factorizer, factorization);
+    EasyMock.verify(dataModel, candidateItemsStrategy, factorizer);
+  }
+
+  @Test
+  public void factorizationAwareStrategy() throws Exception {
+    DataModel dataModel = EasyMock.createMock(DataModel.class);
+    FactorizationAwareStrategy candidateItemsStrategy = EasyMock.createMock(FactorizationAwareStrategy.class);
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+
+    EasyMock.expect(factorizer.factorize()).andReturn(createFactorization());
+    candidateItemsStrategy.setFactorization(EasyMock.anyObject(CompactFactorization.class));
+
+    EasyMock.replay(dataModel, candidateItemsStrategy, factorizer);
+
+    new SVDRecommender(dataModel, factorizer, candidateItemsStrategy);
+
+    EasyMock.verify(dataModel, candidateItemsStrategy, factorizer);
+  }
+
+  @Test
+  public void recommendToMultipleUsers() throws Exception {
+    DataModel dataModel = getRandomDataModel(60, 40, 0.3);
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[dataModel.getNumUsers()][3];
+    for (int i = 0; i < userFeatures.length; i++) {
+      userIDMapping.put(i + 1, i);
+      for (int feature = 0; feature < 3; feature++) {
+        userFeatures[i][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[dataModel.getNumItems()][3];
+    for (int i = 0; i < itemFeatures.length; i++) {
+      itemIDMapping.put(i, i);
+      for (int feature = 0; feature < 3; feature++) {
+        itemFeatures[i][feature] = random.nextGaussian();
+      }
+    }
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    EasyMock.expect(factorizer.factorize())
+        .andReturn(new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures)).times(2);
+    EasyMock.replay(factorizer);
+
+    // Scores all items for each user, and scores candidates one by one
+    SVDRecommender allItemsRecommender =
+        new SVDRecommender(dataModel, factorizer, new AllUnknownItemsCandidateItemsStrategy());
+    SVDRecommender fewItemsRecommender =
+        new SVDRecommender(dataModel, factorizer, new FirstItemsCandidateItemsStrategy(5));
+    long[] userIDs = new long[userFeatures.length];
+    for (int i = 0; i < userIDs.length; i++) {
+      userIDs[i] = i + 1;
+    }
+    FastByIDMap<List<RecommendedItem>> allItemsRecommended = allItemsRecommender.recommend(userIDs, 5, null, 3);
+    FastByIDMap<List<RecommendedItem>> fewItemsRecommended = fewItemsRecommender.recommend(userIDs, 5, null, 3);
+    assertEquals(userIDs.length, allItemsRecommended.size());
+    for (long userID : userIDs) {
+      assertEquals(allItemsRecommender.recommend(userID, 5), allItemsRecommended.get(userID));
+      assertEquals(fewItemsRecommender.recommend(userID, 5), fewItemsRecommended.get(userID));
+    }
+    EasyMock.verify(factorizer);
+  }
+
+  @Test
+  public void groupUsersRemovesDuplicates() throws Exception {
+    DataModel dataModel = EasyMock.createMock(DataModel.class);
+    Factorizer factorizer = EasyMock.createMock(Factorizer.class);
+    EasyMock.expect(factorizer.factorize()).andReturn(createFactorization());
+    EasyMock.replay(dataModel, factorizer);
+
+    SVDRecommender svdRecommender = new SVDRecommender(dataModel, factorizer);
+    assertArrayEquals(new long[] { 3L, 1L, 2L }, svdRecommender.groupUsers(new long[] { 3L, 1L, 3L, 2L, 1L }));
+    assertArrayEquals(new long[] { 2L, 1L }, svdRecommender.groupUsers(new long[] { 2L, 1L }));
+
+    EasyMock.verify(dataModel, factorizer);
+  }
+
+  private static Factorization createFactorization() {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    itemIDMapping.put(5L, 0);
+    itemIDMapping.put(3L, 1);
+    return new Factorization(userIDMapping, itemIDMapping, new double[][] { { 0.4, 2 } },
+        new double[][] { { 1, 0.3 }, { 2, 0.6 } });
+  }
+
+  /** For instance a strategy wrapping an {@link InnerProductCandidateItemsStrategy} */
+  private interface FactorizationAwareStrategy extends CandidateItemsStrategy, FactorizationAware {
+  }
+
+  /** Returns items with IDs from 0 up to a limit, except those the user prefers */
+  private static final class FirstItemsCandidateItemsStrategy implements CandidateItemsStrategy {
+
+    private final int numItems;
+
+    private FirstItemsCandidateItemsStrategy(int numItems) {
+      this.numItems = numItems;
+    }
+
+    @Override
+    public FastIDSet getCandidateItems(long userID, PreferenceArray preferencesFromUser, DataModel dataModel)
+      throws TasteException {
+      FastIDSet candidateItemIDs = new FastIDSet();
+      for (long itemID = 0; itemID < numItems; itemID++) {
+        if (!preferencesFromUser.hasPrefWithItemID(itemID)) {
+          candidateItemIDs.add(itemID);
+        }
+      }
+      return candidateItemIDs;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
   }
 }
@@ -233,4 +233,12 @@ public final class EuclideanDistanceSimilarityTest extends SimilarityTestCase {
     new EuclideanDistanceSimilarity(getDataModel()).refresh(null);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testBulkSimilarities() throws Exception {
+    DataModel dataModel = getRandomDataModel(40, 30, 0.3);
+    EuclideanDistanceSimilarity similarity = new EuclideanDistanceSimilarity(dataModel);
+    assertUserSimilaritiesMatch(similarity, dataModel);
+    assertItemSimilaritiesMatch(similarity, dataModel);
+  }
+
+}
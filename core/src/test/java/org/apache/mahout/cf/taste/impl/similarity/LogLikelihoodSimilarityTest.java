@@ -77,4 +77,12 @@ public final class LogLikelihoodSimilarityTest extends SimilarityTestCase {
     new LogLikelihoodSimilarity(getDataModel()).refresh(null);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testBulkSimilarities() throws Exception {
+    DataModel dataModel = getRandomDataModel(40, 30, 0.3);
+    LogLikelihoodSimilarity similarity = new LogLikelihoodSimilarity(dataModel);
+    assertUserSimilaritiesMatch(similarity, dataModel);
+    assertItemSimilaritiesMatch(similarity, dataModel);
+  }
+
+}
@@ -262,4 +262,15 @@ public final class PearsonCorrelationSimilarityTest extends SimilarityTestCase {
     assertEquals(-0.435285750066007, similarity.userSimilarity(1L, 2L), EPSILON);
   }
 
+  @Test
+  public void testBulkSimilarities() throws Exception {
+    DataModel dataModel = getRandomDataModel(40, 30, 0.3);
+    PearsonCorrelationSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    assertUserSimilaritiesMatch(similarity, dataModel);
+    assertItemSimilaritiesMatch(similarity, dataModel);
+    // With an inferrer, users' similarities take missing preferences into account
+    similarity.setPreferenceInferrer(new AveragingPreferenceInferrer(dataModel));
+    assertUserSimilaritiesMatch(similarity, dataModel);
+  }
+
 }
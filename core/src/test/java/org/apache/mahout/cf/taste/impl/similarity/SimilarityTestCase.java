@@ -17,7 +17,12 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.BulkUserSimilarity;
 
 abstract class SimilarityTestCase extends TasteTestCase {
 
@@ -32,4 +37,35 @@ abstract class SimilarityTestCase extends TasteTestCase {
     }
   }
 
+  /** Checks that bulk similarities of every user to all users equal those computed pair by pair */
+  static void assertUserSimilaritiesMatch(BulkUserSimilarity similarity, DataModel dataModel)
+    throws TasteException {
+    long[] userIDs = toArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    for (long userID : userIDs) {
+      double[] similarities = similarity.userSimilarities(userID, userIDs);
+      for (int i = 0; i < userIDs.length; i++) {
+        assertEquals(similarity.userSimilarity(userID, userIDs[i]), similarities[i], 0.0);
+      }
+    }
+  }
+
+  /** Checks that bulk similarities of every item to all items equal those computed pair by pair */
+  static void assertItemSimilaritiesMatch(ItemSimilarity similarity, DataModel dataModel) throws TasteException {
+    long[] itemIDs = toArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    for (long itemID : itemIDs) {
+      double[] similarities = similarity.itemSimilarities(itemID, itemIDs);
+      for (int i = 0; i < itemIDs.length; i++) {
+        assertEquals(similarity.itemSimilarity(itemID, itemIDs[i]), similarities[i], 0.0);
+      }
+    }
+  }
+
+  private static long[] toArray(LongPrimitiveIterator ids, int size) {
+    long[] result = new long[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = ids.nextLong();
+    }
+    return result;
+  }
+
 }
@@ -77,4 +77,11 @@ public final class SpearmanCorrelationSimilarityTest extends SimilarityTestCase
     new SpearmanCorrelationSimilarity(getDataModel()).refresh(null);
   }
 
+  @Test
+  public void testBulkSimilarities() throws Exception {
+    DataModel dataModel = getRandomDataModel(40, 30, 0.3);
+    SpearmanCorrelationSimilarity similarity = new SpearmanCorrelationSimilarity(dataModel);
+    assertUserSimilaritiesMatch(similarity, dataModel);
+  }
+
 }
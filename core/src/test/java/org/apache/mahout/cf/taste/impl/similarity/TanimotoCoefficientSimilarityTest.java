@@ -17,6 +17,8 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.PlusAnonymousUserDataModel;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.junit.Test;
 
@@ -118,4 +120,24 @@ public final class TanimotoCoefficientSimilarityTest extends SimilarityTestCase
 	  assertEquals(1, similarities[1], EPSILON);
   }
   
-}
\ No newline at end of file
+  @Test
+  public void testBulkSimilarities() throws Exception {
+    DataModel dataModel = getRandomDataModel(40, 30, 0.3);
+    TanimotoCoefficientSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+    assertUserSimilaritiesMatch(similarity, dataModel);
+    assertItemSimilaritiesMatch(similarity, dataModel);
+  }
+
+  @Test
+  public void testBulkSimilaritiesOtherModels() throws Exception {
+    DataModel booleanModel =
+        new GenericBooleanPrefDataModel(GenericBooleanPrefDataModel.toDataMap(getRandomDataModel(40, 30, 0.3)));
+    // The boolean model's sets are read directly, and other models are asked for counts
+    for (DataModel dataModel : new DataModel[] {booleanModel, new PlusAnonymousUserDataModel(booleanModel)}) {
+      TanimotoCoefficientSimilarity similarity = new TanimotoCoefficientSimilarity(dataModel);
+      assertUserSimilaritiesMatch(similarity, dataModel);
+      assertItemSimilaritiesMatch(similarity, dataModel);
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.impl.similarity.precompute.BinarySimilarItemsWriter;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItems;
+import org.junit.Test;
+
+/** <p>Tests {@link MemoryMappedItemSimilarity}.</p> */
+public final class MemoryMappedItemSimilarityTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "1,5,0.125",
+      "1,7,0.5",
+      "9\t7\t-0.25" };
+
+  @Test
+  public void testConvertedFromText() throws Exception {
+    File textFile = getTestTempFile("similarities.txt");
+    writeLines(textFile, DATA);
+    File binaryFile = getTestTempFile("converted.bin");
+    MemoryMappedItemSimilarity.convert(textFile, binaryFile);
+
+    ItemSimilarity expected = new FileItemSimilarity(textFile);
+    ItemSimilarity similarity = new MemoryMappedItemSimilarity(binaryFile);
+    long[] itemIDs = {1L, 5L, 7L, 8L, 9L};
+    for (long itemID1 : itemIDs) {
+      for (long itemID2 : itemIDs) {
+        assertEquals(expected.itemSimilarity(itemID1, itemID2), similarity.itemSimilarity(itemID1, itemID2),
+                     EPSILON);
+      }
+      double[] expectedSimilarities = expected.itemSimilarities(itemID1, itemIDs);
+      double[] similarities = similarity.itemSimilarities(itemID1, itemIDs);
+      for (int i = 0; i < itemIDs.length; i++) {
+        assertEquals(expectedSimilarities[i], similarities[i], EPSILON);
+      }
+      long[] expectedSimilarItemIDs = expected.allSimilarItemIDs(itemID1);
+      long[] similarItemIDs = similarity.allSimilarItemIDs(itemID1);
+      Arrays.sort(expectedSimilarItemIDs);
+      assertArrayEquals(expectedSimilarItemIDs, similarItemIDs);
+    }
+  }
+
+  @Test
+  public void testWrittenBySimilarItemsWriter() throws Exception {
+    File binaryFile = getTestTempFile("written.bin");
+    BinarySimilarItemsWriter writer = new BinarySimilarItemsWriter(binaryFile);
+    writer.open();
+    writer.add(new SimilarItems(20L, recommendedItems(new long[] {31L, 12L, 40L}, new float[] {0.9f, 0.8f, 0.1f})));
+    writer.add(new SimilarItems(12L, recommendedItems(new long[] {20L}, new float[] {0.8f})));
+    writer.add(new SimilarItems(40L, recommendedItems(new long[0], new float[0])));
+    writer.add(3L, new long[] {7L, 5L, 7L}, new float[] {0.3f, 0.2f, 0.4f});
+    writer.close();
+
+    ItemSimilarity similarity = new MemoryMappedItemSimilarity(binaryFile);
+    assertEquals(0.9, similarity.itemSimilarity(20L, 31L), EPSILON);
+    assertEquals(0.9, similarity.itemSimilarity(31L, 20L), EPSILON);
+    assertEquals(0.8, similarity.itemSimilarity(12L, 20L), EPSILON);
+    assertEquals(0.1, similarity.itemSimilarity(40L, 20L), EPSILON);
+    assertTrue(Double.isNaN(similarity.itemSimilarity(31L, 12L)));
+    assertTrue(Double.isNaN(similarity.itemSimilarity(99L, 20L)));
+    assertEquals(0.4, similarity.itemSimilarity(3L, 7L), EPSILON);
+    assertEquals(0.2, similarity.itemSimilarity(3L, 5L), EPSILON);
+    assertArrayEquals(new long[] {12L, 31L, 40L}, similarity.allSimilarItemIDs(20L));
+    assertArrayEquals(new long[] {5L, 7L}, similarity.allSimilarItemIDs(3L));
+    assertEquals(0, similarity.allSimilarItemIDs(40L).length);
+    assertEquals(0, similarity.allSimilarItemIDs(31L).length);
+  }
+
+  @Test
+  public void testRefresh() throws Exception {
+    File textFile = getTestTempFile("data.txt");
+    writeLines(textFile, DATA);
+    File binaryFile = getTestTempFile("refreshed.bin");
+    MemoryMappedItemSimilarity.convert(textFile, binaryFile);
+    ItemSimilarity similarity = new MemoryMappedItemSimilarity(binaryFile);
+    assertEquals(0.5, similarity.itemSimilarity(1L, 7L), EPSILON);
+
+    writeLines(textFile, "1,7,0.75");
+    File newBinaryFile = getTestTempFile("new.bin");
+    MemoryMappedItemSimilarity.convert(textFile, newBinaryFile);
+    assertTrue(binaryFile.delete());
+    assertTrue(newBinaryFile.renameTo(binaryFile));
+    binaryFile.setLastModified(System.currentTimeMillis() + 10000L);
+    similarity.refresh(null);
+    assertEquals(0.75, similarity.itemSimilarity(1L, 7L), EPSILON);
+    assertTrue(Double.isNaN(similarity.itemSimilarity(1L, 5L)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotBinaryFile() throws Exception {
+    File textFile = getTestTempFile("text.txt");
+    writeLines(textFile, DATA);
+    new MemoryMappedItemSimilarity(textFile);
+  }
+
+  private static List<RecommendedItem> recommendedItems(long[] itemIDs, float[] values) {
+    List<RecommendedItem> items = Lists.newArrayList();
+    for (int i = 0; i < itemIDs.length; i++) {
+      items.add(new GenericRecommendedItem(itemIDs[i], values[i]));
+    }
+    return items;
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity.precompute;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItem;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItems;
+import org.apache.mahout.cf.taste.similarity.precompute.SimilarItemsWriter;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.LoglikelihoodSimilarity;
+import org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.VectorSimilarityMeasure;
+import org.junit.Test;
+
+public final class InvertedIndexBatchItemSimilaritiesTest extends TasteTestCase {
+
+  @Test
+  public void testMatchesMostSimilarItems() throws Exception {
+    DataModel dataModel = getRandomDataModel(60, 40, 0.2);
+    assertMatchesMostSimilarItems(dataModel, new LogLikelihoodSimilarity(dataModel), new LoglikelihoodSimilarity());
+    assertMatchesMostSimilarItems(dataModel, new TanimotoCoefficientSimilarity(dataModel),
+        new org.apache.mahout.math.hadoop.similarity.cooccurrence.measures.TanimotoCoefficientSimilarity());
+  }
+
+  @Test
+  public void testSamplesHeavyUsers() throws Exception {
+    DataModel dataModel = getRandomDataModel(20, 50, 0.8);
+    ItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new LogLikelihoodSimilarity(dataModel));
+    FastByIDMap<SimilarItems> results = compute(
+        new InvertedIndexBatchItemSimilarities(recommender, new LoglikelihoodSimilarity(), 5, 3), 2);
+    assertEquals(dataModel.getNumItems(), results.size());
+    for (SimilarItems similarItems : results.values()) {
+      assertTrue(similarItems.numSimilarItems() <= 5);
+      for (SimilarItem similarItem : similarItems.getSimilarItems()) {
+        assertTrue(similarItem.getItemID() != similarItems.getItemID());
+      }
+    }
+  }
+
+  private static void assertMatchesMostSimilarItems(DataModel dataModel,
+                                                    ItemSimilarity similarity,
+                                                    VectorSimilarityMeasure measure) throws Exception {
+    ItemBasedRecommender recommender = new GenericItemBasedRecommender(dataModel, similarity);
+    FastByIDMap<SimilarItems> results = compute(new InvertedIndexBatchItemSimilarities(recommender, measure, 10), 3);
+    assertEquals(dataModel.getNumItems(), results.size());
+    LongPrimitiveIterator itemIDs = dataModel.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      List<RecommendedItem> expected = recommender.mostSimilarItems(itemID, 10);
+      List<SimilarItem> actual = Lists.newArrayList(results.get(itemID).getSimilarItems());
+      assertEquals(expected.size(), actual.size());
+      // Ties may be broken differently, so only compare similarities rank by rank
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getValue(), actual.get(i).getSimilarity(), EPSILON);
+      }
+    }
+  }
+
+  private static FastByIDMap<SimilarItems> compute(InvertedIndexBatchItemSimilarities batch, int numThreads)
+    throws Exception {
+    final FastByIDMap<SimilarItems> results = new FastByIDMap<SimilarItems>();
+    batch.computeItemSimilarities(numThreads, 1, new SimilarItemsWriter() {
+      @Override
+      public void open() {}
+
+      @Override
+      public void add(SimilarItems similarItems) {
+        assertNull(results.put(similarItems.getItemID(), similarItems));
+      }
+
+      @Override
+      public void close() {}
+    });
+    return results;
+  }
+
+}
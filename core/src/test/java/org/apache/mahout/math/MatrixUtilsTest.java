@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.random.MultiNormal;
+import org.junit.Test;
+
+public final class MatrixUtilsTest extends MahoutTestCase {
+
+  @Test
+  public void testReadOffHeap() throws Exception {
+    Configuration conf = getConfiguration();
+    Matrix dense = new DenseMatrix(50, 8);
+    MultiNormal gen = new MultiNormal(8);
+    for (MatrixSlice row : dense) {
+      row.vector().assign(gen.sample());
+    }
+    // Sparse rows, and a row missing altogether, are read too
+    Matrix sparse = new SparseRowMatrix(20, 8);
+    sparse.set(3, 5, 2.5);
+    sparse.set(17, 0, -1.0);
+    Path densePath = getTestTempFilePath("dense");
+    Path sparsePath = getTestTempFilePath("sparse");
+    MatrixUtils.write(densePath, conf, dense);
+    MatrixUtils.write(sparsePath, conf, sparse.viewPart(0, 18, 0, 8));
+
+    Matrix offHeap = MatrixUtils.readOffHeap(conf, densePath);
+    assertEquals(50, offHeap.rowSize());
+    assertEquals(8, offHeap.columnSize());
+    assertEquals(0.0, dense.minus(offHeap).aggregate(Functions.MAX, Functions.ABS), 0.0);
+
+    File file = new File(getTestTempDir(), "mapped");
+    Matrix mapped = MatrixUtils.readMapped(file, conf, sparsePath);
+    assertEquals(18, mapped.rowSize());
+    assertEquals(0.0, sparse.viewPart(0, 18, 0, 8).minus(mapped).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    Matrix remapped = DoubleBufferMatrix.map(file, 18, 8, false, false);
+    assertEquals(2.5, remapped.get(3, 5), 0.0);
+    assertEquals(-1.0, remapped.get(17, 0), 0.0);
+  }
+
+}
@@ -88,6 +88,34 @@ public final class VectorWritableTest extends RandomizedTest {
     doTestVectorWritableEquals(v);
   }
 
+  @Test
+  @Repeat(iterations = 20)
+  public void testFloatVectorWritable() throws Exception {
+    for (Vector v : new Vector[] {new DenseFloatVector(MAX_VECTOR_SIZE),
+        new SequentialAccessSparseFloatVector(MAX_VECTOR_SIZE), new RandomAccessSparseFloatVector(MAX_VECTOR_SIZE)}) {
+      createRandom(v);
+      // Written as floats without asking, as no precision is lost
+      doTestVectorWritableEquals(v);
+      VectorWritable floatsRead = new VectorWritable();
+      floatsRead.setReadsFloatVectors(true);
+      writeAndRead(new VectorWritable(v), floatsRead);
+      assertSame(v.getClass(), floatsRead.get().getClass());
+      assertEquals(v, floatsRead.get());
+    }
+  }
+
+  @Test
+  public void testReadsFloatVectorsOnlyWhenLax() throws Exception {
+    Vector v = new DenseVector(new double[] {0.1, 0.2});
+    VectorWritable floatsRead = new VectorWritable();
+    floatsRead.setReadsFloatVectors(true);
+    writeAndRead(new VectorWritable(v), floatsRead);
+    assertTrue(floatsRead.get() instanceof DenseVector);
+    writeAndRead(new VectorWritable(v, true), floatsRead);
+    assertTrue(floatsRead.get() instanceof DenseFloatVector);
+    assertEquals((float) 0.1, floatsRead.get().get(0), 0.0);
+  }
+
   private static void doTestVectorWritableEquals(Vector v) throws IOException {
     Writable vectorWritable = new VectorWritable(v);
     VectorWritable vectorWritable2 = new VectorWritable();
@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -43,6 +44,7 @@ import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.model.JDBCDataModel;
+import org.apache.mahout.cf.taste.model.PrefetchingDataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.common.IOUtils;
@@ -69,8 +71,18 @@ import com.google.common.base.Preconditions;
  * container, you can use packages like Jakarta's <a href="http://jakarta.apache.org/commons/dbcp/">DBCP</a>
  * to create a {@link DataSource} on top of your database whose {@link Connection}s are pooled.
  * </p>
+ *
+ * <p>
+ * Each read is one query, and so one round-trip to the database. Where many users' or items' preferences will
+ * be needed, {@link #getPreferencesFromUsers(FastIDSet)} and {@link #getPreferencesForItems(FastIDSet)} fetch
+ * them in a few batched queries instead. Reads of the same users and items can also be served from memory by
+ * turning on a {@link #setPreferenceCacheSize(int) preference cache}, which batched fetches fill. Recommenders
+ * which know the users or items they are about to read prefetch them this way, through
+ * {@link PrefetchingDataModel}, when the cache is on.
+ * </p>
  */
-public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implements JDBCDataModel {
+public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent
+    implements JDBCDataModel, PrefetchingDataModel {
 
   private static final Logger log = LoggerFactory.getLogger(AbstractJDBCDataModel.class);
 
@@ -80,6 +92,10 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   public static final String DEFAULT_PREFERENCE_COLUMN = "preference";
   public static final String DEFAULT_PREFERENCE_TIME_COLUMN = "timestamp";
 
+  /** Most IDs fetched by one batched query. */
+  public static final int MAX_BATCH_SIZE = 256;
+  private static final int MIN_BATCH_SIZE = 8;
+
   private final DataSource dataSource;
   private final String preferenceTable;
   private final String userIDColumn;
@@ -103,6 +119,14 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   private int cachedNumUsers;
   private int cachedNumItems;
   private final Cache<Long,Integer> itemPrefCounts;
+  private volatile Cache<Long,PreferenceArray> userPrefsCache;
+  private volatile Cache<Long,PreferenceArray> itemPrefsCache;
+  private volatile int prefsCacheSize;
+  /** Guards {@link #prefsCacheGeneration}, and the batch fetches' writes to the preference caches */
+  private final Object prefsCacheLock = new Object();
+  /** Counts changes which dropped cached preferences, so that batch fetches racing with one don't cache them */
+  private long prefsCacheGeneration;
+  private int exportFetchSize;
   private float maxPreference;
   private float minPreference;
 
@@ -250,6 +274,42 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     return setPreferenceSQL;
   }
 
+  /**
+   * <p>
+   * Caches the preferences of up to {@code maxEntries} users, and as many items, as they are read, so that
+   * reading them again does not query the database. Cached preferences of a user and an item are dropped when
+   * this model sets or removes a preference between them, and all are dropped on
+   * {@link #refresh(Collection)}. Changes made to the database by anything else are only seen after a refresh.
+   * </p>
+   *
+   * @param maxEntries
+   *          most users, and most items, to cache, or 0 to turn caching off, which is the default
+   */
+  public void setPreferenceCacheSize(int maxEntries) {
+    Preconditions.checkArgument(maxEntries >= 0, "maxEntries must not be negative: %s", maxEntries);
+    if (maxEntries == 0) {
+      userPrefsCache = null;
+      itemPrefsCache = null;
+    } else {
+      userPrefsCache = new Cache<Long,PreferenceArray>(new UserPrefsRetriever(), maxEntries);
+      itemPrefsCache = new Cache<Long,PreferenceArray>(new ItemPrefsRetriever(), maxEntries);
+    }
+    prefsCacheSize = maxEntries;
+  }
+
+  /**
+   * Sets the fetch size for {@link #exportWithPrefs()} and {@link #exportWithIDsOnly()}, which read the whole
+   * table through one cursor: larger values mean fewer round-trips, and smaller ones less memory held by the
+   * driver. 0, the default, uses the same fetch size as all other queries.
+   */
+  public void setExportFetchSize(int exportFetchSize) {
+    this.exportFetchSize = exportFetchSize;
+  }
+
+  protected int getExportFetchSize() {
+    return exportFetchSize == 0 ? getFetchSize() : exportFetchSize;
+  }
+
   @Override
   public LongPrimitiveIterator getUserIDs() throws TasteException {
     log.debug("Retrieving all users...");
@@ -266,6 +326,11 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
    */
   @Override
   public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    Cache<Long,PreferenceArray> cache = userPrefsCache;
+    return cache == null ? doGetPreferencesFromUser(userID) : cache.get(userID);
+  }
+
+  private PreferenceArray doGetPreferencesFromUser(long userID) throws TasteException {
 
     log.debug("Retrieving user ID '{}'", userID);
 
@@ -313,11 +378,18 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
     FastByIDMap<PreferenceArray> result = new FastByIDMap<PreferenceArray>();
 
+    boolean autoCommit = false;
     try {
       conn = dataSource.getConnection();
+      autoCommit = conn.getAutoCommit();
+      if (autoCommit) {
+        // Some drivers, like PostgreSQL's, only read a result through a cursor, a batch at a time, in a
+        // transaction; otherwise the whole table is read into memory at once
+        conn.setAutoCommit(false);
+      }
       stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
       stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
-      stmt.setFetchSize(getFetchSize());
+      stmt.setFetchSize(getExportFetchSize());
 
       log.debug("Executing SQL query: {}", getAllUsersSQL);
       rs = stmt.executeQuery(getAllUsersSQL);
@@ -343,8 +415,9 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
       log.warn("Exception while exporting all data", sqle);
       throw new TasteException(sqle);
     } finally {
-      IOUtils.quietClose(rs, stmt, conn);
-
+      IOUtils.quietClose(rs, stmt, null);
+      restoreAutoCommit(conn, autoCommit);
+      IOUtils.quietClose(conn);
     }
   }
 
@@ -358,11 +431,18 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
     FastByIDMap<FastIDSet> result = new FastByIDMap<FastIDSet>();
 
+    boolean autoCommit = false;
     try {
       conn = dataSource.getConnection();
+      autoCommit = conn.getAutoCommit();
+      if (autoCommit) {
+        // Some drivers, like PostgreSQL's, only read a result through a cursor, a batch at a time, in a
+        // transaction; otherwise the whole table is read into memory at once
+        conn.setAutoCommit(false);
+      }
       stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
       stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
-      stmt.setFetchSize(getFetchSize());
+      stmt.setFetchSize(getExportFetchSize());
 
       log.debug("Executing SQL query: {}", getAllUsersSQL);
       rs = stmt.executeQuery(getAllUsersSQL);
@@ -390,8 +470,19 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
       log.warn("Exception while exporting all data", sqle);
       throw new TasteException(sqle);
     } finally {
-      IOUtils.quietClose(rs, stmt, conn);
+      IOUtils.quietClose(rs, stmt, null);
+      restoreAutoCommit(conn, autoCommit);
+      IOUtils.quietClose(conn);
+    }
+  }
 
+  private static void restoreAutoCommit(Connection conn, boolean autoCommit) {
+    if (conn != null && autoCommit) {
+      try {
+        conn.setAutoCommit(true);
+      } catch (SQLException sqle) {
+        log.warn("Unexpected exception while restoring auto-commit; continuing...", sqle);
+      }
     }
   }
 
@@ -402,6 +493,17 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   @Override
   public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
 
+    Cache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      PreferenceArray prefs = cache.get(userID);
+      int length = prefs.length();
+      FastIDSet result = new FastIDSet(length);
+      for (int i = 0; i < length; i++) {
+        result.add(prefs.getItemID(i));
+      }
+      return result;
+    }
+
     log.debug("Retrieving items for user ID '{}'", userID);
 
     Connection conn = null;
@@ -440,6 +542,22 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
   @Override
   public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Cache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      PreferenceArray prefs;
+      try {
+        prefs = cache.get(userID);
+      } catch (NoSuchUserException nsue) {
+        return null;
+      }
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        if (prefs.getItemID(i) == itemID) {
+          return prefs.getValue(i);
+        }
+      }
+      return null;
+    }
     log.debug("Retrieving preferences for item ID '{}'", itemID);
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -511,6 +629,10 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
   @Override
   public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    Cache<Long,PreferenceArray> cache = itemPrefsCache;
+    if (cache != null) {
+      return cache.get(itemID);
+    }
     List<Preference> list = doGetPreferencesForItem(itemID);
     if (list.isEmpty()) {
       throw new NoSuchItemException(itemID);
@@ -564,14 +686,254 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    // Counted by the database, rather than by reading and caching all of the item's preferences
     return itemPrefCounts.get(itemID);
   }
 
   @Override
   public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    if (itemPrefsCache != null) {
+      PreferenceArray prefs1 = getCachedPreferencesForItem(itemID1);
+      PreferenceArray prefs2 = getCachedPreferencesForItem(itemID2);
+      if (prefs1.length() > prefs2.length()) {
+        PreferenceArray temp = prefs1;
+        prefs1 = prefs2;
+        prefs2 = temp;
+      }
+      int length1 = prefs1.length();
+      FastIDSet userIDs1 = new FastIDSet(length1);
+      for (int i = 0; i < length1; i++) {
+        userIDs1.add(prefs1.getUserID(i));
+      }
+      int length2 = prefs2.length();
+      int count = 0;
+      for (int i = 0; i < length2; i++) {
+        if (userIDs1.contains(prefs2.getUserID(i))) {
+          count++;
+        }
+      }
+      return count;
+    }
     return getNumThings("user preferring items", getNumPreferenceForItemsSQL, itemID1, itemID2);
   }
 
+  private PreferenceArray getCachedPreferencesForItem(long itemID) throws TasteException {
+    try {
+      return getPreferencesForItem(itemID);
+    } catch (NoSuchItemException nsie) {
+      return new GenericItemPreferenceArray(0);
+    }
+  }
+
+  /**
+   * <p>
+   * Fetches the preferences of many users at once, with one query per batch of up to {@link #MAX_BATCH_SIZE}
+   * users instead of one query per user. If preferences are cached, the fetched ones are cached too, so this can
+   * be used to load the cache ahead of a series of single reads.
+   * </p>
+   *
+   * @return preferences of those users who have any, by user ID
+   */
+  public FastByIDMap<PreferenceArray> getPreferencesFromUsers(FastIDSet userIDs) throws TasteException {
+    return getPreferencesForIDs(userIDs, true);
+  }
+
+  /**
+   * <p>
+   * Fetches the preferences for many items at once, with one query per batch of up to {@link #MAX_BATCH_SIZE}
+   * items instead of one query per item. If preferences are cached, the fetched ones are cached too, so this can
+   * be used to load the cache ahead of a series of single reads, such as those made to compute the similarity
+   * of many items.
+   * </p>
+   *
+   * @return preferences for those items which have any, by item ID
+   */
+  public FastByIDMap<PreferenceArray> getPreferencesForItems(FastIDSet itemIDs) throws TasteException {
+    return getPreferencesForIDs(itemIDs, false);
+  }
+
+  /**
+   * Fetches, in batches, the preferences of those of the given users which aren't cached yet. Does nothing
+   * unless {@link #setPreferenceCacheSize(int) preferences are cached}, since they couldn't be kept.
+   */
+  @Override
+  public void prefetchPreferencesFromUsers(FastIDSet userIDs) throws TasteException {
+    prefetch(userIDs, true);
+  }
+
+  /**
+   * Fetches, in batches, the preferences for those of the given items which aren't cached yet. Does nothing
+   * unless {@link #setPreferenceCacheSize(int) preferences are cached}, since they couldn't be kept.
+   */
+  @Override
+  public void prefetchPreferencesForItems(FastIDSet itemIDs) throws TasteException {
+    prefetch(itemIDs, false);
+  }
+
+  private void prefetch(FastIDSet ids, boolean byUser) throws TasteException {
+    Preconditions.checkArgument(ids != null, "ids is null");
+    Cache<Long,PreferenceArray> cache = byUser ? userPrefsCache : itemPrefsCache;
+    if (cache == null || getPreferencesForIDsSQL(byUser, MIN_BATCH_SIZE) == null) {
+      return;
+    }
+    // Fetching more than the cache holds would only evict what was just fetched
+    int maxToFetch = prefsCacheSize;
+    FastIDSet uncachedIDs = new FastIDSet();
+    LongPrimitiveIterator it = ids.iterator();
+    while (it.hasNext() && uncachedIDs.size() < maxToFetch) {
+      long id = it.nextLong();
+      if (!cache.containsKey(id)) {
+        uncachedIDs.add(id);
+      }
+    }
+    if (!uncachedIDs.isEmpty()) {
+      getPreferencesForIDs(uncachedIDs, byUser);
+    }
+  }
+
+  private FastByIDMap<PreferenceArray> getPreferencesForIDs(FastIDSet ids, boolean byUser) throws TasteException {
+    Preconditions.checkArgument(ids != null, "ids is null");
+    long[] idArray = ids.toArray();
+    FastByIDMap<PreferenceArray> result = new FastByIDMap<PreferenceArray>(idArray.length);
+    if (getPreferencesForIDsSQL(byUser, MIN_BATCH_SIZE) == null) {
+      // No batched query for this model; fall back to one query per ID
+      for (long id : idArray) {
+        try {
+          result.put(id, byUser ? getPreferencesFromUser(id) : getPreferencesForItem(id));
+        } catch (NoSuchUserException nsue) {
+          // continue
+        } catch (NoSuchItemException nsie) {
+          // continue
+        }
+      }
+      return result;
+    }
+
+    log.debug("Retrieving preferences for {} {}", idArray.length, byUser ? "users" : "items");
+    long generation;
+    synchronized (prefsCacheLock) {
+      generation = prefsCacheGeneration;
+    }
+    Connection conn = null;
+    try {
+      conn = dataSource.getConnection();
+      for (int start = 0; start < idArray.length; start += MAX_BATCH_SIZE) {
+        int size = Math.min(MAX_BATCH_SIZE, idArray.length - start);
+        fetchBatch(conn, idArray, start, size, byUser, result);
+      }
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving preferences", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(conn);
+    }
+
+    Cache<Long,PreferenceArray> cache = byUser ? userPrefsCache : itemPrefsCache;
+    if (cache != null) {
+      synchronized (prefsCacheLock) {
+        // Rows read before a preference changed may be stale: return them, but don't cache them
+        if (prefsCacheGeneration == generation) {
+          for (Map.Entry<Long,PreferenceArray> entry : result.entrySet()) {
+            cache.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private void fetchBatch(Connection conn,
+                          long[] ids,
+                          int start,
+                          int size,
+                          boolean byUser,
+                          FastByIDMap<PreferenceArray> result) throws SQLException {
+    // Round the number of parameters up, repeating the last ID, so that only a few distinct statements are ever
+    // prepared, and these can be pooled
+    int numParameters = MIN_BATCH_SIZE;
+    while (numParameters < size) {
+      numParameters <<= 1;
+    }
+    String sql = getPreferencesForIDsSQL(byUser, numParameters);
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(getFetchSize());
+      for (int i = 0; i < numParameters; i++) {
+        setLongParameter(stmt, i + 1, ids[start + Math.min(i, size - 1)]);
+      }
+
+      log.debug("Executing SQL query: {}", sql);
+      rs = stmt.executeQuery();
+
+      boolean currentIDSet = false;
+      long currentID = 0L; // value isn't used
+      List<Preference> currentPrefs = Lists.newArrayList();
+      while (rs.next()) {
+        Preference pref = buildPreference(rs);
+        long nextID = byUser ? pref.getUserID() : pref.getItemID();
+        if (currentIDSet && currentID != nextID) {
+          result.put(currentID, toPreferenceArray(currentPrefs, byUser));
+          currentPrefs.clear();
+        }
+        currentPrefs.add(pref);
+        currentID = nextID;
+        currentIDSet = true;
+      }
+      if (!currentPrefs.isEmpty()) {
+        result.put(currentID, toPreferenceArray(currentPrefs, byUser));
+      }
+    } finally {
+      IOUtils.quietClose(rs, stmt, null);
+    }
+  }
+
+  private static PreferenceArray toPreferenceArray(List<Preference> prefs, boolean byUser) {
+    // Arrays are cached and merge-joined by similarities, so must be sorted by the other ID whatever order the
+    // query returned rows in
+    PreferenceArray array;
+    if (byUser) {
+      array = new GenericUserPreferenceArray(prefs);
+      array.sortByItem();
+    } else {
+      array = new GenericItemPreferenceArray(prefs);
+      array.sortByUser();
+    }
+    return array;
+  }
+
+  /**
+   * Builds the query used to fetch preferences in batches: it must select the same columns as the query for
+   * one user's preferences, for those distinct preferences whose user ID, or item ID, is any of the given
+   * number of parameters, ordered by that ID and then by the other ID. This default builds it from the table
+   * and column names this model was given. Subclasses whose queries use other tables should override it, or
+   * return {@code null} to fetch one ID at a time.
+   *
+   * @param byUser
+   *          true to select by user ID, false by item ID
+   * @param numIDs
+   *          number of ID parameters
+   */
+  protected String getPreferencesForIDsSQL(boolean byUser, int numIDs) {
+    String idColumn = byUser ? userIDColumn : itemIDColumn;
+    String otherIDColumn = byUser ? itemIDColumn : userIDColumn;
+    StringBuilder sql = new StringBuilder(100 + 2 * numIDs);
+    sql.append("SELECT DISTINCT ").append(userIDColumn).append(", ").append(itemIDColumn);
+    if (hasPreferenceValues()) {
+      sql.append(", ").append(preferenceColumn);
+    }
+    sql.append(" FROM ").append(preferenceTable).append(" WHERE ").append(idColumn).append(" IN (");
+    for (int i = 0; i < numIDs; i++) {
+      if (i > 0) {
+        sql.append(',');
+      }
+      sql.append('?');
+    }
+    return sql.append(") ORDER BY ").append(idColumn).append(", ").append(otherIDColumn).toString();
+  }
+
   private int getNumThings(String name, String sql, long... args) throws TasteException {
     log.debug("Retrieving number of {} in model", name);
     Connection conn = null;
@@ -618,6 +980,7 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
       log.debug("Executing SQL update: {}", setPreferenceSQL);
       stmt.executeUpdate();
+      preferenceChanged(userID, itemID);
 
     } catch (SQLException sqle) {
       log.warn("Exception while setting preference", sqle);
@@ -643,6 +1006,7 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
 
       log.debug("Executing SQL update: {}", removePreferenceSQL);
       stmt.executeUpdate();
+      preferenceChanged(userID, itemID);
 
     } catch (SQLException sqle) {
       log.warn("Exception while removing preference", sqle);
@@ -652,6 +1016,25 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     }
   }
 
+  /**
+   * Drops anything cached about a user and an item whose preference was just set or removed. Subclasses which
+   * override {@link #setPreference(long, long, float)} or {@link #removePreference(long, long)} must call this.
+   */
+  protected final void preferenceChanged(long userID, long itemID) {
+    itemPrefCounts.remove(itemID);
+    synchronized (prefsCacheLock) {
+      prefsCacheGeneration++;
+      Cache<Long,PreferenceArray> cache = userPrefsCache;
+      if (cache != null) {
+        cache.remove(userID);
+      }
+      cache = itemPrefsCache;
+      if (cache != null) {
+        cache.remove(itemID);
+      }
+    }
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     cachedNumUsers = -1;
@@ -659,6 +1042,17 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     minPreference = Float.NaN;
     maxPreference = Float.NaN;
     itemPrefCounts.clear();
+    synchronized (prefsCacheLock) {
+      prefsCacheGeneration++;
+      Cache<Long,PreferenceArray> cache = userPrefsCache;
+      if (cache != null) {
+        cache.clear();
+      }
+      cache = itemPrefsCache;
+      if (cache != null) {
+        cache.clear();
+      }
+    }
   }
 
   @Override
@@ -775,6 +1169,24 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     }
   }
 
+  private final class UserPrefsRetriever implements Retriever<Long,PreferenceArray> {
+    @Override
+    public PreferenceArray get(Long userID) throws TasteException {
+      return doGetPreferencesFromUser(userID);
+    }
+  }
+
+  private final class ItemPrefsRetriever implements Retriever<Long,PreferenceArray> {
+    @Override
+    public PreferenceArray get(Long itemID) throws TasteException {
+      List<Preference> list = doGetPreferencesForItem(itemID);
+      if (list.isEmpty()) {
+        throw new NoSuchItemException(itemID);
+      }
+      return new GenericItemPreferenceArray(list);
+    }
+  }
+
   private final class ItemPrefCountRetriever implements Retriever<Long,Integer> {
     private final String getNumPreferenceForItemSQL;
 
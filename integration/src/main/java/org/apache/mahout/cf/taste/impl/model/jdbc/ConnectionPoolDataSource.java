@@ -29,13 +29,16 @@ import javax.sql.DataSource;
 import org.apache.commons.dbcp.ConnectionFactory;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
 import com.google.common.base.Preconditions;
 
 /**
  * <p>
- * A wrapper {@link DataSource} which pools connections.
+ * A wrapper {@link DataSource} which pools connections, and the statements prepared on each connection.
  * </p>
  */
 public final class ConnectionPoolDataSource implements DataSource {
@@ -50,8 +53,11 @@ public final class ConnectionPoolDataSource implements DataSource {
     objectPool.setTestOnReturn(false);
     objectPool.setTestWhileIdle(true);
     objectPool.setTimeBetweenEvictionRunsMillis(60 * 1000L);
+    // Also pool each connection's prepared statements, since the same few queries are prepared over and over
+    KeyedObjectPoolFactory statementPoolFactory =
+        new GenericKeyedObjectPoolFactory(null, -1, GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, 0L, 1);
     // Constructor actually sets itself as factory on pool
-    new PoolableConnectionFactory(connectionFactory, objectPool, null, "SELECT 1", false, false);
+    new PoolableConnectionFactory(connectionFactory, objectPool, statementPoolFactory, "SELECT 1", false, false);
     delegate = new PoolingDataSource(objectPool);
   }
   
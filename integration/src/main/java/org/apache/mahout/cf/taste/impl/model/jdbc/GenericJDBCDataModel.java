@@ -121,6 +121,15 @@ public final class GenericJDBCDataModel extends AbstractJDBCDataModel {
         .getResourceAsStream(resourcePath)));
   }
   
+  /**
+   * @return null, since the queries given to this model may not read the default table and columns; batched
+   *  fetches are done one ID at a time
+   */
+  @Override
+  protected String getPreferencesForIDsSQL(boolean byUser, int numIDs) {
+    return null;
+  }
+
   private static Properties getPropertiesFromFile(File file) throws TasteException {
     try {
       return getPropertiesFromStream(new FileInputStream(file));
@@ -133,6 +133,7 @@ public class PostgreSQLBooleanPrefJDBCDataModel extends SQL92BooleanPrefJDBCData
       setLongParameter(stmt, 2, itemID);
       log.debug("Executing SQL update: {}", setPreferenceSQL);
       stmt.executeUpdate();
+      preferenceChanged(userID, itemID);
     } catch (SQLException sqle) {
       if (!POSTGRESQL_DUPLICATE_KEY_STATE.equals(sqle.getSQLState())) {
         log.warn("Exception while setting preference", sqle);
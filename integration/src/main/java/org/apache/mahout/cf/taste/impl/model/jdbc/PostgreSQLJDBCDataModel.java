@@ -158,6 +158,7 @@ public class PostgreSQLJDBCDataModel extends SQL92JDBCDataModel {
 
       log.debug("Executing SQL update: {}", getUpdatePreferenceSQL());
       stmt2.executeUpdate();
+      preferenceChanged(userID, itemID);
 
     } catch (SQLException sqle) {
       log.warn("Exception while setting preference", sqle);
@@ -38,12 +38,18 @@ import java.util.concurrent.Callable;
  * A {@link DataModel} which loads, and can re-load, data from a JDBC-backed {@link JDBCDataModel} into memory, as a
  * {@link GenericDataModel} or {@link GenericBooleanPrefDataModel}. It is intended to provide the speed
  * advantage of in-memory representation but be able to update periodically to pull in new data from a database source.
+ *
+ * <p>
+ * Data is read through one cursor over the whole table, a batch of rows at a time. With an
+ * {@link AbstractJDBCDataModel} delegate, the size of these batches can be set, to trade the number of round-trips
+ * to the database against memory held by the driver.
+ * </p>
  */
 public final class ReloadFromJDBCDataModel implements DataModel {
 
   private static final Logger log = LoggerFactory.getLogger(ReloadFromJDBCDataModel.class);
 
-  private DataModel delegateInMemory;
+  private volatile DataModel delegateInMemory;
   private final JDBCDataModel delegate;
   private final RefreshHelper refreshHelper;
 
@@ -63,6 +69,21 @@ public final class ReloadFromJDBCDataModel implements DataModel {
     }
   }
 
+  /**
+   * @param fetchSize
+   *          rows to read from the database at once while loading; see
+   *          {@link AbstractJDBCDataModel#setExportFetchSize(int)}
+   */
+  public ReloadFromJDBCDataModel(AbstractJDBCDataModel delegate, int fetchSize) throws TasteException {
+    this(withExportFetchSize(delegate, fetchSize));
+  }
+
+  private static JDBCDataModel withExportFetchSize(AbstractJDBCDataModel delegate, int fetchSize) {
+    Preconditions.checkNotNull(delegate);
+    delegate.setExportFetchSize(fetchSize);
+    return delegate;
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
@@ -233,6 +233,7 @@ public class SQL92JDBCDataModel extends AbstractJDBCDataModel {
         log.debug("Executing SQL update: {}", setPreferenceSQL);
         stmt3.executeUpdate();
       }
+      preferenceChanged(userID, itemID);
     } catch (SQLException sqle) {
       log.warn("Exception while setting preference", sqle);
       throw new TasteException(sqle);
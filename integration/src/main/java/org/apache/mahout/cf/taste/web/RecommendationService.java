@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastMap;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Serves recommendations from a {@link Recommender} so that response times stay bounded under bursts of load.
+ * </p>
+ *
+ * <ul>
+ * <li>Recommendations are computed on a fixed pool of threads with a bounded queue. When the queue is full,
+ * requests are refused at once instead of piling up.</li>
+ * <li>Identical requests -- same user and number of items -- that arrive while one is being computed wait for
+ * and share its result rather than computing it again.</li>
+ * <li>Each request has a deadline. If its recommendations are not ready by then, or cannot even be queued, it
+ * gets the last recommendations computed for the same request, if any, as a fallback. The computation still
+ * finishes in the background, and its result serves later requests.</li>
+ * <li>Results may be reused for a while without recomputing them at all.</li>
+ * </ul>
+ */
+public final class RecommendationService {
+
+  private static final Logger log = LoggerFactory.getLogger(RecommendationService.class);
+
+  /** How a {@link Result} was arrived at. */
+  public enum Status {
+    /** Computed for this request, or for an identical one in flight, before the deadline. */
+    COMPUTED,
+    /** Reused from an earlier request, without recomputing, since it was recent enough. */
+    CACHED,
+    /** Not computed in time; the items are those last computed for the same request, or none. */
+    FALLBACK,
+    /**
+     * Refused, since as many requests as can be queued were waiting already; the items are those last computed
+     * for the same request, or none.
+     */
+    REJECTED
+  }
+
+  /** Recommendations served for one request. */
+  public static final class Result {
+
+    private final List<RecommendedItem> items;
+    private final Status status;
+
+    Result(List<RecommendedItem> items, Status status) {
+      this.items = items;
+      this.status = status;
+    }
+
+    public List<RecommendedItem> getItems() {
+      return items;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    @Override
+    public String toString() {
+      return "Result[status:" + status + ", items:" + items + ']';
+    }
+
+  }
+
+  private final Recommender recommender;
+  private final ThreadPoolExecutor executor;
+  private final long timeoutMillis;
+  private final long maxAgeMillis;
+  private final ConcurrentMap<Request,FutureTask<List<RecommendedItem>>> inFlight;
+  private final FastMap<Request,TimedResult> lastResults;
+  private final AtomicLong numFallbacks;
+  private final AtomicLong numRejected;
+
+  /**
+   * @param recommender
+   *          recommender to serve
+   * @param numThreads
+   *          threads computing recommendations
+   * @param queueCapacity
+   *          most requests which may wait for a thread; any more get a fallback right away
+   * @param timeoutMillis
+   *          deadline for each request, after which it gets a fallback
+   * @param maxAgeMillis
+   *          how long results may be reused without recomputing them, or 0 to always recompute
+   * @param maxCachedResults
+   *          most results kept, for reuse and as fallbacks
+   */
+  public RecommendationService(Recommender recommender,
+                               int numThreads,
+                               int queueCapacity,
+                               long timeoutMillis,
+                               long maxAgeMillis,
+                               int maxCachedResults) {
+    Preconditions.checkArgument(recommender != null, "recommender is null");
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be at least 1: %s", numThreads);
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be at least 1: %s", queueCapacity);
+    Preconditions.checkArgument(timeoutMillis > 0L, "timeoutMillis must be positive: %s", timeoutMillis);
+    Preconditions.checkArgument(maxAgeMillis >= 0L, "Bad maxAgeMillis: %s", maxAgeMillis);
+    Preconditions.checkArgument(maxCachedResults > 0, "maxCachedResults must be at least 1: %s",
+        maxCachedResults);
+    this.recommender = recommender;
+    this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity));
+    this.timeoutMillis = timeoutMillis;
+    this.maxAgeMillis = maxAgeMillis;
+    this.inFlight = new ConcurrentHashMap<Request,FutureTask<List<RecommendedItem>>>();
+    this.lastResults = new FastMap<Request,TimedResult>(11, maxCachedResults);
+    this.numFallbacks = new AtomicLong();
+    this.numRejected = new AtomicLong();
+  }
+
+  public Recommender getRecommender() {
+    return recommender;
+  }
+
+  /**
+   * @return recommendations for the user, within about the deadline
+   * @throws TasteException
+   *           if the recommender failed, including for lack of such a user
+   */
+  public Result recommend(long userID, int howMany) throws TasteException {
+    Request request = new Request(userID, howMany);
+
+    TimedResult last;
+    synchronized (lastResults) {
+      last = lastResults.get(request);
+    }
+    if (last != null && System.currentTimeMillis() - last.timestamp < maxAgeMillis) {
+      return new Result(last.items, Status.CACHED);
+    }
+
+    FutureTask<List<RecommendedItem>> task = inFlight.get(request);
+    if (task != null && task.isDone()) {
+      // Finished but not yet unregistered; its result is not fresher than the last one
+      inFlight.remove(request, task);
+      task = null;
+    }
+    if (task == null) {
+      FutureTask<List<RecommendedItem>> newTask = newTask(request);
+      task = inFlight.putIfAbsent(request, newTask);
+      if (task == null) {
+        task = newTask;
+        try {
+          executor.execute(newTask);
+        } catch (RejectedExecutionException ree) {
+          inFlight.remove(request, newTask);
+          // Any identical request which already joined this one falls back too
+          newTask.cancel(false);
+          numRejected.incrementAndGet();
+          log.warn("No capacity to recommend for user {}; falling back", userID);
+          return fallback(last, Status.REJECTED);
+        }
+      }
+    }
+
+    try {
+      return new Result(task.get(timeoutMillis, TimeUnit.MILLISECONDS), Status.COMPUTED);
+    } catch (TimeoutException te) {
+      log.warn("Recommendations for user {} not ready after {}ms; falling back", userID, timeoutMillis);
+      return fallback(last, Status.FALLBACK);
+    } catch (CancellationException ce) {
+      return fallback(last, Status.REJECTED);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return fallback(last, Status.FALLBACK);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    }
+  }
+
+  private FutureTask<List<RecommendedItem>> newTask(final Request request) {
+    return new FutureTask<List<RecommendedItem>>(new Callable<List<RecommendedItem>>() {
+      @Override
+      public List<RecommendedItem> call() throws TasteException {
+        List<RecommendedItem> items =
+            Collections.unmodifiableList(recommender.recommend(request.userID, request.howMany));
+        TimedResult result = new TimedResult(items, System.currentTimeMillis());
+        synchronized (lastResults) {
+          lastResults.put(request, result);
+        }
+        return items;
+      }
+    }) {
+      @Override
+      protected void done() {
+        inFlight.remove(request, this);
+      }
+    };
+  }
+
+  private Result fallback(TimedResult last, Status status) {
+    numFallbacks.incrementAndGet();
+    List<RecommendedItem> items = last == null ? Collections.<RecommendedItem>emptyList() : last.items;
+    return new Result(items, status);
+  }
+
+  /** @return number of requests which got a fallback, including those refused for lack of capacity */
+  public long getNumFallbacks() {
+    return numFallbacks.get();
+  }
+
+  /** @return number of requests refused because the queue was full */
+  public long getNumRejected() {
+    return numRejected.get();
+  }
+
+  /** Stops the threads computing recommendations; requests after this get fallbacks. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "RecommendationService[recommender:" + recommender + ", timeoutMillis:" + timeoutMillis
+        + ", fallbacks:" + numFallbacks + ", rejected:" + numRejected + ']';
+  }
+
+  private static final class Request {
+
+    private final long userID;
+    private final int howMany;
+
+    private Request(long userID, int howMany) {
+      this.userID = userID;
+      this.howMany = howMany;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Request)) {
+        return false;
+      }
+      Request other = (Request) o;
+      return userID == other.userID && howMany == other.howMany;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int) (userID ^ (userID >>> 32)) + howMany;
+    }
+
+  }
+
+  private static final class TimedResult {
+
+    private final List<RecommendedItem> items;
+    private final long timestamp;
+
+    private TimedResult(List<RecommendedItem> items, long timestamp) {
+      this.items = items;
+      this.timestamp = timestamp;
+    }
+
+  }
+
+}
@@ -29,6 +29,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
@@ -42,10 +43,12 @@ import java.util.List;
  * <li><em>howMany</em>: the number of recommendations to produce</li>
  * <li><em>debug</em>: (optional) output a lot of information that is useful in debugging.
  * Defaults to false, of course.</li>
+ * <li><em>format</em>: (optional) "text", "xml", "json" or "binary". Defaults to "text".</li>
  * </ul>
  *
- * <p>The response is text, and contains a list of the IDs of recommended items, in descending
- * order of relevance, one per line.</p>
+ * <p>The response is by default text, and contains a list of the IDs of recommended items, in descending
+ * order of relevance, one per line. The "binary" format is more compact to write and parse: a 4-byte count of
+ * items, then for each item its 8-byte ID and its 4-byte value as a float, all big-endian.</p>
  *
  * <p>For example, you can get 10 recommendations for user 123 from the following URL (assuming
  * you are running taste in a web application running locally on port 8080):<br/>
@@ -55,13 +58,32 @@ import java.util.List;
  * a parameter named "recommender-class" which is the name of a class that implements
  * {@link Recommender} and has a no-arg constructor. The servlet will instantiate and use
  * this {@link Recommender} to produce recommendations.</p>
+ *
+ * <p>If the {@code init-param} "timeout-millis" is also given, recommendations are served through a
+ * {@link RecommendationService} instead, so that each request returns within about that many milliseconds,
+ * with a fallback if need be, and identical concurrent requests are computed once. These optional
+ * {@code init-param}s then tune it:</p>
+ *
+ * <ul>
+ * <li><em>threads</em>: threads computing recommendations. Defaults to the number of processors.</li>
+ * <li><em>queue-capacity</em>: most requests which may wait for a thread. Defaults to 100.</li>
+ * <li><em>max-age-millis</em>: how long results may be reused without recomputing them. Defaults to 0.</li>
+ * <li><em>cache-size</em>: most results kept, for reuse and as fallbacks. Defaults to 10000.</li>
+ * </ul>
+ *
+ * <p>The response then has a header "X-Recommendation-Status" telling whether the recommendations were
+ * computed, cached, a fallback, or a fallback because the request was refused for lack of capacity. In the
+ * last case, when there is no fallback either, the servlet answers 503 (Service Unavailable).</p>
  */
 public final class RecommenderServlet extends HttpServlet {
 
   private static final int NUM_TOP_PREFERENCES = 20;
   private static final int DEFAULT_HOW_MANY = 20;
+  private static final int DEFAULT_QUEUE_CAPACITY = 100;
+  private static final int DEFAULT_CACHE_SIZE = 10000;
 
   private Recommender recommender;
+  private RecommendationService service;
 
   @Override
   public void init(ServletConfig config) throws ServletException {
@@ -72,6 +94,28 @@ public final class RecommenderServlet extends HttpServlet {
     }
     RecommenderSingleton.initializeIfNeeded(recommenderClassName);
     recommender = RecommenderSingleton.getInstance().getRecommender();
+    String timeoutMillisString = config.getInitParameter("timeout-millis");
+    if (timeoutMillisString != null) {
+      try {
+        service = new RecommendationService(recommender,
+            getIntInitParameter(config, "threads", Runtime.getRuntime().availableProcessors()),
+            getIntInitParameter(config, "queue-capacity", DEFAULT_QUEUE_CAPACITY),
+            Long.parseLong(timeoutMillisString),
+            Long.parseLong(getInitParameter(config, "max-age-millis", "0")),
+            getIntInitParameter(config, "cache-size", DEFAULT_CACHE_SIZE));
+      } catch (IllegalArgumentException iae) {
+        throw new ServletException(iae);
+      }
+    }
+  }
+
+  private static int getIntInitParameter(ServletConfig config, String name, int defaultValue) {
+    return Integer.parseInt(getInitParameter(config, name, String.valueOf(defaultValue)));
+  }
+
+  private static String getInitParameter(ServletConfig config, String name, String defaultValue) {
+    String value = config.getInitParameter(name);
+    return value == null ? defaultValue : value;
   }
 
   @Override
@@ -92,13 +136,27 @@ public final class RecommenderServlet extends HttpServlet {
     }
 
     try {
-      List<RecommendedItem> items = recommender.recommend(userID, howMany);
+      List<RecommendedItem> items;
+      if (service == null) {
+        items = recommender.recommend(userID, howMany);
+      } else {
+        RecommendationService.Result result = service.recommend(userID, howMany);
+        items = result.getItems();
+        response.setHeader("X-Recommendation-Status", result.getStatus().name());
+        if (result.getStatus() == RecommendationService.Status.REJECTED && items.isEmpty()) {
+          response.setHeader("Retry-After", "1");
+          response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          return;
+        }
+      }
       if ("text".equals(format)) {
         writePlainText(response, userID, debug, items);
       } else if ("xml".equals(format)) {
         writeXML(response, items);
       } else if ("json".equals(format)) {
         writeJSON(response, items);
+      } else if ("binary".equals(format)) {
+        writeBinary(response, items);
       } else {
         throw new ServletException("Bad format parameter: " + format);
       }
@@ -148,6 +206,19 @@ public final class RecommenderServlet extends HttpServlet {
     writer.println("]}}");
   }
 
+  private static void writeBinary(HttpServletResponse response, List<RecommendedItem> items) throws IOException {
+    response.setContentType("application/octet-stream");
+    response.setHeader("Cache-Control", "no-cache");
+    response.setContentLength(4 + 12 * items.size());
+    DataOutputStream out = new DataOutputStream(response.getOutputStream());
+    out.writeInt(items.size());
+    for (RecommendedItem recommendedItem : items) {
+      out.writeLong(recommendedItem.getItemID());
+      out.writeFloat(recommendedItem.getValue());
+    }
+    out.flush();
+  }
+
   private void writePlainText(HttpServletResponse response,
                               long userID,
                               boolean debug,
@@ -209,9 +280,17 @@ public final class RecommenderServlet extends HttpServlet {
     doGet(request, response);
   }
 
+  @Override
+  public void destroy() {
+    if (service != null) {
+      service.shutdown();
+    }
+    super.destroy();
+  }
+
   @Override
   public String toString() {
-    return "RecommenderServlet[recommender:" + recommender + ']';
+    return "RecommenderServlet[recommender:" + (service == null ? recommender : service) + ']';
   }
 
 }
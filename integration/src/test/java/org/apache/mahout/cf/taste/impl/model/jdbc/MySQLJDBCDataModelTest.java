@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+public final class MySQLJDBCDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testBatchedSQL() {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    AbstractJDBCDataModel model = new MySQLJDBCDataModel(dataSource);
+    assertEquals("SELECT DISTINCT user_id, item_id, preference FROM taste_preferences WHERE item_id IN (?,?,?) "
+        + "ORDER BY item_id, user_id", model.getPreferencesForIDsSQL(false, 3));
+    model = new MySQLBooleanPrefJDBCDataModel(dataSource);
+    assertEquals("SELECT DISTINCT user_id, item_id FROM taste_preferences WHERE user_id IN (?) "
+        + "ORDER BY user_id, item_id", model.getPreferencesForIDsSQL(true, 1));
+  }
+
+  @Test
+  public void testBatchedFetchFillsCache() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createMock(ResultSet.class);
+    AbstractJDBCDataModel model = new MySQLJDBCDataModel(dataSource);
+
+    // Three users are fetched with one query, padded to eight parameters
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(model.getPreferencesForIDsSQL(true, 8),
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    EasyMock.expect(resultSet.next()).andReturn(true).times(3).andReturn(false);
+    EasyMock.expect(resultSet.getLong(1)).andReturn(1L).andReturn(1L).andReturn(3L);
+    EasyMock.expect(resultSet.getLong(2)).andReturn(10L).andReturn(11L).andReturn(10L);
+    EasyMock.expect(resultSet.getFloat(3)).andReturn(1.0f).andReturn(2.0f).andReturn(3.0f);
+    resultSet.close();
+    connection.close();
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    model.setPreferenceCacheSize(100);
+    FastIDSet userIDs = new FastIDSet();
+    userIDs.add(1L);
+    userIDs.add(2L);
+    userIDs.add(3L);
+    FastByIDMap<PreferenceArray> prefs = model.getPreferencesFromUsers(userIDs);
+    assertEquals(2, prefs.size());
+    assertEquals(2, prefs.get(1L).length());
+    assertNull(prefs.get(2L));
+    assertEquals(3.0f, prefs.get(3L).getValue(0), EPSILON);
+
+    // Served from the cache, without touching the database
+    assertEquals(2, model.getPreferencesFromUser(1L).length());
+    assertEquals(2.0f, model.getPreferenceValue(1L, 11L), EPSILON);
+    assertNull(model.getPreferenceValue(3L, 11L));
+    assertTrue(model.getItemIDsFromUser(3L).contains(10L));
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+  @Test
+  public void testPrefetchOnlyFetchesUncachedItems() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createMock(ResultSet.class);
+    AbstractJDBCDataModel model = new MySQLJDBCDataModel(dataSource);
+
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(model.getPreferencesForIDsSQL(false, 8),
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    EasyMock.expect(resultSet.next()).andReturn(true).times(2).andReturn(false);
+    EasyMock.expect(resultSet.getLong(1)).andReturn(2L).andReturn(1L);
+    EasyMock.expect(resultSet.getLong(2)).andReturn(10L).andReturn(10L);
+    EasyMock.expect(resultSet.getFloat(3)).andReturn(1.0f).andReturn(2.0f);
+    resultSet.close();
+    connection.close();
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    FastIDSet itemIDs = new FastIDSet();
+    itemIDs.add(10L);
+    // Nowhere to keep them without a cache, so nothing is fetched
+    model.prefetchPreferencesForItems(itemIDs);
+
+    model.setPreferenceCacheSize(100);
+    model.prefetchPreferencesForItems(itemIDs);
+    // Already cached, so nothing is fetched
+    model.prefetchPreferencesForItems(itemIDs);
+    PreferenceArray prefs = model.getPreferencesForItem(10L);
+    assertEquals(2, prefs.length());
+    assertEquals(1L, prefs.getUserID(0));
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+  @Test
+  public void testBatchedFetchRacingWithChangeIsNotCached() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createMock(ResultSet.class);
+    final AbstractJDBCDataModel model = new MySQLJDBCDataModel(dataSource);
+
+    // The cache is dropped while the rows are read
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(model.getPreferencesForIDsSQL(true, 8),
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    EasyMock.expect(resultSet.next()).andAnswer(new IAnswer<Boolean>() {
+      @Override
+      public Boolean answer() {
+        model.refresh(null);
+        return true;
+      }
+    }).andReturn(false);
+    EasyMock.expect(resultSet.getLong(1)).andReturn(1L);
+    EasyMock.expect(resultSet.getLong(2)).andReturn(10L);
+    EasyMock.expect(resultSet.getFloat(3)).andReturn(1.0f);
+    resultSet.close();
+    connection.close();
+    // So reading the user again goes to the database
+    EasyMock.expect(dataSource.getConnection()).andThrow(new SQLException());
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    model.setPreferenceCacheSize(100);
+    FastIDSet userIDs = new FastIDSet();
+    userIDs.add(1L);
+    assertEquals(1, model.getPreferencesFromUsers(userIDs).get(1L).length());
+    try {
+      model.getPreferencesFromUser(1L);
+      fail();
+    } catch (TasteException te) {
+      // expected
+    }
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+  @Test
+  public void testBatchedFetchSortsRows() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createMock(ResultSet.class);
+    AbstractJDBCDataModel model = new MySQLJDBCDataModel(dataSource);
+
+    // Rows for item 10 come back grouped, but not ordered by user ID
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection);
+    EasyMock.expect(connection.prepareStatement(model.getPreferencesForIDsSQL(false, 8),
+        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    EasyMock.expect(resultSet.next()).andReturn(true).times(3).andReturn(false);
+    EasyMock.expect(resultSet.getLong(1)).andReturn(3L).andReturn(1L).andReturn(2L);
+    EasyMock.expect(resultSet.getLong(2)).andReturn(10L).times(3);
+    EasyMock.expect(resultSet.getFloat(3)).andReturn(3.0f).andReturn(1.0f).andReturn(2.0f);
+    resultSet.close();
+    connection.close();
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    FastIDSet itemIDs = new FastIDSet();
+    itemIDs.add(10L);
+    itemIDs.add(11L);
+    PreferenceArray prefs = model.getPreferencesForItems(itemIDs).get(10L);
+    assertEquals(3, prefs.length());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1L, prefs.getUserID(i));
+      assertEquals(i + 1.0f, prefs.getValue(i), EPSILON);
+    }
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class RecommendationServiceTest extends TasteTestCase {
+
+  @Test
+  public void testComputed() throws Exception {
+    GatedRecommender recommender = new GatedRecommender();
+    RecommendationService service = new RecommendationService(recommender, 2, 10, 10000L, 0L, 100);
+    try {
+      RecommendationService.Result result = service.recommend(1L, 5);
+      assertSame(RecommendationService.Status.COMPUTED, result.getStatus());
+      assertEquals(1, result.getItems().size());
+      assertEquals(1L, result.getItems().get(0).getItemID());
+      service.recommend(1L, 5);
+      assertEquals(2, recommender.getNumCalls());
+      assertEquals(0L, service.getNumFallbacks());
+    } finally {
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testCached() throws Exception {
+    GatedRecommender recommender = new GatedRecommender();
+    RecommendationService service = new RecommendationService(recommender, 2, 10, 10000L, 60000L, 100);
+    try {
+      assertSame(RecommendationService.Status.COMPUTED, service.recommend(1L, 5).getStatus());
+      RecommendationService.Result result = service.recommend(1L, 5);
+      assertSame(RecommendationService.Status.CACHED, result.getStatus());
+      assertEquals(1L, result.getItems().get(0).getItemID());
+      // A different number of items is a different request
+      assertSame(RecommendationService.Status.COMPUTED, service.recommend(1L, 6).getStatus());
+      assertEquals(2, recommender.getNumCalls());
+    } finally {
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    GatedRecommender recommender = new GatedRecommender();
+    recommender.close();
+    final RecommendationService service = new RecommendationService(recommender, 4, 10, 10000L, 60000L, 100);
+    int numClients = 8;
+    ExecutorService clients = Executors.newFixedThreadPool(numClients);
+    try {
+      List<Future<RecommendationService.Result>> results = Lists.newArrayList();
+      for (int i = 0; i < numClients; i++) {
+        results.add(clients.submit(new Callable<RecommendationService.Result>() {
+          @Override
+          public RecommendationService.Result call() throws TasteException {
+            return service.recommend(1L, 5);
+          }
+        }));
+      }
+      recommender.awaitStarted();
+      recommender.open();
+      for (Future<RecommendationService.Result> result : results) {
+        // Clients arriving after the computation finished reuse its result instead
+        assertNotSame(RecommendationService.Status.FALLBACK, result.get().getStatus());
+        assertEquals(1L, result.get().getItems().get(0).getItemID());
+      }
+      assertEquals(1, recommender.getNumCalls());
+    } finally {
+      clients.shutdown();
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testDeadlineFallsBack() throws Exception {
+    GatedRecommender recommender = new GatedRecommender();
+    RecommendationService service = new RecommendationService(recommender, 2, 10, 50L, 0L, 100);
+    try {
+      assertSame(RecommendationService.Status.COMPUTED, service.recommend(1L, 5).getStatus());
+      recommender.close();
+      RecommendationService.Result result = service.recommend(1L, 5);
+      assertSame(RecommendationService.Status.FALLBACK, result.getStatus());
+      assertEquals(1L, result.getItems().get(0).getItemID());
+      result = service.recommend(2L, 5);
+      assertSame(RecommendationService.Status.FALLBACK, result.getStatus());
+      assertTrue(result.getItems().isEmpty());
+      assertEquals(2L, service.getNumFallbacks());
+      assertEquals(0L, service.getNumRejected());
+    } finally {
+      recommender.open();
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testRejectsWhenQueueFull() throws Exception {
+    GatedRecommender recommender = new GatedRecommender();
+    recommender.close();
+    RecommendationService service = new RecommendationService(recommender, 1, 1, 10L, 0L, 100);
+    try {
+      assertSame(RecommendationService.Status.FALLBACK, service.recommend(1L, 5).getStatus());
+      recommender.awaitStarted();
+      // Waits in the queue
+      assertSame(RecommendationService.Status.FALLBACK, service.recommend(2L, 5).getStatus());
+      RecommendationService.Result result = service.recommend(3L, 5);
+      assertSame(RecommendationService.Status.REJECTED, result.getStatus());
+      assertTrue(result.getItems().isEmpty());
+      assertEquals(3L, service.getNumFallbacks());
+      assertEquals(1L, service.getNumRejected());
+    } finally {
+      recommender.open();
+      service.shutdown();
+    }
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testRecommenderException() throws Exception {
+    RecommendationService service = new RecommendationService(new GatedRecommender(), 1, 1, 10000L, 0L, 100);
+    try {
+      service.recommend(-1L, 5);
+    } finally {
+      service.shutdown();
+    }
+  }
+
+  /**
+   * Recommends, to each user, the item with the same ID, once let through; negative user IDs do not exist.
+   */
+  private static final class GatedRecommender implements Recommender {
+
+    private final AtomicInteger numCalls = new AtomicInteger();
+    private final Semaphore started = new Semaphore(0);
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    void close() {
+      gate = new CountDownLatch(1);
+    }
+
+    void open() {
+      gate.countDown();
+    }
+
+    int getNumCalls() {
+      return numCalls.get();
+    }
+
+    void awaitStarted() throws InterruptedException {
+      started.acquire();
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+      numCalls.incrementAndGet();
+      started.release();
+      try {
+        gate.await();
+      } catch (InterruptedException ie) {
+        throw new TasteException(ie);
+      }
+      if (userID < 0L) {
+        throw new NoSuchUserException(userID);
+      }
+      return Collections.<RecommendedItem>singletonList(new GenericRecommendedItem(userID, 1.0f));
+    }
+
+    @Override
+    public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+      return recommend(userID, howMany);
+    }
+
+    @Override
+    public float estimatePreference(long userID, long itemID) {
+      return Float.NaN;
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataModel getDataModel() {
+      return null;
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    }
+
+  }
+
+}
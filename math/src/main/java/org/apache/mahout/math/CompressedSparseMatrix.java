@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * An immutable sparse matrix packed into three arrays, in compressed sparse row (CSR) or compressed sparse
+ * column (CSC) form: for each row, or column, the range of its non-zero entries; and for each entry, its column,
+ * or row, and its value. Within a row, or column, entries are ordered by index. There is no object per row or
+ * per entry, so that matrices of hundreds of millions of non-zeros fit in memory, and products with vectors run
+ * over plain arrays without creating objects other than the result.
+ * </p>
+ *
+ * <p>
+ * {@link #byRows(Matrix)} and {@link #byColumns(Matrix)} pack any matrix, typically a {@link SparseRowMatrix}
+ * or {@link SparseMatrix}. {@link #transpose()} is a view of the same arrays in the other form, so
+ * {@code transpose().times(v)} costs no more than {@code times(v)}, which suits {@link
+ * org.apache.mahout.math.solver.LSMR}; {@link #timesSquared(Vector)} suits the Lanczos and conjugate gradient
+ * solvers.
+ * </p>
+ *
+ * <p>
+ * Products with vectors and with {@link DenseMatrix}es are computed on several threads when they involve
+ * enough non-zeros; see {@link ParallelBlocks}. Where rows are packed, blocks of rows of the result are
+ * computed independently; where columns are, each thread sums the contributions of a range of columns into its
+ * own copy of the result vector. Products with dense matrices packed by column are computed in one thread.
+ * </p>
+ *
+ * <p>
+ * {@link #setQuick(int, int, double)} and the other methods which would change the matrix throw
+ * {@link UnsupportedOperationException}. {@link #like()} returns a {@link SparseRowMatrix}.
+ * </p>
+ */
+public final class CompressedSparseMatrix extends AbstractMatrix {
+
+  /** Rows, or columns, computed together in products with vectors. */
+  private static final int BLOCK_SIZE = 1024;
+
+  private final boolean byRow;
+  /** Start of each row's, or column's, entries, and the end of the last one. */
+  private final int[] offsets;
+  /** Column, or row, of each entry. */
+  private final int[] indices;
+  private final double[] values;
+
+  /**
+   * Wraps arrays already in compressed form, without copying them.
+   *
+   * @param rows number of rows
+   * @param columns number of columns
+   * @param offsets for each row, or column, the index of its first entry in indices and values; then the
+   *  total number of entries
+   * @param indices for each entry, its column, or row, ascending within each row, or column
+   * @param values for each entry, its value
+   * @param byRow true if rows are packed (CSR), false if columns are (CSC)
+   * @throws IllegalArgumentException if the arrays are not consistent with each other and the size
+   */
+  public CompressedSparseMatrix(int rows, int columns, int[] offsets, int[] indices, double[] values,
+                                boolean byRow) {
+    super(rows, columns);
+    int majorSize = byRow ? rows : columns;
+    int minorSize = byRow ? columns : rows;
+    Preconditions.checkArgument(offsets.length == majorSize + 1, "Expected %s offsets but got %s",
+        majorSize + 1, offsets.length);
+    Preconditions.checkArgument(indices.length == values.length, "Got %s indices but %s values",
+        indices.length, values.length);
+    Preconditions.checkArgument(offsets[0] == 0 && offsets[majorSize] == values.length, "Bad first or last offset");
+    for (int slice = 0; slice < majorSize; slice++) {
+      int from = offsets[slice];
+      int to = offsets[slice + 1];
+      Preconditions.checkArgument(from <= to, "Offsets decrease at %s", slice);
+      for (int k = from; k < to; k++) {
+        int index = indices[k];
+        Preconditions.checkArgument(index >= 0 && index < minorSize, "Index %s out of range at %s", index, k);
+        Preconditions.checkArgument(k == from || indices[k - 1] < index, "Indices not ascending at %s", k);
+      }
+    }
+    this.byRow = byRow;
+    this.offsets = offsets;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Wraps arrays already known to be valid, without checking them.
+   */
+  private CompressedSparseMatrix(boolean byRow, int rows, int columns, int[] offsets, int[] indices,
+                                 double[] values) {
+    super(rows, columns);
+    this.byRow = byRow;
+    this.offsets = offsets;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * @return the non-zero entries of the matrix, packed by row
+   */
+  public static CompressedSparseMatrix byRows(Matrix m) {
+    int rows = m.rowSize();
+    int[] offsets = new int[rows + 1];
+    long numEntries = 0;
+    for (int row = 0; row < rows; row++) {
+      for (Vector.Element e : m.viewRow(row).nonZeroes()) {
+        if (e.get() != 0.0) {
+          numEntries++;
+        }
+      }
+      Preconditions.checkArgument(numEntries < Integer.MAX_VALUE, "Too many non-zero entries");
+      offsets[row + 1] = (int) numEntries;
+    }
+    int[] indices = new int[(int) numEntries];
+    double[] values = new double[(int) numEntries];
+    for (int row = 0; row < rows; row++) {
+      Vector rowVector = m.viewRow(row);
+      if (!rowVector.isSequentialAccess()) {
+        rowVector = new SequentialAccessSparseVector(rowVector);
+      }
+      int k = offsets[row];
+      for (Vector.Element e : rowVector.nonZeroes()) {
+        double value = e.get();
+        if (value != 0.0) {
+          indices[k] = e.index();
+          values[k++] = value;
+        }
+      }
+    }
+    return new CompressedSparseMatrix(rows, m.columnSize(), offsets, indices, values, true);
+  }
+
+  /**
+   * @return the non-zero entries of the matrix, packed by column
+   */
+  public static CompressedSparseMatrix byColumns(Matrix m) {
+    return byRows(m).repack();
+  }
+
+  /**
+   * @return true if rows are packed (CSR), false if columns are (CSC)
+   */
+  public boolean isByRow() {
+    return byRow;
+  }
+
+  /**
+   * @return a copy of this matrix with the other form: packed by column if this one is packed by row, and
+   *  the other way round
+   */
+  public CompressedSparseMatrix repack() {
+    int majorSize = offsets.length - 1;
+    int minorSize = byRow ? columnSize() : rowSize();
+    int[] newOffsets = new int[minorSize + 1];
+    for (int index : indices) {
+      newOffsets[index + 1]++;
+    }
+    for (int i = 0; i < minorSize; i++) {
+      newOffsets[i + 1] += newOffsets[i];
+    }
+    int[] next = Arrays.copyOf(newOffsets, minorSize);
+    int[] newIndices = new int[indices.length];
+    double[] newValues = new double[values.length];
+    // Visiting slices in order leaves the new indices ascending
+    for (int slice = 0; slice < majorSize; slice++) {
+      for (int k = offsets[slice]; k < offsets[slice + 1]; k++) {
+        int to = next[indices[k]]++;
+        newIndices[to] = slice;
+        newValues[to] = values[k];
+      }
+    }
+    return new CompressedSparseMatrix(!byRow, rowSize(), columnSize(), newOffsets, newIndices, newValues);
+  }
+
+  /**
+   * @return number of non-zero entries
+   */
+  public int getNumEntries() {
+    return values.length;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    int slice = byRow ? row : column;
+    int position = Arrays.binarySearch(indices, offsets[slice], offsets[slice + 1], byRow ? column : row);
+    return position < 0 ? 0.0 : values[position];
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("CompressedSparseMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseMatrix is immutable");
+  }
+
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    int[] result = new int[2];
+    result[byRow ? ROW : COL] = offsets.length - 1;
+    int maxSliceLength = 0;
+    for (int slice = 0; slice < offsets.length - 1; slice++) {
+      maxSliceLength = Math.max(maxSliceLength, offsets[slice + 1] - offsets[slice]);
+    }
+    result[byRow ? COL : ROW] = maxSliceLength;
+    return result;
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    if (offset[ROW] < 0 || offset[ROW] + size[ROW] > rowSize()) {
+      throw new IndexException(offset[ROW] + size[ROW], rowSize());
+    }
+    if (offset[COL] < 0 || offset[COL] + size[COL] > columnSize()) {
+      throw new IndexException(offset[COL] + size[COL], columnSize());
+    }
+    return new MatrixView(this, offset, size);
+  }
+
+  /**
+   * @return a copy of the row, if rows are packed; otherwise a view
+   */
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    return byRow ? slice(row, columnSize()) : super.viewRow(row);
+  }
+
+  /**
+   * @return a copy of the column, if columns are packed; otherwise a view
+   */
+  @Override
+  public Vector viewColumn(int column) {
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    return byRow ? super.viewColumn(column) : slice(column, rowSize());
+  }
+
+  private Vector slice(int slice, int cardinality) {
+    int from = offsets[slice];
+    int to = offsets[slice + 1];
+    Vector result = new SequentialAccessSparseVector(cardinality, Math.max(1, to - from));
+    for (int k = from; k < to; k++) {
+      result.setQuick(indices[k], values[k]);
+    }
+    return result;
+  }
+
+  /**
+   * @return a view of the same arrays, packed in the other form
+   */
+  @Override
+  public Matrix transpose() {
+    return new CompressedSparseMatrix(!byRow, columnSize(), rowSize(), offsets, indices, values);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    return new DenseVector(times(toArray(v), byRow, rowSize()), true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    double[] product = times(toArray(v), byRow, rowSize());
+    return new DenseVector(times(product, !byRow, columnSize()), true);
+  }
+
+  /**
+   * @param x vector to multiply
+   * @param gather true to multiply by the matrix whose rows are this one's packed slices, summing each slice
+   *  against x; false to multiply by the matrix whose columns are, adding each slice scaled by an entry of x
+   * @param resultSize size of the product
+   */
+  private double[] times(final double[] x, boolean gather, int resultSize) {
+    final double[] y = new double[resultSize];
+    final int numSlices = offsets.length - 1;
+    if (gather) {
+      ParallelBlocks.run(numSlices, BLOCK_SIZE, values.length, new ParallelBlocks.Task() {
+        @Override
+        public void compute(int from, int to) {
+          for (int slice = from; slice < to; slice++) {
+            double sum = 0.0;
+            for (int k = offsets[slice]; k < offsets[slice + 1]; k++) {
+              sum += values[k] * x[indices[k]];
+            }
+            y[slice] = sum;
+          }
+        }
+      });
+    } else if (values.length < ParallelBlocks.PARALLEL_THRESHOLD || ParallelBlocks.NUM_THREADS == 1) {
+      scatter(x, y, 0, numSlices);
+    } else {
+      // Threads would add to the same entries of y; each sums into its own copy instead
+      final int chunkSize = (numSlices + ParallelBlocks.NUM_THREADS - 1) / ParallelBlocks.NUM_THREADS;
+      final double[][] partials = new double[ParallelBlocks.NUM_THREADS][];
+      ParallelBlocks.run(numSlices, chunkSize, values.length, new ParallelBlocks.Task() {
+        @Override
+        public void compute(int from, int to) {
+          double[] partial = new double[y.length];
+          scatter(x, partial, from, to);
+          partials[from / chunkSize] = partial;
+        }
+      });
+      for (double[] partial : partials) {
+        if (partial != null) {
+          for (int i = 0; i < y.length; i++) {
+            y[i] += partial[i];
+          }
+        }
+      }
+    }
+    return y;
+  }
+
+  private void scatter(double[] x, double[] y, int fromSlice, int toSlice) {
+    for (int slice = fromSlice; slice < toSlice; slice++) {
+      double xSlice = x[slice];
+      if (xSlice != 0.0) {
+        for (int k = offsets[slice]; k < offsets[slice + 1]; k++) {
+          y[indices[k]] += values[k] * xSlice;
+        }
+      }
+    }
+  }
+
+  /**
+   * Multiplies directly over the row arrays when other is a {@link DenseMatrix}.
+   */
+  @Override
+  public Matrix times(Matrix other) {
+    if (!(other instanceof DenseMatrix)) {
+      return super.times(other);
+    }
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    final double[][] b = ((DenseMatrix) other).rowArrays();
+    final int p = other.columnSize();
+    final double[][] c = new double[rowSize()][p];
+    if (byRow) {
+      ParallelBlocks.run(rowSize(), BLOCK_SIZE / 16, (long) values.length * p, new ParallelBlocks.Task() {
+        @Override
+        public void compute(int from, int to) {
+          for (int row = from; row < to; row++) {
+            double[] cRow = c[row];
+            for (int k = offsets[row]; k < offsets[row + 1]; k++) {
+              addScaled(cRow, b[indices[k]], values[k]);
+            }
+          }
+        }
+      });
+    } else {
+      for (int column = 0; column < columnSize(); column++) {
+        double[] bRow = b[column];
+        for (int k = offsets[column]; k < offsets[column + 1]; k++) {
+          addScaled(c[indices[k]], bRow, values[k]);
+        }
+      }
+    }
+    return rowSize() == 0 ? new DenseMatrix(0, p) : new DenseMatrix(c, true);
+  }
+
+  private static void addScaled(double[] y, double[] x, double a) {
+    for (int j = 0; j < y.length; j++) {
+      y[j] += a * x[j];
+    }
+  }
+
+  private static double[] toArray(Vector v) {
+    double[] x = new double[v.size()];
+    if (v.isDense()) {
+      for (int i = 0; i < x.length; i++) {
+        x[i] = v.getQuick(i);
+      }
+    } else {
+      for (Vector.Element e : v.nonZeroes()) {
+        x[e.index()] = e.get();
+      }
+    }
+    return x;
+  }
+
+}
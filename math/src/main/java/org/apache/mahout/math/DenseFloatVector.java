@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Implements vector as an array of floats. It takes half the memory of a {@link DenseVector}, and is faster
+ * wherever memory bandwidth is the limit; values set are rounded to float precision. Dot products are
+ * accumulated in double precision.
+ */
+public class DenseFloatVector extends AbstractVector {
+
+  private float[] values;
+
+  /** For serialization purposes only */
+  public DenseFloatVector() {
+    super(0);
+  }
+
+  /** Construct a new instance using provided values */
+  public DenseFloatVector(float[] values) {
+    this(values, false);
+  }
+
+  public DenseFloatVector(float[] values, boolean shallowCopy) {
+    super(values.length);
+    this.values = shallowCopy ? values : values.clone();
+  }
+
+  /** Construct a new instance of the given cardinality */
+  public DenseFloatVector(int cardinality) {
+    super(cardinality);
+    this.values = new float[cardinality];
+  }
+
+  /**
+   * Copy-constructor, rounding values to float precision
+   * @param vector The vector to copy
+   */
+  public DenseFloatVector(Vector vector) {
+    super(vector.size());
+    values = new float[vector.size()];
+    for (Element e : vector.nonZeroes()) {
+      values[e.index()] = (float) e.get();
+    }
+  }
+
+  @Override
+  public double dot(Vector x) {
+    if (!x.isDense()) {
+      return super.dot(x);
+    }
+    int size = x.size();
+    if (values.length != size) {
+      throw new CardinalityException(values.length, size);
+    }
+    double sum = 0;
+    if (x instanceof DenseFloatVector) {
+      float[] otherValues = ((DenseFloatVector) x).values;
+      for (int n = 0; n < size; n++) {
+        sum += values[n] * (double) otherValues[n];
+      }
+    } else {
+      for (int n = 0; n < size; n++) {
+        sum += values[n] * x.getQuick(n);
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new DenseFloatMatrix(rows, columns);
+  }
+
+  @SuppressWarnings("CloneDoesntCallSuperClone")
+  @Override
+  public DenseFloatVector clone() {
+    return new DenseFloatVector(values.clone(), true);
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  protected double dotSelf() {
+    double result = 0.0;
+    for (float value : values) {
+      result += value * (double) value;
+    }
+    return result;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    return values[index];
+  }
+
+  @Override
+  public DenseFloatVector like() {
+    return new DenseFloatVector(size());
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    invalidateCachedLength();
+    values[index] = (float) value;
+  }
+
+  @Override
+  public void incrementQuick(int index, double increment) {
+    invalidateCachedLength();
+    values[index] += increment;
+  }
+
+  @Override
+  public Vector assign(double value) {
+    invalidateCachedLength();
+    Arrays.fill(values, (float) value);
+    return this;
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return values.length;
+  }
+
+  @Override
+  public void mergeUpdates(OrderedIntDoubleMapping updates) {
+    int numUpdates = updates.getNumMappings();
+    int[] indices = updates.getIndices();
+    double[] values = updates.getValues();
+    for (int i = 0; i < numUpdates; ++i) {
+      this.values[indices[i]] = (float) values[i];
+    }
+  }
+
+  @Override
+  public Vector viewPart(int offset, int length) {
+    if (offset < 0) {
+      throw new IndexException(offset, size());
+    }
+    if (offset + length > size()) {
+      throw new IndexException(offset + length, size());
+    }
+    return new VectorView(this, offset, length);
+  }
+
+  @Override
+  public double getLookupCost() {
+    return 1;
+  }
+
+  @Override
+  public double getIteratorAdvanceCost() {
+    return 1;
+  }
+
+  @Override
+  public boolean isAddConstantTime() {
+    return true;
+  }
+
+  /**
+   * Returns an iterator that traverses this Vector from 0 to cardinality-1, in that order.
+   */
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof DenseFloatVector) {
+      return Arrays.equals(values, ((DenseFloatVector) o).values);
+    }
+    return super.equals(o);
+  }
+
+  public void addAll(Vector v) {
+    if (size() != v.size()) {
+      throw new CardinalityException(size(), v.size());
+    }
+    invalidateCachedLength();
+    for (Element element : v.nonZeroes()) {
+      values[element.index()] += element.get();
+    }
+  }
+
+  private final class NonDefaultIterator implements Iterator<Element> {
+    private final DenseElement element = new DenseElement();
+    private int index = -1;
+    private int lookAheadIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (lookAheadIndex == index) {
+        lookAhead();
+      }
+      return lookAheadIndex < size();
+    }
+
+    private void lookAhead() {
+      lookAheadIndex++;
+      while (lookAheadIndex < size() && values[lookAheadIndex] == 0.0f) {
+        lookAheadIndex++;
+      }
+    }
+
+    @Override
+    public Element next() {
+      if (lookAheadIndex == index) {
+        lookAhead();
+      }
+
+      Preconditions.checkState(lookAheadIndex > index);
+      index = lookAheadIndex;
+
+      if (index >= size()) {
+        throw new NoSuchElementException();
+      }
+
+      element.index = index;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class AllIterator implements Iterator<Element> {
+    private final DenseElement element = new DenseElement();
+
+    private AllIterator() {
+      element.index = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return element.index + 1 < size();
+    }
+
+    @Override
+    public Element next() {
+      if (element.index + 1 >= size()) {
+        throw new NoSuchElementException();
+      }
+      element.index++;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class DenseElement implements Element {
+    int index;
+
+    @Override
+    public double get() {
+      return values[index];
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      invalidateCachedLength();
+      values[index] = (float) value;
+    }
+  }
+}
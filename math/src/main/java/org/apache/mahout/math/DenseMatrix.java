@@ -78,6 +78,62 @@ public class DenseMatrix extends AbstractMatrix {
     return values[row][column];
   }
   
+  /**
+   * Multiplies directly over the row arrays when other is also a {@link DenseMatrix}; see
+   * {@link DenseMatrixProducts}.
+   */
+  @Override
+  public Matrix times(Matrix other) {
+    if (!(other instanceof DenseMatrix)) {
+      return super.times(other);
+    }
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    int otherColumns = other.columnSize();
+    return wrap(DenseMatrixProducts.times(values, ((DenseMatrix) other).values, columnSize(), otherColumns),
+        otherColumns);
+  }
+
+  /**
+   * Computes {@code this.transpose().times(other)} without transposing this matrix. For
+   * {@code m.transposeTimes(m)}, only half of the symmetric result is computed.
+   *
+   * @param other a matrix with as many rows as this one
+   * @return the product, of size {@code columnSize() x other.columnSize()}
+   */
+  public Matrix transposeTimes(DenseMatrix other) {
+    if (rowSize() != other.rowSize()) {
+      throw new CardinalityException(rowSize(), other.rowSize());
+    }
+    int otherColumns = other.columnSize();
+    return wrap(DenseMatrixProducts.transposeTimes(values, other.values, columnSize(), otherColumns), otherColumns);
+  }
+
+  /**
+   * Computes {@code this.times(other.transpose())} without transposing the other matrix.
+   *
+   * @param other a matrix with as many columns as this one
+   * @return the product, of size {@code rowSize() x other.rowSize()}
+   */
+  public Matrix timesTranspose(DenseMatrix other) {
+    if (columnSize() != other.columnSize()) {
+      throw new CardinalityException(columnSize(), other.columnSize());
+    }
+    return wrap(DenseMatrixProducts.timesTranspose(values, other.values, columnSize()), other.rowSize());
+  }
+
+  /**
+   * @return the arrays holding the rows of this matrix, not copied
+   */
+  double[][] rowArrays() {
+    return values;
+  }
+
+  private static Matrix wrap(double[][] values, int columns) {
+    return values.length == 0 ? new DenseMatrix(0, columns) : new DenseMatrix(values, true);
+  }
+
   @Override
   public Matrix like() {
     return like(rowSize(), columnSize());
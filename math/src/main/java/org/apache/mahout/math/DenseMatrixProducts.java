@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+/**
+ * <p>
+ * Products of dense matrices over their row arrays, for {@link DenseMatrix}. Each is computed by blocks of
+ * the result's rows, of the inner dimension and of the result's columns, sized so that the part of the right
+ * operand being used stays in cache while it is applied to a block of rows. The innermost loops run along
+ * rows, which are contiguous in memory.
+ * </p>
+ *
+ * <p>
+ * Products of more than about {@link ParallelBlocks#PARALLEL_THRESHOLD} multiply-adds are split by blocks of
+ * rows of the result, and computed on a shared pool of daemon threads, one per processor. Results may differ
+ * from a simple sequential sum in the last bits, as terms are added in a different order.
+ * </p>
+ */
+final class DenseMatrixProducts {
+
+  /** Rows of the result computed together. */
+  private static final int ROW_BLOCK = 64;
+  /** Length of the inner dimension computed together. */
+  private static final int INNER_BLOCK = 128;
+  /** Columns of the result computed together; with {@link #INNER_BLOCK}, a 512KB block of the right operand. */
+  private static final int COLUMN_BLOCK = 512;
+
+  private DenseMatrixProducts() {
+  }
+
+  /**
+   * @return a b, for a of size m x n and b of size n x p
+   */
+  static double[][] times(final double[][] a, final double[][] b, int n, final int p) {
+    int m = a.length;
+    final double[][] c = new double[m][p];
+    forRowBlocks(m, (long) m * n * p, new ParallelBlocks.Task() {
+      @Override
+      public void compute(int rowFrom, int rowTo) {
+        timesRows(a, b, c, rowFrom, rowTo);
+      }
+    });
+    return c;
+  }
+
+  /**
+   * @return a' b, for a of size n x m and b of size n x p
+   */
+  static double[][] transposeTimes(final double[][] a, final double[][] b, final int m, final int p) {
+    int n = a.length;
+    final double[][] c = new double[m][p];
+    final boolean symmetric = a == b;
+    forRowBlocks(m, (long) m * n * p / (symmetric ? 2 : 1), new ParallelBlocks.Task() {
+      @Override
+      public void compute(int rowFrom, int rowTo) {
+        transposeTimesRows(a, b, c, rowFrom, rowTo, symmetric);
+      }
+    });
+    if (symmetric) {
+      // Only the upper triangle was computed
+      for (int i = 1; i < m; i++) {
+        double[] cRow = c[i];
+        for (int j = 0; j < i; j++) {
+          cRow[j] = c[j][i];
+        }
+      }
+    }
+    return c;
+  }
+
+  /**
+   * @return a b', for a of size m x n and b of size p x n
+   */
+  static double[][] timesTranspose(final double[][] a, final double[][] b, int n) {
+    int m = a.length;
+    final double[][] c = new double[m][b.length];
+    forRowBlocks(m, (long) m * n * b.length, new ParallelBlocks.Task() {
+      @Override
+      public void compute(int rowFrom, int rowTo) {
+        timesTransposeRows(a, b, c, rowFrom, rowTo);
+      }
+    });
+    return c;
+  }
+
+  private static void timesRows(double[][] a, double[][] b, double[][] c, int rowFrom, int rowTo) {
+    int n = b.length;
+    int p = n == 0 ? 0 : b[0].length;
+    for (int k0 = 0; k0 < n; k0 += INNER_BLOCK) {
+      int k1 = Math.min(k0 + INNER_BLOCK, n);
+      for (int j0 = 0; j0 < p; j0 += COLUMN_BLOCK) {
+        int j1 = Math.min(j0 + COLUMN_BLOCK, p);
+        for (int i = rowFrom; i < rowTo; i++) {
+          double[] aRow = a[i];
+          double[] cRow = c[i];
+          // Zeros are multiplied out too, so that infinite and NaN entries give NaN as with AbstractMatrix.times
+          for (int k = k0; k < k1; k++) {
+            double aik = aRow[k];
+            double[] bRow = b[k];
+            for (int j = j0; j < j1; j++) {
+              cRow[j] += aik * bRow[j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void transposeTimesRows(double[][] a,
+                                         double[][] b,
+                                         double[][] c,
+                                         int rowFrom,
+                                         int rowTo,
+                                         boolean symmetric) {
+    int n = a.length;
+    int p = c.length == 0 ? 0 : c[0].length;
+    for (int k0 = 0; k0 < n; k0 += INNER_BLOCK) {
+      int k1 = Math.min(k0 + INNER_BLOCK, n);
+      for (int j0 = symmetric ? rowFrom : 0; j0 < p; j0 += COLUMN_BLOCK) {
+        int j1 = Math.min(j0 + COLUMN_BLOCK, p);
+        for (int k = k0; k < k1; k++) {
+          double[] aRow = a[k];
+          double[] bRow = b[k];
+          for (int i = rowFrom; i < rowTo; i++) {
+            double aki = aRow[i];
+            double[] cRow = c[i];
+            for (int j = symmetric ? Math.max(i, j0) : j0; j < j1; j++) {
+              cRow[j] += aki * bRow[j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void timesTransposeRows(double[][] a, double[][] b, double[][] c, int rowFrom, int rowTo) {
+    int p = b.length;
+    for (int j0 = 0; j0 < p; j0 += ROW_BLOCK) {
+      int j1 = Math.min(j0 + ROW_BLOCK, p);
+      for (int i = rowFrom; i < rowTo; i++) {
+        double[] aRow = a[i];
+        double[] cRow = c[i];
+        for (int j = j0; j < j1; j++) {
+          cRow[j] = dot(aRow, b[j]);
+        }
+      }
+    }
+  }
+
+  private static double dot(double[] x, double[] y) {
+    int length = x.length;
+    // Independent partial sums let the processor overlap the additions
+    double sum0 = 0.0;
+    double sum1 = 0.0;
+    double sum2 = 0.0;
+    double sum3 = 0.0;
+    int k = 0;
+    for (; k + 3 < length; k += 4) {
+      sum0 += x[k] * y[k];
+      sum1 += x[k + 1] * y[k + 1];
+      sum2 += x[k + 2] * y[k + 2];
+      sum3 += x[k + 3] * y[k + 3];
+    }
+    for (; k < length; k++) {
+      sum0 += x[k] * y[k];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  private static void forRowBlocks(int rows, long multiplyAdds, ParallelBlocks.Task task) {
+    ParallelBlocks.run(rows, ROW_BLOCK, multiplyAdds, task);
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+
+/**
+ * <p>
+ * Dense matrix whose values are kept off the Java heap, row after row, in direct or memory-mapped buffers, so
+ * that matrices of many gigabytes neither fill the heap nor slow down garbage collection. Since a buffer holds
+ * at most 2GB, the rows are split over as many buffers as needed; a row always lies within one.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link FileBasedMatrix}, the matrix can be written to, through {@link #setQuick(int, int, double)},
+ * {@link #assignRow(int, Vector)} and the like, unless it maps a file read-only. {@link #viewRow(int)} returns
+ * a {@link DoubleBufferVector} over the row's values in place, and {@link #viewPart(int[], int[])} a view, so
+ * neither copies anything. Files written by {@link FileBasedMatrix#writeMatrix(File, Matrix)} can be mapped,
+ * as both hold doubles in big-endian order.
+ * </p>
+ */
+public final class DoubleBufferMatrix extends AbstractMatrix {
+
+  private static final int MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+  private final int rowsPerSegment;
+  private DoubleBuffer[] segments;
+  private MappedByteBuffer[] mapped;
+
+  private DoubleBufferMatrix(int rows, int columns, int rowsPerSegment, DoubleBuffer[] segments,
+                             MappedByteBuffer[] mapped) {
+    super(rows, columns);
+    this.rowsPerSegment = rowsPerSegment;
+    this.segments = segments;
+    this.mapped = mapped;
+  }
+
+  private static int rowsPerSegment(int columns, int maxSegmentBytes) {
+    Preconditions.checkArgument(columns > 0 && columns <= maxSegmentBytes / 8, "Bad number of columns: %s",
+        columns);
+    return maxSegmentBytes / 8 / columns;
+  }
+
+  private static int numSegments(int rows, int rowsPerSegment) {
+    Preconditions.checkArgument(rows >= 0, "Bad number of rows: %s", rows);
+    return (int) (((long) rows + rowsPerSegment - 1) / rowsPerSegment);
+  }
+
+  /**
+   * @return a matrix of zeros in newly allocated direct buffers
+   */
+  public static DoubleBufferMatrix allocateDirect(int rows, int columns) {
+    return allocateDirect(rows, columns, MAX_SEGMENT_BYTES);
+  }
+
+  static DoubleBufferMatrix allocateDirect(int rows, int columns, int maxSegmentBytes) {
+    int rowsPerSegment = rowsPerSegment(columns, maxSegmentBytes);
+    DoubleBuffer[] segments = new DoubleBuffer[numSegments(rows, rowsPerSegment)];
+    for (int i = 0; i < segments.length; i++) {
+      int segmentRows = Math.min(rowsPerSegment, rows - i * rowsPerSegment);
+      segments[i] = ByteBuffer.allocateDirect(segmentRows * columns * 8).order(ByteOrder.nativeOrder())
+          .asDoubleBuffer();
+    }
+    return new DoubleBufferMatrix(rows, columns, rowsPerSegment, segments, null);
+  }
+
+  /**
+   * Maps a file of {@code rows * columns} doubles, row after row, in big-endian order.
+   *
+   * @param writable if true, the file is created or lengthened as needed, and changes to the matrix are
+   *  written to it; if false, the file must be of exactly the right length, and the matrix is read-only
+   * @param loadNow if true, loads the file's content into memory right away
+   */
+  public static DoubleBufferMatrix map(File file, int rows, int columns, boolean writable, boolean loadNow)
+    throws IOException {
+    return map(file, rows, columns, writable, loadNow, MAX_SEGMENT_BYTES);
+  }
+
+  static DoubleBufferMatrix map(File file, int rows, int columns, boolean writable, boolean loadNow,
+                                int maxSegmentBytes) throws IOException {
+    int rowsPerSegment = rowsPerSegment(columns, maxSegmentBytes);
+    long length = (long) rows * columns * 8L;
+    RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+    try {
+      if (writable) {
+        if (raf.length() < length) {
+          raf.setLength(length);
+        }
+      } else {
+        Preconditions.checkArgument(raf.length() == length, "File %s is wrong length", file);
+      }
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer[] mapped = new MappedByteBuffer[numSegments(rows, rowsPerSegment)];
+      DoubleBuffer[] segments = new DoubleBuffer[mapped.length];
+      long segmentBytes = (long) rowsPerSegment * columns * 8L;
+      for (int i = 0; i < mapped.length; i++) {
+        long start = i * segmentBytes;
+        mapped[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start,
+            Math.min(length - start, segmentBytes));
+        if (loadNow) {
+          mapped[i].load();
+        }
+        segments[i] = mapped[i].asDoubleBuffer();
+      }
+      // Mappings stay valid once the file is closed
+      return new DoubleBufferMatrix(rows, columns, rowsPerSegment, segments, mapped);
+    } finally {
+      Closeables.close(raf, true);
+    }
+  }
+
+  /**
+   * Writes changes to a mapped file out to the storage device; does nothing if no file is mapped.
+   */
+  public void force() {
+    if (mapped != null) {
+      for (MappedByteBuffer buffer : mapped) {
+        buffer.force();
+      }
+    }
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return segments[row / rowsPerSegment].get((row % rowsPerSegment) * columns + column);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    segments[row / rowsPerSegment].put((row % rowsPerSegment) * columns + column, value);
+  }
+
+  /**
+   * @return a {@link DoubleBufferVector} over the row, in place
+   */
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    DoubleBuffer rowValues = segments[row / rowsPerSegment].duplicate();
+    int start = (row % rowsPerSegment) * columns;
+    rowValues.limit(start + columns);
+    rowValues.position(start);
+    return new DoubleBufferVector(rowValues);
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    if (offset[ROW] < 0) {
+      throw new IndexException(offset[ROW], rowSize());
+    }
+    if (offset[ROW] + size[ROW] > rowSize()) {
+      throw new IndexException(offset[ROW] + size[ROW], rowSize());
+    }
+    if (offset[COL] < 0) {
+      throw new IndexException(offset[COL], columnSize());
+    }
+    if (offset[COL] + size[COL] > columnSize()) {
+      throw new IndexException(offset[COL] + size[COL], columnSize());
+    }
+    return new MatrixView(this, offset, size);
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    if (columnSize() != other.size()) {
+      throw new CardinalityException(columnSize(), other.size());
+    }
+    Vector rowVector = viewRow(row);
+    if (other.isDense()) {
+      rowVector.assign(other);
+    } else {
+      rowVector.assign(0.0);
+      for (Vector.Element e : other.nonZeroes()) {
+        rowVector.setQuick(e.index(), e.get());
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (rowSize() != other.size()) {
+      throw new CardinalityException(rowSize(), other.size());
+    }
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    for (int row = 0; row < rowSize(); row++) {
+      setQuick(row, column, other.getQuick(row));
+    }
+    return this;
+  }
+
+  /**
+   * @return a copy of this matrix, in direct buffers
+   */
+  @Override
+  public Matrix clone() {
+    DoubleBufferMatrix clone = (DoubleBufferMatrix) super.clone();
+    clone.segments = allocateDirect(rowSize(), columnSize(), rowsPerSegment * columns * 8).segments;
+    clone.mapped = null;
+    for (int i = 0; i < segments.length; i++) {
+      clone.segments[i].duplicate().put(segments[i].duplicate());
+    }
+    return clone;
+  }
+
+  /**
+   * @return a matrix of zeros in direct buffers
+   */
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  /**
+   * @return a matrix of zeros in direct buffers
+   */
+  @Override
+  public Matrix like(int rows, int columns) {
+    return allocateDirect(rows, columns);
+  }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dense vector over a {@link DoubleBuffer}, typically a direct or memory-mapped one, so that its values are
+ * kept off the Java heap. Writes go through to the buffer, and fail with
+ * {@link java.nio.ReadOnlyBufferException} if it is read-only. {@link #viewPart(int, int)} is a vector over
+ * part of the same buffer. {@link #like()} and {@link #clone()} allocate new direct buffers.
+ */
+public class DoubleBufferVector extends AbstractVector {
+
+  private final DoubleBuffer values;
+
+  /**
+   * @param values buffer whose remaining values, from its position to its limit, are those of the vector;
+   *  later changes to its position and limit do not affect the vector
+   */
+  public DoubleBufferVector(DoubleBuffer values) {
+    super(values.remaining());
+    this.values = values.slice();
+  }
+
+  /**
+   * @return a vector of zeros over a newly allocated direct buffer
+   */
+  public static DoubleBufferVector allocateDirect(int cardinality) {
+    Preconditions.checkArgument(cardinality >= 0 && cardinality <= Integer.MAX_VALUE / 8,
+        "Bad cardinality: %s", cardinality);
+    return new DoubleBufferVector(
+        ByteBuffer.allocateDirect(cardinality * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer());
+  }
+
+  /**
+   * @return the buffer holding the values, not copied
+   */
+  public DoubleBuffer getBuffer() {
+    return values.duplicate();
+  }
+
+  @Override
+  public double dot(Vector x) {
+    if (!x.isDense()) {
+      return super.dot(x);
+    }
+    int size = size();
+    if (x.size() != size) {
+      throw new CardinalityException(size, x.size());
+    }
+    double sum = 0.0;
+    if (x instanceof DoubleBufferVector) {
+      DoubleBuffer otherValues = ((DoubleBufferVector) x).values;
+      for (int i = 0; i < size; i++) {
+        sum += values.get(i) * otherValues.get(i);
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        sum += values.get(i) * x.getQuick(i);
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  protected double dotSelf() {
+    double result = 0.0;
+    for (int i = 0; i < size(); i++) {
+      double value = values.get(i);
+      result += value * value;
+    }
+    return result;
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new DenseMatrix(rows, columns);
+  }
+
+  @SuppressWarnings("CloneDoesntCallSuperClone")
+  @Override
+  public DoubleBufferVector clone() {
+    DoubleBufferVector clone = allocateDirect(size());
+    clone.values.duplicate().put(values.duplicate());
+    return clone;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    return values.get(index);
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    invalidateCachedLength();
+    values.put(index, value);
+  }
+
+  @Override
+  public void incrementQuick(int index, double increment) {
+    invalidateCachedLength();
+    values.put(index, values.get(index) + increment);
+  }
+
+  @Override
+  public Vector assign(double value) {
+    invalidateCachedLength();
+    for (int i = 0; i < size(); i++) {
+      values.put(i, value);
+    }
+    return this;
+  }
+
+  @Override
+  public Vector assign(Vector other) {
+    if (!(other instanceof DoubleBufferVector)) {
+      return super.assign(other);
+    }
+    if (size() != other.size()) {
+      throw new CardinalityException(size(), other.size());
+    }
+    invalidateCachedLength();
+    values.duplicate().put(((DoubleBufferVector) other).values.duplicate());
+    return this;
+  }
+
+  @Override
+  public DoubleBufferVector like() {
+    return allocateDirect(size());
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return size();
+  }
+
+  @Override
+  public void mergeUpdates(OrderedIntDoubleMapping updates) {
+    int numUpdates = updates.getNumMappings();
+    int[] indices = updates.getIndices();
+    double[] updateValues = updates.getValues();
+    for (int i = 0; i < numUpdates; ++i) {
+      values.put(indices[i], updateValues[i]);
+    }
+  }
+
+  /**
+   * @return a vector over the same part of the buffer
+   */
+  @Override
+  public Vector viewPart(int offset, int length) {
+    if (offset < 0) {
+      throw new IndexException(offset, size());
+    }
+    if (offset + length > size()) {
+      throw new IndexException(offset + length, size());
+    }
+    DoubleBuffer part = values.duplicate();
+    part.limit(offset + length);
+    part.position(offset);
+    return new DoubleBufferVector(part);
+  }
+
+  @Override
+  public double getLookupCost() {
+    return 1;
+  }
+
+  @Override
+  public double getIteratorAdvanceCost() {
+    return 1;
+  }
+
+  @Override
+  public boolean isAddConstantTime() {
+    return true;
+  }
+
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  private final class NonDefaultIterator implements Iterator<Element> {
+    private final BufferElement element = new BufferElement();
+    private int nextIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (nextIndex <= element.index) {
+        nextIndex = element.index + 1;
+        while (nextIndex < size() && values.get(nextIndex) == 0.0) {
+          nextIndex++;
+        }
+      }
+      return nextIndex < size();
+    }
+
+    @Override
+    public Element next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      element.index = nextIndex;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class AllIterator implements Iterator<Element> {
+    private final BufferElement element = new BufferElement();
+
+    @Override
+    public boolean hasNext() {
+      return element.index + 1 < size();
+    }
+
+    @Override
+    public Element next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      element.index++;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class BufferElement implements Element {
+    private int index = -1;
+
+    @Override
+    public double get() {
+      return values.get(index);
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      invalidateCachedLength();
+      values.put(index, value);
+    }
+  }
+}
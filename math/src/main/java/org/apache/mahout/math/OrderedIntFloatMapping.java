@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.Serializable;
+
+/**
+ * Like {@link OrderedIntDoubleMapping}, but holding float values: parallel arrays of ascending indices and
+ * their non-zero values.
+ */
+final class OrderedIntFloatMapping implements Serializable, Cloneable {
+
+  private int[] indices;
+  private float[] values;
+  private int numMappings;
+
+  OrderedIntFloatMapping(int capacity) {
+    indices = new int[capacity];
+    values = new float[capacity];
+  }
+
+  private OrderedIntFloatMapping(int[] indices, float[] values, int numMappings) {
+    this.indices = indices;
+    this.values = values;
+    this.numMappings = numMappings;
+  }
+
+  int[] getIndices() {
+    return indices;
+  }
+
+  float[] getValues() {
+    return values;
+  }
+
+  int getNumMappings() {
+    return numMappings;
+  }
+
+  private void growTo(int newCapacity) {
+    if (newCapacity > indices.length) {
+      int[] newIndices = new int[newCapacity];
+      System.arraycopy(indices, 0, newIndices, 0, numMappings);
+      indices = newIndices;
+      float[] newValues = new float[newCapacity];
+      System.arraycopy(values, 0, newValues, 0, numMappings);
+      values = newValues;
+    }
+  }
+
+  private int find(int index) {
+    int low = 0;
+    int high = numMappings - 1;
+    while (low <= high) {
+      int mid = low + (high - low >>> 1);
+      int midVal = indices[mid];
+      if (midVal < index) {
+        low = mid + 1;
+      } else if (midVal > index) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  float get(int index) {
+    int offset = find(index);
+    return offset >= 0 ? values[offset] : 0.0f;
+  }
+
+  void set(int index, float value) {
+    if (numMappings == 0 || index > indices[numMappings - 1]) {
+      if (value != 0.0f) {
+        if (numMappings >= indices.length) {
+          growTo(Math.max((int) (1.2 * numMappings), numMappings + 1));
+        }
+        indices[numMappings] = index;
+        values[numMappings] = value;
+        ++numMappings;
+      }
+      return;
+    }
+    int offset = find(index);
+    if (offset >= 0) {
+      setValueAt(offset, value);
+    } else if (value != 0.0f) {
+      if (numMappings >= indices.length) {
+        growTo(Math.max((int) (1.2 * numMappings), numMappings + 1));
+      }
+      int at = -offset - 1;
+      System.arraycopy(indices, at, indices, at + 1, numMappings - at);
+      System.arraycopy(values, at, values, at + 1, numMappings - at);
+      indices[at] = index;
+      values[at] = value;
+      numMappings++;
+    }
+  }
+
+  /** Sets the value of the mapping at the offset, removing it if the value is 0. */
+  void setValueAt(int offset, float value) {
+    if (value == 0.0f) {
+      System.arraycopy(indices, offset + 1, indices, offset, numMappings - offset - 1);
+      System.arraycopy(values, offset + 1, values, offset, numMappings - offset - 1);
+      numMappings--;
+    } else {
+      values[offset] = value;
+    }
+  }
+
+  /**
+   * Merges the updates in linear time, like {@link OrderedIntDoubleMapping#merge(OrderedIntDoubleMapping)}.
+   */
+  void merge(OrderedIntDoubleMapping updates) {
+    int[] updateIndices = updates.getIndices();
+    double[] updateValues = updates.getValues();
+    int numUpdates = updates.getNumMappings();
+
+    int newNumMappings = numMappings + numUpdates;
+    int newCapacity = Math.max((int) (1.2 * newNumMappings), newNumMappings + 1);
+    int[] newIndices = new int[newCapacity];
+    float[] newValues = new float[newCapacity];
+
+    int k = 0;
+    int i = 0;
+    int j = 0;
+    while (i < numMappings || j < numUpdates) {
+      int index;
+      float value;
+      if (j == numUpdates || (i < numMappings && indices[i] < updateIndices[j])) {
+        index = indices[i];
+        value = values[i++];
+      } else {
+        if (i < numMappings && indices[i] == updateIndices[j]) {
+          i++;
+        }
+        index = updateIndices[j];
+        value = (float) updateValues[j++];
+      }
+      if (value != 0.0f) {
+        newIndices[k] = index;
+        newValues[k++] = value;
+      }
+    }
+
+    indices = newIndices;
+    values = newValues;
+    numMappings = k;
+  }
+
+  @SuppressWarnings("CloneDoesntCallSuperClone")
+  @Override
+  public OrderedIntFloatMapping clone() {
+    return new OrderedIntFloatMapping(indices.clone(), values.clone(), numMappings);
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs a computation over consecutive blocks of a range of indices, typically rows, on a shared pool of
+ * daemon threads, one per processor, when it is large enough to be worth it; otherwise in the calling thread.
+ * Blocks must be independent of each other.
+ */
+final class ParallelBlocks {
+
+  /** Units of work, such as multiply-adds, above which a computation is split across threads. */
+  static final long PARALLEL_THRESHOLD = 1L << 22;
+
+  static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /** Computes one block of indices. */
+  interface Task {
+    void compute(int from, int to);
+  }
+
+  private ParallelBlocks() {
+  }
+
+  /**
+   * @param size number of indices, from 0
+   * @param blockSize number of indices in each block but maybe the last
+   * @param work estimated cost of the whole computation, to compare with {@link #PARALLEL_THRESHOLD}
+   */
+  static void run(int size, int blockSize, long work, final Task task) {
+    if (work < PARALLEL_THRESHOLD || size <= blockSize || NUM_THREADS == 1) {
+      for (int from = 0; from < size; from += blockSize) {
+        task.compute(from, Math.min(from + blockSize, size));
+      }
+      return;
+    }
+    List<Future<?>> futures = Lists.newArrayList();
+    for (int from = 0; from < size; from += blockSize) {
+      final int blockFrom = from;
+      final int blockTo = Math.min(from + blockSize, size);
+      futures.add(Pool.EXECUTOR.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.compute(blockFrom, blockTo);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /** Holds the thread pool, so that it is only created if a computation is large enough to use it. */
+  private static final class Pool {
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mahout-math-" + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    private Pool() {
+    }
+  }
+
+}
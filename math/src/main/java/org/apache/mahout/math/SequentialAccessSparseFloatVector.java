@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.math.function.Functions;
+
+/**
+ * Implements vector that only stores non-zero values, as floats, in a pair of parallel arrays ordered by
+ * index. Like {@link SequentialAccessSparseVector}, with the same costs, but values set are rounded to float
+ * precision.
+ */
+public class SequentialAccessSparseFloatVector extends AbstractVector {
+
+  private OrderedIntFloatMapping values;
+
+  /** For serialization purposes only. */
+  public SequentialAccessSparseFloatVector() {
+    super(0);
+  }
+
+  public SequentialAccessSparseFloatVector(int cardinality) {
+    this(cardinality, Math.min(100, cardinality / 1000 < 10 ? 10 : cardinality / 1000));
+  }
+
+  public SequentialAccessSparseFloatVector(int cardinality, int size) {
+    super(cardinality);
+    values = new OrderedIntFloatMapping(size);
+  }
+
+  public SequentialAccessSparseFloatVector(Vector other) {
+    this(other.size(), other.getNumNondefaultElements());
+    // Appending in order of index takes constant time per element
+    Vector ordered = other.isSequentialAccess() ? other : new SequentialAccessSparseVector(other);
+    for (Element e : ordered.nonZeroes()) {
+      values.set(e.index(), (float) e.get());
+    }
+  }
+
+  private SequentialAccessSparseFloatVector(int cardinality, OrderedIntFloatMapping values) {
+    super(cardinality);
+    this.values = values;
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @SuppressWarnings("CloneDoesntCallSuperClone")
+  @Override
+  public SequentialAccessSparseFloatVector clone() {
+    return new SequentialAccessSparseFloatVector(size(), values.clone());
+  }
+
+  @Override
+  public void mergeUpdates(OrderedIntDoubleMapping updates) {
+    values.merge(updates);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    result.append('{');
+    for (Element e : nonZeroes()) {
+      result.append(e.index());
+      result.append(':');
+      result.append(e.get());
+      result.append(',');
+    }
+    result.append('}');
+    return result.toString();
+  }
+
+  /**
+   * @return false
+   */
+  @Override
+  public boolean isDense() {
+    return false;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  /**
+   * Warning! This takes O(log n) time as it does a binary search behind the scenes!
+   * Only use it when STRICTLY necessary.
+   */
+  @Override
+  public double getQuick(int index) {
+    return values.get(index);
+  }
+
+  /**
+   * Warning! This takes O(log n) time as it does a binary search behind the scenes!
+   * Only use it when STRICTLY necessary.
+   */
+  @Override
+  public void setQuick(int index, double value) {
+    invalidateCachedLength();
+    values.set(index, (float) value);
+  }
+
+  @Override
+  public void incrementQuick(int index, double increment) {
+    invalidateCachedLength();
+    values.set(index, (float) (values.get(index) + increment));
+  }
+
+  @Override
+  public SequentialAccessSparseFloatVector like() {
+    return new SequentialAccessSparseFloatVector(size(), values.getNumMappings());
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return values.getNumMappings();
+  }
+
+  @Override
+  public double getLookupCost() {
+    return Math.max(1, Math.round(Functions.LOG2.apply(getNumNondefaultElements())));
+  }
+
+  @Override
+  public double getIteratorAdvanceCost() {
+    return 1;
+  }
+
+  @Override
+  public boolean isAddConstantTime() {
+    return false;
+  }
+
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  private final class NonDefaultIterator implements Iterator<Element> {
+    private final NonDefaultElement element = new NonDefaultElement();
+
+    @Override
+    public boolean hasNext() {
+      return element.offset + 1 < values.getNumMappings();
+    }
+
+    @Override
+    public Element next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      element.offset++;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class AllIterator implements Iterator<Element> {
+    private final AllElement element = new AllElement();
+
+    @Override
+    public boolean hasNext() {
+      return element.index + 1 < size();
+    }
+
+    @Override
+    public Element next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      element.advanceIndex();
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class NonDefaultElement implements Element {
+    private int offset = -1;
+
+    @Override
+    public double get() {
+      return values.getValues()[offset];
+    }
+
+    @Override
+    public int index() {
+      return values.getIndices()[offset];
+    }
+
+    @Override
+    public void set(double value) {
+      invalidateCachedLength();
+      float floatValue = (float) value;
+      if (floatValue == 0.0f) {
+        // Keep the mapping, as removing it would shift the ones still to be iterated over
+        values.getValues()[offset] = 0.0f;
+      } else {
+        values.setValueAt(offset, floatValue);
+      }
+    }
+  }
+
+  private final class AllElement implements Element {
+    private int index = -1;
+    private int nextOffset;
+
+    void advanceIndex() {
+      index++;
+      if (nextOffset < values.getNumMappings() && index > values.getIndices()[nextOffset]) {
+        nextOffset++;
+      }
+    }
+
+    @Override
+    public double get() {
+      if (nextOffset < values.getNumMappings() && index == values.getIndices()[nextOffset]) {
+        return values.getValues()[nextOffset];
+      }
+      return 0.0;
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      invalidateCachedLength();
+      values.set(index, (float) value);
+    }
+  }
+}
@@ -0,0 +1,480 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.math.function.DoubleDoubleFunction;
+import org.apache.mahout.math.function.DoubleFunction;
+import org.apache.mahout.math.function.Functions;
+
+/**
+ * <p>
+ * An element-wise expression over {@link Vector}s, evaluated lazily. Where {@code v.minus(c).times(w).plus(b)}
+ * creates a vector for each step, and chooses how to iterate over its operands at each step,
+ * {@code VectorExpression.of(v).minus(c).times(w).plus(b)} just records the steps. The whole expression is then
+ * computed in one pass, when its result is {@link #materialize()}d, {@link #assignTo(Vector)}ed to an existing
+ * vector, or {@link #aggregate(DoubleDoubleFunction, DoubleFunction)}d without being stored at all, as in
+ * {@code VectorExpression.of(v).minus(c).getLengthSquared()}.
+ * </p>
+ *
+ * <p>
+ * The pass visits only the indices at which the result may be non-zero, in ascending order, judging from the
+ * operands' non-zero entries and the functions applied: the union of the operands' non-zeros for sums, the
+ * non-zeros of the sparsest operand for products, and every index once an operand is dense or a function maps
+ * zero to something else. Dense operands are read with {@link Vector#getQuick(int)}, sparse operands with
+ * sequential access by walking their non-zeros alongside the pass, and others by looking each index up.
+ * </p>
+ *
+ * <p>
+ * Expressions are immutable and can be evaluated many times; each evaluation reads the operands' current
+ * values.
+ * </p>
+ */
+public abstract class VectorExpression {
+
+  private final int size;
+
+  private VectorExpression(int size) {
+    this.size = size;
+  }
+
+  /**
+   * @return an expression whose value is the vector's
+   */
+  public static VectorExpression of(Vector vector) {
+    return new Leaf(vector);
+  }
+
+  public final int size() {
+    return size;
+  }
+
+  public VectorExpression plus(Vector other) {
+    return plus(of(other));
+  }
+
+  public VectorExpression plus(VectorExpression other) {
+    return combine(other, Functions.PLUS);
+  }
+
+  public VectorExpression minus(Vector other) {
+    return minus(of(other));
+  }
+
+  public VectorExpression minus(VectorExpression other) {
+    return combine(other, Functions.MINUS);
+  }
+
+  /**
+   * @return the element-wise product, as with {@link Vector#times(Vector)}
+   */
+  public VectorExpression times(Vector other) {
+    return times(of(other));
+  }
+
+  public VectorExpression times(VectorExpression other) {
+    return combine(other, Functions.MULT);
+  }
+
+  public VectorExpression plus(double x) {
+    return apply(Functions.plus(x));
+  }
+
+  public VectorExpression times(double x) {
+    return apply(Functions.mult(x));
+  }
+
+  public VectorExpression divide(double x) {
+    return apply(Functions.div(x));
+  }
+
+  /**
+   * @return this expression, plus {@code other} times {@code x}
+   */
+  public VectorExpression plusTimes(Vector other, double x) {
+    return combine(of(other), Functions.plusMult(x));
+  }
+
+  /**
+   * @return the function applied to each element of this expression
+   */
+  public VectorExpression apply(DoubleFunction function) {
+    return new Unary(this, function);
+  }
+
+  public VectorExpression combine(Vector other, DoubleDoubleFunction function) {
+    return combine(of(other), function);
+  }
+
+  /**
+   * @return the function applied to each element of this expression, and the same element of the other
+   * @throws CardinalityException if the expressions are not of the same size
+   */
+  public VectorExpression combine(VectorExpression other, DoubleDoubleFunction function) {
+    if (size != other.size) {
+      throw new CardinalityException(size, other.size);
+    }
+    return new Binary(this, other, function);
+  }
+
+  /**
+   * @return a new vector holding the value of this expression: dense if every element may be non-zero, and
+   *  otherwise like the first operand
+   */
+  public Vector materialize() {
+    int[] indices = candidateIndices();
+    Evaluator evaluator = evaluator();
+    if (indices == null) {
+      double[] values = new double[size];
+      for (int index = 0; index < size; index++) {
+        values[index] = evaluator.get(index);
+      }
+      return new DenseVector(values, true);
+    }
+    Vector result = firstOperand().like();
+    for (int index : indices) {
+      double value = evaluator.get(index);
+      if (value != 0.0) {
+        result.setQuick(index, value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets every element of the target to the value of this expression. The target may be one of the operands,
+   * as in {@code VectorExpression.of(w).plusTimes(gradient, -rate).assignTo(w)}; it is updated in place if it
+   * is dense, and otherwise once the whole value has been computed.
+   *
+   * @return the target
+   * @throws CardinalityException if the target is not of the same size
+   */
+  public Vector assignTo(Vector target) {
+    if (size != target.size()) {
+      throw new CardinalityException(size, target.size());
+    }
+    int[] indices = candidateIndices();
+    if (!target.isDense()) {
+      if (readsFrom(target)) {
+        return target.assign(materialize());
+      }
+      target.assign(0.0);
+      Evaluator evaluator = evaluator();
+      if (indices == null) {
+        for (int index = 0; index < size; index++) {
+          target.setQuick(index, evaluator.get(index));
+        }
+      } else {
+        for (int index : indices) {
+          target.setQuick(index, evaluator.get(index));
+        }
+      }
+      return target;
+    }
+    // Each index of the target is read, if at all, just before it is written
+    Evaluator evaluator = evaluator();
+    int next = 0;
+    for (int index = 0; index < size; index++) {
+      if (indices == null) {
+        target.setQuick(index, evaluator.get(index));
+      } else if (next < indices.length && indices[next] == index) {
+        target.setQuick(index, evaluator.get(index));
+        next++;
+      } else {
+        target.setQuick(index, 0.0);
+      }
+    }
+    return target;
+  }
+
+  /**
+   * Aggregates the elements of this expression, as {@link Vector#aggregate(DoubleDoubleFunction, DoubleFunction)}
+   * would aggregate them once materialized, but without storing them.
+   */
+  public double aggregate(DoubleDoubleFunction aggregator, DoubleFunction map) {
+    if (size == 0) {
+      return 0;
+    }
+    int[] indices = candidateIndices();
+    Evaluator evaluator = evaluator();
+    // As in AbstractVector: if fm(0) = 0 and fa(x, 0) = x, zeros can be skipped
+    if (indices != null && !map.isDensifying() && aggregator.isLikeRightPlus()) {
+      double result = 0.0;
+      boolean first = true;
+      for (int index : indices) {
+        double value = map.apply(evaluator.get(index));
+        result = first ? value : aggregator.apply(result, value);
+        first = false;
+      }
+      return result;
+    }
+    double result = map.apply(evaluator.get(0));
+    for (int index = 1; index < size; index++) {
+      result = aggregator.apply(result, map.apply(evaluator.get(index)));
+    }
+    return result;
+  }
+
+  /**
+   * @return the sum of the elements
+   */
+  public double zSum() {
+    return aggregate(Functions.PLUS, Functions.IDENTITY);
+  }
+
+  /**
+   * @return the sum of the squares of the elements, such as the squared distance between two vectors for
+   *  {@code VectorExpression.of(v).minus(c).getLengthSquared()}
+   */
+  public double getLengthSquared() {
+    return aggregate(Functions.PLUS, Functions.SQUARE);
+  }
+
+  /**
+   * @return the dot product of this expression with the vector
+   */
+  public double dot(Vector other) {
+    return times(other).zSum();
+  }
+
+  /**
+   * @return ascending indices outside of which the expression is zero, or null if it may be non-zero anywhere
+   */
+  abstract int[] candidateIndices();
+
+  /**
+   * @return a new evaluator of the expression, for indices in ascending order
+   */
+  abstract Evaluator evaluator();
+
+  abstract Vector firstOperand();
+
+  abstract boolean readsFrom(Vector vector);
+
+  /** Computes elements of an expression, at ascending indices. */
+  abstract static class Evaluator {
+    abstract double get(int index);
+  }
+
+  private static final class Leaf extends VectorExpression {
+
+    private final Vector vector;
+
+    private Leaf(Vector vector) {
+      super(vector.size());
+      this.vector = vector;
+    }
+
+    @Override
+    int[] candidateIndices() {
+      if (vector.isDense()) {
+        return null;
+      }
+      int[] indices = new int[vector.getNumNondefaultElements()];
+      int numIndices = 0;
+      for (Vector.Element e : vector.nonZeroes()) {
+        if (numIndices == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * numIndices + 1);
+        }
+        indices[numIndices++] = e.index();
+      }
+      if (numIndices < indices.length) {
+        indices = Arrays.copyOf(indices, numIndices);
+      }
+      if (!vector.isSequentialAccess()) {
+        Arrays.sort(indices);
+      }
+      return indices;
+    }
+
+    @Override
+    Evaluator evaluator() {
+      if (!vector.isDense() && vector.isSequentialAccess()) {
+        return new SequentialEvaluator(vector.nonZeroes().iterator());
+      }
+      return new Evaluator() {
+        @Override
+        double get(int index) {
+          return vector.getQuick(index);
+        }
+      };
+    }
+
+    @Override
+    Vector firstOperand() {
+      return vector;
+    }
+
+    @Override
+    boolean readsFrom(Vector other) {
+      return vector == other;
+    }
+  }
+
+  /** Walks the non-zeros of a sequential access vector alongside the indices asked for. */
+  private static final class SequentialEvaluator extends Evaluator {
+
+    private final Iterator<Vector.Element> nonZeroes;
+    private int nextIndex = -1;
+    private double nextValue;
+
+    private SequentialEvaluator(Iterator<Vector.Element> nonZeroes) {
+      this.nonZeroes = nonZeroes;
+    }
+
+    @Override
+    double get(int index) {
+      while (nextIndex < index) {
+        if (!nonZeroes.hasNext()) {
+          nextIndex = Integer.MAX_VALUE;
+          break;
+        }
+        Vector.Element e = nonZeroes.next();
+        nextIndex = e.index();
+        nextValue = e.get();
+      }
+      return nextIndex == index ? nextValue : 0.0;
+    }
+  }
+
+  private static final class Unary extends VectorExpression {
+
+    private final VectorExpression operand;
+    private final DoubleFunction function;
+
+    private Unary(VectorExpression operand, DoubleFunction function) {
+      super(operand.size());
+      this.operand = Preconditions.checkNotNull(operand);
+      this.function = Preconditions.checkNotNull(function);
+    }
+
+    @Override
+    int[] candidateIndices() {
+      return function.isDensifying() ? null : operand.candidateIndices();
+    }
+
+    @Override
+    Evaluator evaluator() {
+      final Evaluator operandEvaluator = operand.evaluator();
+      return new Evaluator() {
+        @Override
+        double get(int index) {
+          return function.apply(operandEvaluator.get(index));
+        }
+      };
+    }
+
+    @Override
+    Vector firstOperand() {
+      return operand.firstOperand();
+    }
+
+    @Override
+    boolean readsFrom(Vector vector) {
+      return operand.readsFrom(vector);
+    }
+  }
+
+  private static final class Binary extends VectorExpression {
+
+    private final VectorExpression left;
+    private final VectorExpression right;
+    private final DoubleDoubleFunction function;
+
+    private Binary(VectorExpression left, VectorExpression right, DoubleDoubleFunction function) {
+      super(left.size());
+      this.left = left;
+      this.right = Preconditions.checkNotNull(right);
+      this.function = Preconditions.checkNotNull(function);
+    }
+
+    @Override
+    int[] candidateIndices() {
+      if (function.isDensifying()) {
+        return null;
+      }
+      int[] leftIndices = left.candidateIndices();
+      int[] rightIndices = right.candidateIndices();
+      if (function.isLikeMult()) {
+        // Zero wherever either side is, so the sparser side's indices will do
+        if (leftIndices == null) {
+          return rightIndices;
+        }
+        if (rightIndices == null || leftIndices.length <= rightIndices.length) {
+          return leftIndices;
+        }
+        return rightIndices;
+      }
+      if (leftIndices == null || rightIndices == null) {
+        return null;
+      }
+      return union(leftIndices, rightIndices);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+      int[] union = new int[a.length + b.length];
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while (i < a.length && j < b.length) {
+        if (a[i] < b[j]) {
+          union[k++] = a[i++];
+        } else if (a[i] > b[j]) {
+          union[k++] = b[j++];
+        } else {
+          union[k++] = a[i++];
+          j++;
+        }
+      }
+      while (i < a.length) {
+        union[k++] = a[i++];
+      }
+      while (j < b.length) {
+        union[k++] = b[j++];
+      }
+      return k == union.length ? union : Arrays.copyOf(union, k);
+    }
+
+    @Override
+    Evaluator evaluator() {
+      final Evaluator leftEvaluator = left.evaluator();
+      final Evaluator rightEvaluator = right.evaluator();
+      return new Evaluator() {
+        @Override
+        double get(int index) {
+          return function.apply(leftEvaluator.get(index), rightEvaluator.get(index));
+        }
+      };
+    }
+
+    @Override
+    Vector firstOperand() {
+      return left.firstOperand();
+    }
+
+    @Override
+    boolean readsFrom(Vector vector) {
+      return left.readsFrom(vector) || right.readsFrom(vector);
+    }
+  }
+
+}
@@ -18,6 +18,7 @@
 package org.apache.mahout.math.ssvd;
 
 import org.apache.mahout.math.CholeskyDecomposition;
+import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomTrinaryMatrix;
@@ -41,18 +42,26 @@ public class SequentialBigSvd {
     y = A.times(new RandomTrinaryMatrix(A.columnSize(), p));
 
     // R'R = Y' Y
-    cd1 = new CholeskyDecomposition(y.transpose().times(y));
+    cd1 = new CholeskyDecomposition(transposeTimesSelf(y));
 
     // B = Q" A = (Y R^{-1} )' A
     b = cd1.solveRight(y).transpose().times(A);
 
     // L L' = B B'
-    cd2 = new CholeskyDecomposition(b.times(b.transpose()));
+    cd2 = new CholeskyDecomposition(timesTransposeSelf(b));
 
     // U_0 D V_0' = L
     svd = new SingularValueDecomposition(cd2.getL());
   }
 
+  private static Matrix transposeTimesSelf(Matrix m) {
+    return m instanceof DenseMatrix ? ((DenseMatrix) m).transposeTimes((DenseMatrix) m) : m.transpose().times(m);
+  }
+
+  private static Matrix timesTransposeSelf(Matrix m) {
+    return m instanceof DenseMatrix ? ((DenseMatrix) m).timesTranspose((DenseMatrix) m) : m.times(m.transpose());
+  }
+
   public Vector getSingularValues() {
     return new DenseVector(svd.getSingularValues());
   }
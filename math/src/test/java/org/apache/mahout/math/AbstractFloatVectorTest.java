@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.jet.random.Normal;
+import org.junit.Test;
+
+/**
+ * Runs the tests for all vectors against vectors which round values to float precision, checking results
+ * against what the same values give in double precision, within float rounding.
+ */
+public abstract class AbstractFloatVectorTest<T extends Vector> extends AbstractVectorTest<T> {
+
+  /** Relative error of rounding to a float. */
+  private static final double FLOAT_EPSILON = 1.0e-7;
+
+  @Test
+  public void testValuesRounded() {
+    Vector test = generateTestVector(3);
+    test.set(0, 1.1);
+    test.set(1, 1.0e-50);
+    assertEquals((float) 1.1, test.get(0), 0.0);
+    assertEquals(0.0, test.get(1), 0.0);
+    assertEquals(1, test.getNumNonZeroElements());
+    test.incrementQuick(2, 0.5);
+    test.incrementQuick(2, -0.5);
+    assertEquals(0.0, test.get(2), 0.0);
+  }
+
+  @Override
+  public void testSimpleOps() {
+    T v0 = vectorToTest(20);
+    Random gen = RandomUtils.getRandom();
+    Vector v1 = v0.assign(new Normal(0, 1, gen));
+    assertSame(v0, v1);
+
+    Vector v2 = vectorToTest(20).assign(new Normal(0, 1, gen));
+    // The same values, exactly, in double precision
+    Vector dv1 = new DenseVector(v1);
+    Vector dv2 = new DenseVector(v2);
+    Vector sv2 = new RandomAccessSparseVector(v2);
+
+    assertNear(dv1.plus(dv2), v1.plus(v2));
+    assertNear(dv1.plus(dv2), v1.plus(sv2));
+    assertNear(dv1.times(dv2), v1.times(v2));
+    assertNear(dv1.minus(dv2), v1.minus(dv2));
+
+    double z = gen.nextDouble();
+    assertNear(dv1.divide(z), v1.divide(z));
+    assertNear(dv1.times(z), v1.times(z));
+    assertNear(dv1.plus(z), v1.plus(z));
+
+    // Products of floats are exact in double precision
+    assertEquals(dv1.dot(dv2), v1.dot(v2), 1.0e-13);
+    assertEquals(dv1.dot(dv2), v1.dot(dv2), 1.0e-13);
+    assertEquals(dv1.getLengthSquared(), v1.getLengthSquared(), 1.0e-13);
+  }
+
+  @Override
+  public void testIterator() {
+    double[] gold = {0.0, 1.1, 0.0, 2.2, 0.0, 3.3, 0.0};
+    int numNonZeroes = 0;
+    for (Vector.Element e : getTestVector().nonZeroes()) {
+      assertEquals((float) gold[e.index()], e.get(), 0.0);
+      numNonZeroes++;
+    }
+    assertEquals(3, numNonZeroes);
+    for (Vector.Element e : getTestVector().all()) {
+      assertEquals((float) gold[e.index()], e.get(), 0.0);
+    }
+  }
+
+  @Override
+  public void testGetDistanceSquared() {
+    Vector test = getTestVector();
+    Vector other = new RandomAccessSparseVector(test.size());
+    other.set(1, -2);
+    other.set(2, -5);
+    other.set(3, -9);
+    other.set(4, 1);
+    double expected = new DenseVector(test).minus(other).getLengthSquared();
+    assertEquals(expected, test.getDistanceSquared(other), expected * FLOAT_EPSILON);
+  }
+
+  private static void assertNear(Vector expected, Vector actual) {
+    assertEquals(0.0, expected.getDistanceSquared(actual),
+        FLOAT_EPSILON * FLOAT_EPSILON * Math.max(1.0, expected.getLengthSquared()));
+  }
+
+}
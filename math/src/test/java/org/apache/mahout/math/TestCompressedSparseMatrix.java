@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.jet.random.Normal;
+import org.junit.Test;
+
+public final class TestCompressedSparseMatrix extends MahoutTestCase {
+
+  @Test
+  public void testPacking() {
+    Random random = RandomUtils.getRandom();
+    Matrix m = randomSparseMatrix(random, 40, 30);
+    CompressedSparseMatrix byRows = CompressedSparseMatrix.byRows(m);
+    CompressedSparseMatrix byColumns = CompressedSparseMatrix.byColumns(m);
+    assertTrue(byRows.isByRow());
+    assertFalse(byColumns.isByRow());
+    assertEquals(byRows.getNumEntries(), byColumns.getNumEntries());
+    assertEquals(0.0, m.minus(byRows).aggregate(Functions.PLUS, Functions.ABS), EPSILON);
+    assertEquals(0.0, m.minus(byColumns).aggregate(Functions.PLUS, Functions.ABS), EPSILON);
+    for (int row = 0; row < m.rowSize(); row++) {
+      assertEquals(0.0, m.viewRow(row).getDistanceSquared(byRows.viewRow(row)), EPSILON);
+      assertEquals(0.0, m.viewRow(row).getDistanceSquared(byColumns.viewRow(row)), EPSILON);
+    }
+    for (int column = 0; column < m.columnSize(); column++) {
+      assertEquals(0.0, m.viewColumn(column).getDistanceSquared(byRows.viewColumn(column)), EPSILON);
+      assertEquals(0.0, m.viewColumn(column).getDistanceSquared(byColumns.viewColumn(column)), EPSILON);
+    }
+    Matrix transpose = byRows.transpose();
+    assertEquals(m.columnSize(), transpose.rowSize());
+    assertEquals(0.0, m.transpose().minus(transpose).aggregate(Functions.PLUS, Functions.ABS), EPSILON);
+  }
+
+  @Test
+  public void testVectorProducts() {
+    Random random = RandomUtils.getRandom();
+    Matrix m = randomSparseMatrix(random, 50, 70);
+    Vector dense = new DenseVector(70).assign(new Normal(0, 1, random));
+    Vector sparse = new RandomAccessSparseVector(70);
+    sparse.setQuick(3, 1.5);
+    sparse.setQuick(42, -2.0);
+    Vector rowSized = new DenseVector(50).assign(new Normal(0, 1, random));
+    for (CompressedSparseMatrix csm : new CompressedSparseMatrix[] {
+        CompressedSparseMatrix.byRows(m), CompressedSparseMatrix.byColumns(m)}) {
+      assertEquals(0.0, m.times(dense).getDistanceSquared(csm.times(dense)), EPSILON);
+      assertEquals(0.0, m.times(sparse).getDistanceSquared(csm.times(sparse)), EPSILON);
+      assertEquals(0.0, m.timesSquared(dense).getDistanceSquared(csm.timesSquared(dense)), EPSILON);
+      assertEquals(0.0,
+          m.transpose().times(rowSized).getDistanceSquared(csm.transpose().times(rowSized)), EPSILON);
+    }
+  }
+
+  @Test
+  public void testParallelVectorProducts() {
+    Random random = RandomUtils.getRandom();
+    // Enough entries to be multiplied in parallel
+    int rows = 3000;
+    int columns = 4000;
+    int entriesPerRow = 1500;
+    int[] offsets = new int[rows + 1];
+    int[] indices = new int[rows * entriesPerRow];
+    double[] values = new double[indices.length];
+    for (int row = 0; row < rows; row++) {
+      offsets[row + 1] = offsets[row] + entriesPerRow;
+      int column = random.nextInt(columns - 2 * entriesPerRow);
+      for (int k = offsets[row]; k < offsets[row + 1]; k++) {
+        column += random.nextInt(2) == 0 ? 1 : 0;
+        indices[k] = column++;
+        values[k] = random.nextGaussian();
+      }
+    }
+    CompressedSparseMatrix csr = new CompressedSparseMatrix(rows, columns, offsets, indices, values, true);
+    double[] x = new double[columns];
+    for (int i = 0; i < columns; i++) {
+      x[i] = random.nextGaussian();
+    }
+    double[] expected = new double[rows];
+    for (int row = 0; row < rows; row++) {
+      for (int k = offsets[row]; k < offsets[row + 1]; k++) {
+        expected[row] += values[k] * x[indices[k]];
+      }
+    }
+    Vector v = new DenseVector(x);
+    assertEquals(0.0, new DenseVector(expected).getDistanceSquared(csr.times(v)), 1.0e-12);
+    assertEquals(0.0, new DenseVector(expected).getDistanceSquared(csr.repack().times(v)), 1.0e-12);
+  }
+
+  @Test
+  public void testMatrixProducts() {
+    Random random = RandomUtils.getRandom();
+    // The last is large enough to be multiplied in parallel
+    int[][] sizes = {{1, 1, 1}, {0, 5, 3}, {20, 30, 10}, {2000, 500, 200}};
+    for (int[] size : sizes) {
+      Matrix a = randomSparseMatrix(random, size[0], size[1]);
+      DenseMatrix b = new DenseMatrix(size[1], size[2]);
+      b.assign(new Normal(0, 1, random));
+      Matrix expected = new SparseRowMatrix(size[0], size[2]);
+      for (int row = 0; row < size[0]; row++) {
+        expected.assignRow(row, b.transpose().times(a.viewRow(row)));
+      }
+      for (CompressedSparseMatrix csm : new CompressedSparseMatrix[] {
+          CompressedSparseMatrix.byRows(a), CompressedSparseMatrix.byColumns(a)}) {
+        Matrix product = csm.times(b);
+        assertEquals(size[0], product.rowSize());
+        assertEquals(size[2], product.columnSize());
+        assertEquals(0.0, expected.minus(product).aggregate(Functions.PLUS, Functions.ABS), 1.0e-9);
+      }
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    CompressedSparseMatrix.byRows(new DenseMatrix(2, 2)).setQuick(0, 0, 1.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsortedIndices() {
+    new CompressedSparseMatrix(1, 3, new int[] {0, 2}, new int[] {2, 1}, new double[] {1.0, 2.0}, true);
+  }
+
+  private static Matrix randomSparseMatrix(Random random, int rows, int columns) {
+    Matrix m = new SparseRowMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        if (random.nextInt(10) == 0) {
+          m.setQuick(row, column, random.nextGaussian());
+        }
+      }
+    }
+    return m;
+  }
+
+}
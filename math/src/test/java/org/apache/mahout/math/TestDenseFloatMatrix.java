@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.jet.random.Normal;
+import org.junit.Test;
+
+public final class TestDenseFloatMatrix extends MahoutTestCase {
+
+  @Test
+  public void testValuesRounded() {
+    Matrix m = new DenseFloatMatrix(2, 3);
+    m.setQuick(1, 2, 1.1);
+    assertEquals((float) 1.1, m.getQuick(1, 2), 0.0);
+    m.viewRow(0).set(1, 2.2);
+    assertEquals((float) 2.2, m.getQuick(0, 1), 0.0);
+    m.assignColumn(0, new DenseVector(new double[] {3.3, 4.4}));
+    assertEquals((float) 4.4, m.getQuick(1, 0), 0.0);
+    assertTrue(m.viewRow(1) instanceof DenseFloatVector);
+    assertTrue(m.like() instanceof DenseFloatMatrix);
+  }
+
+  @Test
+  public void testCopies() {
+    Matrix original = randomMatrix(RandomUtils.getRandom(), 5, 4);
+    DenseFloatMatrix m = new DenseFloatMatrix(original);
+    assertEquals(0.0, original.minus(m).aggregate(Functions.MAX, Functions.ABS), 1.0e-6);
+    Matrix clone = m.clone();
+    clone.setQuick(0, 0, 100.0);
+    assertEquals(original.getQuick(0, 0), m.getQuick(0, 0), 1.0e-6);
+  }
+
+  @Test
+  public void testProducts() {
+    Random random = RandomUtils.getRandom();
+    Matrix a = randomMatrix(random, 30, 20);
+    Matrix b = randomMatrix(random, 20, 10);
+    DenseFloatMatrix floatA = new DenseFloatMatrix(a);
+    Matrix roundedA = new DenseMatrix(30, 20).assign(floatA);
+    Vector v = new DenseVector(20).assign(new Normal(0, 1, random));
+    Vector sparse = new RandomAccessSparseVector(20);
+    sparse.setQuick(7, 2.5);
+    // Products of the rounded values are exact, apart from the order of summing
+    assertEquals(0.0, roundedA.times(v).getDistanceSquared(floatA.times(v)), 1.0e-20);
+    assertEquals(0.0, roundedA.times(sparse).getDistanceSquared(floatA.times(sparse)), 1.0e-20);
+    assertEquals(0.0, roundedA.times(b).minus(floatA.times(b)).aggregate(Functions.MAX, Functions.ABS), 1.0e-5);
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testTimesVectorCardinality() {
+    new DenseFloatMatrix(3, 2).times(new DenseVector(3));
+  }
+
+  private static Matrix randomMatrix(Random random, int rows, int columns) {
+    return new DenseMatrix(rows, columns).assign(new Normal(0, 1, random));
+  }
+
+}
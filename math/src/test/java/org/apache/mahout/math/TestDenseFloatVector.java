@@ -15,26 +15,27 @@
  * limitations under the License.
  */
 
-package org.apache.mahout.cf.taste.impl.eval;
 
-import org.apache.mahout.cf.taste.recommender.Recommender;
+package org.apache.mahout.math;
 
-import java.util.concurrent.Callable;
+import org.apache.mahout.math.function.Functions;
 
-final class LoadCallable implements Callable<Void> {
+public final class TestDenseFloatVector extends AbstractFloatVectorTest<DenseFloatVector> {
 
-  private final Recommender recommender;
-  private final long userID;
-
-  LoadCallable(Recommender recommender, long userID) {
-    this.recommender = recommender;
-    this.userID = userID;
+  @Override
+  Vector generateTestVector(int cardinality) {
+    return new DenseFloatVector(cardinality);
   }
 
   @Override
-  public Void call() throws Exception {
-    recommender.recommend(userID, 10);
-    return null;
+  public void testSize() {
+    assertEquals("size", 3, getTestVector().getNumNonZeroElements());
   }
 
+  @Override
+  public DenseFloatVector vectorToTest(int size) {
+    DenseFloatVector r = new DenseFloatVector(size);
+    r.assign(Functions.random());
+    return r;
+  }
 }
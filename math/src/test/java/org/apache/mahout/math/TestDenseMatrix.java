@@ -17,6 +17,11 @@
 
 package org.apache.mahout.math;
 
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
 public final class TestDenseMatrix extends MatrixTest {
 
   @Override
@@ -24,4 +29,73 @@ public final class TestDenseMatrix extends MatrixTest {
     return new DenseMatrix(values);
   }
 
+  @Test
+  public void testBlockedProducts() {
+    Random random = RandomUtils.getRandom();
+    // Sizes spanning several blocks, and large enough to be computed in parallel
+    int[][] sizes = {{1, 1, 1}, {3, 0, 4}, {7, 130, 5}, {70, 129, 600}, {300, 200, 150}};
+    for (int[] size : sizes) {
+      DenseMatrix a = randomMatrix(random, size[0], size[1]);
+      DenseMatrix b = randomMatrix(random, size[1], size[2]);
+      DenseMatrix aT = randomMatrix(random, size[1], size[0]);
+      DenseMatrix bT = randomMatrix(random, size[2], size[1]);
+      assertProduct(naiveTimes(a, b), a.times(b));
+      assertProduct(naiveTimes(aT.transpose(), b), aT.transposeTimes(b));
+      assertProduct(naiveTimes(a, bT.transpose()), a.timesTranspose(bT));
+      assertProduct(naiveTimes(a.transpose(), a), a.transposeTimes(a));
+    }
+  }
+
+  @Test
+  public void testNonFiniteProducts() {
+    // 0 x Inf and 0 x NaN are NaN, as for any other matrix
+    DenseMatrix a = new DenseMatrix(new double[][] {{0.0, 1.0}, {2.0, 0.0}});
+    DenseMatrix b = new DenseMatrix(new double[][] {{Double.POSITIVE_INFINITY, 1.0}, {1.0, Double.NaN}});
+    assertProduct(naiveTimes(a, b), a.times(b));
+    assertProduct(naiveTimes(a.transpose(), b), a.transposeTimes(b));
+    assertProduct(naiveTimes(a, b.transpose()), a.timesTranspose(b));
+    assertTrue(Double.isNaN(a.times(b).getQuick(0, 0)));
+    assertTrue(Double.isNaN(a.transposeTimes(b).getQuick(0, 0)));
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testTransposeTimesCardinality() {
+    new DenseMatrix(3, 4).transposeTimes(new DenseMatrix(4, 3));
+  }
+
+  private static DenseMatrix randomMatrix(Random random, int rows, int columns) {
+    DenseMatrix m = new DenseMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        // Some zeros, to check they are multiplied like other entries
+        m.setQuick(row, column, random.nextInt(10) == 0 ? 0.0 : random.nextGaussian());
+      }
+    }
+    return m;
+  }
+
+  private static Matrix naiveTimes(Matrix a, Matrix b) {
+    Matrix c = new DenseMatrix(a.rowSize(), b.columnSize());
+    for (int i = 0; i < a.rowSize(); i++) {
+      for (int j = 0; j < b.columnSize(); j++) {
+        double sum = 0.0;
+        for (int k = 0; k < a.columnSize(); k++) {
+          sum += a.getQuick(i, k) * b.getQuick(k, j);
+        }
+        c.setQuick(i, j, sum);
+      }
+    }
+    return c;
+  }
+
+  private static void assertProduct(Matrix expected, Matrix actual) {
+    assertEquals(expected.rowSize(), actual.rowSize());
+    assertEquals(expected.columnSize(), actual.columnSize());
+    for (int i = 0; i < expected.rowSize(); i++) {
+      for (int j = 0; j < expected.columnSize(); j++) {
+        assertEquals(expected.getQuick(i, j), actual.getQuick(i, j), 1.0e-9);
+      }
+    }
+  }
+
 }
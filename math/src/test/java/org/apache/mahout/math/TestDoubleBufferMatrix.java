@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.random.MultiNormal;
+import org.junit.Test;
+
+public final class TestDoubleBufferMatrix extends MatrixTest {
+
+  @Override
+  public Matrix matrixFactory(double[][] values) {
+    // Two rows per buffer, so that the rows span several
+    Matrix matrix = DoubleBufferMatrix.allocateDirect(values.length, values[0].length, 2 * values[0].length * 8);
+    for (int row = 0; row < matrix.rowSize(); row++) {
+      for (int col = 0; col < matrix.columnSize(); col++) {
+        matrix.setQuick(row, col, values[row][col]);
+      }
+    }
+    return matrix;
+  }
+
+  @Test
+  public void testViewRowInPlace() {
+    Matrix m = DoubleBufferMatrix.allocateDirect(7, 3, 2 * 3 * 8);
+    for (int row = 0; row < m.rowSize(); row++) {
+      m.viewRow(row).assign(row);
+    }
+    for (int row = 0; row < m.rowSize(); row++) {
+      for (int column = 0; column < m.columnSize(); column++) {
+        assertEquals(row, m.get(row, column), 0.0);
+      }
+    }
+    m.viewPart(5, 2, 1, 2).assign(-1.0);
+    assertEquals(-1.0, m.get(6, 2), 0.0);
+    assertEquals(6.0, m.get(6, 0), 0.0);
+  }
+
+  @Test
+  public void testMapFile() throws IOException {
+    File f = File.createTempFile("matrix", ".m");
+    f.deleteOnExit();
+    Matrix m0 = new DenseMatrix(1000, 30);
+    MultiNormal gen = new MultiNormal(30);
+    for (MatrixSlice row : m0) {
+      row.vector().assign(gen.sample());
+    }
+    FileBasedMatrix.writeMatrix(f, m0);
+
+    // Rows split over buffers of 100 rows
+    DoubleBufferMatrix m = DoubleBufferMatrix.map(f, 1000, 30, true, true, 100 * 30 * 8);
+    assertEquals(0.0, m0.minus(m).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    m.set(999, 29, 42.0);
+    m.assignRow(500, new RandomAccessSparseVector(30));
+    m.force();
+
+    DoubleBufferMatrix readOnly = DoubleBufferMatrix.map(f, 1000, 30, false, false);
+    assertEquals(42.0, readOnly.get(999, 29), 0.0);
+    assertEquals(0.0, readOnly.viewRow(500).norm(1), 0.0);
+    assertEquals(m0.viewRow(501).dot(m0.viewRow(502)), readOnly.viewRow(501).dot(readOnly.viewRow(502)), 0.0);
+    try {
+      readOnly.set(0, 0, 1.0);
+      fail();
+    } catch (ReadOnlyBufferException robe) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.nio.DoubleBuffer;
+
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class TestDoubleBufferVector extends AbstractVectorTest<DoubleBufferVector> {
+
+  @Override
+  Vector generateTestVector(int cardinality) {
+    return DoubleBufferVector.allocateDirect(cardinality);
+  }
+
+  @Override
+  public void testSize() {
+    assertEquals("size", 3, getTestVector().getNumNonZeroElements());
+  }
+
+  @Override
+  public DoubleBufferVector vectorToTest(int size) {
+    DoubleBufferVector r = DoubleBufferVector.allocateDirect(size);
+    r.assign(Functions.random());
+    return r;
+  }
+
+  @Test
+  public void testWritesThrough() {
+    DoubleBuffer buffer = DoubleBuffer.allocate(10);
+    buffer.position(2);
+    Vector v = new DoubleBufferVector(buffer);
+    assertEquals(8, v.size());
+    v.set(0, 1.5);
+    v.viewPart(3, 4).set(1, 2.5);
+    assertEquals(1.5, buffer.get(2), 0.0);
+    assertEquals(2.5, buffer.get(6), 0.0);
+    assertEquals(2.5, v.get(4), 0.0);
+
+    Vector clone = v.clone();
+    clone.set(0, 3.5);
+    assertEquals(1.5, v.get(0), 0.0);
+    assertEquals(2.5, clone.get(4), 0.0);
+  }
+
+}
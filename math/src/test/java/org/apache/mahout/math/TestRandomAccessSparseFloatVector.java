@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import org.apache.mahout.common.RandomUtils;
+
+import java.util.Random;
+
+public final class TestRandomAccessSparseFloatVector extends AbstractFloatVectorTest<RandomAccessSparseFloatVector> {
+
+  @Override
+  Vector generateTestVector(int cardinality) {
+    return new RandomAccessSparseFloatVector(cardinality);
+  }
+
+  @Override
+  public RandomAccessSparseFloatVector vectorToTest(int size) {
+    RandomAccessSparseFloatVector r = new RandomAccessSparseFloatVector(size);
+    Random gen = RandomUtils.getRandom();
+    for (int i = 0; i < 3; i++) {
+      r.set(gen.nextInt(r.size()), gen.nextGaussian());
+    }
+    return r;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class VectorExpressionTest extends MahoutTestCase {
+
+  private static final int SIZE = 100;
+
+  @Test
+  public void testMatchesEagerOperations() {
+    Random random = RandomUtils.getRandom();
+    for (Vector v : vectorsOfEachKind(random)) {
+      for (Vector c : vectorsOfEachKind(random)) {
+        for (Vector w : vectorsOfEachKind(random)) {
+          assertVectorEquals(v.minus(c).times(w).plus(c),
+              VectorExpression.of(v).minus(c).times(w).plus(c).materialize());
+          assertVectorEquals(v.times(2.5).plus(c), VectorExpression.of(v).times(2.5).plus(c).materialize());
+          assertVectorEquals(v.plus(1.0).divide(3.0), VectorExpression.of(v).plus(1.0).divide(3.0).materialize());
+          assertEquals(v.getDistanceSquared(c), VectorExpression.of(v).minus(c).getLengthSquared(), EPSILON);
+          assertEquals(v.times(w).zSum(), VectorExpression.of(v).times(w).zSum(), EPSILON);
+          assertEquals(v.dot(c), VectorExpression.of(v).dot(c), EPSILON);
+          assertEquals(v.minus(c).norm(Double.POSITIVE_INFINITY),
+              VectorExpression.of(v).minus(c).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+          assertEquals(v.minus(c).aggregate(Functions.MIN, Functions.IDENTITY),
+              VectorExpression.of(v).minus(c).aggregate(Functions.MIN, Functions.IDENTITY), EPSILON);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSparseResults() {
+    Random random = RandomUtils.getRandom();
+    Vector a = randomSparse(random, new SequentialAccessSparseVector(SIZE));
+    Vector b = randomSparse(random, new RandomAccessSparseVector(SIZE));
+    Vector product = VectorExpression.of(a).times(b).materialize();
+    assertTrue(product instanceof SequentialAccessSparseVector);
+    assertVectorEquals(a.times(b), product);
+    Vector sum = VectorExpression.of(b).plus(a).times(2.0).materialize();
+    assertTrue(sum instanceof RandomAccessSparseVector);
+    assertVectorEquals(b.plus(a).times(2.0), sum);
+    assertTrue(VectorExpression.of(a).plus(1.0).materialize().isDense());
+  }
+
+  @Test
+  public void testAssignToOperand() {
+    Random random = RandomUtils.getRandom();
+    for (Vector w : vectorsOfEachKind(random)) {
+      for (Vector gradient : vectorsOfEachKind(random)) {
+        Vector expected = w.plus(gradient.times(-0.1));
+        assertVectorEquals(expected, VectorExpression.of(w).plusTimes(gradient, -0.1).assignTo(w));
+        expected = w.times(gradient);
+        assertVectorEquals(expected, VectorExpression.of(w).times(gradient).assignTo(w));
+      }
+    }
+  }
+
+  @Test
+  public void testAssignToOther() {
+    Random random = RandomUtils.getRandom();
+    for (Vector target : vectorsOfEachKind(random)) {
+      Vector a = randomSparse(random, new RandomAccessSparseVector(SIZE));
+      Vector b = randomSparse(random, new SequentialAccessSparseVector(SIZE));
+      assertVectorEquals(a.minus(b), VectorExpression.of(a).minus(b).assignTo(target));
+    }
+  }
+
+  @Test
+  public void testReevaluated() {
+    Vector v = new DenseVector(new double[] {1.0, 2.0});
+    VectorExpression twice = VectorExpression.of(v).times(2.0);
+    assertEquals(6.0, twice.zSum(), 0.0);
+    v.set(0, 5.0);
+    assertEquals(14.0, twice.zSum(), 0.0);
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testCardinality() {
+    VectorExpression.of(new DenseVector(3)).plus(new DenseVector(4));
+  }
+
+  private static Vector[] vectorsOfEachKind(Random random) {
+    Vector dense = new DenseVector(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      dense.setQuick(i, random.nextGaussian());
+    }
+    return new Vector[] {dense, randomSparse(random, new RandomAccessSparseVector(SIZE)),
+        randomSparse(random, new SequentialAccessSparseVector(SIZE))};
+  }
+
+  private static Vector randomSparse(Random random, Vector v) {
+    for (int i = 0; i < 20; i++) {
+      v.setQuick(random.nextInt(SIZE), random.nextGaussian());
+    }
+    return v;
+  }
+
+  private static void assertVectorEquals(Vector expected, Vector actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(0.0, expected.getDistanceSquared(actual), EPSILON);
+  }
+
+}